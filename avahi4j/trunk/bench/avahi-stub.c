@@ -0,0 +1,228 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+
+/*
+ * This is a stand-in for libavahi-client used by the backend benchmarks. It
+ * does not talk to the avahi daemon: the client is immediately running and
+ * every service browser emits AVAHI_STUB_EVENTS (default 100000) NEW events
+ * followed by ALL_FOR_NOW from the poll loop thread. Service resolvers
+ * resolve immediately to 127.0.0.1.
+ * The stub links against the real libavahi-client so the remaining symbols
+ * resolve, but entry groups and record browsers can not be used with a stub
+ * client.
+ *
+ * JNI backend: LD_PRELOAD=./libavahi-stub.so
+ * FFM backend: -Davahi4j.ffm.client_lib=./libavahi-stub.so
+ */
+
+#include <stdlib.h>
+#include <stdio.h>
+#include <string.h>
+#include <arpa/inet.h>
+#include <avahi-client/client.h>
+#include <avahi-client/lookup.h>
+#include <avahi-common/watch.h>
+#include <avahi-common/strlst.h>
+#include <avahi-common/error.h>
+
+#define STUB_NAME_MAX	32
+
+/* an absolute time in the past, so timeouts fire on the next loop iteration */
+static const struct timeval now = { 0, 0 };
+
+struct AvahiClient {
+	const AvahiPoll *poll;
+	int error;
+};
+
+struct AvahiServiceBrowser {
+	AvahiClient *client;
+	AvahiTimeout *timeout;
+	AvahiIfIndex interface;
+	AvahiProtocol protocol;
+	char *type;
+	AvahiServiceBrowserCallback callback;
+	void *userdata;
+};
+
+struct AvahiServiceResolver {
+	AvahiClient *client;
+	AvahiTimeout *timeout;
+	AvahiIfIndex interface;
+	AvahiProtocol protocol;
+	char *name;
+	char *type;
+	AvahiServiceResolverCallback callback;
+	void *userdata;
+};
+
+static int event_count(void) {
+	const char *s = getenv("AVAHI_STUB_EVENTS");
+	int n = s ? atoi(s) : 0;
+	return n > 0 ? n : 100000;
+}
+
+/*
+ * C L I E N T
+ */
+AvahiClient *avahi_client_new(const AvahiPoll *poll_api, AvahiClientFlags flags,
+		AvahiClientCallback callback, void *userdata, int *error) {
+	AvahiClient *c = calloc(1, sizeof(AvahiClient));
+	if (!c) {
+		if (error)
+			*error = AVAHI_ERR_NO_MEMORY;
+		return NULL;
+	}
+	c->poll = poll_api;
+	if (callback)
+		callback(c, AVAHI_CLIENT_S_RUNNING, userdata);
+	return c;
+}
+
+void avahi_client_free(AvahiClient *c) {
+	free(c);
+}
+
+AvahiClientState avahi_client_get_state(AvahiClient *c) {
+	return AVAHI_CLIENT_S_RUNNING;
+}
+
+int avahi_client_errno(AvahiClient *c) {
+	return c->error;
+}
+
+const char *avahi_client_get_host_name(AvahiClient *c) {
+	return "stub";
+}
+
+int avahi_client_set_host_name(AvahiClient *c, const char *name) {
+	return AVAHI_OK;
+}
+
+const char *avahi_client_get_domain_name(AvahiClient *c) {
+	return "local";
+}
+
+const char *avahi_client_get_host_name_fqdn(AvahiClient *c) {
+	return "stub.local";
+}
+
+/*
+ * S E R V I C E   B R O W S E R
+ */
+static void browser_emit(AvahiTimeout *t, void *userdata) {
+	AvahiServiceBrowser *b = userdata;
+	char name[STUB_NAME_MAX];
+	int i, n = event_count();
+
+	b->client->poll->timeout_free(b->timeout);
+	b->timeout = NULL;
+
+	for(i = 0; i < n; i++) {
+		snprintf(name, sizeof(name), "stub-service-%d", i);
+		b->callback(b, b->interface < 0 ? 1 : b->interface,
+				b->protocol < 0 ? AVAHI_PROTO_INET : b->protocol,
+				AVAHI_BROWSER_NEW, name, b->type, "local",
+				AVAHI_LOOKUP_RESULT_LOCAL, b->userdata);
+	}
+	b->callback(b, AVAHI_IF_UNSPEC, AVAHI_PROTO_UNSPEC, AVAHI_BROWSER_ALL_FOR_NOW,
+			NULL, NULL, NULL, 0, b->userdata);
+}
+
+AvahiServiceBrowser *avahi_service_browser_new(AvahiClient *client,
+		AvahiIfIndex interface, AvahiProtocol protocol, const char *type,
+		const char *domain, AvahiLookupFlags flags,
+		AvahiServiceBrowserCallback callback, void *userdata) {
+	AvahiServiceBrowser *b = calloc(1, sizeof(AvahiServiceBrowser));
+	if (!b || !(b->type = strdup(type))) {
+		free(b);
+		client->error = AVAHI_ERR_NO_MEMORY;
+		return NULL;
+	}
+	b->client = client;
+	b->interface = interface;
+	b->protocol = protocol;
+	b->callback = callback;
+	b->userdata = userdata;
+	b->timeout = client->poll->timeout_new(client->poll, &now, browser_emit, b);
+	return b;
+}
+
+int avahi_service_browser_free(AvahiServiceBrowser *b) {
+	if (b->timeout)
+		b->client->poll->timeout_free(b->timeout);
+	free(b->type);
+	free(b);
+	return AVAHI_OK;
+}
+
+/*
+ * S E R V I C E   R E S O L V E R
+ */
+static void resolver_emit(AvahiTimeout *t, void *userdata) {
+	AvahiServiceResolver *r = userdata;
+	AvahiStringList *txt;
+	AvahiAddress address;
+
+	r->client->poll->timeout_free(r->timeout);
+	r->timeout = NULL;
+
+	memset(&address, 0, sizeof(address));
+	address.proto = AVAHI_PROTO_INET;
+	address.data.ipv4.address = htonl(0x7f000001);
+
+	txt = avahi_string_list_add(NULL, "path=/");
+	txt = avahi_string_list_add(txt, "stub=1");
+
+	r->callback(r, r->interface, r->protocol, AVAHI_RESOLVER_FOUND, r->name,
+			r->type, "local", "stub.local", &address, 8080, txt,
+			AVAHI_LOOKUP_RESULT_LOCAL, r->userdata);
+
+	avahi_string_list_free(txt);
+}
+
+AvahiServiceResolver *avahi_service_resolver_new(AvahiClient *client,
+		AvahiIfIndex interface, AvahiProtocol protocol, const char *name,
+		const char *type, const char *domain, AvahiProtocol aprotocol,
+		AvahiLookupFlags flags, AvahiServiceResolverCallback callback,
+		void *userdata) {
+	AvahiServiceResolver *r = calloc(1, sizeof(AvahiServiceResolver));
+	if (!r || !(r->name = strdup(name)) || !(r->type = strdup(type))) {
+		if (r)
+			free(r->name);
+		free(r);
+		client->error = AVAHI_ERR_NO_MEMORY;
+		return NULL;
+	}
+	r->client = client;
+	r->interface = interface < 0 ? 1 : interface;
+	r->protocol = protocol < 0 ? AVAHI_PROTO_INET : protocol;
+	r->callback = callback;
+	r->userdata = userdata;
+	r->timeout = client->poll->timeout_new(client->poll, &now, resolver_emit, r);
+	return r;
+}
+
+int avahi_service_resolver_free(AvahiServiceResolver *r) {
+	if (r->timeout)
+		r->client->poll->timeout_free(r->timeout);
+	free(r->name);
+	free(r->type);
+	free(r);
+	return AVAHI_OK;
+}
@@ -0,0 +1,1284 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j;
+
+import static java.lang.foreign.ValueLayout.ADDRESS;
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+import static java.lang.foreign.ValueLayout.JAVA_SHORT;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SymbolLookup;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import avahi4j.exceptions.Avahi4JException;
+import avahi4j.exceptions.JNIException;
+
+/**
+ * This {@link INativeBackend} binds libavahi-client and libavahi-common 
+ * directly with the Foreign Function &amp; Memory API, so neither the JNI 
+ * library nor a JDK to build it is needed. It requires Java 22 or later and 
+ * is selected by passing <code>-Davahi4j.backend=ffm</code> to the JVM (along 
+ * with <code>--enable-native-access=ALL-UNNAMED</code>). The libraries to bind
+ * can be overridden with the <code>avahi4j.ffm.client_lib</code> and 
+ * <code>avahi4j.ffm.common_lib</code> system properties.<br>
+ * Native objects are kept in a handle table: the <code>long</code> handles 
+ * given to the Java objects, and the userdata pointers given to avahi, are 
+ * indexes into this table. Only 64-bit JVMs are supported. Avahi callbacks are delivered through upcall stubs 
+ * created once per callback type.
+ * @author gilles
+ *
+ */
+final class FFMBackend implements INativeBackend {
+	
+	/*
+	 * avahi constants (see avahi-common/defs.h)
+	 */
+	private static final int AVAHI_PROTO_INET = 0;
+	private static final int AVAHI_PROTO_INET6 = 1;
+	private static final int AVAHI_PROTO_UNSPEC = -1;
+	private static final int AVAHI_LOOKUP_NO_TXT = 4;
+	private static final int AVAHI_LOOKUP_NO_ADDRESS = 8;
+	private static final int AVAHI_ADDRESS_SIZE = 20;
+	private static final int AVAHI_ERR_FAILURE = -1;
+	private static final int AVAHI_ERR_NO_MEMORY = -24;
+	private static final String VERSION = "0.1-ffm";
+	
+	/**
+	 * set while a thread is running an avahi callback, ie is the poll loop 
+	 * thread and already holds the poll loop lock. It is reset to null rather
+	 * than removed, which would allocate a new entry for every callback.
+	 */
+	private static final ThreadLocal<Boolean> inCallback = new ThreadLocal<Boolean>();
+	
+	/**
+	 * the whole address space, to read the strings of the service browser 
+	 * upcall, which are given as addresses (see onServiceBrowserEvent())
+	 */
+	private static final MemorySegment MEMORY = MemorySegment.NULL.reinterpret(Long.MAX_VALUE);
+	
+	/*
+	 * H A N D L E S
+	 */
+	private static abstract class Handle {
+		// set by HandleTable.register()
+		long id;
+	}
+	
+	private static class ClientHandle extends Handle {
+		final Client.Peer owner;
+		MemorySegment poll = MemorySegment.NULL;
+		MemorySegment client = MemorySegment.NULL;
+		long lockAcquired;
+		final long lockWait[] = new long[LatencyHistogram.BUCKETS];
+		final long lockHold[] = new long[LatencyHistogram.BUCKETS];
+		
+		ClientHandle(Client.Peer owner) {
+			this.owner = owner;
+		}
+	}
+	
+	private static class ObjectHandle extends Handle {
+		final Object owner;
+		final ClientHandle client;
+		MemorySegment object = MemorySegment.NULL;
+		// browsers' event filter, see accept()
+		int eventMask = EventFilter.ALL_EVENTS;
+		byte namePrefix[];
+		int recordType = EventFilter.ANY_RECORD_TYPE;
+		
+		ObjectHandle(Object owner, ClientHandle client) {
+			this.owner = owner;
+			this.client = client;
+		}
+	}
+	
+	/**
+	 * A table of handles. The low 32 bits of a handle id are its slot in the
+	 * table, and the high 32 bits count how many times that slot was used, so
+	 * a stale id never matches a newer handle. Lookups, done for every event, 
+	 * neither lock nor box the id.
+	 */
+	private static final class HandleTable {
+		private volatile AtomicReferenceArray<Handle> slots = 
+				new AtomicReferenceArray<Handle>(64);
+		private int uses[] = new int[64];
+		private int free[] = new int[64];
+		private int freeCount;
+		private int used;
+		
+		synchronized long register(Handle h) {
+			int slot;
+			if (freeCount>0)
+				slot = free[--freeCount];
+			else {
+				if (used==slots.length())
+					grow();
+				slot = used++;
+			}
+			
+			h.id = ((long) ++uses[slot] << 32) | slot;
+			slots.set(slot, h);
+			return h.id;
+		}
+		
+		private void grow() {
+			int length = slots.length() * 2;
+			AtomicReferenceArray<Handle> s = new AtomicReferenceArray<Handle>(length);
+			for(int i=0; i<used; i++)
+				s.set(i, slots.get(i));
+			uses = Arrays.copyOf(uses, length);
+			free = Arrays.copyOf(free, length);
+			slots = s;
+		}
+		
+		Handle get(long id) {
+			int slot = (int) id;
+			AtomicReferenceArray<Handle> s = slots;
+			if (slot<0 || slot>=s.length())
+				return null;
+			Handle h = s.get(slot);
+			return (h!=null && h.id==id) ? h : null;
+		}
+		
+		synchronized void remove(long id) {
+			if (get(id)==null)
+				return;
+			slots.set((int) id, null);
+			free[freeCount++] = (int) id;
+		}
+	}
+	
+	private final HandleTable handles = new HandleTable();
+	
+	
+	/*
+	 * D O W N C A L L S
+	 */
+	private final MethodHandle threadedPollNew, threadedPollFree, threadedPollGet,
+			threadedPollStart, threadedPollStop, threadedPollLock, threadedPollUnlock;
+	private final MethodHandle clientNew, clientFree, clientGetHostName, 
+			clientSetHostName, clientGetDomainName, clientGetFQDN, clientGetState,
+			clientErrno;
+	private final MethodHandle entryGroupNew, entryGroupFree, entryGroupCommit,
+			entryGroupGetState, entryGroupReset, entryGroupIsEmpty,
+			entryGroupAddService, entryGroupAddSubtype, entryGroupUpdateTxt;
+	private final MethodHandle serviceBrowserNew, serviceBrowserFree,
+			serviceTypeBrowserNew, serviceTypeBrowserFree, domainBrowserNew,
+			domainBrowserFree,
+			serviceResolverNew, serviceResolverFree, hostNameResolverNew,
+			hostNameResolverFree, addressResolverNew, addressResolverFree,
+			recordBrowserNew, recordBrowserFree;
+	private final MethodHandle strerror, alternativeServiceName, avahiFree,
+			stringListAdd, stringListFree, stringListGetNext, stringListGetText,
+			stringListGetSize;
+	
+	/*
+	 * U P C A L L   S T U B S
+	 */
+	private final MemorySegment clientCallback, groupCallback, 
+			serviceBrowserCallback, serviceTypeBrowserCallback, domainBrowserCallback,
+			serviceResolverCallback, hostNameResolverCallback,
+			addressResolverCallback, recordBrowserCallback;
+	
+	
+	/*
+	 * M E T H O D S
+	 */
+	FFMBackend() throws Exception {
+		// handle ids and the service browser upcall's pointers are 64-bit longs
+		if (ADDRESS.byteSize()!=8)
+			throw new UnsupportedOperationException("The Avahi4J FFM backend "
+					+ "requires a 64-bit JVM");
+		
+		Linker linker = Linker.nativeLinker();
+		Arena arena = Arena.global();
+		SymbolLookup lookup = SymbolLookup.libraryLookup(
+				System.getProperty("avahi4j.ffm.client_lib", "libavahi-client.so.3"), arena)
+				.or(SymbolLookup.libraryLookup(
+				System.getProperty("avahi4j.ffm.common_lib", "libavahi-common.so.3"), arena));
+		
+		threadedPollNew = downcall(linker, lookup, "avahi_threaded_poll_new", FunctionDescriptor.of(ADDRESS));
+		threadedPollFree = downcall(linker, lookup, "avahi_threaded_poll_free", FunctionDescriptor.ofVoid(ADDRESS));
+		threadedPollGet = downcall(linker, lookup, "avahi_threaded_poll_get", FunctionDescriptor.of(ADDRESS, ADDRESS));
+		threadedPollStart = downcall(linker, lookup, "avahi_threaded_poll_start", FunctionDescriptor.of(JAVA_INT, ADDRESS));
+		threadedPollStop = downcall(linker, lookup, "avahi_threaded_poll_stop", FunctionDescriptor.of(JAVA_INT, ADDRESS));
+		threadedPollLock = downcall(linker, lookup, "avahi_threaded_poll_lock", FunctionDescriptor.ofVoid(ADDRESS));
+		threadedPollUnlock = downcall(linker, lookup, "avahi_threaded_poll_unlock", FunctionDescriptor.ofVoid(ADDRESS));
+		
+		clientNew = downcall(linker, lookup, "avahi_client_new", 
+				FunctionDescriptor.of(ADDRESS, ADDRESS, JAVA_INT, ADDRESS, ADDRESS, ADDRESS));
+		clientFree = downcall(linker, lookup, "avahi_client_free", FunctionDescriptor.ofVoid(ADDRESS));
+		clientGetHostName = downcall(linker, lookup, "avahi_client_get_host_name", FunctionDescriptor.of(ADDRESS, ADDRESS));
+		clientSetHostName = downcall(linker, lookup, "avahi_client_set_host_name", FunctionDescriptor.of(JAVA_INT, ADDRESS, ADDRESS));
+		clientGetDomainName = downcall(linker, lookup, "avahi_client_get_domain_name", FunctionDescriptor.of(ADDRESS, ADDRESS));
+		clientGetFQDN = downcall(linker, lookup, "avahi_client_get_host_name_fqdn", FunctionDescriptor.of(ADDRESS, ADDRESS));
+		clientGetState = downcall(linker, lookup, "avahi_client_get_state", FunctionDescriptor.of(JAVA_INT, ADDRESS));
+		clientErrno = downcall(linker, lookup, "avahi_client_errno", FunctionDescriptor.of(JAVA_INT, ADDRESS));
+		
+		entryGroupNew = downcall(linker, lookup, "avahi_entry_group_new", FunctionDescriptor.of(ADDRESS, ADDRESS, ADDRESS, ADDRESS));
+		entryGroupFree = downcall(linker, lookup, "avahi_entry_group_free", FunctionDescriptor.of(JAVA_INT, ADDRESS));
+		entryGroupCommit = downcall(linker, lookup, "avahi_entry_group_commit", FunctionDescriptor.of(JAVA_INT, ADDRESS));
+		entryGroupGetState = downcall(linker, lookup, "avahi_entry_group_get_state", FunctionDescriptor.of(JAVA_INT, ADDRESS));
+		entryGroupReset = downcall(linker, lookup, "avahi_entry_group_reset", FunctionDescriptor.of(JAVA_INT, ADDRESS));
+		entryGroupIsEmpty = downcall(linker, lookup, "avahi_entry_group_is_empty", FunctionDescriptor.of(JAVA_INT, ADDRESS));
+		entryGroupAddService = downcall(linker, lookup, "avahi_entry_group_add_service_strlst",
+				FunctionDescriptor.of(JAVA_INT, ADDRESS, JAVA_INT, JAVA_INT, JAVA_INT,
+						ADDRESS, ADDRESS, ADDRESS, ADDRESS, JAVA_SHORT, ADDRESS));
+		entryGroupAddSubtype = downcall(linker, lookup, "avahi_entry_group_add_service_subtype",
+				FunctionDescriptor.of(JAVA_INT, ADDRESS, JAVA_INT, JAVA_INT, JAVA_INT,
+						ADDRESS, ADDRESS, ADDRESS, ADDRESS));
+		entryGroupUpdateTxt = downcall(linker, lookup, "avahi_entry_group_update_service_txt_strlst",
+				FunctionDescriptor.of(JAVA_INT, ADDRESS, JAVA_INT, JAVA_INT, JAVA_INT,
+						ADDRESS, ADDRESS, ADDRESS, ADDRESS));
+		
+		serviceBrowserNew = downcall(linker, lookup, "avahi_service_browser_new",
+				FunctionDescriptor.of(ADDRESS, ADDRESS, JAVA_INT, JAVA_INT, ADDRESS,
+						ADDRESS, JAVA_INT, ADDRESS, ADDRESS));
+		serviceBrowserFree = downcall(linker, lookup, "avahi_service_browser_free", FunctionDescriptor.of(JAVA_INT, ADDRESS));
+		serviceTypeBrowserNew = downcall(linker, lookup, "avahi_service_type_browser_new",
+				FunctionDescriptor.of(ADDRESS, ADDRESS, JAVA_INT, JAVA_INT, ADDRESS,
+						JAVA_INT, ADDRESS, ADDRESS));
+		serviceTypeBrowserFree = downcall(linker, lookup, "avahi_service_type_browser_free", FunctionDescriptor.of(JAVA_INT, ADDRESS));
+		domainBrowserNew = downcall(linker, lookup, "avahi_domain_browser_new",
+				FunctionDescriptor.of(ADDRESS, ADDRESS, JAVA_INT, JAVA_INT, ADDRESS,
+						JAVA_INT, JAVA_INT, ADDRESS, ADDRESS));
+		domainBrowserFree = downcall(linker, lookup, "avahi_domain_browser_free", FunctionDescriptor.of(JAVA_INT, ADDRESS));
+		serviceResolverNew = downcall(linker, lookup, "avahi_service_resolver_new",
+				FunctionDescriptor.of(ADDRESS, ADDRESS, JAVA_INT, JAVA_INT, ADDRESS,
+						ADDRESS, ADDRESS, JAVA_INT, JAVA_INT, ADDRESS, ADDRESS));
+		serviceResolverFree = downcall(linker, lookup, "avahi_service_resolver_free", FunctionDescriptor.of(JAVA_INT, ADDRESS));
+		hostNameResolverNew = downcall(linker, lookup, "avahi_host_name_resolver_new",
+				FunctionDescriptor.of(ADDRESS, ADDRESS, JAVA_INT, JAVA_INT, ADDRESS,
+						JAVA_INT, JAVA_INT, ADDRESS, ADDRESS));
+		hostNameResolverFree = downcall(linker, lookup, "avahi_host_name_resolver_free", FunctionDescriptor.of(JAVA_INT, ADDRESS));
+		addressResolverNew = downcall(linker, lookup, "avahi_address_resolver_new",
+				FunctionDescriptor.of(ADDRESS, ADDRESS, JAVA_INT, JAVA_INT, ADDRESS,
+						JAVA_INT, ADDRESS, ADDRESS));
+		addressResolverFree = downcall(linker, lookup, "avahi_address_resolver_free", FunctionDescriptor.of(JAVA_INT, ADDRESS));
+		recordBrowserNew = downcall(linker, lookup, "avahi_record_browser_new",
+				FunctionDescriptor.of(ADDRESS, ADDRESS, JAVA_INT, JAVA_INT, ADDRESS,
+						JAVA_SHORT, JAVA_SHORT, JAVA_INT, ADDRESS, ADDRESS));
+		recordBrowserFree = downcall(linker, lookup, "avahi_record_browser_free", FunctionDescriptor.of(JAVA_INT, ADDRESS));
+		
+		strerror = downcall(linker, lookup, "avahi_strerror", FunctionDescriptor.of(ADDRESS, JAVA_INT));
+		alternativeServiceName = downcall(linker, lookup, "avahi_alternative_service_name", FunctionDescriptor.of(ADDRESS, ADDRESS));
+		avahiFree = downcall(linker, lookup, "avahi_free", FunctionDescriptor.ofVoid(ADDRESS));
+		stringListAdd = downcall(linker, lookup, "avahi_string_list_add", FunctionDescriptor.of(ADDRESS, ADDRESS, ADDRESS));
+		stringListFree = downcall(linker, lookup, "avahi_string_list_free", FunctionDescriptor.ofVoid(ADDRESS));
+		stringListGetNext = downcall(linker, lookup, "avahi_string_list_get_next", FunctionDescriptor.of(ADDRESS, ADDRESS));
+		stringListGetText = downcall(linker, lookup, "avahi_string_list_get_text", FunctionDescriptor.of(ADDRESS, ADDRESS));
+		stringListGetSize = downcall(linker, lookup, "avahi_string_list_get_size", FunctionDescriptor.of(JAVA_LONG, ADDRESS));
+		
+		MethodHandles.Lookup self = MethodHandles.lookup();
+		clientCallback = upcall(linker, arena, self, "onClientEvent",
+				MethodType.methodType(void.class, MemorySegment.class, int.class, MemorySegment.class),
+				FunctionDescriptor.ofVoid(ADDRESS, JAVA_INT, ADDRESS));
+		groupCallback = upcall(linker, arena, self, "onGroupEvent",
+				MethodType.methodType(void.class, MemorySegment.class, int.class, MemorySegment.class),
+				FunctionDescriptor.ofVoid(ADDRESS, JAVA_INT, ADDRESS));
+		// pointers are passed as longs (the same thing on the 64-bit ABIs 
+		// checked above), as the MemorySegments created for them would be 
+		// allocated for every event
+		serviceBrowserCallback = upcall(linker, arena, self, "onServiceBrowserEvent",
+				MethodType.methodType(void.class, long.class, int.class, int.class,
+						int.class, long.class, long.class, long.class, int.class, 
+						long.class),
+				FunctionDescriptor.ofVoid(JAVA_LONG, JAVA_INT, JAVA_INT, JAVA_INT, 
+						JAVA_LONG, JAVA_LONG, JAVA_LONG, JAVA_INT, JAVA_LONG));
+		serviceTypeBrowserCallback = upcall(linker, arena, self, "onServiceTypeBrowserEvent",
+				MethodType.methodType(void.class, MemorySegment.class, int.class, int.class,
+						int.class, MemorySegment.class, MemorySegment.class, int.class, 
+						MemorySegment.class),
+				FunctionDescriptor.ofVoid(ADDRESS, JAVA_INT, JAVA_INT, JAVA_INT, ADDRESS,
+						ADDRESS, JAVA_INT, ADDRESS));
+		domainBrowserCallback = upcall(linker, arena, self, "onDomainBrowserEvent",
+				MethodType.methodType(void.class, MemorySegment.class, int.class, int.class,
+						int.class, MemorySegment.class, int.class, MemorySegment.class),
+				FunctionDescriptor.ofVoid(ADDRESS, JAVA_INT, JAVA_INT, JAVA_INT, ADDRESS,
+						JAVA_INT, ADDRESS));
+		serviceResolverCallback = upcall(linker, arena, self, "onServiceResolverEvent",
+				MethodType.methodType(void.class, MemorySegment.class, int.class, int.class,
+						int.class, MemorySegment.class, MemorySegment.class, MemorySegment.class,
+						MemorySegment.class, MemorySegment.class, short.class, 
+						MemorySegment.class, int.class, MemorySegment.class),
+				FunctionDescriptor.ofVoid(ADDRESS, JAVA_INT, JAVA_INT, JAVA_INT, ADDRESS,
+						ADDRESS, ADDRESS, ADDRESS, ADDRESS, JAVA_SHORT, ADDRESS, JAVA_INT,
+						ADDRESS));
+		hostNameResolverCallback = upcall(linker, arena, self, "onHostNameResolverEvent",
+				MethodType.methodType(void.class, MemorySegment.class, int.class, int.class,
+						int.class, MemorySegment.class, MemorySegment.class, int.class,
+						MemorySegment.class),
+				FunctionDescriptor.ofVoid(ADDRESS, JAVA_INT, JAVA_INT, JAVA_INT, ADDRESS,
+						ADDRESS, JAVA_INT, ADDRESS));
+		addressResolverCallback = upcall(linker, arena, self, "onAddressResolverEvent",
+				MethodType.methodType(void.class, MemorySegment.class, int.class, int.class,
+						int.class, MemorySegment.class, MemorySegment.class, int.class,
+						MemorySegment.class),
+				FunctionDescriptor.ofVoid(ADDRESS, JAVA_INT, JAVA_INT, JAVA_INT, ADDRESS,
+						ADDRESS, JAVA_INT, ADDRESS));
+		recordBrowserCallback = upcall(linker, arena, self, "onRecordBrowserEvent",
+				MethodType.methodType(void.class, MemorySegment.class, int.class, int.class,
+						int.class, MemorySegment.class, short.class, short.class,
+						MemorySegment.class, long.class, int.class, MemorySegment.class),
+				FunctionDescriptor.ofVoid(ADDRESS, JAVA_INT, JAVA_INT, JAVA_INT, ADDRESS,
+						JAVA_SHORT, JAVA_SHORT, ADDRESS, JAVA_LONG, JAVA_INT, ADDRESS));
+	}
+	
+	private static MethodHandle downcall(Linker linker, SymbolLookup lookup, 
+			String name, FunctionDescriptor descriptor) {
+		MemorySegment symbol = lookup.find(name).orElseThrow(() -> 
+				new UnsatisfiedLinkError("Unable to find symbol "+name));
+		return linker.downcallHandle(symbol, descriptor);
+	}
+	
+	private MemorySegment upcall(Linker linker, Arena arena, MethodHandles.Lookup lookup,
+			String name, MethodType type, FunctionDescriptor descriptor) 
+			throws ReflectiveOperationException {
+		MethodHandle target = lookup.findVirtual(FFMBackend.class, name, type).bindTo(this);
+		return linker.upcallStub(target, descriptor, arena);
+	}
+	
+	
+	/*
+	 * H E L P E R S
+	 */
+	private long register(Handle handle) {
+		return handles.register(handle);
+	}
+	
+	private ClientHandle client(long id) {
+		ClientHandle c = (ClientHandle) handles.get(id);
+		if (c==null)
+			throw new JNIException("Invalid client handle "+id);
+		return c;
+	}
+	
+	private ObjectHandle object(long id) {
+		ObjectHandle o = (ObjectHandle) handles.get(id);
+		if (o==null)
+			throw new JNIException("Invalid handle "+id);
+		return o;
+	}
+	
+	/**
+	 * This method acquires the poll loop lock, unless we are on the poll loop
+	 * thread (which already holds it)
+	 */
+	private void lock(ClientHandle c) throws Throwable {
+		if (inCallback.get()!=null)
+			return;
+		long start = System.nanoTime();
+		threadedPollLock.invokeExact(c.poll);
+		c.lockAcquired = System.nanoTime();
+		c.lockWait[LatencyHistogram.bucketIndex(c.lockAcquired - start)]++;
+	}
+	
+	private void unlock(ClientHandle c) throws Throwable {
+		if (inCallback.get()!=null)
+			return;
+		c.lockHold[LatencyHistogram.bucketIndex(System.nanoTime() - c.lockAcquired)]++;
+		threadedPollUnlock.invokeExact(c.poll);
+	}
+	
+	private static MemorySegment cstring(Arena arena, String s) {
+		return s==null ? MemorySegment.NULL : arena.allocateFrom(s);
+	}
+	
+	private static String jstring(MemorySegment s) {
+		return s.equals(MemorySegment.NULL) ? null : s.reinterpret(Long.MAX_VALUE).getString(0);
+	}
+	
+	/**
+	 * @return the length of the C string at the given address, or -1 if it
+	 * is NULL
+	 */
+	private static int strlen(long s) {
+		if (s==0)
+			return -1;
+		int length = 0;
+		while (MEMORY.get(JAVA_BYTE, s + length)!=0)
+			length++;
+		return length;
+	}
+	
+	/**
+	 * This method copies the bytes of the C string at the given address to 
+	 * an array
+	 * @return the offset following the copied bytes
+	 */
+	private static int copy(long s, int length, byte dst[], int offset) {
+		if (length<=0)
+			return offset;
+		MemorySegment.copy(MEMORY, JAVA_BYTE, s, dst, offset, length);
+		return offset + length;
+	}
+	
+	/**
+	 * This method evaluates a browser's event filter in the upcall, before 
+	 * any object is created for the event. The name prefix is compared with
+	 * the UTF-8 name in place.
+	 */
+	private static boolean accept(ObjectHandle o, int event, long name,
+			int type) {
+		if ((o.eventMask & (1 << event))==0)
+			return false;
+		// only NEW and REMOVE events carry a name and a type
+		if (event>1)
+			return true;
+		if (o.recordType!=EventFilter.ANY_RECORD_TYPE && type!=o.recordType)
+			return false;
+		if (o.namePrefix!=null) {
+			if (name==0)
+				return false;
+			// stops at the name's NUL byte, which never matches the prefix
+			for(int i=0; i<o.namePrefix.length; i++)
+				if (lower(MEMORY.get(JAVA_BYTE, name + i))!=lower(o.namePrefix[i]))
+					return false;
+		}
+		return true;
+	}
+	
+	private static byte lower(byte c) {
+		return c>='A' && c<='Z' ? (byte) (c + 'a' - 'A') : c;
+	}
+	
+	private static int toAvahiProto(int proto) {
+		return proto==0 ? AVAHI_PROTO_INET : proto==1 ? AVAHI_PROTO_INET6 : AVAHI_PROTO_UNSPEC;
+	}
+	
+	private static int toJavaProto(int proto) {
+		return proto==AVAHI_PROTO_INET ? 0 : proto==AVAHI_PROTO_INET6 ? 1 : 2;
+	}
+	
+	private static int toAvahiLookupFlags(int flags) {
+		int f = 0;
+		if ((flags & Avahi4JConstants.LOOKUP_NO_TXT)!=0) f |= AVAHI_LOOKUP_NO_TXT;
+		if ((flags & Avahi4JConstants.LOOKUP_NO_ADDRESS)!=0) f |= AVAHI_LOOKUP_NO_ADDRESS;
+		return f;
+	}
+	
+	/**
+	 * This method translates an AvahiClientState to a {@link Client.State} ordinal
+	 */
+	private static int toJavaClientState(int state) {
+		switch(state) {
+		case 1:
+			return 0;
+		case 2:
+			return 1;
+		case 3:
+			return 2;
+		case 101:
+			return 4;
+		default:
+			return 3;
+		}
+	}
+	
+	private MemorySegment toStringList(String records[]) throws Throwable {
+		MemorySegment list = MemorySegment.NULL;
+		try (Arena arena = Arena.ofConfined()) {
+			for(String r: records) {
+				list = (MemorySegment) stringListAdd.invokeExact(list, arena.allocateFrom(r));
+				if (list.equals(MemorySegment.NULL))
+					throw new JNIException("Not enough memory");
+			}
+		}
+		return list;
+	}
+	
+	private static RuntimeException rethrow(Throwable t) {
+		if (t instanceof RuntimeException)
+			return (RuntimeException) t;
+		if (t instanceof Error)
+			throw (Error) t;
+		return new JNIException(t);
+	}
+	
+	
+	/*
+	 * C L I E N T
+	 */
+	@Override
+	public String getVersion() {
+		return VERSION;
+	}
+	
+	@Override
+	public String getErrorString(int error) {
+		try {
+			return jstring((MemorySegment) strerror.invokeExact(error));
+		} catch (Throwable t) {
+			throw rethrow(t);
+		}
+	}
+	
+	@Override
+	public long initClient(Client.Peer owner) throws Avahi4JException {
+		ClientHandle c = new ClientHandle(owner);
+		long id = register(c);
+		
+		try (Arena arena = Arena.ofConfined()) {
+			c.poll = (MemorySegment) threadedPollNew.invokeExact();
+			if (c.poll.equals(MemorySegment.NULL))
+				throw new Avahi4JException("Error creating poll loop");
+			
+			MemorySegment error = arena.allocate(JAVA_INT);
+			MemorySegment api = (MemorySegment) threadedPollGet.invokeExact(c.poll);
+			c.client = (MemorySegment) clientNew.invokeExact(api, 0, clientCallback,
+					MemorySegment.ofAddress(id), error);
+			if (c.client.equals(MemorySegment.NULL)) {
+				threadedPollFree.invokeExact(c.poll);
+				throw new Avahi4JException("Error creating client: "
+						+ getErrorString(error.get(JAVA_INT, 0)));
+			}
+			return id;
+		} catch (Avahi4JException e) {
+			handles.remove(id);
+			throw e;
+		} catch (Throwable t) {
+			handles.remove(id);
+			throw rethrow(t);
+		}
+	}
+	
+	private String getClientString(MethodHandle h, long id) {
+		ClientHandle c = client(id);
+		try {
+			lock(c);
+			try {
+				return jstring((MemorySegment) h.invokeExact(c.client));
+			} finally {
+				unlock(c);
+			}
+		} catch (Throwable t) {
+			throw rethrow(t);
+		}
+	}
+
+	@Override
+	public String getHostName(long client) {
+		return getClientString(clientGetHostName, client);
+	}
+
+	@Override
+	public String getDomainName(long client) {
+		return getClientString(clientGetDomainName, client);
+	}
+
+	@Override
+	public String getFQDN(long client) {
+		return getClientString(clientGetFQDN, client);
+	}
+
+	@Override
+	public int setHostName(long client, String name) {
+		ClientHandle c = client(client);
+		try (Arena arena = Arena.ofConfined()) {
+			lock(c);
+			try {
+				return (int) clientSetHostName.invokeExact(c.client, cstring(arena, name));
+			} finally {
+				unlock(c);
+			}
+		} catch (Throwable t) {
+			throw rethrow(t);
+		}
+	}
+
+	@Override
+	public int getState(long client) {
+		ClientHandle c = client(client);
+		try {
+			lock(c);
+			try {
+				return toJavaClientState((int) clientGetState.invokeExact(c.client));
+			} finally {
+				unlock(c);
+			}
+		} catch (Throwable t) {
+			throw rethrow(t);
+		}
+	}
+
+	@Override
+	public int getLastError(long client) {
+		ClientHandle c = client(client);
+		try {
+			lock(c);
+			try {
+				return (int) clientErrno.invokeExact(c.client);
+			} finally {
+				unlock(c);
+			}
+		} catch (Throwable t) {
+			throw rethrow(t);
+		}
+	}
+
+	@Override
+	public int startLoop(long client) {
+		try {
+			return (int) threadedPollStart.invokeExact(client(client).poll);
+		} catch (Throwable t) {
+			throw rethrow(t);
+		}
+	}
+
+	@Override
+	public int stopLoop(long client) {
+		try {
+			return (int) threadedPollStop.invokeExact(client(client).poll);
+		} catch (Throwable t) {
+			throw rethrow(t);
+		}
+	}
+
+	@Override
+	public void releaseClient(long client) {
+		ClientHandle c = client(client);
+		try {
+			clientFree.invokeExact(c.client);
+			threadedPollFree.invokeExact(c.poll);
+		} catch (Throwable t) {
+			throw rethrow(t);
+		} finally {
+			handles.remove(client);
+		}
+	}
+
+	@Override
+	public void getLockHistograms(long client, long[] wait, long[] hold) {
+		ClientHandle c = client(client);
+		System.arraycopy(c.lockWait, 0, wait, 0, LatencyHistogram.BUCKETS);
+		System.arraycopy(c.lockHold, 0, hold, 0, LatencyHistogram.BUCKETS);
+	}
+
+	@Override
+	public void resetLockHistograms(long client) {
+		ClientHandle c = client(client);
+		Arrays.fill(c.lockWait, 0);
+		Arrays.fill(c.lockHold, 0);
+	}
+	
+	
+	/*
+	 * E N T R Y   G R O U P
+	 */
+	@Override
+	public long initGroup(EntryGroup.Peer group, long client) throws Avahi4JException {
+		ClientHandle c = client(client);
+		ObjectHandle g = new ObjectHandle(group, c);
+		long id = register(g);
+		
+		try {
+			lock(c);
+			try {
+				g.object = (MemorySegment) entryGroupNew.invokeExact(c.client,
+						groupCallback, MemorySegment.ofAddress(id));
+			} finally {
+				unlock(c);
+			}
+		} catch (Throwable t) {
+			handles.remove(id);
+			throw rethrow(t);
+		}
+		
+		if (g.object.equals(MemorySegment.NULL)) {
+			handles.remove(id);
+			throw new JNIException("Error creating avahi group");
+		}
+		return id;
+	}
+	
+	private int groupCall(MethodHandle h, long id) {
+		ObjectHandle g = object(id);
+		try {
+			lock(g.client);
+			try {
+				return (int) h.invokeExact(g.object);
+			} finally {
+				unlock(g.client);
+			}
+		} catch (Throwable t) {
+			throw rethrow(t);
+		}
+	}
+
+	@Override
+	public int releaseGroup(long group) {
+		try {
+			return groupCall(entryGroupFree, group);
+		} finally {
+			handles.remove(group);
+		}
+	}
+
+	@Override
+	public int commitGroup(long group) {
+		return groupCall(entryGroupCommit, group);
+	}
+
+	@Override
+	public int getGroupState(long group) {
+		int state = groupCall(entryGroupGetState, group);
+		return (state<0 || state>4) ? 4 : state;
+	}
+
+	@Override
+	public int resetGroup(long group) {
+		return groupCall(entryGroupReset, group);
+	}
+
+	@Override
+	public int isGroupEmpty(long group) {
+		return groupCall(entryGroupIsEmpty, group);
+	}
+
+	@Override
+	public int addService(long group, int interfaceNum, int proto, String name,
+			String type, String domain, String host, int port, String[] txtRecord) {
+		ObjectHandle g = object(group);
+		MemorySegment list = MemorySegment.NULL;
+		try (Arena arena = Arena.ofConfined()) {
+			list = toStringList(txtRecord);
+			lock(g.client);
+			try {
+				return (int) entryGroupAddService.invokeExact(g.object, interfaceNum,
+						toAvahiProto(proto), 0, cstring(arena, name), cstring(arena, type),
+						cstring(arena, domain), cstring(arena, host), (short) port, list);
+			} finally {
+				unlock(g.client);
+			}
+		} catch (Throwable t) {
+			throw rethrow(t);
+		} finally {
+			freeStringList(list);
+		}
+	}
+
+	@Override
+	public int addServiceSubtype(long group, int interfaceNum, int proto,
+			String name, String type, String domain, String subtype) {
+		ObjectHandle g = object(group);
+		try (Arena arena = Arena.ofConfined()) {
+			lock(g.client);
+			try {
+				return (int) entryGroupAddSubtype.invokeExact(g.object, interfaceNum,
+						toAvahiProto(proto), 0, cstring(arena, name), cstring(arena, type),
+						cstring(arena, domain), cstring(arena, subtype));
+			} finally {
+				unlock(g.client);
+			}
+		} catch (Throwable t) {
+			throw rethrow(t);
+		}
+	}
+
+	@Override
+	public int updateServiceTxt(long group, int interfaceNum, int proto,
+			String name, String type, String domain, String[] txtRecord) {
+		ObjectHandle g = object(group);
+		MemorySegment list = MemorySegment.NULL;
+		try (Arena arena = Arena.ofConfined()) {
+			list = toStringList(txtRecord);
+			lock(g.client);
+			try {
+				return (int) entryGroupUpdateTxt.invokeExact(g.object, interfaceNum,
+						toAvahiProto(proto), 0, cstring(arena, name), cstring(arena, type),
+						cstring(arena, domain), list);
+			} finally {
+				unlock(g.client);
+			}
+		} catch (Throwable t) {
+			throw rethrow(t);
+		} finally {
+			freeStringList(list);
+		}
+	}
+	
+	private void freeStringList(MemorySegment list) {
+		try {
+			stringListFree.invokeExact(list);
+		} catch (Throwable t) {
+			throw rethrow(t);
+		}
+	}
+
+	@Override
+	public String findAlternativeServiceName(String name) {
+		try (Arena arena = Arena.ofConfined()) {
+			MemorySegment alt = (MemorySegment) alternativeServiceName.invokeExact(
+					cstring(arena, name));
+			String result = jstring(alt);
+			avahiFree.invokeExact(alt);
+			return result;
+		} catch (Throwable t) {
+			throw rethrow(t);
+		}
+	}
+	
+	
+	/*
+	 * B R O W S E R S   &   R E S O L V E R S
+	 */
+	/**
+	 * This method registers a new handle for a browser or resolver, creates
+	 * the avahi object with the given factory and undoes the registration if
+	 * creation fails.
+	 */
+	private interface Factory {
+		MemorySegment create(Arena arena, MemorySegment client, MemorySegment userdata)
+				throws Throwable;
+	}
+	
+	private long create(Object owner, long client, String what, Factory factory) 
+			throws Avahi4JException {
+		return create(new ObjectHandle(owner, client(client)), what, factory);
+	}
+	
+	private long create(ObjectHandle o, String what, Factory factory) 
+			throws Avahi4JException {
+		ClientHandle c = o.client;
+		long id = register(o);
+		int error = AVAHI_ERR_FAILURE;
+		
+		try (Arena arena = Arena.ofConfined()) {
+			lock(c);
+			try {
+				o.object = factory.create(arena, c.client, MemorySegment.ofAddress(id));
+				if (o.object.equals(MemorySegment.NULL))
+					error = (int) clientErrno.invokeExact(c.client);
+			} finally {
+				unlock(c);
+			}
+		} catch (Throwable t) {
+			handles.remove(id);
+			throw rethrow(t);
+		}
+		
+		if (o.object.equals(MemorySegment.NULL)) {
+			handles.remove(id);
+			if (error==AVAHI_ERR_NO_MEMORY)
+				throw new JNIException("Not enough memory");
+			throw new Avahi4JException("Error creating avahi "+what+": "
+					+ getErrorString(error));
+		}
+		return id;
+	}
+	
+	private int release(MethodHandle free, long id) {
+		ObjectHandle o = object(id);
+		try {
+			lock(o.client);
+			try {
+				return (int) free.invokeExact(o.object);
+			} finally {
+				unlock(o.client);
+			}
+		} catch (Throwable t) {
+			throw rethrow(t);
+		} finally {
+			handles.remove(id);
+		}
+	}
+
+	@Override
+	public long initServiceBrowser(ServiceBrowser.Peer browser, long client,
+			final int interfaceNum, final int proto, final String type, 
+			final String domain, final int lookupFlags, int eventMask, 
+			String namePrefix) throws Avahi4JException {
+		ObjectHandle o = new ObjectHandle(browser, client(client));
+		o.eventMask = eventMask;
+		if (namePrefix!=null)
+			o.namePrefix = namePrefix.getBytes(StandardCharsets.UTF_8);
+		return create(o, "service browser", (arena, c, userdata) ->
+				(MemorySegment) serviceBrowserNew.invokeExact(c, interfaceNum,
+						toAvahiProto(proto), cstring(arena, type), cstring(arena, domain),
+						toAvahiLookupFlags(lookupFlags), serviceBrowserCallback, userdata));
+	}
+
+	@Override
+	public int releaseServiceBrowser(long browser) {
+		return release(serviceBrowserFree, browser);
+	}
+
+	@Override
+	public long initServiceTypeBrowser(ServiceTypeBrowser.Peer browser, long client,
+			final int interfaceNum, final int proto, final String domain,
+			final int lookupFlags) throws Avahi4JException {
+		return create(browser, client, "service type browser", (arena, c, userdata) ->
+				(MemorySegment) serviceTypeBrowserNew.invokeExact(c, interfaceNum,
+						toAvahiProto(proto), cstring(arena, domain),
+						toAvahiLookupFlags(lookupFlags), serviceTypeBrowserCallback, 
+						userdata));
+	}
+
+	@Override
+	public int releaseServiceTypeBrowser(long browser) {
+		return release(serviceTypeBrowserFree, browser);
+	}
+
+	@Override
+	public long initDomainBrowser(DomainBrowser.Peer browser, long client,
+			final int interfaceNum, final int proto, final String domain, 
+			final int type, final int lookupFlags) throws Avahi4JException {
+		// DomainBrowserType's constants are in the same order as avahi's
+		return create(browser, client, "domain browser", (arena, c, userdata) ->
+				(MemorySegment) domainBrowserNew.invokeExact(c, interfaceNum,
+						toAvahiProto(proto), cstring(arena, domain), type,
+						toAvahiLookupFlags(lookupFlags), domainBrowserCallback, userdata));
+	}
+
+	@Override
+	public int releaseDomainBrowser(long browser) {
+		return release(domainBrowserFree, browser);
+	}
+
+	@Override
+	public long initServiceResolver(ServiceResolver.Peer resolver, long client,
+			final int interfaceNum, final int proto, final String name, 
+			final String type, final String domain, final int addressProtocol, 
+			final int lookupFlags) throws Avahi4JException {
+		return create(resolver, client, "resolver", (arena, c, userdata) ->
+				(MemorySegment) serviceResolverNew.invokeExact(c, interfaceNum,
+						toAvahiProto(proto), cstring(arena, name), cstring(arena, type),
+						cstring(arena, domain), toAvahiProto(addressProtocol),
+						toAvahiLookupFlags(lookupFlags), serviceResolverCallback, userdata));
+	}
+
+	@Override
+	public int releaseServiceResolver(long resolver) {
+		return release(serviceResolverFree, resolver);
+	}
+
+	@Override
+	public long initHostNameResolver(HostNameResolver.Peer resolver, long client,
+			final int interfaceNum, final int proto, final String name,
+			final int addressProtocol, final int lookupFlags) 
+			throws Avahi4JException {
+		return create(resolver, client, "host name resolver", (arena, c, userdata) ->
+				(MemorySegment) hostNameResolverNew.invokeExact(c, interfaceNum,
+						toAvahiProto(proto), cstring(arena, name), 
+						toAvahiProto(addressProtocol), toAvahiLookupFlags(lookupFlags),
+						hostNameResolverCallback, userdata));
+	}
+
+	@Override
+	public int releaseHostNameResolver(long resolver) {
+		return release(hostNameResolverFree, resolver);
+	}
+
+	@Override
+	public long initAddressResolver(AddressResolver.Peer resolver, long client,
+			final int interfaceNum, final int proto, final byte[] address,
+			final int lookupFlags) throws Avahi4JException {
+		return create(resolver, client, "address resolver", (arena, c, userdata) -> {
+			MemorySegment a = arena.allocate(AVAHI_ADDRESS_SIZE);
+			a.set(JAVA_INT, 0, address.length==4 ? AVAHI_PROTO_INET : AVAHI_PROTO_INET6);
+			MemorySegment.copy(address, 0, a, JAVA_BYTE, 4, address.length);
+			return (MemorySegment) addressResolverNew.invokeExact(c, interfaceNum,
+					toAvahiProto(proto), a, toAvahiLookupFlags(lookupFlags),
+					addressResolverCallback, userdata);
+		});
+	}
+
+	@Override
+	public int releaseAddressResolver(long resolver) {
+		return release(addressResolverFree, resolver);
+	}
+
+	@Override
+	public long initRecordBrowser(RecordBrowser.Peer browser, long client,
+			final int interfaceNum, final int proto, final String name, 
+			final int clazz, final int type, final int lookupFlags, int eventMask,
+			int recordType) throws Avahi4JException {
+		ObjectHandle o = new ObjectHandle(browser, client(client));
+		o.eventMask = eventMask;
+		o.recordType = recordType;
+		return create(o, "record browser", (arena, c, userdata) ->
+				(MemorySegment) recordBrowserNew.invokeExact(c, interfaceNum,
+						toAvahiProto(proto), cstring(arena, name), 
+						(short) clazz, (short) type,
+						toAvahiLookupFlags(lookupFlags), recordBrowserCallback, userdata));
+	}
+
+	@Override
+	public int releaseRecordBrowser(long browser) {
+		return release(recordBrowserFree, browser);
+	}
+	
+	
+	/*
+	 * U P C A L L S
+	 *
+	 * These methods are called by avahi on the poll loop thread. They must not
+	 * let any exception escape, as that would crash the JVM.
+	 */
+	private Object owner(MemorySegment userdata) {
+		Handle h = handles.get(userdata.address());
+		if (h instanceof ClientHandle)
+			return ((ClientHandle) h).owner;
+		if (h instanceof ObjectHandle)
+			return ((ObjectHandle) h).owner;
+		return null;
+	}
+	
+	@SuppressWarnings("unused")
+	private void onClientEvent(MemorySegment c, int state, MemorySegment userdata) {
+		long timestamp = System.nanoTime();
+		inCallback.set(Boolean.TRUE);
+		try {
+			Client.Peer client = (Client.Peer) owner(userdata);
+			if (client!=null)
+				client.dispatchCallback(toJavaClientState(state), 0, timestamp);
+		} catch (Throwable t) {
+			t.printStackTrace();
+		} finally {
+			inCallback.set(null);
+		}
+	}
+	
+	@SuppressWarnings("unused")
+	private void onGroupEvent(MemorySegment g, int state, MemorySegment userdata) {
+		long timestamp = System.nanoTime();
+		inCallback.set(Boolean.TRUE);
+		try {
+			EntryGroup.Peer group = (EntryGroup.Peer) owner(userdata);
+			if (group!=null)
+				group.dispatchCallback((state<0 || state>4) ? 4 : state, 0, timestamp);
+		} catch (Throwable t) {
+			t.printStackTrace();
+		} finally {
+			inCallback.set(null);
+		}
+	}
+	
+	@SuppressWarnings("unused")
+	private void onServiceBrowserEvent(long b, int interfaceNum, int proto,
+			int event, long name, long type, long domain, int flags, long userdata) {
+		long timestamp = System.nanoTime();
+		inCallback.set(Boolean.TRUE);
+		try {
+			ObjectHandle o = (ObjectHandle) handles.get(userdata);
+			if (o==null || !accept(o, (event<0 || event>=4) ? 4 : event, name, -1))
+				return;
+			ServiceBrowser.Peer browser = (ServiceBrowser.Peer) o.owner;
+			if (event<0 || event>=4) {
+				browser.browserEvent(0, 0, 4, -1, -1, -1, 0, 0, timestamp);
+				return;
+			}
+			
+			// copy the names to the browser's buffer instead of creating Strings
+			int nameLength = strlen(name);
+			int typeLength = strlen(type);
+			int domainLength = strlen(domain);
+			int length = Math.max(nameLength, 0) + Math.max(typeLength, 0) 
+					+ Math.max(domainLength, 0);
+			byte names[] = browser.names.length<length ? 
+					browser.growNames(length) : browser.names;
+			int offset = copy(name, nameLength, names, 0);
+			offset = copy(type, typeLength, names, offset);
+			copy(domain, domainLength, names, offset);
+			browser.browserEvent(interfaceNum, toJavaProto(proto), event, 
+					nameLength, typeLength, domainLength, flags, 0, timestamp);
+		} catch (Throwable t) {
+			t.printStackTrace();
+		} finally {
+			inCallback.set(null);
+		}
+	}
+	
+	@SuppressWarnings("unused")
+	private void onServiceTypeBrowserEvent(MemorySegment b, int interfaceNum, 
+			int proto, int event, MemorySegment type, MemorySegment domain, 
+			int flags, MemorySegment userdata) {
+		long timestamp = System.nanoTime();
+		inCallback.set(Boolean.TRUE);
+		try {
+			ServiceTypeBrowser.Peer browser = (ServiceTypeBrowser.Peer) owner(userdata);
+			if (browser==null)
+				return;
+			if (event<0 || event>=4)
+				browser.browserCallback(0, 0, 4, null, null, 0, 0, timestamp);
+			else
+				browser.browserCallback(interfaceNum, toJavaProto(proto), event,
+						jstring(type), jstring(domain), flags, 0, timestamp);
+		} catch (Throwable t) {
+			t.printStackTrace();
+		} finally {
+			inCallback.set(null);
+		}
+	}
+	
+	@SuppressWarnings("unused")
+	private void onDomainBrowserEvent(MemorySegment b, int interfaceNum, int proto,
+			int event, MemorySegment domain, int flags, MemorySegment userdata) {
+		long timestamp = System.nanoTime();
+		inCallback.set(Boolean.TRUE);
+		try {
+			DomainBrowser.Peer browser = (DomainBrowser.Peer) owner(userdata);
+			if (browser==null)
+				return;
+			if (event<0 || event>=4)
+				browser.browserCallback(0, 0, 4, null, 0, 0, timestamp);
+			else
+				browser.browserCallback(interfaceNum, toJavaProto(proto), event,
+						jstring(domain), flags, 0, timestamp);
+		} catch (Throwable t) {
+			t.printStackTrace();
+		} finally {
+			inCallback.set(null);
+		}
+	}
+	
+	/**
+	 * This method copies the raw address out of an AvahiAddress, which is 
+	 * the protocol followed by 4 or 16 bytes
+	 */
+	private static byte[] rawAddress(MemorySegment address) {
+		if (address.equals(MemorySegment.NULL))
+			return null;
+		MemorySegment a = address.reinterpret(AVAHI_ADDRESS_SIZE);
+		return a.asSlice(4, a.get(JAVA_INT, 0)==AVAHI_PROTO_INET ? 4 : 16)
+				.toArray(JAVA_BYTE);
+	}
+	
+	@SuppressWarnings("unused")
+	private void onServiceResolverEvent(MemorySegment r, int interfaceNum, int proto,
+			int event, MemorySegment name, MemorySegment type, MemorySegment domain,
+			MemorySegment host, MemorySegment address, short port, MemorySegment txt,
+			int flags, MemorySegment userdata) {
+		long timestamp = System.nanoTime();
+		inCallback.set(Boolean.TRUE);
+		try {
+			ServiceResolver.Peer resolver = (ServiceResolver.Peer) owner(userdata);
+			if (resolver==null)
+				return;
+			if (event!=0) {
+				resolver.dispatchCallback(0, 0, 1, null, null, null, null, null, 0,
+						null, 0, 0, timestamp);
+				return;
+			}
+			
+			byte raw[] = rawAddress(address);
+			
+			// build the txt record array
+			int count = 0;
+			for(MemorySegment l = txt; !l.equals(MemorySegment.NULL); 
+					l = (MemorySegment) stringListGetNext.invokeExact(l))
+				count++;
+			String records[] = new String[count];
+			MemorySegment l = txt;
+			for(int i=0; i<count; i++) {
+				MemorySegment text = (MemorySegment) stringListGetText.invokeExact(l);
+				long size = (long) stringListGetSize.invokeExact(l);
+				records[i] = new String(text.reinterpret(size).toArray(JAVA_BYTE),
+						StandardCharsets.UTF_8);
+				l = (MemorySegment) stringListGetNext.invokeExact(l);
+			}
+			
+			resolver.dispatchCallback(interfaceNum, toJavaProto(proto), 0,
+					jstring(name), jstring(type), jstring(domain), jstring(host),
+					raw, port & 0xffff, records, flags, 0, timestamp);
+		} catch (Throwable t) {
+			t.printStackTrace();
+		} finally {
+			inCallback.set(null);
+		}
+	}
+	
+	@SuppressWarnings("unused")
+	private void onHostNameResolverEvent(MemorySegment r, int interfaceNum, int proto,
+			int event, MemorySegment name, MemorySegment address, int flags,
+			MemorySegment userdata) {
+		long timestamp = System.nanoTime();
+		inCallback.set(Boolean.TRUE);
+		try {
+			HostNameResolver.Peer resolver = (HostNameResolver.Peer) owner(userdata);
+			if (resolver==null)
+				return;
+			if (event!=0)
+				resolver.dispatchCallback(0, 0, 1, null, null, 0, 0, timestamp);
+			else
+				resolver.dispatchCallback(interfaceNum, toJavaProto(proto), 0,
+						jstring(name), rawAddress(address), flags, 0, timestamp);
+		} catch (Throwable t) {
+			t.printStackTrace();
+		} finally {
+			inCallback.set(null);
+		}
+	}
+	
+	@SuppressWarnings("unused")
+	private void onAddressResolverEvent(MemorySegment r, int interfaceNum, int proto,
+			int event, MemorySegment address, MemorySegment name, int flags,
+			MemorySegment userdata) {
+		long timestamp = System.nanoTime();
+		inCallback.set(Boolean.TRUE);
+		try {
+			AddressResolver.Peer resolver = (AddressResolver.Peer) owner(userdata);
+			if (resolver==null)
+				return;
+			if (event!=0)
+				resolver.dispatchCallback(0, 0, 1, null, null, 0, 0, timestamp);
+			else
+				resolver.dispatchCallback(interfaceNum, toJavaProto(proto), 0,
+						rawAddress(address), jstring(name), flags, 0, timestamp);
+		} catch (Throwable t) {
+			t.printStackTrace();
+		} finally {
+			inCallback.set(null);
+		}
+	}
+	
+	@SuppressWarnings("unused")
+	private void onRecordBrowserEvent(MemorySegment b, int interfaceNum, int proto,
+			int event, MemorySegment name, short clazz, short type, MemorySegment rdata,
+			long size, int flags, MemorySegment userdata) {
+		long timestamp = System.nanoTime();
+		inCallback.set(Boolean.TRUE);
+		try {
+			ObjectHandle o = (ObjectHandle) handles.get(userdata.address());
+			if (o==null || !accept(o, (event<0 || event>=4) ? 4 : event, 
+					name.address(), type & 0xffff))
+				return;
+			RecordBrowser.Peer browser = (RecordBrowser.Peer) o.owner;
+			if (event<0 || event>=4)
+				browser.dispatchCallback(0, 0, 4, null, 0, 0, null, 0, 0, timestamp);
+			else
+				browser.dispatchCallback(interfaceNum, toJavaProto(proto), event,
+						jstring(name), clazz & 0xffff, type & 0xffff,
+						rdata.reinterpret(size).asByteBuffer(), flags, 0, timestamp);
+		} catch (Throwable t) {
+			t.printStackTrace();
+		} finally {
+			inCallback.set(null);
+		}
+	}
+}
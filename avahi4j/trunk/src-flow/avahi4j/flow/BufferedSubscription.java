@@ -0,0 +1,246 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j.flow;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class buffers the events published to a subscriber until it requests
+ * them, and delivers them from an {@link Executor}, never from the thread 
+ * which published them. All the signals to a subscriber are delivered 
+ * serially, starting with onSubscribe().
+ * @author gilles
+ *
+ */
+final class BufferedSubscription<T> implements Flow.Subscription, Runnable {
+	/*
+	 * M E M B E R S
+	 */
+	private final EventPublisher<T> publisher;
+	private final Flow.Subscriber<? super T> subscriber;
+	private final Executor executor;
+	private final OverflowStrategy strategy;
+	private final int capacity;
+	// only one of these is used, depending on the strategy
+	private final ArrayDeque<T> queue;
+	private final LinkedHashMap<Object, T> latest;
+	private final AtomicInteger pending;
+	private long demand;
+	private long dropped;
+	private boolean started, cancelled, completed;
+	private Throwable error;
+	
+	
+	/*
+	 * M E T H O D S
+	 */
+	BufferedSubscription(EventPublisher<T> publisher, 
+			Flow.Subscriber<? super T> subscriber, Executor executor,
+			OverflowStrategy strategy, int capacity) {
+		this.publisher = publisher;
+		this.subscriber = subscriber;
+		this.executor = executor;
+		this.strategy = strategy;
+		this.capacity = capacity;
+		pending = new AtomicInteger();
+		if (strategy==OverflowStrategy.LATEST_PER_KEY) {
+			queue = null;
+			latest = new LinkedHashMap<Object, T>();
+		} else {
+			queue = new ArrayDeque<T>();
+			latest = null;
+		}
+	}
+	
+	/**
+	 * This method buffers an event, applying the overflow strategy if the 
+	 * buffer is full
+	 * @param key the event's key, used by {@link OverflowStrategy#LATEST_PER_KEY}
+	 */
+	void offer(T item, Object key) {
+		synchronized (this) {
+			if (cancelled || completed || error!=null)
+				return;
+			if (latest!=null) {
+				if (!latest.containsKey(key) && latest.size()>=capacity) {
+					Iterator<Object> i = latest.keySet().iterator();
+					i.next();
+					i.remove();
+					dropped++;
+				}
+				// replacing a value keeps the key's position
+				latest.put(key, item);
+			} else if (queue.size()<capacity) {
+				queue.add(item);
+			} else if (strategy==OverflowStrategy.DROP_OLDEST) {
+				queue.poll();
+				queue.add(item);
+				dropped++;
+			} else {
+				queue.clear();
+				error = new BufferOverflowException("More than " + capacity 
+						+ " events buffered");
+			}
+		}
+		signal();
+	}
+	
+	/**
+	 * This method ends the subscription once the buffered events have been
+	 * delivered
+	 * @param t the error to report, or null to complete normally
+	 */
+	void terminate(Throwable t) {
+		synchronized (this) {
+			if (cancelled || completed || error!=null)
+				return;
+			if (t==null)
+				completed = true;
+			else
+				error = t;
+		}
+		signal();
+	}
+	
+	/**
+	 * @return the number of events dropped because the buffer was full 
+	 */
+	synchronized long getDropped() {
+		return dropped;
+	}
+	
+	/**
+	 * @return the number of events currently buffered
+	 */
+	synchronized int getBuffered() {
+		return latest!=null ? latest.size() : queue.size();
+	}
+	
+	/**
+	 * This method schedules a delivery run, unless one is already scheduled
+	 */
+	void signal() {
+		if (pending.getAndIncrement()==0)
+			executor.execute(this);
+	}
+	
+	@Override
+	public void request(long n) {
+		synchronized (this) {
+			if (n<=0) {
+				if (!cancelled && error==null)
+					error = new IllegalArgumentException("non-positive request: " + n);
+			} else {
+				demand += n;
+				if (demand<0)
+					demand = Long.MAX_VALUE;
+			}
+		}
+		signal();
+	}
+	
+	@Override
+	public void cancel() {
+		synchronized (this) {
+			if (cancelled)
+				return;
+			cancelled = true;
+			if (queue!=null)
+				queue.clear();
+			else
+				latest.clear();
+		}
+		publisher.remove(this);
+	}
+	
+	/**
+	 * This method delivers the buffered events the subscriber asked for, and
+	 * the end of the subscription if it is due
+	 */
+	@Override
+	public void run() {
+		int missed = 1;
+		while(true) {
+			if (!started) {
+				started = true;
+				try {
+					subscriber.onSubscribe(this);
+				} catch (Throwable t) {
+					cancel();
+				}
+			}
+			
+			while(true) {
+				T item = null;
+				Throwable failure = null;
+				boolean complete = false;
+				synchronized (this) {
+					if (cancelled)
+						break;
+					if (error!=null) {
+						failure = error;
+						cancelled = true;
+					} else if (demand>0 && (item = poll())!=null) {
+						if (demand!=Long.MAX_VALUE)
+							demand--;
+					} else if (completed && getBuffered()==0) {
+						complete = true;
+						cancelled = true;
+					} else
+						break;
+				}
+				
+				try {
+					if (item!=null) {
+						subscriber.onNext(item);
+						continue;
+					}
+					if (failure!=null)
+						subscriber.onError(failure);
+					else if (complete)
+						subscriber.onComplete();
+				} catch (Throwable t) {
+					// a subscriber which throws is considered cancelled
+					cancel();
+				}
+				publisher.remove(this);
+				break;
+			}
+			
+			missed = pending.addAndGet(-missed);
+			if (missed==0)
+				break;
+		}
+	}
+	
+	private T poll() {
+		if (queue!=null)
+			return queue.poll();
+		Iterator<T> i = latest.values().iterator();
+		if (!i.hasNext())
+			return null;
+		T item = i.next();
+		i.remove();
+		return item;
+	}
+}
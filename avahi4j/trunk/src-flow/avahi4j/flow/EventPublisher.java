@@ -0,0 +1,196 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j.flow;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Flow;
+
+import avahi4j.exceptions.Avahi4JException;
+
+/**
+ * This class is the base of the {@link Flow.Publisher}s which deliver 
+ * Avahi4J events to reactive pipelines. Events are published from the 
+ * client's thread into a bounded buffer per subscriber, and delivered to 
+ * the subscriber from an {@link Executor} as it requests them, so that slow
+ * subscribers neither block the client's thread nor make the heap grow 
+ * without bounds. What happens when a subscriber's buffer is full depends 
+ * on the publisher's {@link OverflowStrategy}.
+ * <br>
+ * The underlying browser or resolver is created when the first subscriber
+ * subscribes, and released when the last one cancels (or when 
+ * {@link #close()} is called). If it can not be created, the subscriber is
+ * given the error.
+ * @author gilles
+ *
+ */
+public abstract class EventPublisher<T> implements Flow.Publisher<T>, AutoCloseable {
+	/*
+	 * M E M B E R S
+	 */
+	private final Executor executor;
+	private final OverflowStrategy strategy;
+	private final int bufferSize;
+	private final CopyOnWriteArrayList<BufferedSubscription<T>> subscriptions;
+	private boolean started, closed;
+	
+	
+	/*
+	 * M E T H O D S
+	 */
+	/**
+	 * This method builds a new publisher
+	 * @param executor the executor delivering events to subscribers
+	 * @param strategy what to do when a subscriber's buffer is full
+	 * @param bufferSize the capacity of each subscriber's buffer
+	 */
+	protected EventPublisher(Executor executor, OverflowStrategy strategy, 
+			int bufferSize) {
+		if (executor==null || strategy==null)
+			throw new NullPointerException("neither the executor nor the strategy can be null");
+		if (bufferSize<1)
+			throw new IllegalArgumentException("The buffer size must be positive");
+		this.executor = executor;
+		this.strategy = strategy;
+		this.bufferSize = bufferSize;
+		subscriptions = new CopyOnWriteArrayList<BufferedSubscription<T>>();
+	}
+	
+	/**
+	 * This method builds a new publisher delivering events from the common
+	 * fork-join pool, with buffers of {@link Flow#defaultBufferSize()} events
+	 * @param strategy what to do when a subscriber's buffer is full
+	 */
+	protected EventPublisher(OverflowStrategy strategy) {
+		this(ForkJoinPool.commonPool(), strategy, Flow.defaultBufferSize());
+	}
+	
+	@Override
+	public void subscribe(Flow.Subscriber<? super T> subscriber) {
+		if (subscriber==null)
+			throw new NullPointerException("the subscriber can not be null");
+		
+		BufferedSubscription<T> s = new BufferedSubscription<T>(this, subscriber,
+				executor, strategy, bufferSize);
+		Throwable failure = null;
+		synchronized (this) {
+			if (closed)
+				failure = new IllegalStateException("This publisher is closed");
+			else {
+				subscriptions.add(s);
+				if (!started) {
+					try {
+						start();
+						started = true;
+					} catch (Avahi4JException e) {
+						subscriptions.remove(s);
+						failure = e;
+					}
+				}
+			}
+		}
+		
+		if (failure!=null)
+			s.terminate(failure);
+		else
+			s.signal();
+	}
+	
+	/**
+	 * This method completes all the subscriptions (once their buffered 
+	 * events have been delivered) and releases the underlying browser or 
+	 * resolver. The publisher can not be used afterwards.
+	 */
+	@Override
+	public void close() {
+		synchronized (this) {
+			if (closed)
+				return;
+			closed = true;
+			if (started)
+				stop();
+			started = false;
+		}
+		for(BufferedSubscription<T> s: subscriptions)
+			s.terminate(null);
+	}
+	
+	/**
+	 * @return the number of active subscribers
+	 */
+	public int getSubscriberCount() {
+		return subscriptions.size();
+	}
+	
+	/**
+	 * @return the total number of events dropped from the buffers of the 
+	 * active subscribers
+	 */
+	public long getDroppedCount() {
+		long n = 0;
+		for(BufferedSubscription<T> s: subscriptions)
+			n += s.getDropped();
+		return n;
+	}
+	
+	/**
+	 * This method is called when a subscription ends, and stops the 
+	 * underlying browser or resolver if it was the last one
+	 */
+	void remove(BufferedSubscription<T> s) {
+		synchronized (this) {
+			if (subscriptions.remove(s) && subscriptions.isEmpty() && started) {
+				started = false;
+				stop();
+			}
+		}
+	}
+	
+	/**
+	 * This method gives an event to all the subscribers. Subclasses call it
+	 * from the browser or resolver callback.
+	 * @param item the event
+	 * @param key the event's key, used by {@link OverflowStrategy#LATEST_PER_KEY}
+	 */
+	protected void publish(T item, Object key) {
+		for(BufferedSubscription<T> s: subscriptions)
+			s.offer(item, key);
+	}
+	
+	/**
+	 * This method ends all the subscriptions with an error (once their 
+	 * buffered events have been delivered) 
+	 */
+	protected void fail(Throwable t) {
+		for(BufferedSubscription<T> s: subscriptions)
+			s.terminate(t);
+	}
+	
+	/**
+	 * This method creates the underlying browser or resolver. It is called 
+	 * with this object's lock held.
+	 */
+	protected abstract void start() throws Avahi4JException;
+	
+	/**
+	 * This method releases the underlying browser or resolver. It is called 
+	 * with this object's lock held.
+	 */
+	protected abstract void stop();
+}
@@ -0,0 +1,46 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j.flow;
+
+/**
+ * This enumeration lists what an {@link EventPublisher} does when an event 
+ * must be buffered for a subscriber whose buffer is full, ie. a subscriber
+ * which does not request events as fast as they are published.
+ * @author gilles
+ *
+ */
+public enum OverflowStrategy {
+	/**
+	 * The oldest buffered event is dropped to make room for the new one
+	 */
+	DROP_OLDEST,
+	/**
+	 * Only the latest event of each key (a service, a record, ...) is kept:
+	 * a new event replaces the buffered event with the same key, if any, 
+	 * whether the buffer is full or not. The buffer is therefore bounded by 
+	 * the number of distinct keys; when it holds as many keys as its 
+	 * capacity, the oldest one is dropped to make room for a new key.
+	 */
+	LATEST_PER_KEY,
+	/**
+	 * The subscription is cancelled and the subscriber's 
+	 * {@link java.util.concurrent.Flow.Subscriber#onError(Throwable) onError()}
+	 * method is called with a {@link BufferOverflowException}
+	 */
+	FAIL
+}
@@ -0,0 +1,114 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j.flow;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Flow;
+
+import avahi4j.Client;
+import avahi4j.IRecordBrowserCallback;
+import avahi4j.RecordBrowser;
+import avahi4j.Avahi4JConstants.BrowserEvent;
+import avahi4j.Avahi4JConstants.DNS_Class;
+import avahi4j.Avahi4JConstants.DNS_RRType;
+import avahi4j.Avahi4JConstants.Protocol;
+import avahi4j.exceptions.Avahi4JException;
+
+/**
+ * This class publishes the events of a {@link RecordBrowser} as 
+ * {@link RecordEvent}s. A browser failure ends all the subscriptions with 
+ * an {@link Avahi4JException}.
+ * @author gilles
+ *
+ */
+public final class RecordBrowserPublisher extends EventPublisher<RecordEvent> {
+	private final Client client;
+	private final int interfaceNum;
+	private final Protocol proto;
+	private final String name;
+	private final DNS_Class clazz;
+	private final DNS_RRType type;
+	private final int lookupFlags;
+	private RecordBrowser browser;
+	
+	/**
+	 * This method builds a new record browser publisher
+	 * @param client the client used to browse
+	 * @param interfaceNum the interface where the query should be issued
+	 * @param proto the protocol used by the query
+	 * @param name the hostname
+	 * @param clazz the {@link DNS_Class}
+	 * @param type the {@link DNS_RRType} to be queried
+	 * @param lookupFlags lookup flags (See LOOKUP_* in {@link avahi4j.Avahi4JConstants})
+	 * @param executor the executor delivering events to subscribers
+	 * @param strategy what to do when a subscriber's buffer is full
+	 * @param bufferSize the capacity of each subscriber's buffer
+	 */
+	public RecordBrowserPublisher(Client client, int interfaceNum, Protocol proto,
+			String name, DNS_Class clazz, DNS_RRType type, int lookupFlags, 
+			Executor executor, OverflowStrategy strategy, int bufferSize) {
+		super(executor, strategy, bufferSize);
+		if (client==null || name==null || clazz==null || type==null)
+			throw new NullPointerException("neither the client, name, class nor type can be null");
+		this.client = client;
+		this.interfaceNum = interfaceNum;
+		this.proto = proto;
+		this.name = name;
+		this.clazz = clazz;
+		this.type = type;
+		this.lookupFlags = lookupFlags;
+	}
+	
+	/**
+	 * This method builds a new record browser publisher delivering events 
+	 * from the common fork-join pool, with buffers of 
+	 * {@link Flow#defaultBufferSize()} events
+	 */
+	public RecordBrowserPublisher(Client client, int interfaceNum, Protocol proto,
+			String name, DNS_Class clazz, DNS_RRType type, int lookupFlags, 
+			OverflowStrategy strategy) {
+		this(client, interfaceNum, proto, name, clazz, type, lookupFlags,
+				ForkJoinPool.commonPool(), strategy, Flow.defaultBufferSize());
+	}
+	
+	@Override
+	protected void start() throws Avahi4JException {
+		browser = client.createRecordBrowser(new IRecordBrowserCallback() {
+			@Override
+			public void recordBrowserCallback(RecordBrowser browser, int interfaceNum,
+					Protocol proto, BrowserEvent event, String name, DNS_Class clazz,
+					DNS_RRType type, byte[] rdata, int lookupResultFlags) {
+				if (event==BrowserEvent.FAILURE) {
+					fail(new Avahi4JException("Error browsing for records of " 
+							+ RecordBrowserPublisher.this.name));
+					return;
+				}
+				RecordEvent e = new RecordEvent(interfaceNum, proto, event, name, 
+						clazz, type, rdata, lookupResultFlags);
+				publish(e, e.getKey());
+			}
+		}, interfaceNum, proto, name, clazz, type, lookupFlags);
+	}
+	
+	@Override
+	protected void stop() {
+		browser.release();
+		browser = null;
+	}
+}
@@ -0,0 +1,109 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j.flow;
+
+import java.util.Arrays;
+
+import avahi4j.Avahi4JConstants.BrowserEvent;
+import avahi4j.Avahi4JConstants.DNS_Class;
+import avahi4j.Avahi4JConstants.DNS_RRType;
+import avahi4j.Avahi4JConstants.Protocol;
+
+/**
+ * A record browser event, as published by a {@link RecordBrowserPublisher}
+ * @author gilles
+ *
+ */
+public final class RecordEvent {
+	private final int interfaceNum;
+	private final Protocol proto;
+	private final BrowserEvent event;
+	private final String name;
+	private final DNS_Class clazz;
+	private final DNS_RRType type;
+	private final byte rdata[];
+	private final int lookupResultFlags;
+	
+	RecordEvent(int interfaceNum, Protocol proto, BrowserEvent event, 
+			String name, DNS_Class clazz, DNS_RRType type, byte rdata[], 
+			int lookupResultFlags) {
+		this.interfaceNum = interfaceNum;
+		this.proto = proto;
+		this.event = event;
+		this.name = name;
+		this.clazz = clazz;
+		this.type = type;
+		this.rdata = rdata;
+		this.lookupResultFlags = lookupResultFlags;
+	}
+	
+	/**
+	 * @return the record's identity (interface, protocol, name, type and 
+	 * data), which events about the same record share
+	 */
+	String getKey() {
+		return interfaceNum + "/" + proto.ordinal() + "/" + name + "/" + type 
+			+ "/" + (rdata==null ? "" : Arrays.toString(rdata));
+	}
+
+	public int getInterfaceNum() {
+		return interfaceNum;
+	}
+
+	public Protocol getProtocol() {
+		return proto;
+	}
+
+	/**
+	 * @return {@link BrowserEvent#NEW}, {@link BrowserEvent#REMOVE}, 
+	 * {@link BrowserEvent#CACHE_EXHAUSTED} or {@link BrowserEvent#NO_MORE} 
+	 * (failures end the subscription instead)
+	 */
+	public BrowserEvent getEvent() {
+		return event;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public DNS_Class getDNSClass() {
+		return clazz;
+	}
+
+	public DNS_RRType getType() {
+		return type;
+	}
+
+	/**
+	 * @return a copy of the record's data, or null for CACHE_EXHAUSTED and 
+	 * NO_MORE events
+	 */
+	public byte[] getRData() {
+		return rdata==null ? null : rdata.clone();
+	}
+
+	public int getLookupResultFlags() {
+		return lookupResultFlags;
+	}
+	
+	@Override
+	public String toString() {
+		return event + " " + name + " " + type + " (" + interfaceNum + ", " + proto + ")";
+	}
+}
@@ -0,0 +1,106 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j.flow;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import avahi4j.Address;
+import avahi4j.Avahi4JConstants.Protocol;
+
+/**
+ * The result of a service resolution, as published by a 
+ * {@link ServiceResolverPublisher}
+ * @author gilles
+ *
+ */
+public final class ResolvedService {
+	private final int interfaceNum;
+	private final Protocol proto;
+	private final String name, type, domain, hostName;
+	private final Address address;
+	private final int port;
+	private final List<String> txtRecords;
+	private final int lookupResultFlags;
+	
+	ResolvedService(int interfaceNum, Protocol proto, String name, String type,
+			String domain, String hostName, Address address, int port, 
+			String txtRecords[], int lookupResultFlags) {
+		this.interfaceNum = interfaceNum;
+		this.proto = proto;
+		this.name = name;
+		this.type = type;
+		this.domain = domain;
+		this.hostName = hostName;
+		this.address = address;
+		this.port = port;
+		this.txtRecords = txtRecords==null ? Collections.<String>emptyList() 
+				: Collections.unmodifiableList(Arrays.asList(txtRecords.clone()));
+		this.lookupResultFlags = lookupResultFlags;
+	}
+
+	public int getInterfaceNum() {
+		return interfaceNum;
+	}
+
+	public Protocol getProtocol() {
+		return proto;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	public String getDomain() {
+		return domain;
+	}
+
+	public String getHostName() {
+		return hostName;
+	}
+
+	/**
+	 * @return the service's address, or null if it was not looked up
+	 */
+	public Address getAddress() {
+		return address;
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	public List<String> getTxtRecords() {
+		return txtRecords;
+	}
+
+	public int getLookupResultFlags() {
+		return lookupResultFlags;
+	}
+	
+	@Override
+	public String toString() {
+		return name + "." + type + "." + domain + " at " + hostName + " (" + address 
+			+ "):" + port + " " + txtRecords;
+	}
+}
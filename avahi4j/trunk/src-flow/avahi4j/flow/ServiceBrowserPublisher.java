@@ -0,0 +1,111 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j.flow;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Flow;
+
+import avahi4j.Client;
+import avahi4j.IServiceBrowserCallback;
+import avahi4j.ServiceSubscription;
+import avahi4j.Avahi4JConstants.BrowserEvent;
+import avahi4j.Avahi4JConstants.Protocol;
+import avahi4j.exceptions.Avahi4JException;
+
+/**
+ * This class publishes the events of a service browser as 
+ * {@link ServiceEvent}s. The browser is shared with the other subscriptions
+ * to the same services (see 
+ * {@link Client#subscribeServiceBrowser(IServiceBrowserCallback, int, Protocol, String, String, int) subscribeServiceBrowser()}),
+ * so new subscribers are given the services already known. A browser 
+ * failure ends all the subscriptions with an {@link Avahi4JException}.
+ * @author gilles
+ *
+ */
+public final class ServiceBrowserPublisher extends EventPublisher<ServiceEvent> {
+	private final Client client;
+	private final int interfaceNum;
+	private final Protocol proto;
+	private final String type, domain;
+	private final int lookupFlags;
+	private ServiceSubscription subscription;
+	
+	/**
+	 * This method builds a new service browser publisher
+	 * @param client the client used to browse
+	 * @param interfaceNum the interface number to be used for browsing, or
+	 * {@link avahi4j.Avahi4JConstants#AnyInterface} to browse on all interfaces
+	 * @param proto the {@link Protocol} to use for browsing
+	 * @param type the service type to browse (for instance '_workstation._tcp')
+	 * @param domain the domain to browse (null to browse on all domains)
+	 * @param lookupFlags lookup flags (See LOOKUP_* in {@link avahi4j.Avahi4JConstants})
+	 * @param executor the executor delivering events to subscribers
+	 * @param strategy what to do when a subscriber's buffer is full
+	 * @param bufferSize the capacity of each subscriber's buffer
+	 */
+	public ServiceBrowserPublisher(Client client, int interfaceNum, Protocol proto,
+			String type, String domain, int lookupFlags, Executor executor, 
+			OverflowStrategy strategy, int bufferSize) {
+		super(executor, strategy, bufferSize);
+		if (client==null || type==null)
+			throw new NullPointerException("neither the client nor the type can be null");
+		this.client = client;
+		this.interfaceNum = interfaceNum;
+		this.proto = proto;
+		this.type = type;
+		this.domain = domain;
+		this.lookupFlags = lookupFlags;
+	}
+	
+	/**
+	 * This method builds a new service browser publisher delivering events 
+	 * from the common fork-join pool, with buffers of 
+	 * {@link Flow#defaultBufferSize()} events
+	 */
+	public ServiceBrowserPublisher(Client client, int interfaceNum, Protocol proto,
+			String type, String domain, int lookupFlags, OverflowStrategy strategy) {
+		this(client, interfaceNum, proto, type, domain, lookupFlags, 
+				ForkJoinPool.commonPool(), strategy, 
+				Flow.defaultBufferSize());
+	}
+	
+	@Override
+	protected void start() throws Avahi4JException {
+		subscription = client.subscribeServiceBrowser(new IServiceBrowserCallback() {
+			@Override
+			public void serviceCallback(int interfaceNum, Protocol proto,
+					BrowserEvent browserEvent, String name, String type, 
+					String domain, int lookupResultFlag) {
+				if (browserEvent==BrowserEvent.FAILURE) {
+					fail(new Avahi4JException("Error browsing for " + type));
+					return;
+				}
+				ServiceEvent e = new ServiceEvent(interfaceNum, proto, browserEvent,
+						name, type, domain, lookupResultFlag);
+				publish(e, e.getKey());
+			}
+		}, interfaceNum, proto, type, domain, lookupFlags);
+	}
+	
+	@Override
+	protected void stop() {
+		subscription.release();
+		subscription = null;
+	}
+}
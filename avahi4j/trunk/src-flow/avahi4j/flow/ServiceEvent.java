@@ -0,0 +1,92 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j.flow;
+
+import avahi4j.Avahi4JConstants.BrowserEvent;
+import avahi4j.Avahi4JConstants.Protocol;
+
+/**
+ * A service browser event, as published by a {@link ServiceBrowserPublisher}
+ * @author gilles
+ *
+ */
+public final class ServiceEvent {
+	private final int interfaceNum;
+	private final Protocol proto;
+	private final BrowserEvent event;
+	private final String name, type, domain;
+	private final int lookupResultFlags;
+	
+	ServiceEvent(int interfaceNum, Protocol proto, BrowserEvent event, 
+			String name, String type, String domain, int lookupResultFlags) {
+		this.interfaceNum = interfaceNum;
+		this.proto = proto;
+		this.event = event;
+		this.name = name;
+		this.type = type;
+		this.domain = domain;
+		this.lookupResultFlags = lookupResultFlags;
+	}
+	
+	/**
+	 * @return the service's identity (interface, protocol, name, type and
+	 * domain), which events about the same service share
+	 */
+	String getKey() {
+		return interfaceNum + "/" + proto.ordinal() + "/" + name + "." + type + "." + domain;
+	}
+
+	public int getInterfaceNum() {
+		return interfaceNum;
+	}
+
+	public Protocol getProtocol() {
+		return proto;
+	}
+
+	/**
+	 * @return {@link BrowserEvent#NEW}, {@link BrowserEvent#REMOVE}, 
+	 * {@link BrowserEvent#CACHE_EXHAUSTED} or {@link BrowserEvent#NO_MORE} 
+	 * (failures end the subscription instead)
+	 */
+	public BrowserEvent getEvent() {
+		return event;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	public String getDomain() {
+		return domain;
+	}
+
+	public int getLookupResultFlags() {
+		return lookupResultFlags;
+	}
+	
+	@Override
+	public String toString() {
+		return event + " " + name + "." + type + "." + domain + " (" + interfaceNum 
+			+ ", " + proto + ")";
+	}
+}
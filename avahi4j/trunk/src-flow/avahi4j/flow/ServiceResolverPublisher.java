@@ -0,0 +1,120 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j.flow;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Flow;
+
+import avahi4j.Address;
+import avahi4j.Client;
+import avahi4j.IServiceResolverCallback;
+import avahi4j.ServiceResolver;
+import avahi4j.Avahi4JConstants.Protocol;
+import avahi4j.ServiceResolver.ServiceResolverEvent;
+import avahi4j.exceptions.Avahi4JException;
+
+/**
+ * This class publishes the resolutions of a service as 
+ * {@link ResolvedService}s: the first one, then one every time the service
+ * changes (its TXT records for instance). If the service can not be 
+ * resolved, all the subscriptions end with an {@link Avahi4JException}.
+ * With {@link OverflowStrategy#LATEST_PER_KEY}, a slow subscriber only gets
+ * the latest resolution on each interface and protocol.
+ * @author gilles
+ *
+ */
+public final class ServiceResolverPublisher extends EventPublisher<ResolvedService> {
+	private final Client client;
+	private final int interfaceNum;
+	private final Protocol proto, addressProtocol;
+	private final String name, type, domain;
+	private final int lookupFlags;
+	private ServiceResolver resolver;
+	
+	/**
+	 * This method builds a new service resolver publisher. The interface, 
+	 * protocol, name, type and domain are those received by a service browser.
+	 * @param client the client used to resolve the service
+	 * @param interfaceNum the interface the service is running on
+	 * @param proto the protocol used by the service
+	 * @param name the name of the service
+	 * @param type the service type
+	 * @param domain the domain the service belongs to
+	 * @param addressProtocol the protocol of the address to be resolved
+	 * @param lookupFlags lookup flags (See LOOKUP_* in {@link avahi4j.Avahi4JConstants})
+	 * @param executor the executor delivering events to subscribers
+	 * @param strategy what to do when a subscriber's buffer is full
+	 * @param bufferSize the capacity of each subscriber's buffer
+	 */
+	public ServiceResolverPublisher(Client client, int interfaceNum, Protocol proto,
+			String name, String type, String domain, Protocol addressProtocol,
+			int lookupFlags, Executor executor, OverflowStrategy strategy, 
+			int bufferSize) {
+		super(executor, strategy, bufferSize);
+		if (client==null || name==null || type==null)
+			throw new NullPointerException("neither the client, the name nor the type can be null");
+		this.client = client;
+		this.interfaceNum = interfaceNum;
+		this.proto = proto;
+		this.name = name;
+		this.type = type;
+		this.domain = domain;
+		this.addressProtocol = addressProtocol;
+		this.lookupFlags = lookupFlags;
+	}
+	
+	/**
+	 * This method builds a new service resolver publisher delivering events 
+	 * from the common fork-join pool, with buffers of 
+	 * {@link Flow#defaultBufferSize()} events
+	 */
+	public ServiceResolverPublisher(Client client, int interfaceNum, Protocol proto,
+			String name, String type, String domain, Protocol addressProtocol,
+			int lookupFlags, OverflowStrategy strategy) {
+		this(client, interfaceNum, proto, name, type, domain, addressProtocol,
+				lookupFlags, ForkJoinPool.commonPool(), strategy, 
+				Flow.defaultBufferSize());
+	}
+	
+	@Override
+	protected void start() throws Avahi4JException {
+		resolver = client.createServiceResolver(new IServiceResolverCallback() {
+			@Override
+			public void resolverCallback(ServiceResolver resolver, int interfaceNum,
+					Protocol proto, ServiceResolverEvent resolverEvent, String name,
+					String type, String domain, String hostname, Address address,
+					int port, String[] txtRecords, int lookupResultFlag) {
+				if (resolverEvent==ServiceResolverEvent.RESOLVER_FAILURE) {
+					fail(new Avahi4JException("Error resolving " 
+							+ ServiceResolverPublisher.this.name));
+					return;
+				}
+				publish(new ResolvedService(interfaceNum, proto, name, type, domain,
+						hostname, address, port, txtRecords, lookupResultFlag), 
+						interfaceNum + "/" + proto.ordinal());
+			}
+		}, interfaceNum, proto, name, type, domain, addressProtocol, lookupFlags);
+	}
+	
+	@Override
+	protected void stop() {
+		resolver.release();
+		resolver = null;
+	}
+}
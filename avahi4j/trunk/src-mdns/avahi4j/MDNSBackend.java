@@ -0,0 +1,1010 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import avahi4j.exceptions.Avahi4JException;
+import avahi4j.exceptions.JNIException;
+import avahi4j.mdns.DNSRecord;
+import avahi4j.mdns.IGroupCallback;
+import avahi4j.mdns.IQueryCallback;
+import avahi4j.mdns.MDNSQuerier;
+import avahi4j.mdns.MDNSResponder;
+import avahi4j.Avahi4JConstants.BrowserEvent;
+import avahi4j.Avahi4JConstants.Protocol;
+import avahi4j.ServiceResolver.ServiceResolverEvent;
+
+/**
+ * This {@link INativeBackend} implements browsing and resolving in pure Java
+ * with an {@link MDNSQuerier}, and publishing with an {@link MDNSResponder}, 
+ * for hosts where the avahi daemon can not be 
+ * reached. It is selected by passing <code>-Davahi4j.backend=mdns</code> to 
+ * the JVM, and configured with the following system properties:
+ * <ul>
+ * <li><code>avahi4j.mdns.interfaces</code>: a comma-separated list of 
+ * interface names (default: see {@link MDNSQuerier#getDefaultInterfaces()}),</li>
+ * <li><code>avahi4j.mdns.port</code>: the UDP port (default: 5353),</li>
+ * <li><code>avahi4j.mdns.ipv6</code>: whether to use IPv6 (default: true).</li>
+ * </ul>
+ * Each {@link Client} owns its own querier, whose thread plays the part of
+ * the avahi poll loop. Its responder is created when the first 
+ * {@link EntryGroup} is, and publishes the host name and addresses from then
+ * on. The lock histograms are not recorded.
+ * @author gilles
+ *
+ */
+final class MDNSBackend implements INativeBackend {
+	private static final String VERSION = "0.1-mdns";
+	
+	/**
+	 * How long a resolver waits for an answer before failing, as in avahi
+	 */
+	private static final long RESOLVER_TIMEOUT = 5000;
+	
+	/**
+	 * The names queried by domain browsers are PREFIX._dns-sd._udp.domain, 
+	 * indexed by DomainBrowserType (RFC 6763, section 11)
+	 */
+	private static final String DOMAIN_PREFIXES[] = {"b", "db", "r", "dr", "lb"};
+	
+	/**
+	 * avahi_strerror() messages, indexed by -error
+	 */
+	private static final String ERRORS[] = {
+		"OK", "Operation failed", "Bad state", "Invalid host name", 
+		"Invalid domain name", "No suitable network protocol available",
+		"Invalid DNS TTL", "Resource record key is pattern", "Local name collision",
+		"Invalid record", "Invalid service name", "Invalid service type",
+		"Invalid port number", "Invalid record key", "Invalid address",
+		"Timeout reached", "Too many clients", "Too many objects",
+		"Too many entries", "OS Error", "Access denied", "Invalid operation",
+		"An unexpected D-Bus error occured", "Daemon connection failed",
+		"Memory exhausted", "The object passed to this function was invalid",
+		"Daemon not running", "Invalid interface index", 
+		"Invalid protocol specification", "Invalid flags", "Not found",
+		"Invalid configuration", "Version mismatch", "Invalid service subtype",
+		"Invalid packet", "Invalid DNS return code", "DNS failure: FORMERR",
+		"DNS failure: SERVFAIL", "DNS failure: NXDOMAIN", "DNS failure: NOTIMP",
+		"DNS failure: REFUSED", "DNS failure: YXDOMAIN", "DNS failure: YXRRSET",
+		"DNS failure: NXRRSET", "DNS failure: NOTAUTH", "DNS failure: NOTZONE",
+		"Invalid RDATA", "Invalid DNS class", "Invalid DNS type", "Not supported",
+		"Operation not permitted", "Invalid argument", "Is empty",
+		"The requested operation is invalid because it is redundant"
+	};
+	
+	/*
+	 * H A N D L E S
+	 */
+	private static class ClientHandle {
+		final Client.Peer owner;
+		final MDNSQuerier querier;
+		final String hostName;
+		private MDNSResponder responder;
+		/**
+		 * the error of the last failed lookup (lookups only fail on timeouts)
+		 */
+		volatile int lastError = Avahi4JConstants.AVAHI_OK;
+		
+		ClientHandle(Client.Peer owner, MDNSQuerier querier, String hostName) {
+			this.owner = owner;
+			this.querier = querier;
+			this.hostName = hostName;
+		}
+		
+		MDNSResponder responder() {
+			synchronized (querier) {
+				if (responder==null)
+					responder = new MDNSResponder(querier, hostName);
+				return responder;
+			}
+		}
+		
+		String currentHostName() {
+			synchronized (querier) {
+				return responder==null ? hostName : responder.getHostName();
+			}
+		}
+	}
+	
+	/**
+	 * The handle of an entry group
+	 */
+	private static class GroupHandle implements IGroupCallback {
+		final EntryGroup.Peer owner;
+		final MDNSResponder.Group group;
+		
+		GroupHandle(EntryGroup.Peer owner, ClientHandle client) {
+			this.owner = owner;
+			this.group = client.responder().createGroup(this);
+		}
+
+		@Override
+		public void groupStateChanged(MDNSResponder.Group g, MDNSResponder.GroupState state) {
+			// both enumerations list the states in the same order
+			owner.dispatchCallback(state.ordinal(), 0, System.nanoTime());
+		}
+	}
+	
+	/**
+	 * The handle of a browser or resolver: the queries to cancel on release
+	 */
+	private static class ObjectHandle {
+		final ClientHandle client;
+		final List<MDNSQuerier.Query> queries;
+		MDNSQuerier.Timer timer;
+		
+		ObjectHandle(ClientHandle client) {
+			this.client = client;
+			queries = new ArrayList<MDNSQuerier.Query>();
+		}
+		
+		void cancel() {
+			for(MDNSQuerier.Query q: queries)
+				q.cancel();
+			queries.clear();
+			if (timer!=null)
+				timer.cancel();
+			timer = null;
+		}
+	}
+	
+	private final ConcurrentHashMap<Long, Object> handles = new ConcurrentHashMap<Long, Object>();
+	private final AtomicLong nextHandle = new AtomicLong(1);
+	
+	
+	/*
+	 * M E T H O D S
+	 */
+	private long register(Object handle) {
+		long id = nextHandle.getAndIncrement();
+		handles.put(id, handle);
+		return id;
+	}
+	
+	private ClientHandle client(long id) {
+		ClientHandle c = (ClientHandle) handles.get(id);
+		if (c==null)
+			throw new JNIException("Invalid client handle "+id);
+		return c;
+	}
+	
+	private int release(long id) {
+		ObjectHandle o = (ObjectHandle) handles.remove(id);
+		if (o==null)
+			return Avahi4JConstants.AVAHI_ERR_INVALID_OBJECT;
+		synchronized (o.client.querier) {
+			o.cancel();
+		}
+		return Avahi4JConstants.AVAHI_OK;
+	}
+	
+	/**
+	 * @return the querier protocol (0: IPv4, 1: IPv6, -1: both) matching a 
+	 * {@link Avahi4JConstants.Protocol} ordinal
+	 */
+	private static int toQuerierProto(int proto) {
+		return proto==0 || proto==1 ? proto : -1;
+	}
+	
+	private static String domain(String domain) {
+		return domain==null || domain.length()==0 ? "local" : domain;
+	}
+	
+	private static int resultFlags(boolean cached) {
+		return Avahi4JConstants.LOOKUP_RESULT_MULTICAST 
+			| (cached ? Avahi4JConstants.LOOKUP_RESULT_CACHED : 0);
+	}
+	
+	
+	/*
+	 * C L I E N T
+	 */
+	@Override
+	public String getVersion() {
+		return VERSION;
+	}
+	
+	@Override
+	public String getErrorString(int error) {
+		if (error<=0 && -error<ERRORS.length)
+			return ERRORS[-error];
+		return "Invalid Error Code";
+	}
+	
+	@Override
+	public long initClient(Client.Peer owner) throws Avahi4JException {
+		MDNSQuerier querier;
+		try {
+			querier = new MDNSQuerier(getInterfaces(), 
+					Integer.getInteger("avahi4j.mdns.port", MDNSQuerier.MDNS_PORT),
+					true, Boolean.parseBoolean(System.getProperty("avahi4j.mdns.ipv6", "true")));
+		} catch (IOException e) {
+			throw new Avahi4JException("Error creating the multicast DNS querier: "
+					+ e.getMessage());
+		}
+		
+		String hostName;
+		try {
+			hostName = InetAddress.getLocalHost().getHostName();
+			int dot = hostName.indexOf('.');
+			if (dot>0)
+				hostName = hostName.substring(0, dot);
+		} catch (IOException e) {
+			hostName = "localhost";
+		}
+		
+		long id = register(new ClientHandle(owner, querier, hostName));
+		
+		// there is no daemon to register with: the client is running straight away
+		owner.dispatchCallback(Client.State.RUNNING.ordinal(), 0, System.nanoTime());
+		return id;
+	}
+	
+	private static List<NetworkInterface> getInterfaces() throws SocketException {
+		String names = System.getProperty("avahi4j.mdns.interfaces");
+		if (names==null)
+			return MDNSQuerier.getDefaultInterfaces();
+		
+		List<NetworkInterface> result = new ArrayList<NetworkInterface>();
+		for(String name: names.split(",")) {
+			NetworkInterface nic = NetworkInterface.getByName(name.trim());
+			if (nic==null)
+				throw new SocketException("Unknown interface "+name.trim());
+			result.add(nic);
+		}
+		return result;
+	}
+
+	@Override
+	public String getHostName(long client) {
+		return client(client).currentHostName();
+	}
+
+	@Override
+	public String getDomainName(long client) {
+		return "local";
+	}
+
+	@Override
+	public String getFQDN(long client) {
+		return client(client).currentHostName() + ".local";
+	}
+
+	@Override
+	public int setHostName(long client, String name) {
+		try {
+			client(client).responder().setHostName(name);
+		} catch (IllegalArgumentException e) {
+			return Avahi4JConstants.AVAHI_ERR_INVALID_HOST_NAME;
+		}
+		return Avahi4JConstants.AVAHI_OK;
+	}
+
+	@Override
+	public int getState(long client) {
+		client(client);
+		return Client.State.RUNNING.ordinal();
+	}
+
+	@Override
+	public int getLastError(long client) {
+		return client(client).lastError;
+	}
+
+	@Override
+	public int startLoop(long client) {
+		client(client).querier.start();
+		return Avahi4JConstants.AVAHI_OK;
+	}
+
+	@Override
+	public int stopLoop(long client) {
+		MDNSQuerier querier = client(client).querier;
+		if (querier.isQuerierThread())
+			return Avahi4JConstants.AVAHI_ERR_BAD_STATE;
+		querier.stop();
+		return Avahi4JConstants.AVAHI_OK;
+	}
+
+	@Override
+	public void releaseClient(long client) {
+		ClientHandle c = (ClientHandle) handles.remove(client);
+		if (c!=null)
+			c.querier.close();
+	}
+
+	@Override
+	public void getLockHistograms(long client, long[] wait, long[] hold) {
+		Arrays.fill(wait, 0, LatencyHistogram.BUCKETS, 0);
+		Arrays.fill(hold, 0, LatencyHistogram.BUCKETS, 0);
+	}
+
+	@Override
+	public void resetLockHistograms(long client) {
+	}
+	
+	
+	/*
+	 * E N T R Y   G R O U P
+	 */
+	@Override
+	public long initGroup(EntryGroup.Peer group, long client) throws Avahi4JException {
+		return register(new GroupHandle(group, client(client)));
+	}
+	
+	private MDNSResponder.Group group(long id) {
+		Object o = handles.get(id);
+		if (!(o instanceof GroupHandle))
+			throw new JNIException("Invalid group handle "+id);
+		return ((GroupHandle) o).group;
+	}
+
+	@Override
+	public int releaseGroup(long group) {
+		Object o = handles.remove(group);
+		if (!(o instanceof GroupHandle))
+			return Avahi4JConstants.AVAHI_ERR_INVALID_OBJECT;
+		((GroupHandle) o).group.release();
+		return Avahi4JConstants.AVAHI_OK;
+	}
+
+	@Override
+	public int commitGroup(long group) {
+		MDNSResponder.Group g = group(group);
+		try {
+			g.commit();
+		} catch (IllegalStateException e) {
+			return g.isEmpty() ? Avahi4JConstants.AVAHI_ERR_IS_EMPTY 
+					: Avahi4JConstants.AVAHI_ERR_BAD_STATE;
+		}
+		return Avahi4JConstants.AVAHI_OK;
+	}
+
+	@Override
+	public int getGroupState(long group) {
+		return group(group).getState().ordinal();
+	}
+
+	@Override
+	public int resetGroup(long group) {
+		group(group).reset();
+		return Avahi4JConstants.AVAHI_OK;
+	}
+
+	@Override
+	public int isGroupEmpty(long group) {
+		return group(group).isEmpty() ? 1 : 0;
+	}
+
+	@Override
+	public int addService(long group, int interfaceNum, int proto, String name,
+			String type, String domain, String host, int port, String[] txtRecord) {
+		try {
+			if (!group(group).addService(interfaceNum, toQuerierProto(proto), name, 
+					type, domain, host, port, txtRecord))
+				return Avahi4JConstants.AVAHI_ERR_COLLISION;
+		} catch (IllegalArgumentException e) {
+			return Avahi4JConstants.AVAHI_ERR_INVALID_RECORD;
+		} catch (IllegalStateException e) {
+			return Avahi4JConstants.AVAHI_ERR_BAD_STATE;
+		}
+		return Avahi4JConstants.AVAHI_OK;
+	}
+
+	@Override
+	public int addServiceSubtype(long group, int interfaceNum, int proto,
+			String name, String type, String domain, String subtype) {
+		try {
+			group(group).addServiceSubtype(interfaceNum, toQuerierProto(proto), name,
+					type, domain, subtype);
+		} catch (IllegalArgumentException e) {
+			return Avahi4JConstants.AVAHI_ERR_INVALID_SERVICE_SUBTYPE;
+		} catch (IllegalStateException e) {
+			return Avahi4JConstants.AVAHI_ERR_BAD_STATE;
+		}
+		return Avahi4JConstants.AVAHI_OK;
+	}
+
+	@Override
+	public int updateServiceTxt(long group, int interfaceNum, int proto,
+			String name, String type, String domain, String[] txtRecord) {
+		try {
+			group(group).updateServiceTxt(interfaceNum, toQuerierProto(proto), name,
+					type, domain, txtRecord);
+		} catch (IllegalArgumentException e) {
+			return Avahi4JConstants.AVAHI_ERR_NOT_FOUND;
+		}
+		return Avahi4JConstants.AVAHI_OK;
+	}
+
+	/**
+	 * This method implements avahi_alternative_service_name(): "name" becomes
+	 * "name #2", and "name #N" becomes "name #N+1"
+	 */
+	@Override
+	public String findAlternativeServiceName(String name) {
+		int hash = name.lastIndexOf(" #");
+		if (hash>=0) {
+			try {
+				int n = Integer.parseInt(name.substring(hash + 2));
+				if (n>0)
+					return name.substring(0, hash) + " #" + (n + 1);
+			} catch (NumberFormatException e) {}
+		}
+		return name + " #2";
+	}
+	
+	
+	/*
+	 * B R O W S E R S   &   R E S O L V E R S
+	 */
+	@Override
+	public long initServiceBrowser(final ServiceBrowser.Peer browser, long client,
+			int interfaceNum, int proto, final String type, String domain, 
+			int lookupFlags, int eventMask, String namePrefix) 
+			throws Avahi4JException {
+		final ClientHandle c = client(client);
+		final String d = domain(domain);
+		final EventFilter filter = new EventFilter(eventMask, namePrefix, 
+				EventFilter.ANY_RECORD_TYPE);
+		ObjectHandle o = new ObjectHandle(c);
+		
+		o.queries.add(c.querier.query(type + "." + d, DNSRecord.TYPE_PTR, 
+				interfaceNum, toQuerierProto(proto), new IQueryCallback() {
+			@Override
+			public void recordAdded(DNSRecord record, boolean cached) {
+				dispatch(record, BrowserEvent.NEW, resultFlags(cached));
+			}
+			
+			@Override
+			public void recordRemoved(DNSRecord record) {
+				dispatch(record, BrowserEvent.REMOVE, resultFlags(false));
+			}
+			
+			private void dispatch(DNSRecord record, BrowserEvent event, int flags) {
+				String target = record.getTargetName();
+				if (target==null)
+					return;
+				List<String> labels = DNSRecord.splitName(target);
+				if (labels.isEmpty() || !filter.accept(event.ordinal(), labels.get(0), 
+						EventFilter.ANY_RECORD_TYPE))
+					return;
+				browser.browserCallback(record.getInterfaceIndex(), record.getProtocol(),
+						event.ordinal(), labels.get(0), type, d, flags, 0, System.nanoTime());
+			}
+			
+			@Override
+			public void cacheExhausted() {
+				if (!filter.accept(BrowserEvent.CACHE_EXHAUSTED.ordinal(), null, 
+						EventFilter.ANY_RECORD_TYPE))
+					return;
+				browser.browserCallback(Avahi4JConstants.AnyInterface, 
+						Protocol.ANY.ordinal(), BrowserEvent.CACHE_EXHAUSTED.ordinal(), 
+						null, null, null, 0, 0, System.nanoTime());
+			}
+			
+			@Override
+			public void allForNow() {
+				if (!filter.accept(BrowserEvent.NO_MORE.ordinal(), null, 
+						EventFilter.ANY_RECORD_TYPE))
+					return;
+				browser.browserCallback(Avahi4JConstants.AnyInterface, 
+						Protocol.ANY.ordinal(), BrowserEvent.NO_MORE.ordinal(), 
+						null, null, null, 0, 0, System.nanoTime());
+			}
+		}));
+		return register(o);
+	}
+
+	@Override
+	public int releaseServiceBrowser(long browser) {
+		return release(browser);
+	}
+
+	@Override
+	public long initServiceTypeBrowser(final ServiceTypeBrowser.Peer browser, long client,
+			int interfaceNum, int proto, String domain, int lookupFlags)
+			throws Avahi4JException {
+		final ClientHandle c = client(client);
+		final String d = domain(domain);
+		ObjectHandle o = new ObjectHandle(c);
+		
+		o.queries.add(c.querier.query(MDNSResponder.SERVICES_NAME + "." + d, 
+				DNSRecord.TYPE_PTR, interfaceNum, toQuerierProto(proto), 
+				new IQueryCallback() {
+			@Override
+			public void recordAdded(DNSRecord record, boolean cached) {
+				dispatch(record, BrowserEvent.NEW, resultFlags(cached));
+			}
+			
+			@Override
+			public void recordRemoved(DNSRecord record) {
+				dispatch(record, BrowserEvent.REMOVE, resultFlags(false));
+			}
+			
+			private void dispatch(DNSRecord record, BrowserEvent event, int flags) {
+				// the target is "_service._proto.domain"
+				String target = record.getTargetName();
+				if (target==null)
+					return;
+				List<String> labels = DNSRecord.splitName(target);
+				if (labels.size()<2)
+					return;
+				browser.browserCallback(record.getInterfaceIndex(), record.getProtocol(),
+						event.ordinal(), labels.get(0) + "." + labels.get(1), d, flags, 
+						0, System.nanoTime());
+			}
+			
+			@Override
+			public void cacheExhausted() {
+				browser.browserCallback(Avahi4JConstants.AnyInterface, 
+						Protocol.ANY.ordinal(), BrowserEvent.CACHE_EXHAUSTED.ordinal(), 
+						null, null, 0, 0, System.nanoTime());
+			}
+			
+			@Override
+			public void allForNow() {
+				browser.browserCallback(Avahi4JConstants.AnyInterface, 
+						Protocol.ANY.ordinal(), BrowserEvent.NO_MORE.ordinal(), 
+						null, null, 0, 0, System.nanoTime());
+			}
+		}));
+		return register(o);
+	}
+
+	@Override
+	public int releaseServiceTypeBrowser(long browser) {
+		return release(browser);
+	}
+
+	@Override
+	public long initDomainBrowser(final DomainBrowser.Peer browser, long client,
+			int interfaceNum, int proto, String domain, int type, int lookupFlags)
+			throws Avahi4JException {
+		if (type<0 || type>=DOMAIN_PREFIXES.length)
+			throw new Avahi4JException("Invalid domain browser type");
+		ClientHandle c = client(client);
+		ObjectHandle o = new ObjectHandle(c);
+		
+		o.queries.add(c.querier.query(DOMAIN_PREFIXES[type] + "._dns-sd._udp." 
+				+ domain(domain), DNSRecord.TYPE_PTR, interfaceNum, 
+				toQuerierProto(proto), new IQueryCallback() {
+			@Override
+			public void recordAdded(DNSRecord record, boolean cached) {
+				dispatch(record, BrowserEvent.NEW, resultFlags(cached));
+			}
+			
+			@Override
+			public void recordRemoved(DNSRecord record) {
+				dispatch(record, BrowserEvent.REMOVE, resultFlags(false));
+			}
+			
+			private void dispatch(DNSRecord record, BrowserEvent event, int flags) {
+				String target = record.getTargetName();
+				if (target!=null)
+					browser.browserCallback(record.getInterfaceIndex(), 
+							record.getProtocol(), event.ordinal(), target, flags, 0, 
+							System.nanoTime());
+			}
+			
+			@Override
+			public void cacheExhausted() {
+				browser.browserCallback(Avahi4JConstants.AnyInterface, 
+						Protocol.ANY.ordinal(), BrowserEvent.CACHE_EXHAUSTED.ordinal(), 
+						null, 0, 0, System.nanoTime());
+			}
+			
+			@Override
+			public void allForNow() {
+				browser.browserCallback(Avahi4JConstants.AnyInterface, 
+						Protocol.ANY.ordinal(), BrowserEvent.NO_MORE.ordinal(), 
+						null, 0, 0, System.nanoTime());
+			}
+		}));
+		return register(o);
+	}
+
+	@Override
+	public int releaseDomainBrowser(long browser) {
+		return release(browser);
+	}
+
+	@Override
+	public long initServiceResolver(ServiceResolver.Peer resolver, long client,
+			int interfaceNum, int proto, String name, String type, String domain,
+			int addressProtocol, int lookupFlags) throws Avahi4JException {
+		ClientHandle c = client(client);
+		ObjectHandle o = new ObjectHandle(c);
+		synchronized (c.querier) {
+			new Resolution(o, resolver, interfaceNum, toQuerierProto(proto), name, 
+					type, domain(domain), addressProtocol, lookupFlags).start();
+		}
+		return register(o);
+	}
+
+	@Override
+	public int releaseServiceResolver(long resolver) {
+		return release(resolver);
+	}
+
+	@Override
+	public long initHostNameResolver(final HostNameResolver.Peer resolver, long client,
+			int interfaceNum, int proto, String name, int addressProtocol,
+			int lookupFlags) throws Avahi4JException {
+		ClientHandle c = client(client);
+		ObjectHandle o = new ObjectHandle(c);
+		HostLookup lookup = new HostLookup(o) {
+			@Override
+			void found(DNSRecord record, int flags) {
+				resolver.dispatchCallback(record.getInterfaceIndex(), record.getProtocol(),
+						ServiceResolverEvent.RESOLVER_FOUND.ordinal(), record.getName(),
+						record.getRData(), flags, 0, System.nanoTime());
+			}
+			
+			@Override
+			void failed() {
+				resolver.dispatchCallback(0, 0, 
+						ServiceResolverEvent.RESOLVER_FAILURE.ordinal(), null, null, 0,
+						0, System.nanoTime());
+			}
+		};
+		synchronized (c.querier) {
+			if (addressProtocol!=Protocol.INET6.ordinal())
+				lookup.query(name, DNSRecord.TYPE_A, interfaceNum, toQuerierProto(proto));
+			if (addressProtocol!=Protocol.INET.ordinal())
+				lookup.query(name, DNSRecord.TYPE_AAAA, interfaceNum, toQuerierProto(proto));
+			lookup.start();
+		}
+		return register(o);
+	}
+
+	@Override
+	public int releaseHostNameResolver(long resolver) {
+		return release(resolver);
+	}
+
+	@Override
+	public long initAddressResolver(final AddressResolver.Peer resolver, long client,
+			int interfaceNum, int proto, final byte[] address, int lookupFlags)
+			throws Avahi4JException {
+		if (address.length!=4 && address.length!=16)
+			throw new Avahi4JException("Invalid address");
+		ClientHandle c = client(client);
+		ObjectHandle o = new ObjectHandle(c);
+		HostLookup lookup = new HostLookup(o) {
+			@Override
+			void found(DNSRecord record, int flags) {
+				resolver.dispatchCallback(record.getInterfaceIndex(), record.getProtocol(),
+						ServiceResolverEvent.RESOLVER_FOUND.ordinal(), address,
+						record.getTargetName(), flags, 0, System.nanoTime());
+			}
+			
+			@Override
+			void failed() {
+				resolver.dispatchCallback(0, 0, 
+						ServiceResolverEvent.RESOLVER_FAILURE.ordinal(), null, null, 0,
+						0, System.nanoTime());
+			}
+		};
+		synchronized (c.querier) {
+			lookup.query(DNSRecord.reverseName(address), DNSRecord.TYPE_PTR, 
+					interfaceNum, toQuerierProto(proto));
+			lookup.start();
+		}
+		return register(o);
+	}
+
+	@Override
+	public int releaseAddressResolver(long resolver) {
+		return release(resolver);
+	}
+
+	@Override
+	public long initRecordBrowser(final RecordBrowser.Peer browser, long client,
+			int interfaceNum, int proto, final String name, final int clazz, 
+			final int type, int lookupFlags, int eventMask, int recordType) 
+			throws Avahi4JException {
+		if (clazz!=DNSRecord.CLASS_IN)
+			throw new Avahi4JException("Only records of class IN can be browsed");
+		ClientHandle c = client(client);
+		final EventFilter filter = new EventFilter(eventMask, null, recordType);
+		ObjectHandle o = new ObjectHandle(c);
+		
+		o.queries.add(c.querier.query(name, type, interfaceNum, 
+				toQuerierProto(proto), new IQueryCallback() {
+			@Override
+			public void recordAdded(DNSRecord record, boolean cached) {
+				if (!filter.accept(BrowserEvent.NEW.ordinal(), null, record.getType()))
+					return;
+				browser.dispatchCallback(record.getInterfaceIndex(), record.getProtocol(),
+						BrowserEvent.NEW.ordinal(), record.getName(), 
+						record.getDNSClass(), record.getType(), 
+						ByteBuffer.wrap(record.getRData()), resultFlags(cached), 0, 
+						System.nanoTime());
+			}
+			
+			@Override
+			public void recordRemoved(DNSRecord record) {
+				if (!filter.accept(BrowserEvent.REMOVE.ordinal(), null, record.getType()))
+					return;
+				browser.dispatchCallback(record.getInterfaceIndex(), record.getProtocol(),
+						BrowserEvent.REMOVE.ordinal(), record.getName(), 
+						record.getDNSClass(), record.getType(), 
+						ByteBuffer.wrap(record.getRData()), resultFlags(false), 0, 
+						System.nanoTime());
+			}
+			
+			@Override
+			public void cacheExhausted() {
+				if (!filter.accept(BrowserEvent.CACHE_EXHAUSTED.ordinal(), null, 
+						EventFilter.ANY_RECORD_TYPE))
+					return;
+				browser.dispatchCallback(Avahi4JConstants.AnyInterface, 
+						Protocol.ANY.ordinal(), BrowserEvent.CACHE_EXHAUSTED.ordinal(),
+						null, clazz, type, null, 0, 0, System.nanoTime());
+			}
+			
+			@Override
+			public void allForNow() {
+				if (!filter.accept(BrowserEvent.NO_MORE.ordinal(), null, 
+						EventFilter.ANY_RECORD_TYPE))
+					return;
+				browser.dispatchCallback(Avahi4JConstants.AnyInterface, 
+						Protocol.ANY.ordinal(), BrowserEvent.NO_MORE.ordinal(),
+						null, clazz, type, null, 0, 0, System.nanoTime());
+			}
+		}));
+		return register(o);
+	}
+
+	@Override
+	public int releaseRecordBrowser(long browser) {
+		return release(browser);
+	}
+	
+	/**
+	 * This class resolves a service: it looks up its SRV and TXT records, 
+	 * then the address of the host named in the SRV record, and reports the
+	 * result when all are known. Later changes are reported again. If nothing
+	 * is found within {@link MDNSBackend#RESOLVER_TIMEOUT}, a failure is 
+	 * reported and the lookups stop.
+	 */
+	private static class Resolution {
+		private final ObjectHandle handle;
+		private final MDNSQuerier querier;
+		private final ServiceResolver.Peer resolver;
+		private final int interfaceNum, proto, addressProtocol, lookupFlags;
+		private final String name, type, domain, fullName;
+		private final List<MDNSQuerier.Query> addressQueries;
+		private DNSRecord srv, txt, address;
+		private boolean cached, found;
+		private byte lastReported[][];
+		
+		Resolution(ObjectHandle handle, ServiceResolver.Peer resolver, int interfaceNum, 
+				int proto, String name, String type, String domain, int addressProtocol,
+				int lookupFlags) {
+			this.handle = handle;
+			this.querier = handle.client.querier;
+			this.resolver = resolver;
+			this.interfaceNum = interfaceNum;
+			this.proto = proto;
+			this.name = name;
+			this.type = type;
+			this.domain = domain;
+			this.addressProtocol = addressProtocol;
+			this.lookupFlags = lookupFlags;
+			fullName = DNSRecord.escapeLabel(name) + "." + type + "." + domain;
+			addressQueries = new ArrayList<MDNSQuerier.Query>();
+			cached = true;
+		}
+		
+		void start() {
+			handle.queries.add(querier.query(fullName, DNSRecord.TYPE_SRV, interfaceNum,
+					proto, new RecordCallback() {
+				@Override
+				public void recordAdded(DNSRecord record, boolean fromCache) {
+					cached &= fromCache;
+					if (srv==null || !srv.sameData(record)) {
+						srv = record;
+						lookupAddress();
+					}
+					check();
+				}
+				
+				@Override
+				public void recordRemoved(DNSRecord record) {
+					if (srv!=null && srv.sameData(record))
+						srv = null;
+				}
+			}));
+			
+			if ((lookupFlags & Avahi4JConstants.LOOKUP_NO_TXT)==0)
+				handle.queries.add(querier.query(fullName, DNSRecord.TYPE_TXT, 
+						interfaceNum, proto, new RecordCallback() {
+					@Override
+					public void recordAdded(DNSRecord record, boolean fromCache) {
+						cached &= fromCache;
+						txt = record;
+						check();
+					}
+					
+					@Override
+					public void recordRemoved(DNSRecord record) {
+						if (txt!=null && txt.sameData(record))
+							txt = null;
+					}
+				}));
+			
+			handle.timer = querier.schedule(new Runnable() {
+				@Override
+				public void run() {
+					handle.timer = null;
+					if (!found) {
+						handle.cancel();
+						handle.client.lastError = Avahi4JConstants.AVAHI_ERR_TIMEOUT;
+						resolver.dispatchCallback(interfaceNum, Protocol.ANY.ordinal(),
+								ServiceResolverEvent.RESOLVER_FAILURE.ordinal(), name, type,
+								domain, null, null, 0, null, 0, 0, System.nanoTime());
+					}
+				}
+			}, RESOLVER_TIMEOUT);
+		}
+		
+		/**
+		 * This method looks up the address of the host named in the current 
+		 * SRV record, on the link the SRV record came from
+		 */
+		private void lookupAddress() {
+			for(MDNSQuerier.Query q: addressQueries) {
+				q.cancel();
+				handle.queries.remove(q);
+			}
+			addressQueries.clear();
+			address = null;
+			
+			String host = srv.getTargetName();
+			if (host==null || (lookupFlags & Avahi4JConstants.LOOKUP_NO_ADDRESS)!=0)
+				return;
+			
+			RecordCallback callback = new RecordCallback() {
+				@Override
+				public void recordAdded(DNSRecord record, boolean fromCache) {
+					if (address==null) {
+						cached &= fromCache;
+						address = record;
+						check();
+					}
+				}
+				
+				@Override
+				public void recordRemoved(DNSRecord record) {
+					if (address!=null && address.sameData(record))
+						address = null;
+				}
+			};
+			if (addressProtocol!=Protocol.INET6.ordinal())
+				addressQueries.add(querier.query(host, DNSRecord.TYPE_A, 
+						srv.getInterfaceIndex(), srv.getProtocol(), callback));
+			if (addressProtocol!=Protocol.INET.ordinal())
+				addressQueries.add(querier.query(host, DNSRecord.TYPE_AAAA, 
+						srv.getInterfaceIndex(), srv.getProtocol(), callback));
+			handle.queries.addAll(addressQueries);
+		}
+		
+		/**
+		 * This method reports the service if all its records are known and 
+		 * they differ from the last report
+		 */
+		private void check() {
+			if (srv==null)
+				return;
+			if (txt==null && (lookupFlags & Avahi4JConstants.LOOKUP_NO_TXT)==0)
+				return;
+			if (address==null && (lookupFlags & Avahi4JConstants.LOOKUP_NO_ADDRESS)==0)
+				return;
+			
+			byte report[][] = {srv.getRData(), txt==null ? null : txt.getRData(), 
+					address==null ? null : address.getRData()};
+			if (lastReported!=null && Arrays.deepEquals(report, lastReported))
+				return;
+			lastReported = report;
+			found = true;
+			
+			resolver.dispatchCallback(srv.getInterfaceIndex(), srv.getProtocol(),
+					ServiceResolverEvent.RESOLVER_FOUND.ordinal(), name, type, domain,
+					srv.getTargetName(), address==null ? null : address.getRData(),
+					srv.getSRVPort(), txt==null ? new String[0] : txt.getTXTStrings(),
+					resultFlags(cached), 0, System.nanoTime());
+		}
+	}
+	
+	/**
+	 * This class looks up the address records of a host, or the PTR record 
+	 * of an address, and reports the first record found, then any record 
+	 * with different data. If nothing is found within 
+	 * {@link MDNSBackend#RESOLVER_TIMEOUT}, a failure is reported and the 
+	 * lookup stops.
+	 */
+	private static abstract class HostLookup extends RecordCallback {
+		private final ObjectHandle handle;
+		private DNSRecord lastReported;
+		
+		HostLookup(ObjectHandle handle) {
+			this.handle = handle;
+		}
+		
+		void query(String name, int type, int interfaceNum, int proto) {
+			handle.queries.add(handle.client.querier.query(name, type, interfaceNum,
+					proto, this));
+		}
+		
+		void start() {
+			handle.timer = handle.client.querier.schedule(new Runnable() {
+				@Override
+				public void run() {
+					handle.timer = null;
+					if (lastReported==null) {
+						handle.cancel();
+						handle.client.lastError = Avahi4JConstants.AVAHI_ERR_TIMEOUT;
+						failed();
+					}
+				}
+			}, RESOLVER_TIMEOUT);
+		}
+		
+		@Override
+		public void recordAdded(DNSRecord record, boolean cached) {
+			if (lastReported!=null && lastReported.sameData(record))
+				return;
+			lastReported = record;
+			found(record, resultFlags(cached));
+		}
+		
+		@Override
+		public void recordRemoved(DNSRecord record) {
+		}
+		
+		abstract void found(DNSRecord record, int flags);
+		
+		abstract void failed();
+	}
+	
+	/**
+	 * An {@link IQueryCallback} which ignores the CACHE_EXHAUSTED and 
+	 * ALL_FOR_NOW events
+	 */
+	private static abstract class RecordCallback implements IQueryCallback {
+		@Override
+		public void cacheExhausted() {
+		}
+		
+		@Override
+		public void allForNow() {
+		}
+	}
+}
@@ -0,0 +1,256 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j.mdns;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class decodes a DNS message received from the network. Malformed
+ * messages are rejected with a {@link MalformedMessageException}.
+ * @author gilles
+ *
+ */
+public final class DNSMessage {
+	/**
+	 * The QR bit of the header flags: set in responses
+	 */
+	public static final int FLAG_RESPONSE = 0x8000;
+	/**
+	 * The TC bit of the header flags: set when known answers continue in 
+	 * another packet
+	 */
+	public static final int FLAG_TRUNCATED = 0x0200;
+	/**
+	 * The AA bit of the header flags
+	 */
+	public static final int FLAG_AUTHORITATIVE = 0x0400;
+	
+	/**
+	 * The maximum number of compression pointers followed while decoding a 
+	 * name, to protect against loops
+	 */
+	private static final int MAX_POINTERS = 32;
+	
+	/**
+	 * This class represents an entry in the question section
+	 */
+	public static final class Question {
+		public final String name;
+		public final int type;
+		public final int clazz;
+		/**
+		 * whether the QU bit was set (unicast response requested)
+		 */
+		public final boolean unicast;
+		
+		public Question(String name, int type, int clazz, boolean unicast) {
+			this.name = name;
+			this.type = type;
+			this.clazz = clazz;
+			this.unicast = unicast;
+		}
+	}
+	
+	/**
+	 * This exception is thrown when a message can not be decoded
+	 */
+	public static class MalformedMessageException extends Exception {
+		private static final long serialVersionUID = -3409263473937015296L;
+
+		public MalformedMessageException(String message) {
+			super(message);
+		}
+	}
+	
+	private int id;
+	private int flags;
+	private List<Question> questions;
+	private List<DNSRecord> answers;
+	private List<DNSRecord> authorities;
+	private List<DNSRecord> additionals;
+	
+	private DNSMessage() {}
+	
+	/**
+	 * This method decodes a DNS message
+	 * @param buffer the buffer containing the message, between its position 
+	 * and its limit
+	 * @param interfaceIndex the index of the interface the message was 
+	 * received on
+	 * @param protocol 0 if the message was received over IPv4, 1 over IPv6
+	 * @return the decoded message
+	 * @throws MalformedMessageException if the message can not be decoded
+	 */
+	public static DNSMessage parse(ByteBuffer buffer, int interfaceIndex, int protocol)
+			throws MalformedMessageException {
+		ByteBuffer b = buffer.slice();
+		DNSMessage m = new DNSMessage();
+		try {
+			m.id = b.getShort() & 0xffff;
+			m.flags = b.getShort() & 0xffff;
+			int qdcount = b.getShort() & 0xffff;
+			int ancount = b.getShort() & 0xffff;
+			int nscount = b.getShort() & 0xffff;
+			int arcount = b.getShort() & 0xffff;
+			
+			m.questions = new ArrayList<Question>(qdcount);
+			for(int i=0; i<qdcount; i++) {
+				String name = readName(b);
+				int type = b.getShort() & 0xffff;
+				int clazz = b.getShort() & 0xffff;
+				m.questions.add(new Question(name, type, clazz & 0x7fff, 
+						(clazz & 0x8000)!=0));
+			}
+			m.answers = readRecords(b, ancount, interfaceIndex, protocol);
+			m.authorities = readRecords(b, nscount, interfaceIndex, protocol);
+			m.additionals = readRecords(b, arcount, interfaceIndex, protocol);
+		} catch (BufferUnderflowException e) {
+			throw new MalformedMessageException("Truncated message");
+		} catch (IndexOutOfBoundsException e) {
+			throw new MalformedMessageException("Invalid offset in message");
+		}
+		return m;
+	}
+	
+	private static List<DNSRecord> readRecords(ByteBuffer b, int count, 
+			int interfaceIndex, int protocol) throws MalformedMessageException {
+		List<DNSRecord> records = new ArrayList<DNSRecord>(count);
+		for(int i=0; i<count; i++) {
+			String name = readName(b);
+			int type = b.getShort() & 0xffff;
+			int clazz = b.getShort() & 0xffff;
+			long ttl = b.getInt() & 0xffffffffL;
+			int length = b.getShort() & 0xffff;
+			int end = b.position() + length;
+			if (end>b.limit())
+				throw new MalformedMessageException("Truncated rdata");
+			
+			byte rdata[];
+			switch(type) {
+			case DNSRecord.TYPE_PTR:
+			case DNSRecord.TYPE_CNAME:
+			case DNSRecord.TYPE_NS:
+				rdata = DNSRecord.encodeName(readName(b));
+				break;
+			case DNSRecord.TYPE_MX:
+				rdata = prefixedName(b, 2);
+				break;
+			case DNSRecord.TYPE_SRV:
+				rdata = prefixedName(b, 6);
+				break;
+			default:
+				rdata = new byte[length];
+				b.get(rdata);
+			}
+			if (b.position()!=end)
+				throw new MalformedMessageException("Invalid rdata length");
+			
+			records.add(new DNSRecord(name, type, clazz & 0x7fff, (clazz & 0x8000)!=0, 
+					ttl, rdata, interfaceIndex, protocol));
+		}
+		return records;
+	}
+	
+	/**
+	 * This method reads rdata made of a fixed-size prefix followed by a 
+	 * possibly compressed name, and returns it with the name uncompressed
+	 */
+	private static byte[] prefixedName(ByteBuffer b, int prefix) 
+			throws MalformedMessageException {
+		byte p[] = new byte[prefix];
+		b.get(p);
+		byte name[] = DNSRecord.encodeName(readName(b));
+		byte rdata[] = new byte[prefix + name.length];
+		System.arraycopy(p, 0, rdata, 0, prefix);
+		System.arraycopy(name, 0, rdata, prefix, name.length);
+		return rdata;
+	}
+	
+	/**
+	 * This method reads a possibly compressed name at the buffer's current 
+	 * position, and advances the position past it
+	 */
+	static String readName(ByteBuffer b) throws MalformedMessageException {
+		StringBuilder sb = new StringBuilder();
+		int pos = b.position(), end = -1, pointers = 0, length = 0;
+		byte data[] = new byte[63];
+		
+		while(true) {
+			int len = b.get(pos++) & 0xff;
+			if (len==0)
+				break;
+			if ((len & 0xc0)==0xc0) {
+				if (++pointers>MAX_POINTERS)
+					throw new MalformedMessageException("Compression loop");
+				if (end<0)
+					end = pos + 1;
+				pos = ((len & 0x3f) << 8) | (b.get(pos) & 0xff);
+				continue;
+			}
+			if (len>63)
+				throw new MalformedMessageException("Invalid label length");
+			length += len + 1;
+			if (length>255)
+				throw new MalformedMessageException("Name too long");
+			for(int i=0; i<len; i++)
+				data[i] = b.get(pos++);
+			if (sb.length()>0)
+				sb.append('.');
+			DNSRecord.appendLabel(sb, data, 0, len);
+		}
+		b.position(end<0 ? pos : end);
+		return sb.toString();
+	}
+	
+	/**
+	 * @return the message ID (0 for multicast DNS)
+	 */
+	public int getId() {
+		return id;
+	}
+	
+	/**
+	 * @return the header flags (see FLAG_* constants)
+	 */
+	public int getFlags() {
+		return flags;
+	}
+	
+	public boolean isResponse() {
+		return (flags & FLAG_RESPONSE)!=0;
+	}
+	
+	public List<Question> getQuestions() {
+		return questions;
+	}
+	
+	public List<DNSRecord> getAnswers() {
+		return answers;
+	}
+	
+	public List<DNSRecord> getAuthorities() {
+		return authorities;
+	}
+	
+	public List<DNSRecord> getAdditionals() {
+		return additionals;
+	}
+}
@@ -0,0 +1,205 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j.mdns;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class encodes a DNS message into a {@link ByteBuffer}, compressing 
+ * names. Sections must be written in order: questions, then answers, then 
+ * authorities, then additional records. Each <code>add*()</code> method 
+ * returns false, leaving the message unchanged, if the entry does not fit in 
+ * the buffer, so callers can send what they have and continue in a new 
+ * message.
+ * @author gilles
+ *
+ */
+public final class DNSWriter {
+	private static final int HEADER_SIZE = 12;
+	private static final int MAX_POINTER = 0x3fff;
+	
+	private final ByteBuffer buffer;
+	private final Map<String, Integer> names;
+	private int counts[];
+	private int section;
+	
+	/**
+	 * This method creates a writer encoding into the given buffer
+	 * @param buffer the buffer to write to. Its capacity sets the maximum 
+	 * size of the message.
+	 */
+	public DNSWriter(ByteBuffer buffer) {
+		this.buffer = buffer;
+		names = new HashMap<String, Integer>();
+		counts = new int[4];
+	}
+	
+	/**
+	 * This method clears the buffer and starts a new message
+	 * @param id the message ID
+	 * @param flags the header flags
+	 */
+	public void reset(int id, int flags) {
+		buffer.clear();
+		names.clear();
+		counts = new int[4];
+		section = 0;
+		buffer.putShort((short) id);
+		buffer.putShort((short) flags);
+		while(buffer.position()<HEADER_SIZE)
+			buffer.putShort((short) 0);
+	}
+	
+	/**
+	 * This method sets the header flags of the current message
+	 * @param flags the new flags
+	 */
+	public void setFlags(int flags) {
+		buffer.putShort(2, (short) flags);
+	}
+	
+	/**
+	 * @return whether no question or record has been added since the last
+	 * {@link #reset(int, int)}
+	 */
+	public boolean isEmpty() {
+		return counts[0]+counts[1]+counts[2]+counts[3]==0;
+	}
+	
+	public boolean addQuestion(String name, int type, int clazz, boolean unicast) {
+		return add(0, name, type, clazz | (unicast ? 0x8000 : 0), -1, null);
+	}
+	
+	public boolean addAnswer(DNSRecord r) {
+		return addRecord(1, r);
+	}
+	
+	public boolean addAuthority(DNSRecord r) {
+		return addRecord(2, r);
+	}
+	
+	public boolean addAdditional(DNSRecord r) {
+		return addRecord(3, r);
+	}
+	
+	private boolean addRecord(int s, DNSRecord r) {
+		return add(s, r.getName(), r.getType(), 
+				r.getDNSClass() | (r.isCacheFlush() ? 0x8000 : 0), r.getTTL(), r);
+	}
+	
+	private boolean add(int s, String name, int type, int clazz, long ttl, 
+			DNSRecord r) {
+		if (s<section)
+			throw new IllegalStateException("DNS message sections must be written in order");
+		
+		int start = buffer.position();
+		Map<String, Integer> saved = new HashMap<String, Integer>(names);
+		try {
+			writeName(name);
+			buffer.putShort((short) type);
+			buffer.putShort((short) clazz);
+			if (r!=null) {
+				buffer.putInt((int) ttl);
+				int lengthPos = buffer.position();
+				buffer.putShort((short) 0);
+				writeRData(r);
+				buffer.putShort(lengthPos, (short) (buffer.position() - lengthPos - 2));
+			}
+		} catch (BufferOverflowException e) {
+			buffer.position(start);
+			names.clear();
+			names.putAll(saved);
+			return false;
+		}
+		
+		section = s;
+		counts[s]++;
+		buffer.putShort(4 + 2*s, (short) counts[s]);
+		return true;
+	}
+	
+	/**
+	 * This method writes rdata, compressing the names contained in PTR, 
+	 * CNAME, NS, MX and SRV records
+	 */
+	private void writeRData(DNSRecord r) {
+		byte rdata[] = r.getRData();
+		switch(r.getType()) {
+		case DNSRecord.TYPE_PTR:
+		case DNSRecord.TYPE_CNAME:
+		case DNSRecord.TYPE_NS:
+			writeName(r.getTargetName());
+			break;
+		case DNSRecord.TYPE_MX:
+			buffer.put(rdata, 0, 2);
+			writeName(r.getTargetName());
+			break;
+		case DNSRecord.TYPE_SRV:
+			buffer.put(rdata, 0, 6);
+			writeName(r.getTargetName());
+			break;
+		default:
+			buffer.put(rdata);
+		}
+	}
+	
+	/**
+	 * This method writes a name, replacing its longest suffix already present
+	 * in the message with a compression pointer
+	 */
+	private void writeName(String name) {
+		List<String> labels = DNSRecord.splitName(name);
+		for(int i=0; i<labels.size(); i++) {
+			String suffix = suffixKey(labels, i);
+			Integer offset = names.get(suffix);
+			if (offset!=null) {
+				buffer.putShort((short) (0xc000 | offset));
+				return;
+			}
+			if (buffer.position()<=MAX_POINTER)
+				names.put(suffix, buffer.position());
+			byte label[] = labels.get(i).getBytes(DNSRecord.UTF8);
+			if (label.length>63)
+				throw new IllegalArgumentException("Label too long in "+name);
+			buffer.put((byte) label.length);
+			buffer.put(label);
+		}
+		buffer.put((byte) 0);
+	}
+	
+	private static String suffixKey(List<String> labels, int from) {
+		StringBuilder sb = new StringBuilder();
+		for(int i=from; i<labels.size(); i++)
+			sb.append(DNSRecord.escapeLabel(labels.get(i)).toLowerCase()).append('.');
+		return sb.toString();
+	}
+	
+	/**
+	 * This method returns the encoded message, ready to be sent
+	 * @return a buffer whose position is 0 and limit the message size
+	 */
+	public ByteBuffer getMessage() {
+		ByteBuffer b = buffer.duplicate();
+		b.flip();
+		return b;
+	}
+}
@@ -0,0 +1,55 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j.mdns;
+
+/**
+ * Objects implementing this interface receive the results of a continuous 
+ * multicast DNS query started with 
+ * {@link MDNSQuerier#query(String, int, int, int, IQueryCallback)}. Methods
+ * are called from the {@link MDNSQuerier}'s thread, with its lock held.
+ * @author gilles
+ *
+ */
+public interface IQueryCallback {
+	/**
+	 * This method is called when a record matching the query is discovered
+	 * @param record the new record
+	 * @param cached whether the record was already in the cache when the 
+	 * query started
+	 */
+	public void recordAdded(DNSRecord record, boolean cached);
+	
+	/**
+	 * This method is called when a record previously reported by 
+	 * {@link #recordAdded(DNSRecord, boolean)} expires or is withdrawn
+	 * @param record the removed record
+	 */
+	public void recordRemoved(DNSRecord record);
+	
+	/**
+	 * This method is called once, after all the matching cached records have
+	 * been reported
+	 */
+	public void cacheExhausted();
+	
+	/**
+	 * This method is called once, when no more answers to the initial query 
+	 * are expected in the near future
+	 */
+	public void allForNow();
+}
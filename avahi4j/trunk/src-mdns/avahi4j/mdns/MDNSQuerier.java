@@ -0,0 +1,838 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j.mdns;
+
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.InterfaceAddress;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import avahi4j.mdns.DNSMessage.MalformedMessageException;
+
+/**
+ * This class implements the querying half of multicast DNS (RFC 6762) on top
+ * of NIO multicast {@link DatagramChannel}s, without the avahi daemon. It 
+ * runs continuous queries, whose answers are kept in one {@link RecordCache}
+ * per link (interface and IP version pair) and reported to 
+ * {@link IQueryCallback}s. It implements:
+ * <ul>
+ * <li>exponential back-off of continuous queries: the first query is sent 
+ * after a random 20-120ms delay, the next ones after 1s, 2s, 4s... up to one
+ * hour (RFC 6762 section 5.2),</li>
+ * <li>cache refresh queries at 80, 85, 90 and 95% of the TTL of records 
+ * still wanted by a query (section 5.2),</li>
+ * <li>known-answer suppression: cached answers with more than half their TTL
+ * left are listed in queries, spread over several packets with the TC bit if
+ * needed (section 7.1 and 7.2),</li>
+ * <li>goodbye packets and cache flush (section 10.1 and 10.2),</li>
+ * <li>passive observation: every response received, whether solicited or not,
+ * updates the cache and running queries.</li>
+ * </ul>
+ * A single thread multiplexes one channel per IP version with a 
+ * {@link Selector}. Packets are attributed to a link using their source 
+ * address (scope for IPv6 link-local addresses, subnet otherwise), as Java 
+ * does not report the receiving interface.<br>
+ * All methods are thread-safe. Callbacks are invoked from the querier thread
+ * with the querier's lock held, so they can start or cancel queries, but 
+ * other threads calling into the querier wait for them to complete.<br>
+ * The querier can be tested without a network on the loopback interface, 
+ * using a port other than 5353.
+ * @author gilles
+ *
+ */
+public final class MDNSQuerier {
+	/**
+	 * The multicast DNS port
+	 */
+	public static final int MDNS_PORT = 5353;
+	/**
+	 * The multicast DNS IPv4 group
+	 */
+	public static final String MDNS_GROUP_IPV4 = "224.0.0.251";
+	/**
+	 * The multicast DNS IPv6 group
+	 */
+	public static final String MDNS_GROUP_IPV6 = "ff02::fb";
+	
+	/**
+	 * The size of outgoing packets. It fits in the IPv6 minimum MTU.
+	 */
+	static final int MAX_PACKET_SIZE = 1232;
+	/**
+	 * The largest packet we accept (RFC 6762 section 17)
+	 */
+	private static final int MAX_RECEIVE_SIZE = 9000;
+	private static final long INITIAL_DELAY_MIN = 20;
+	private static final long INITIAL_DELAY_MAX = 120;
+	private static final long INITIAL_INTERVAL = 1000;
+	private static final long MAX_INTERVAL = 3600 * 1000;
+	/**
+	 * How long after the first query {@link IQueryCallback#allForNow()} is 
+	 * called
+	 */
+	private static final long ALL_FOR_NOW_DELAY = 1000;
+	/**
+	 * The longest the querier thread sleeps, in milliseconds
+	 */
+	private static final long MAX_SLEEP = 1000;
+	
+	/**
+	 * This class represents a continuous query
+	 */
+	public final class Query {
+		private final String name;
+		private final int type;
+		private final String key;
+		private final int interfaceIndex;
+		private final int protocol;
+		private final IQueryCallback callback;
+		private boolean started;
+		private boolean cancelled;
+		private long nextSend;
+		private long interval;
+		private long allForNow;
+		
+		private Query(String name, int type, int interfaceIndex, int protocol,
+				IQueryCallback callback) {
+			this.name = name;
+			this.type = type;
+			this.key = RecordCache.key(name, type);
+			this.interfaceIndex = interfaceIndex;
+			this.protocol = protocol;
+			this.callback = callback;
+			nextSend = Long.MAX_VALUE;
+			allForNow = Long.MAX_VALUE;
+		}
+		
+		public String getName() {
+			return name;
+		}
+		
+		public int getType() {
+			return type;
+		}
+		
+		/**
+		 * This method stops this query. Its callback will not be called after 
+		 * this method returns.
+		 */
+		public void cancel() {
+			MDNSQuerier.this.cancel(this);
+		}
+		
+		boolean matches(Link l) {
+			return !cancelled && (interfaceIndex<0 || interfaceIndex==l.index) 
+				&& (protocol<0 || protocol==l.protocol);
+		}
+		
+		boolean matches(Link l, DNSRecord r) {
+			return matches(l) && r.getName().equalsIgnoreCase(name) 
+				&& (type==DNSRecord.TYPE_ANY || type==r.getType());
+		}
+	}
+	
+	/**
+	 * This class represents a task scheduled with 
+	 * {@link MDNSQuerier#schedule(Runnable, long)}
+	 */
+	public final class Timer implements Comparable<Timer> {
+		private final long when;
+		private final Runnable task;
+		private boolean cancelled;
+		
+		private Timer(long when, Runnable task) {
+			this.when = when;
+			this.task = task;
+		}
+		
+		/**
+		 * This method cancels this timer. Its task will not run after this 
+		 * method returns.
+		 */
+		public void cancel() {
+			synchronized (MDNSQuerier.this) {
+				cancelled = true;
+				timers.remove(this);
+			}
+		}
+		
+		@Override
+		public int compareTo(Timer t) {
+			return when<t.when ? -1 : when==t.when ? 0 : 1;
+		}
+	}
+	
+	/**
+	 * This class represents an interface and IP version pair
+	 */
+	static final class Link {
+		final NetworkInterface nic;
+		final int index;
+		/**
+		 * the position of this link in the querier's list of links
+		 */
+		final int ordinal;
+		/**
+		 * 0 for IPv4, 1 for IPv6
+		 */
+		final int protocol;
+		final DatagramChannel channel;
+		final InetSocketAddress group;
+		final List<InterfaceAddress> addresses;
+		final RecordCache cache;
+		
+		Link(NetworkInterface nic, int ordinal, int protocol, DatagramChannel channel, 
+				InetSocketAddress group) {
+			this.nic = nic;
+			this.index = nic.getIndex();
+			this.ordinal = ordinal;
+			this.protocol = protocol;
+			this.channel = channel;
+			this.group = group;
+			this.addresses = new ArrayList<InterfaceAddress>();
+			for(InterfaceAddress a: nic.getInterfaceAddresses())
+				if ((a.getAddress() instanceof Inet4Address) == (protocol==0))
+					addresses.add(a);
+			cache = new RecordCache();
+		}
+		
+		/**
+		 * @return whether the given source address is on this link
+		 */
+		boolean isOnLink(InetAddress source) {
+			if (source instanceof Inet6Address && source.isLinkLocalAddress())
+				return ((Inet6Address) source).getScopeId()==index;
+			for(InterfaceAddress a: addresses)
+				if (sameSubnet(a.getAddress(), source, a.getNetworkPrefixLength()))
+					return true;
+			return false;
+		}
+		
+		private static boolean sameSubnet(InetAddress a, InetAddress b, int prefix) {
+			byte x[] = a.getAddress(), y[] = b.getAddress();
+			if (x.length!=y.length)
+				return false;
+			for(int i=0; i<x.length && prefix>0; i++, prefix-=8) {
+				int mask = prefix>=8 ? 0xff : (0xff << (8 - prefix)) & 0xff;
+				if (((x[i] ^ y[i]) & mask)!=0)
+					return false;
+			}
+			return true;
+		}
+		
+		@Override
+		public String toString() {
+			return nic.getName() + (protocol==0 ? "/IPv4" : "/IPv6");
+		}
+	}
+	
+	private final int port;
+	private final List<Link> links;
+	private final DatagramChannel channels[];
+	private final List<Query> queries;
+	private final PriorityQueue<Timer> timers;
+	private final Selector selector;
+	private final ByteBuffer receiveBuffer;
+	private final DNSWriter writer;
+	private final Random random;
+	private MDNSResponder responder;
+	private Thread thread;
+	private volatile boolean running;
+	
+	private long packetsSent, packetsReceived, packetsDropped, sendErrors;
+	
+	/**
+	 * This method creates a querier on the given interfaces. The querier's 
+	 * thread is not started until {@link #start()} is called.
+	 * @param interfaces the interfaces to use, see 
+	 * {@link #getDefaultInterfaces()}
+	 * @param port the UDP port, normally {@link #MDNS_PORT}
+	 * @param ipv4 whether to use IPv4
+	 * @param ipv6 whether to use IPv6
+	 * @throws IOException if the sockets can not be created, or no interface
+	 * can be used
+	 */
+	public MDNSQuerier(List<NetworkInterface> interfaces, int port, boolean ipv4, 
+			boolean ipv6) throws IOException {
+		this.port = port;
+		links = new ArrayList<Link>();
+		channels = new DatagramChannel[2];
+		queries = new ArrayList<Query>();
+		timers = new PriorityQueue<Timer>();
+		receiveBuffer = ByteBuffer.allocateDirect(MAX_RECEIVE_SIZE);
+		writer = new DNSWriter(ByteBuffer.allocate(MAX_PACKET_SIZE));
+		random = new Random();
+		selector = Selector.open();
+		
+		try {
+			if (ipv4)
+				openLinks(interfaces, 0);
+			if (ipv6)
+				openLinks(interfaces, 1);
+		} catch (IOException e) {
+			closeChannels();
+			throw e;
+		}
+		
+		if (links.isEmpty()) {
+			closeChannels();
+			throw new IOException("No interface available for multicast DNS");
+		}
+	}
+	
+	/**
+	 * This method opens the channel for the given IP version, and joins the 
+	 * multicast group on all the given interfaces which have an address of 
+	 * that version
+	 */
+	private void openLinks(List<NetworkInterface> interfaces, int protocol) 
+			throws IOException {
+		InetAddress group = InetAddress.getByName(protocol==0 ? MDNS_GROUP_IPV4 : MDNS_GROUP_IPV6);
+		InetSocketAddress groupAddress = new InetSocketAddress(group, port);
+		DatagramChannel channel = null;
+		
+		for(NetworkInterface nic: interfaces) {
+			boolean hasAddress = false;
+			for(InterfaceAddress a: nic.getInterfaceAddresses())
+				hasAddress |= (a.getAddress() instanceof Inet4Address) == (protocol==0);
+			if (!hasAddress)
+				continue;
+			
+			if (channel==null) {
+				channel = DatagramChannel.open(protocol==0 ? StandardProtocolFamily.INET
+						: StandardProtocolFamily.INET6);
+				channels[protocol] = channel;
+				channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+				channel.bind(new InetSocketAddress(port));
+				channel.setOption(StandardSocketOptions.IP_MULTICAST_TTL, 255);
+				channel.setOption(StandardSocketOptions.IP_MULTICAST_LOOP, true);
+				channel.configureBlocking(false);
+				channel.register(selector, SelectionKey.OP_READ, Integer.valueOf(protocol));
+			}
+			channel.join(group, nic);
+			links.add(new Link(nic, links.size(), protocol, channel, groupAddress));
+		}
+	}
+	
+	/**
+	 * This method returns the interfaces used by default: all interfaces which
+	 * are up, support multicast and are not loopback or point-to-point 
+	 * interfaces. If there is none, the loopback interface is returned.
+	 * @return the list of interfaces
+	 * @throws SocketException if the interfaces can not be listed
+	 */
+	public static List<NetworkInterface> getDefaultInterfaces() throws SocketException {
+		List<NetworkInterface> result = new ArrayList<NetworkInterface>();
+		List<NetworkInterface> loopback = new ArrayList<NetworkInterface>();
+		Enumeration<NetworkInterface> e = NetworkInterface.getNetworkInterfaces();
+		while(e!=null && e.hasMoreElements()) {
+			NetworkInterface nic = e.nextElement();
+			if (!nic.isUp() || nic.isPointToPoint())
+				continue;
+			if (nic.isLoopback())
+				loopback.add(nic);
+			else if (nic.supportsMulticast())
+				result.add(nic);
+		}
+		return result.isEmpty() ? loopback : result;
+	}
+	
+	/**
+	 * This method starts the querier thread
+	 */
+	public synchronized void start() {
+		if (thread!=null)
+			return;
+		running = true;
+		thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				loop();
+			}
+		}, "avahi4j-mdns");
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	/**
+	 * This method stops the querier thread and waits for it to finish. 
+	 * Queries are kept, and resume when the thread is started again. 
+	 * @throws IllegalStateException if called from a callback
+	 */
+	public void stop() {
+		Thread t;
+		synchronized (this) {
+			if (isQuerierThread())
+				throw new IllegalStateException("The querier can not be stopped from its own thread");
+			t = thread;
+			thread = null;
+			running = false;
+		}
+		if (t==null)
+			return;
+		selector.wakeup();
+		try {
+			t.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * This method stops the querier thread, cancels all queries and closes
+	 * the channels
+	 */
+	public void close() {
+		stop();
+		synchronized (this) {
+			for(Query q: queries)
+				q.cancelled = true;
+			queries.clear();
+			timers.clear();
+			for(Link l: links)
+				l.cache.clear();
+			closeChannels();
+		}
+	}
+	
+	private void closeChannels() {
+		for(DatagramChannel c: channels)
+			if (c!=null)
+				try {
+					c.close();
+				} catch (IOException e) {}
+		try {
+			selector.close();
+		} catch (IOException e) {}
+	}
+	
+	/**
+	 * @return whether the calling thread is the querier thread (ie a callback 
+	 * is running)
+	 */
+	public boolean isQuerierThread() {
+		return Thread.currentThread()==thread;
+	}
+	
+	/**
+	 * This method starts a continuous query. Matching cached records are 
+	 * reported first (from the querier thread), followed by
+	 * {@link IQueryCallback#cacheExhausted()}. The query is then sent on the 
+	 * network, and new, refreshed and removed records are reported until the
+	 * query is cancelled.
+	 * @param name the name to look for
+	 * @param type the record type, or {@link DNSRecord#TYPE_ANY}
+	 * @param interfaceIndex the index of the interface to query on, or -1 for
+	 * all interfaces
+	 * @param protocol 0 to query over IPv4 only, 1 over IPv6 only, -1 over both
+	 * @param callback the object receiving the results
+	 * @return the query, which can be cancelled
+	 */
+	public synchronized Query query(String name, int type, int interfaceIndex, 
+			int protocol, IQueryCallback callback) {
+		if (name==null || callback==null)
+			throw new NullPointerException("The name and callback can not be null");
+		Query q = new Query(name, type, interfaceIndex, protocol, callback);
+		queries.add(q);
+		selector.wakeup();
+		return q;
+	}
+	
+	/**
+	 * This method cancels the given query
+	 * @param q the query to cancel
+	 */
+	public synchronized void cancel(Query q) {
+		q.cancelled = true;
+		queries.remove(q);
+	}
+	
+	/**
+	 * This method schedules a task to run on the querier thread, with the 
+	 * querier's lock held
+	 * @param task the task to run
+	 * @param delay the delay in milliseconds
+	 * @return a timer which can be cancelled
+	 */
+	public synchronized Timer schedule(Runnable task, long delay) {
+		Timer t = new Timer(now() + delay, task);
+		timers.add(t);
+		selector.wakeup();
+		return t;
+	}
+	
+	/**
+	 * This method returns the indexes of the interfaces used by this querier
+	 * @return the interface indexes
+	 */
+	public synchronized List<Integer> getInterfaceIndexes() {
+		List<Integer> result = new ArrayList<Integer>();
+		for(Link l: links)
+			if (!result.contains(l.index))
+				result.add(l.index);
+		return Collections.unmodifiableList(result);
+	}
+	
+	/**
+	 * @return the number of records in all caches
+	 */
+	public synchronized int getCacheSize() {
+		int size = 0;
+		for(Link l: links)
+			size += l.cache.size();
+		return size;
+	}
+	
+	public synchronized long getPacketsSent() {
+		return packetsSent;
+	}
+	
+	public synchronized long getPacketsReceived() {
+		return packetsReceived;
+	}
+	
+	/**
+	 * @return the number of received packets which were malformed or could
+	 * not be attributed to a link
+	 */
+	public synchronized long getPacketsDropped() {
+		return packetsDropped;
+	}
+	
+	public synchronized long getSendErrors() {
+		return sendErrors;
+	}
+	
+	static long now() {
+		return System.nanoTime() / 1000000;
+	}
+	
+	/*
+	 * Q U E R I E R   T H R E A D
+	 */
+	private void loop() {
+		while(running) {
+			long sleep = MAX_SLEEP;
+			try {
+				synchronized (this) {
+					sleep = process(now());
+				}
+			} catch (RuntimeException e) {
+				// an exception thrown by a callback must not kill the thread
+				e.printStackTrace();
+			}
+			
+			try {
+				selector.select(Math.max(1, Math.min(sleep, MAX_SLEEP)));
+				selector.selectedKeys().clear();
+				for(int protocol=0; protocol<2; protocol++)
+					if (channels[protocol]!=null)
+						receive(channels[protocol], protocol);
+			} catch (IOException e) {
+				if (!running || !selector.isOpen())
+					break;
+				synchronized (this) {
+					packetsDropped++;
+				}
+			}
+		}
+	}
+	
+	private void receive(DatagramChannel channel, int protocol) throws IOException {
+		SocketAddress source;
+		receiveBuffer.clear();
+		while((source = channel.receive(receiveBuffer))!=null) {
+			receiveBuffer.flip();
+			synchronized (this) {
+				packetsReceived++;
+				try {
+					handlePacket((InetSocketAddress) source, protocol);
+				} catch (RuntimeException e) {
+					e.printStackTrace();
+				}
+			}
+			receiveBuffer.clear();
+		}
+	}
+	
+	/**
+	 * This method decodes a packet and feeds the records of responses to the
+	 * cache of the link it came from
+	 */
+	private void handlePacket(InetSocketAddress source, int protocol) {
+		Link link = findLink(source.getAddress(), protocol);
+		if (link==null) {
+			packetsDropped++;
+			return;
+		}
+		
+		DNSMessage m;
+		try {
+			m = DNSMessage.parse(receiveBuffer, link.index, protocol);
+		} catch (MalformedMessageException e) {
+			packetsDropped++;
+			return;
+		}
+		
+		long now = now();
+		if (!m.isResponse()) {
+			if (responder!=null)
+				responder.handleQuery(link, m, source, now);
+			return;
+		}
+		if (source.getPort()!=port) {
+			// responses not sent from the mDNS port must be ignored (RFC 6762 
+			// section 6)
+			packetsDropped++;
+			return;
+		}
+		
+		if (responder!=null)
+			responder.handleResponse(link, m, now);
+		addRecords(link, m.getAnswers(), now);
+		addRecords(link, m.getAdditionals(), now);
+	}
+	
+	private Link findLink(InetAddress source, int protocol) {
+		Link only = null;
+		int count = 0;
+		for(Link l: links) {
+			if (l.protocol!=protocol)
+				continue;
+			if (l.isOnLink(source))
+				return l;
+			only = l;
+			count++;
+		}
+		return count==1 ? only : null;
+	}
+	
+	private void addRecords(Link link, List<DNSRecord> records, long now) {
+		for(DNSRecord r: records)
+			if (link.cache.add(r, now))
+				for(Query q: snapshot())
+					if (q.started && q.matches(link, r))
+						q.callback.recordAdded(r, false);
+	}
+	
+	private Query[] snapshot() {
+		return queries.toArray(new Query[queries.size()]);
+	}
+	
+	/**
+	 * This method runs the timers: starts new queries, sends due queries, 
+	 * expires and refreshes cached records, and runs scheduled tasks
+	 * @param now the current time in milliseconds
+	 * @return how long to sleep until the next timer
+	 */
+	private long process(long now) {
+		long next = Long.MAX_VALUE;
+		
+		// start new queries: report cached records
+		for(Query q: snapshot()) {
+			if (q.started || q.cancelled)
+				continue;
+			q.started = true;
+			for(Link l: links)
+				if (q.matches(l))
+					for(RecordCache.Entry e: l.cache.lookup(q.name, q.type, now))
+						if (!q.cancelled)
+							q.callback.recordAdded(e.record, true);
+			if (!q.cancelled)
+				q.callback.cacheExhausted();
+			q.nextSend = now + INITIAL_DELAY_MIN 
+				+ random.nextInt((int) (INITIAL_DELAY_MAX - INITIAL_DELAY_MIN));
+			q.interval = INITIAL_INTERVAL;
+			q.allForNow = q.nextSend + ALL_FOR_NOW_DELAY;
+		}
+		
+		// expire and refresh cached records
+		List<DNSRecord> expired = new ArrayList<DNSRecord>();
+		List<String> refresh = new ArrayList<String>();
+		for(Link l: links) {
+			expired.clear();
+			refresh.clear();
+			l.cache.maintain(now, expired, refresh);
+			for(DNSRecord r: expired)
+				for(Query q: snapshot())
+					if (q.started && q.matches(l, r))
+						q.callback.recordRemoved(r);
+			for(String key: refresh)
+				for(Query q: queries)
+					if (q.key.equals(key) && q.matches(l))
+						q.nextSend = Math.min(q.nextSend, now);
+			next = Math.min(next, l.cache.getNextEvent());
+		}
+		
+		// send due queries, and report ALL_FOR_NOW
+		List<Query> due = new ArrayList<Query>();
+		for(Query q: snapshot()) {
+			if (q.cancelled)
+				continue;
+			if (q.nextSend<=now)
+				due.add(q);
+			if (q.allForNow<=now) {
+				q.allForNow = Long.MAX_VALUE;
+				q.callback.allForNow();
+			}
+		}
+		if (!due.isEmpty()) {
+			for(Link l: links)
+				sendQueries(l, due, now);
+			for(Query q: due) {
+				q.nextSend = now + q.interval;
+				q.interval = Math.min(q.interval * 2, MAX_INTERVAL);
+			}
+		}
+		for(Query q: queries)
+			next = Math.min(next, Math.min(q.nextSend, q.allForNow));
+		
+		// run due timers
+		Timer t;
+		while((t = timers.peek())!=null && t.when<=now) {
+			timers.poll();
+			t.task.run();
+		}
+		if (t!=null)
+			next = Math.min(next, t.when);
+		
+		if (responder!=null)
+			next = Math.min(next, responder.process(now));
+		
+		return next==Long.MAX_VALUE ? MAX_SLEEP : next - now;
+	}
+	
+	/**
+	 * This method sends the given queries on a link, batched in as few packets 
+	 * as possible, each followed by its known answers
+	 */
+	private void sendQueries(Link l, List<Query> due, long now) {
+		List<Query> questions = new ArrayList<Query>();
+		for(Query q: due)
+			if (q.matches(l))
+				questions.add(q);
+		if (questions.isEmpty())
+			return;
+		
+		// add as many questions as fit, then their known answers, then send 
+		// and repeat with the remaining questions
+		int first = 0;
+		while(first<questions.size()) {
+			writer.reset(0, 0);
+			int last = first;
+			while(last<questions.size() && writer.addQuestion(questions.get(last).name,
+					questions.get(last).type, DNSRecord.CLASS_IN, false))
+				last++;
+			if (last==first) {
+				// this question can not fit in a packet
+				first++;
+				continue;
+			}
+			for(int i=first; i<last; i++) {
+				Query q = questions.get(i);
+				for(DNSRecord r: l.cache.knownAnswers(q.name, q.type, now)) {
+					if (!writer.addAnswer(r)) {
+						// continue the known answers in another packet
+						writer.setFlags(DNSMessage.FLAG_TRUNCATED);
+						send(l);
+						writer.reset(0, 0);
+						if (!writer.addAnswer(r))
+							break;
+					}
+				}
+			}
+			send(l);
+			first = last;
+		}
+	}
+	
+	private void send(Link l) {
+		if (!writer.isEmpty())
+			send(l, writer.getMessage(), l.group);
+	}
+	
+	/**
+	 * This method sends a packet from the given link
+	 * @param l the link
+	 * @param packet the packet
+	 * @param destination the multicast group of the link, or a unicast address
+	 */
+	void send(Link l, ByteBuffer packet, SocketAddress destination) {
+		try {
+			l.channel.setOption(StandardSocketOptions.IP_MULTICAST_IF, l.nic);
+			l.channel.send(packet, destination);
+			packetsSent++;
+		} catch (IOException e) {
+			sendErrors++;
+		}
+	}
+	
+	/*
+	 * R E S P O N D E R   H O O K S
+	 */
+	/**
+	 * This method attaches a responder, which receives the queries and 
+	 * responses seen on all links, and whose timers are run by the querier 
+	 * thread
+	 */
+	void setResponder(MDNSResponder responder) {
+		if (this.responder!=null)
+			throw new IllegalStateException("This querier already has a responder");
+		this.responder = responder;
+	}
+	
+	MDNSResponder getResponder() {
+		return responder;
+	}
+	
+	List<Link> getLinks() {
+		return links;
+	}
+	
+	int getPort() {
+		return port;
+	}
+	
+	Random getRandom() {
+		return random;
+	}
+	
+	/**
+	 * This method wakes up the querier thread so it recomputes its timers
+	 */
+	void wakeup() {
+		selector.wakeup();
+	}
+}
@@ -0,0 +1,1225 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j.mdns;
+
+import java.net.Inet4Address;
+import java.net.InetSocketAddress;
+import java.net.InterfaceAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import avahi4j.mdns.MDNSQuerier.Link;
+
+/**
+ * This class implements the responding half of multicast DNS (RFC 6762) and 
+ * DNS-SD service publishing (RFC 6763), without the avahi daemon. It shares 
+ * the links, channels and thread of an {@link MDNSQuerier}. Services are 
+ * published in {@link Group}s which behave like avahi entry groups: records
+ * are added, then committed, which starts probing for their unique names. If
+ * no conflict is found they are announced and the group becomes established.
+ * Conflicts are reported as a collision so a new name can be chosen.<br>
+ * The responder also publishes the host's name and addresses. If the host
+ * name is taken, a new one is chosen ("host-2", "host-3"...).<br>
+ * Answering queries is designed to scale to thousands of published records:
+ * <ul>
+ * <li>each record is encoded once, when it is created, and answering only 
+ * copies these bytes into a reused packet buffer,</li>
+ * <li>records are indexed by name,</li>
+ * <li>answers to all the queries received within the response delay (20-120ms
+ * for shared records, 400-500ms for queries with truncated known answers) 
+ * are batched in as few packets as possible, with their additional records 
+ * (SRV, TXT and addresses for PTR answers),</li>
+ * <li>known answers and duplicate answers from other responders are 
+ * suppressed, and a record is not multicast on a link more than once per
+ * second (250ms when defending against a probe), as required by RFC 6762
+ * section 6.</li>
+ * </ul>
+ * All methods are thread-safe, and synchronise on the querier.
+ * @author gilles
+ *
+ */
+public final class MDNSResponder {
+	/**
+	 * TTL of host name records (and SRV records), in seconds
+	 */
+	public static final long HOST_TTL = 120;
+	/**
+	 * TTL of other records, in seconds
+	 */
+	public static final long SERVICE_TTL = 4500;
+	/**
+	 * The name whose PTR records list the service types of a domain
+	 */
+	public static final String SERVICES_NAME = "_services._dns-sd._udp";
+	
+	private static final long PROBE_INTERVAL = 250;
+	private static final int PROBE_COUNT = 3;
+	private static final long ANNOUNCE_INTERVAL = 1000;
+	private static final int ANNOUNCE_COUNT = 2;
+	private static final long CONFLICT_DELAY = 1000;
+	private static final long MULTICAST_INTERVAL = 1000;
+	private static final long PROBE_DEFENSE_INTERVAL = 250;
+	private static final long SHARED_DELAY_MIN = 20;
+	private static final long SHARED_DELAY_MAX = 120;
+	private static final long TRUNCATED_DELAY_MIN = 400;
+	private static final long TRUNCATED_DELAY_MAX = 500;
+	private static final long LEGACY_TTL = 10;
+	private static final int HEADER_SIZE = 12;
+	private static final int RESPONSE_FLAGS = DNSMessage.FLAG_RESPONSE 
+		| DNSMessage.FLAG_AUTHORITATIVE;
+	
+	/**
+	 * This enumeration lists the states of a {@link Group}, in the same order
+	 * as avahi's
+	 */
+	public enum GroupState {
+		UNCOMMITTED,
+		REGISTERING,
+		ESTABLISHED,
+		COLLISION,
+		FAILURE
+	}
+	
+	/**
+	 * This class represents a record published by this responder
+	 */
+	static final class Published {
+		final DNSRecord record;
+		final String key;
+		final String targetKey;
+		final boolean unique;
+		final int interfaceIndex;
+		final int protocol;
+		/**
+		 * the record in wire format, with an uncompressed name
+		 */
+		final byte encoded[];
+		final long lastMulticast[];
+		/**
+		 * for each link, 0 if the record is not waiting to be sent, 1 if it is
+		 * waiting in the answer section, 2 in the additional section
+		 */
+		final byte pending[];
+		Group group;
+		int suppressMark;
+		int refs;
+		boolean active;
+		boolean announced;
+		
+		Published(DNSRecord record, boolean unique, int interfaceIndex, int protocol,
+				int links) {
+			this.record = record;
+			this.key = record.getName().toLowerCase();
+			String target = record.getTargetName();
+			this.targetKey = target==null ? null : target.toLowerCase();
+			this.unique = unique;
+			this.interfaceIndex = interfaceIndex;
+			this.protocol = protocol;
+			this.encoded = encode(record, record.getTTL());
+			lastMulticast = new long[links];
+			for(int i=0; i<links; i++)
+				lastMulticast[i] = Long.MIN_VALUE / 2;
+			pending = new byte[links];
+		}
+		
+		boolean matches(Link l) {
+			return (interfaceIndex<0 || interfaceIndex==l.index) 
+				&& (protocol<0 || protocol==l.protocol);
+		}
+		
+		static byte[] encode(DNSRecord r, long ttl) {
+			byte name[] = DNSRecord.encodeName(r.getName());
+			byte rdata[] = r.getRData();
+			ByteBuffer b = ByteBuffer.allocate(name.length + 10 + rdata.length);
+			b.put(name);
+			b.putShort((short) r.getType());
+			b.putShort((short) (r.getDNSClass() | (r.isCacheFlush() ? 0x8000 : 0)));
+			b.putInt((int) ttl);
+			b.putShort((short) rdata.length);
+			b.put(rdata);
+			return b.array();
+		}
+	}
+	
+	/**
+	 * This class holds the description of a service added to a group, so 
+	 * its records can be rebuilt when the host name changes
+	 */
+	private static final class Service {
+		int interfaceIndex, protocol, port;
+		String name, type, domain, host, instance;
+		Published srv, txt;
+	}
+	
+	/**
+	 * This class represents a set of records published, withdrawn and 
+	 * renamed together, like an avahi entry group
+	 */
+	public final class Group {
+		private final IGroupCallback callback;
+		private final List<Published> records;
+		private final List<Service> services;
+		private final Set<String> names;
+		private GroupState state;
+		private int generation;
+		private boolean released;
+		
+		private Group(IGroupCallback callback) {
+			this.callback = callback;
+			records = new ArrayList<Published>();
+			services = new ArrayList<Service>();
+			names = new HashSet<String>();
+			state = GroupState.UNCOMMITTED;
+		}
+		
+		/**
+		 * This method adds a service to this group. It can only be called 
+		 * before the group is committed.
+		 * @param interfaceIndex the interface to publish on, or -1 for all
+		 * @param protocol 0 to publish over IPv4 only, 1 over IPv6 only, -1 
+		 * over both
+		 * @param name the service instance name
+		 * @param type the service type, eg "_http._tcp"
+		 * @param domain the domain, or null for "local"
+		 * @param host the host offering the service, or null for this host
+		 * @param port the port
+		 * @param txt the TXT record strings, can be null
+		 * @return false if the service name is already used by this responder
+		 * @throws IllegalArgumentException if an argument is invalid
+		 * @throws IllegalStateException if the group is committed
+		 */
+		public boolean addService(int interfaceIndex, int protocol, String name,
+				String type, String domain, String host, int port, String txt[]) {
+			synchronized (querier) {
+				checkUncommitted();
+				if (name==null || name.length()==0 || name.getBytes(DNSRecord.UTF8).length>63)
+					throw new IllegalArgumentException("Invalid service name");
+				if (type==null || DNSRecord.splitName(type).size()<2 || !type.startsWith("_"))
+					throw new IllegalArgumentException("Invalid service type");
+				if (port<0 || port>0xffff)
+					throw new IllegalArgumentException("Invalid port number");
+				
+				Service s = new Service();
+				s.interfaceIndex = interfaceIndex;
+				s.protocol = protocol;
+				s.name = name;
+				s.type = type;
+				s.domain = domain==null || domain.length()==0 ? "local" : domain;
+				s.host = host;
+				s.port = port;
+				s.instance = DNSRecord.escapeLabel(name) + "." + type + "." + s.domain;
+				
+				String key = s.instance.toLowerCase();
+				if (uniqueNames.containsKey(key))
+					return false;
+				
+				s.srv = srvRecord(s);
+				s.txt = unique(s.instance, DNSRecord.TYPE_TXT, SERVICE_TTL, encodeTXT(txt),
+						interfaceIndex, protocol);
+				add(s.srv);
+				add(s.txt);
+				add(shared(type + "." + s.domain, DNSRecord.TYPE_PTR, 
+						DNSRecord.encodeName(s.instance), interfaceIndex, protocol));
+				add(shared(SERVICES_NAME + "." + s.domain, DNSRecord.TYPE_PTR,
+						DNSRecord.encodeName(type + "." + s.domain), interfaceIndex, protocol));
+				services.add(s);
+				uniqueNames.put(key, this);
+				names.add(key);
+				return true;
+			}
+		}
+		
+		/**
+		 * This method adds a subtype to a service of this group. It can only
+		 * be called before the group is committed.
+		 * @param subtype the full subtype, eg "_printer._sub._http._tcp"
+		 * @throws IllegalArgumentException if the service is not in this group
+		 * @throws IllegalStateException if the group is committed
+		 */
+		public void addServiceSubtype(int interfaceIndex, int protocol, String name,
+				String type, String domain, String subtype) {
+			synchronized (querier) {
+				checkUncommitted();
+				Service s = findService(name, type, domain);
+				if (subtype==null || !subtype.contains("._sub."))
+					throw new IllegalArgumentException("Invalid service subtype");
+				add(shared(subtype + "." + s.domain, DNSRecord.TYPE_PTR, 
+						DNSRecord.encodeName(s.instance), s.interfaceIndex, s.protocol));
+			}
+		}
+		
+		/**
+		 * This method replaces the TXT record of a service of this group. If
+		 * the group is established, the new record is announced straight away.
+		 * @throws IllegalArgumentException if the service is not in this group
+		 */
+		public void updateServiceTxt(int interfaceIndex, int protocol, String name,
+				String type, String domain, String txt[]) {
+			synchronized (querier) {
+				Service s = findService(name, type, domain);
+				Published p = unique(s.instance, DNSRecord.TYPE_TXT, SERVICE_TTL, 
+						encodeTXT(txt), s.interfaceIndex, s.protocol);
+				replace(this, s.txt, p);
+				s.txt = p;
+			}
+		}
+		
+		/**
+		 * This method starts probing for the names of this group's records.
+		 * @throws IllegalStateException if the group is empty or already 
+		 * committed
+		 */
+		public void commit() {
+			synchronized (querier) {
+				checkUncommitted();
+				if (records.isEmpty())
+					throw new IllegalStateException("The group is empty");
+				for(Published p: records)
+					if (p.unique)
+						index(p);
+				startProbing(this, randomDelay(0, PROBE_INTERVAL));
+			}
+		}
+		
+		/**
+		 * This method withdraws this group's records (sending goodbye packets
+		 * for those which have been announced) and removes them from the group.
+		 */
+		public void reset() {
+			synchronized (querier) {
+				withdraw(this, true);
+				for(String n: names)
+					uniqueNames.remove(n);
+				names.clear();
+				records.clear();
+				services.clear();
+				if (state!=GroupState.UNCOMMITTED)
+					setState(this, GroupState.UNCOMMITTED);
+			}
+		}
+		
+		/**
+		 * This method resets this group and releases it. It must not be used
+		 * afterwards.
+		 */
+		public void release() {
+			synchronized (querier) {
+				reset();
+				released = true;
+				groups.remove(this);
+			}
+		}
+		
+		public GroupState getState() {
+			synchronized (querier) {
+				return state;
+			}
+		}
+		
+		public boolean isEmpty() {
+			synchronized (querier) {
+				return records.isEmpty();
+			}
+		}
+		
+		private void checkUncommitted() {
+			if (released)
+				throw new IllegalStateException("The group has been released");
+			if (state!=GroupState.UNCOMMITTED)
+				throw new IllegalStateException("The group is already committed");
+		}
+		
+		private Service findService(String name, String type, String domain) {
+			String d = domain==null || domain.length()==0 ? "local" : domain;
+			for(Service s: services)
+				if (s.name.equals(name) && s.type.equalsIgnoreCase(type) 
+						&& s.domain.equalsIgnoreCase(d))
+					return s;
+			throw new IllegalArgumentException("No such service in this group");
+		}
+		
+		private void add(Published p) {
+			p.group = this;
+			records.add(p);
+		}
+	}
+	
+	private final MDNSQuerier querier;
+	private final List<Link> links;
+	private final Map<String, List<Published>> byName;
+	private final Map<String, Group> uniqueNames;
+	private final List<Group> groups;
+	private final List<List<Published>> answers;
+	private final List<List<Published>> additionals;
+	private final long sendAt[];
+	private final ByteBuffer packet;
+	private final DNSWriter writer;
+	private Group hostGroup;
+	private String hostName;
+	private String baseHostName;
+	private int hostNameSuffix;
+	private int mark;
+	
+	private long queriesAnswered, answersSuppressed, conflicts;
+	
+	/**
+	 * This method creates a responder which uses the links and thread of the
+	 * given querier, and starts publishing the host name and addresses.
+	 * @param querier the querier to attach to. A querier can only have one 
+	 * responder.
+	 * @param hostName the host name, without domain
+	 * @throws IllegalStateException if the querier already has a responder
+	 */
+	public MDNSResponder(MDNSQuerier querier, String hostName) {
+		this.querier = querier;
+		links = querier.getLinks();
+		byName = new HashMap<String, List<Published>>();
+		uniqueNames = new HashMap<String, Group>();
+		groups = new ArrayList<Group>();
+		answers = new ArrayList<List<Published>>();
+		additionals = new ArrayList<List<Published>>();
+		sendAt = new long[links.size()];
+		for(int i=0; i<links.size(); i++) {
+			answers.add(new ArrayList<Published>());
+			additionals.add(new ArrayList<Published>());
+			sendAt[i] = Long.MAX_VALUE;
+		}
+		packet = ByteBuffer.allocate(MDNSQuerier.MAX_PACKET_SIZE);
+		writer = new DNSWriter(ByteBuffer.allocate(MDNSQuerier.MAX_PACKET_SIZE));
+		
+		synchronized (querier) {
+			querier.setResponder(this);
+			this.baseHostName = hostName;
+			this.hostName = hostName;
+			publishHost();
+		}
+	}
+	
+	/**
+	 * This method creates a new, empty group
+	 * @param callback the object receiving the group's state changes, can be 
+	 * null
+	 * @return the new group
+	 */
+	public Group createGroup(IGroupCallback callback) {
+		synchronized (querier) {
+			Group g = new Group(callback);
+			groups.add(g);
+			return g;
+		}
+	}
+	
+	/**
+	 * @return the host name currently published (without domain). It may 
+	 * differ from the requested one after a conflict.
+	 */
+	public String getHostName() {
+		synchronized (querier) {
+			return hostName;
+		}
+	}
+	
+	/**
+	 * This method changes the published host name. Services published on 
+	 * this host are updated.
+	 * @param name the new host name, without domain
+	 */
+	public void setHostName(String name) {
+		if (name==null || name.length()==0 || name.getBytes(DNSRecord.UTF8).length>63)
+			throw new IllegalArgumentException("Invalid host name");
+		synchronized (querier) {
+			baseHostName = name;
+			hostNameSuffix = 0;
+			renameHost(name);
+		}
+	}
+	
+	public long getQueriesAnswered() {
+		synchronized (querier) {
+			return queriesAnswered;
+		}
+	}
+	
+	/**
+	 * @return the number of answers not sent because the querier already 
+	 * knew them, or another responder sent them first
+	 */
+	public long getAnswersSuppressed() {
+		synchronized (querier) {
+			return answersSuppressed;
+		}
+	}
+	
+	/**
+	 * @return the number of name conflicts detected
+	 */
+	public long getConflicts() {
+		synchronized (querier) {
+			return conflicts;
+		}
+	}
+	
+	/**
+	 * @return the number of records published (probing records excluded)
+	 */
+	public int getPublishedCount() {
+		synchronized (querier) {
+			int count = 0;
+			for(List<Published> list: byName.values())
+				for(Published p: list)
+					if (p.active)
+						count++;
+			return count;
+		}
+	}
+	
+	/**
+	 * This method returns whether a record received from the network is one of 
+	 * the records published by this responder
+	 * @param r the record
+	 * @return whether the record is published by this responder
+	 */
+	public boolean isOwnRecord(DNSRecord r) {
+		synchronized (querier) {
+			List<Published> list = byName.get(r.getName().toLowerCase());
+			if (list!=null)
+				for(Published p: list)
+					if (p.active && p.record.sameData(r))
+						return true;
+			return false;
+		}
+	}
+	
+	/*
+	 * R E C O R D S
+	 */
+	private Published unique(String name, int type, long ttl, byte rdata[], 
+			int interfaceIndex, int protocol) {
+		return new Published(new DNSRecord(name, type, DNSRecord.CLASS_IN, true, ttl,
+				rdata, interfaceIndex, protocol), true, interfaceIndex, protocol, 
+				links.size());
+	}
+	
+	private Published shared(String name, int type, byte rdata[], int interfaceIndex,
+			int protocol) {
+		return new Published(new DNSRecord(name, type, DNSRecord.CLASS_IN, false, 
+				SERVICE_TTL, rdata, interfaceIndex, protocol), false, interfaceIndex,
+				protocol, links.size());
+	}
+	
+	private Published srvRecord(Service s) {
+		String target = (s.host==null ? DNSRecord.escapeLabel(hostName) + ".local" : s.host);
+		byte name[] = DNSRecord.encodeName(target);
+		byte rdata[] = new byte[6 + name.length];
+		rdata[4] = (byte) (s.port >> 8);
+		rdata[5] = (byte) s.port;
+		System.arraycopy(name, 0, rdata, 6, name.length);
+		return unique(s.instance, DNSRecord.TYPE_SRV, HOST_TTL, rdata, s.interfaceIndex,
+				s.protocol);
+	}
+	
+	private static byte[] encodeTXT(String txt[]) {
+		if (txt==null || txt.length==0)
+			return new byte[1];
+		ByteBuffer b = ByteBuffer.allocate(txt.length * 256);
+		for(String s: txt) {
+			byte data[] = s.getBytes(DNSRecord.UTF8);
+			if (data.length>255)
+				throw new IllegalArgumentException("TXT string too long: "+s);
+			b.put((byte) data.length);
+			b.put(data);
+		}
+		byte result[] = new byte[b.position()];
+		b.flip();
+		b.get(result);
+		return result;
+	}
+	
+	private void index(Published p) {
+		List<Published> list = byName.get(p.key);
+		if (list==null) {
+			list = new ArrayList<Published>(1);
+			byName.put(p.key, list);
+		}
+		list.add(p);
+	}
+	
+	private void unindex(Published p) {
+		List<Published> list = byName.get(p.key);
+		if (list!=null) {
+			list.remove(p);
+			if (list.isEmpty())
+				byName.remove(p.key);
+		}
+		for(int i=0; i<p.pending.length; i++)
+			p.pending[i] = 0;
+	}
+	
+	/**
+	 * This method returns the indexed shared record holding the same data as 
+	 * the given one, or null
+	 */
+	private Published findShared(Published p) {
+		List<Published> list = byName.get(p.key);
+		if (list!=null)
+			for(Published q: list)
+				if (!q.unique && q.interfaceIndex==p.interfaceIndex 
+						&& q.protocol==p.protocol && q.record.sameData(p.record))
+					return q;
+		return null;
+	}
+	
+	/**
+	 * This method replaces a record of a group, announcing the new one if 
+	 * the group is established
+	 */
+	private void replace(Group g, Published old, Published p) {
+		int i = g.records.indexOf(old);
+		if (i<0)
+			return;
+		p.group = g;
+		g.records.set(i, p);
+		if (g.state==GroupState.REGISTERING || g.state==GroupState.ESTABLISHED) {
+			unindex(old);
+			index(p);
+		}
+		if (g.state==GroupState.ESTABLISHED) {
+			p.active = true;
+			// the cache flush bit of the new record replaces the old data in 
+			// caches, there is no need for a goodbye
+			List<Published> list = Collections.singletonList(p);
+			announce(g, list, g.generation, 0);
+		}
+	}
+	
+	/*
+	 * H O S T
+	 */
+	/**
+	 * This method creates and commits the group holding the host's address
+	 * records, one per address of each interface
+	 */
+	private void publishHost() {
+		hostGroup = createGroup(new IGroupCallback() {
+			@Override
+			public void groupStateChanged(Group group, GroupState state) {
+				if (state==GroupState.COLLISION && group==hostGroup)
+					renameHost(baseHostName + "-" + (++hostNameSuffix + 1));
+			}
+		});
+		
+		String name = DNSRecord.escapeLabel(hostName) + ".local";
+		Set<Integer> done = new HashSet<Integer>();
+		for(Link l: links) {
+			if (!done.add(l.index))
+				continue;
+			for(InterfaceAddress a: l.nic.getInterfaceAddresses()) {
+				boolean v4 = a.getAddress() instanceof Inet4Address;
+				byte raw[] = a.getAddress().getAddress();
+				hostGroup.add(unique(name, v4 ? DNSRecord.TYPE_A : DNSRecord.TYPE_AAAA,
+						HOST_TTL, raw, l.index, -1));
+				// reverse records are shared: several hosts may have the same
+				// (loopback, link-local) address, and a conflict on them must
+				// not rename this host
+				hostGroup.add(new Published(new DNSRecord(DNSRecord.reverseName(raw),
+						DNSRecord.TYPE_PTR, DNSRecord.CLASS_IN, false, HOST_TTL, 
+						DNSRecord.encodeName(name), l.index, -1), false, l.index, -1,
+						links.size()));
+			}
+		}
+		String key = name.toLowerCase();
+		uniqueNames.put(key, hostGroup);
+		hostGroup.names.add(key);
+		if (!hostGroup.records.isEmpty())
+			hostGroup.commit();
+	}
+	
+	/**
+	 * This method publishes the host under a new name, and updates the SRV
+	 * records of services offered by this host
+	 */
+	private void renameHost(String name) {
+		hostName = name;
+		Group old = hostGroup;
+		old.release();
+		publishHost();
+		
+		for(Group g: groups)
+			for(Service s: g.services)
+				if (s.host==null) {
+					Published p = srvRecord(s);
+					replace(g, s.srv, p);
+					s.srv = p;
+				}
+	}
+	
+	/*
+	 * P R O B I N G   &   A N N O U N C I N G
+	 */
+	private long randomDelay(long min, long max) {
+		return min + querier.getRandom().nextInt((int) (max - min));
+	}
+	
+	private void setState(final Group g, final GroupState state) {
+		g.state = state;
+		if (g.callback==null)
+			return;
+		// state changes are reported from the querier thread, as with avahi
+		querier.schedule(new Runnable() {
+			@Override
+			public void run() {
+				if (!g.released)
+					g.callback.groupStateChanged(g, state);
+			}
+		}, 0);
+	}
+	
+	private void startProbing(final Group g, long delay) {
+		final int generation = ++g.generation;
+		if (g.state!=GroupState.REGISTERING)
+			setState(g, GroupState.REGISTERING);
+		querier.schedule(new Runnable() {
+			@Override
+			public void run() {
+				probe(g, generation, 0);
+			}
+		}, delay);
+	}
+	
+	/**
+	 * This method sends the given probe, and schedules the next one or the 
+	 * announcements
+	 */
+	private void probe(final Group g, final int generation, final int step) {
+		if (g.generation!=generation || g.state!=GroupState.REGISTERING)
+			return;
+		
+		if (step==PROBE_COUNT) {
+			activate(g);
+			announce(g, g.records, generation, 0);
+			return;
+		}
+		
+		for(Link l: links) {
+			writer.reset(0, 0);
+			Set<String> questions = new HashSet<String>();
+			for(Published p: g.records)
+				if (p.unique && p.matches(l) && questions.add(p.key))
+					writer.addQuestion(p.record.getName(), DNSRecord.TYPE_ANY, 
+							DNSRecord.CLASS_IN, step==0);
+			for(Published p: g.records)
+				if (p.unique && p.matches(l))
+					writer.addAuthority(p.record);
+			if (!writer.isEmpty())
+				querier.send(l, writer.getMessage(), l.group);
+		}
+		
+		querier.schedule(new Runnable() {
+			@Override
+			public void run() {
+				probe(g, generation, step + 1);
+			}
+		}, PROBE_INTERVAL);
+	}
+	
+	/**
+	 * This method makes the records of a group answer queries, once probing
+	 * has succeeded. Shared records already published by another group are 
+	 * shared.
+	 */
+	private void activate(Group g) {
+		for(int i=0; i<g.records.size(); i++) {
+			Published p = g.records.get(i);
+			if (p.unique) {
+				p.active = true;
+				continue;
+			}
+			Published existing = findShared(p);
+			if (existing!=null) {
+				g.records.set(i, existing);
+				existing.refs++;
+			} else {
+				p.refs = 1;
+				p.active = true;
+				index(p);
+			}
+		}
+		setState(g, GroupState.ESTABLISHED);
+	}
+	
+	/**
+	 * This method queues an announcement of the given records on all links
+	 * and schedules the next one
+	 */
+	private void announce(final Group g, final List<Published> records, 
+			final int generation, final int step) {
+		if (g.generation!=generation || g.state!=GroupState.ESTABLISHED)
+			return;
+		
+		long now = MDNSQuerier.now();
+		for(Link l: links) {
+			boolean queued = false;
+			for(Published p: records)
+				if (p.active && p.matches(l))
+					queued |= queue(p, l, 1, now, MULTICAST_INTERVAL);
+			if (queued)
+				sendAt[l.ordinal] = now;
+		}
+		for(Published p: records)
+			p.announced = true;
+		querier.wakeup();
+		
+		if (step+1<ANNOUNCE_COUNT)
+			querier.schedule(new Runnable() {
+				@Override
+				public void run() {
+					announce(g, records, generation, step + 1);
+				}
+			}, ANNOUNCE_INTERVAL << step);
+	}
+	
+	/**
+	 * This method removes a group's records from the index, and optionally 
+	 * sends goodbye packets for the announced ones
+	 */
+	private void withdraw(Group g, boolean goodbye) {
+		g.generation++;
+		List<Published> goodbyes = new ArrayList<Published>();
+		for(int i=0; i<g.records.size(); i++) {
+			Published p = g.records.get(i);
+			if (p.unique) {
+				if (p.active && p.announced)
+					goodbyes.add(p);
+				unindex(p);
+				p.active = false;
+				p.announced = false;
+			} else if (p.active) {
+				if (--p.refs==0) {
+					if (p.announced)
+						goodbyes.add(p);
+					unindex(p);
+					p.active = false;
+				}
+				// shared records may have been swapped for another group's 
+				// copy: keep a fresh one so the group can be committed again
+				Published copy = shared(p.record.getName(), p.record.getType(),
+						p.record.getRData(), p.interfaceIndex, p.protocol);
+				copy.group = g;
+				g.records.set(i, copy);
+			}
+		}
+		if (goodbye && !goodbyes.isEmpty())
+			sendGoodbyes(goodbyes);
+	}
+	
+	private void sendGoodbyes(List<Published> records) {
+		for(Link l: links) {
+			beginPacket();
+			int count = 0;
+			for(Published p: records) {
+				if (!p.matches(l))
+					continue;
+				byte data[] = Published.encode(p.record, 0);
+				if (packet.remaining()<data.length) {
+					sendPacket(l, count, 0);
+					beginPacket();
+					count = 0;
+				}
+				if (packet.remaining()>=data.length) {
+					packet.put(data);
+					count++;
+				}
+			}
+			if (count>0)
+				sendPacket(l, count, 0);
+		}
+	}
+	
+	/**
+	 * This method handles a conflict on a group's unique record: if it is 
+	 * still probing, the group is in collision; if it is established, it 
+	 * probes again.
+	 */
+	private void conflict(Group g, long delay) {
+		conflicts++;
+		if (g.state==GroupState.REGISTERING) {
+			withdraw(g, false);
+			for(Published p: g.records)
+				if (p.unique)
+					unindex(p);
+			setState(g, GroupState.COLLISION);
+		} else if (g.state==GroupState.ESTABLISHED) {
+			withdraw(g, false);
+			for(Published p: g.records)
+				if (p.unique)
+					index(p);
+			startProbing(g, delay);
+		}
+	}
+	
+	/*
+	 * Q U E R I E S   &   R E S P O N S E S
+	 */
+	/**
+	 * This method handles a query received on a link: it resolves probe
+	 * conflicts, then queues (or sends, for unicast and legacy queries) the
+	 * answers which the querier does not already know
+	 */
+	void handleQuery(Link l, DNSMessage m, InetSocketAddress source, long now) {
+		List<DNSMessage.Question> questions = m.getQuestions();
+		boolean legacy = source.getPort()!=querier.getPort();
+		boolean probe = !m.getAuthorities().isEmpty();
+		
+		// mark known answers
+		int current = ++mark;
+		for(DNSRecord k: m.getAnswers()) {
+			List<Published> list = byName.get(k.getName().toLowerCase());
+			if (list!=null)
+				for(Published p: list)
+					if (p.active && p.record.sameData(k) && k.getTTL() >= p.record.getTTL()/2)
+						p.suppressMark = current;
+		}
+		
+		// duplicate answers in a continuation packet of a truncated query 
+		// cancel the pending ones
+		if (questions.isEmpty()) {
+			cancelPending(l, m.getAnswers(), current);
+			return;
+		}
+		
+		if (probe)
+			tieBreak(m);
+		
+		List<Published> unicast = null;
+		boolean queued = false, sharedAnswer = false;
+		for(DNSMessage.Question q: questions) {
+			if (q.clazz!=DNSRecord.CLASS_IN && q.clazz!=DNSRecord.TYPE_ANY)
+				continue;
+			List<Published> list = byName.get(q.name.toLowerCase());
+			if (list==null)
+				continue;
+			for(int i=0; i<list.size(); i++) {
+				Published p = list.get(i);
+				if (!p.active || !p.matches(l) || (q.type!=DNSRecord.TYPE_ANY 
+						&& q.type!=p.record.getType()))
+					continue;
+				if (p.suppressMark==current) {
+					answersSuppressed++;
+					continue;
+				}
+				if (legacy || (q.unicast && !probe)) {
+					if (unicast==null)
+						unicast = new ArrayList<Published>();
+					unicast.add(p);
+				} else if (queue(p, l, 1, now, probe ? PROBE_DEFENSE_INTERVAL : MULTICAST_INTERVAL)) {
+					queued = true;
+					sharedAnswer |= !p.unique;
+					queueAdditionals(p, l, now, current);
+				}
+			}
+		}
+		
+		if (unicast!=null)
+			sendUnicast(l, m, source, unicast, legacy);
+		if (queued) {
+			queriesAnswered++;
+			long delay = (m.getFlags() & DNSMessage.FLAG_TRUNCATED)!=0 
+				? randomDelay(TRUNCATED_DELAY_MIN, TRUNCATED_DELAY_MAX)
+				: sharedAnswer ? randomDelay(SHARED_DELAY_MIN, SHARED_DELAY_MAX) : 0;
+			sendAt[l.ordinal] = Math.min(sendAt[l.ordinal], now + delay);
+		}
+	}
+	
+	/**
+	 * This method queues the records a querier will need next: the SRV and 
+	 * TXT records of a PTR answer's target, and the addresses of a SRV 
+	 * record's target (RFC 6763 section 12)
+	 */
+	private void queueAdditionals(Published p, Link l, long now, int current) {
+		if (p.targetKey==null)
+			return;
+		List<Published> list = byName.get(p.targetKey);
+		if (list==null)
+			return;
+		for(int i=0; i<list.size(); i++) {
+			Published a = list.get(i);
+			if (!a.active || !a.matches(l) || a.suppressMark==current)
+				continue;
+			int type = a.record.getType();
+			if (p.record.getType()==DNSRecord.TYPE_PTR && (type==DNSRecord.TYPE_SRV 
+					|| type==DNSRecord.TYPE_TXT)) {
+				if (queue(a, l, 2, now, MULTICAST_INTERVAL) && type==DNSRecord.TYPE_SRV)
+					queueAdditionals(a, l, now, current);
+			} else if (p.record.getType()==DNSRecord.TYPE_SRV && (type==DNSRecord.TYPE_A 
+					|| type==DNSRecord.TYPE_AAAA))
+				queue(a, l, 2, now, MULTICAST_INTERVAL);
+		}
+	}
+	
+	/**
+	 * This method queues a record for multicast on a link, unless it is 
+	 * already queued or was multicast too recently
+	 * @param section 1 for the answer section, 2 for the additional section
+	 * @return whether the record was queued
+	 */
+	private boolean queue(Published p, Link l, int section, long now, long interval) {
+		int i = l.ordinal;
+		if (p.pending[i]!=0) {
+			if (section==1 && p.pending[i]==2) {
+				p.pending[i] = 1;
+				answers.get(i).add(p);
+			}
+			return true;
+		}
+		if (now - p.lastMulticast[i] < interval)
+			return false;
+		p.pending[i] = (byte) section;
+		(section==1 ? answers : additionals).get(i).add(p);
+		return true;
+	}
+	
+	private void cancelPending(Link l, List<DNSRecord> records, int current) {
+		for(DNSRecord r: records) {
+			List<Published> list = byName.get(r.getName().toLowerCase());
+			if (list!=null)
+				for(Published p: list)
+					if (p.suppressMark==current && p.pending[l.ordinal]!=0) {
+						p.pending[l.ordinal] = 0;
+						answersSuppressed++;
+					}
+		}
+	}
+	
+	/**
+	 * This method resolves a simultaneous probe (RFC 6762 section 8.2): if
+	 * another host probes for a name we are probing, the records are compared
+	 * and the host with the lexicographically later data wins. The loser 
+	 * probes again one second later.
+	 */
+	private void tieBreak(DNSMessage m) {
+		for(DNSMessage.Question q: m.getQuestions()) {
+			List<Published> list = byName.get(q.name.toLowerCase());
+			if (list==null)
+				continue;
+			
+			List<DNSRecord> theirs = new ArrayList<DNSRecord>();
+			for(DNSRecord r: m.getAuthorities())
+				if (r.getName().equalsIgnoreCase(q.name))
+					theirs.add(r);
+			List<DNSRecord> ours = new ArrayList<DNSRecord>();
+			Group g = null;
+			for(Published p: list)
+				if (p.unique && !p.active && p.group.state==GroupState.REGISTERING) {
+					ours.add(p.record);
+					g = p.group;
+				}
+			if (g==null || theirs.isEmpty())
+				continue;
+			
+			if (compare(ours, theirs)<0) {
+				conflicts++;
+				startProbing(g, CONFLICT_DELAY);
+			}
+		}
+	}
+	
+	private static final Comparator<DNSRecord> RECORD_ORDER = new Comparator<DNSRecord>() {
+		@Override
+		public int compare(DNSRecord a, DNSRecord b) {
+			if (a.getDNSClass()!=b.getDNSClass())
+				return a.getDNSClass() - b.getDNSClass();
+			if (a.getType()!=b.getType())
+				return a.getType() - b.getType();
+			byte x[] = a.getRData(), y[] = b.getRData();
+			for(int i=0; i<x.length && i<y.length; i++)
+				if (x[i]!=y[i])
+					return (x[i] & 0xff) - (y[i] & 0xff);
+			return x.length - y.length;
+		}
+	};
+	
+	/**
+	 * This method compares two sets of records as specified in RFC 6762 
+	 * section 8.2
+	 */
+	static int compare(List<DNSRecord> ours, List<DNSRecord> theirs) {
+		Collections.sort(ours, RECORD_ORDER);
+		Collections.sort(theirs, RECORD_ORDER);
+		for(int i=0; i<ours.size() && i<theirs.size(); i++) {
+			int c = RECORD_ORDER.compare(ours.get(i), theirs.get(i));
+			if (c!=0)
+				return c;
+		}
+		return ours.size() - theirs.size();
+	}
+	
+	/**
+	 * This method checks the records of a response received on a link for 
+	 * conflicts with our unique records, and cancels pending answers which 
+	 * another responder has just sent (RFC 6762 section 7.4)
+	 */
+	void handleResponse(Link l, DNSMessage m, long now) {
+		checkResponse(l, m.getAnswers(), now);
+		checkResponse(l, m.getAdditionals(), now);
+	}
+	
+	private void checkResponse(Link l, List<DNSRecord> records, long now) {
+		for(DNSRecord r: records) {
+			List<Published> list = byName.get(r.getName().toLowerCase());
+			if (list==null)
+				continue;
+			
+			boolean same = false;
+			Group conflicting = null;
+			for(Published p: list) {
+				if (!p.matches(l))
+					continue;
+				if (p.record.sameData(r)) {
+					same = true;
+					if (p.pending[l.ordinal]!=0 && r.getTTL() >= p.record.getTTL()/2) {
+						p.pending[l.ordinal] = 0;
+						p.lastMulticast[l.ordinal] = now;
+						answersSuppressed++;
+					}
+				} else if (p.unique && (!p.active || (p.record.getType()==r.getType() 
+						&& p.record.getDNSClass()==r.getDNSClass())))
+					// while probing, any record with the same name is a conflict 
+					conflicting = p.group;
+			}
+			
+			// a goodbye for data we do not have is not a conflict
+			if (!same && conflicting!=null && r.getTTL()>0)
+				conflict(conflicting, CONFLICT_DELAY);
+		}
+	}
+	
+	/**
+	 * This method sends the pending answers of all links whose response delay
+	 * has elapsed
+	 * @param now the current time in milliseconds
+	 * @return when the next pending answers are due, in milliseconds, or 
+	 * Long.MAX_VALUE
+	 */
+	long process(long now) {
+		long next = Long.MAX_VALUE;
+		for(Link l: links) {
+			int i = l.ordinal;
+			if (sendAt[i]<=now) {
+				flush(l, now);
+				sendAt[i] = Long.MAX_VALUE;
+			}
+			next = Math.min(next, sendAt[i]);
+		}
+		return next;
+	}
+	
+	/**
+	 * This method sends the pending records of a link, batched in as few 
+	 * packets as possible, answers first
+	 */
+	private void flush(Link l, long now) {
+		int i = l.ordinal;
+		List<Published> a = answers.get(i), b = additionals.get(i);
+		int answerCount = 0, additionalCount = 0;
+		beginPacket();
+		
+		for(int j=0; j<a.size(); j++) {
+			Published p = a.get(j);
+			if (p.pending[i]!=1)
+				continue;
+			if (packet.remaining()<p.encoded.length && answerCount>0) {
+				sendPacket(l, answerCount, 0);
+				beginPacket();
+				answerCount = 0;
+			}
+			p.pending[i] = 0;
+			if (packet.remaining()>=p.encoded.length) {
+				packet.put(p.encoded);
+				p.lastMulticast[i] = now;
+				answerCount++;
+			}
+		}
+		
+		for(int j=0; j<b.size(); j++) {
+			Published p = b.get(j);
+			if (p.pending[i]!=2)
+				continue;
+			p.pending[i] = 0;
+			// additional records which do not fit are left out
+			if (packet.remaining()>=p.encoded.length) {
+				packet.put(p.encoded);
+				p.lastMulticast[i] = now;
+				additionalCount++;
+			}
+		}
+		
+		if (answerCount+additionalCount>0)
+			sendPacket(l, answerCount, additionalCount);
+		a.clear();
+		b.clear();
+	}
+	
+	private void beginPacket() {
+		packet.clear();
+		packet.position(HEADER_SIZE);
+	}
+	
+	private void sendPacket(Link l, int answerCount, int additionalCount) {
+		packet.putShort(0, (short) 0);
+		packet.putShort(2, (short) RESPONSE_FLAGS);
+		packet.putShort(4, (short) 0);
+		packet.putShort(6, (short) answerCount);
+		packet.putShort(8, (short) 0);
+		packet.putShort(10, (short) additionalCount);
+		packet.flip();
+		querier.send(l, packet, l.group);
+	}
+	
+	/**
+	 * This method answers a query which asked for a unicast response (QU bit)
+	 * or came from a legacy resolver (source port other than 5353). Legacy
+	 * responses repeat the query's ID and questions, and have their TTLs 
+	 * capped and cache flush bits cleared (RFC 6762 section 6.7).
+	 */
+	private void sendUnicast(Link l, DNSMessage m, InetSocketAddress source,
+			List<Published> records, boolean legacy) {
+		writer.reset(legacy ? m.getId() : 0, RESPONSE_FLAGS);
+		if (legacy)
+			for(DNSMessage.Question q: m.getQuestions())
+				writer.addQuestion(q.name, q.type, q.clazz, false);
+		for(Published p: records) {
+			DNSRecord r = p.record;
+			if (legacy)
+				r = new DNSRecord(r.getName(), r.getType(), r.getDNSClass(), false,
+						Math.min(r.getTTL(), LEGACY_TTL), r.getRData(), -1, -1);
+			if (!writer.addAnswer(r)) {
+				writer.setFlags(RESPONSE_FLAGS | DNSMessage.FLAG_TRUNCATED);
+				break;
+			}
+		}
+		querier.send(l, writer.getMessage(), source);
+	}
+}
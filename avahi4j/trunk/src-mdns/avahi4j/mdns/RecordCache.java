@@ -0,0 +1,255 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j.mdns;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class caches the records received on one link (an interface and IP 
+ * version pair), and expires them according to their TTL, following the 
+ * rules of RFC 6762 sections 5.2 and 10. Records are indexed by name and 
+ * type. This class is not thread-safe: it is only used by the 
+ * {@link MDNSQuerier} thread or with its lock held.
+ * @author gilles
+ *
+ */
+final class RecordCache {
+	/**
+	 * How long a record is kept after a goodbye packet or a cache flush, in 
+	 * milliseconds (RFC 6762 sections 10.1 and 10.2)
+	 */
+	static final long FLUSH_DELAY = 1000;
+	
+	/**
+	 * The fractions of the TTL at which a record still wanted by a query is
+	 * refreshed (RFC 6762 section 5.2), in percent
+	 */
+	private static final int REFRESH_POINTS[] = {80, 85, 90, 95};
+	
+	static final class Entry {
+		DNSRecord record;
+		long received;
+		long expires;
+		long nextRefresh;
+		int refreshStep;
+		
+		/**
+		 * @return the TTL left, in seconds
+		 */
+		long remainingTTL(long now) {
+			return Math.max(0, (expires - now) / 1000);
+		}
+	}
+	
+	private final Map<String, List<Entry>> entries;
+	private long nextEvent;
+	private int size;
+	
+	RecordCache() {
+		entries = new HashMap<String, List<Entry>>();
+		nextEvent = Long.MAX_VALUE;
+	}
+	
+	static String key(String name, int type) {
+		return name.toLowerCase() + '/' + type;
+	}
+	
+	/**
+	 * This method adds a record received from the network to the cache. 
+	 * @param r the record 
+	 * @param now the current time in milliseconds
+	 * @return true if the record is new, false if it refreshes or withdraws a 
+	 * cached record
+	 */
+	boolean add(DNSRecord r, long now) {
+		String key = key(r.getName(), r.getType());
+		List<Entry> list = entries.get(key);
+		if (list==null) {
+			if (r.getTTL()==0)
+				return false;
+			list = new ArrayList<Entry>(2);
+			entries.put(key, list);
+		}
+		
+		// a record with the cache flush bit set replaces all other records of
+		// the same rrset received more than a second ago
+		if (r.isCacheFlush())
+			for(Entry e: list)
+				if (e.record.getDNSClass()==r.getDNSClass() && !e.record.sameData(r)
+						&& now - e.received > FLUSH_DELAY && e.expires > now + FLUSH_DELAY)
+					setExpiry(e, now + FLUSH_DELAY);
+		
+		for(Entry e: list) {
+			if (e.record.sameData(r)) {
+				if (r.getTTL()==0) {
+					// goodbye packet
+					setExpiry(e, now + FLUSH_DELAY);
+				} else {
+					e.record = r;
+					e.received = now;
+					setExpiry(e, now + r.getTTL() * 1000);
+				}
+				return false;
+			}
+		}
+		
+		if (r.getTTL()==0)
+			return false;
+		
+		Entry e = new Entry();
+		e.record = r;
+		e.received = now;
+		setExpiry(e, now + r.getTTL() * 1000);
+		list.add(e);
+		size++;
+		return true;
+	}
+	
+	private void setExpiry(Entry e, long expires) {
+		e.expires = expires;
+		e.refreshStep = 0;
+		e.nextRefresh = refreshTime(e, 0);
+		nextEvent = Math.min(nextEvent, Math.min(e.expires, e.nextRefresh));
+	}
+	
+	/**
+	 * This method returns when the given refresh point is reached, with 2% of
+	 * random jitter 
+	 */
+	private static long refreshTime(Entry e, int step) {
+		if (step>=REFRESH_POINTS.length || e.expires - e.received <= FLUSH_DELAY)
+			return Long.MAX_VALUE;
+		double percent = REFRESH_POINTS[step] + Math.random() * 2;
+		return e.received + (long) ((e.expires - e.received) * percent / 100);
+	}
+	
+	/**
+	 * @return the time (in milliseconds) of the next expiry or refresh, or 
+	 * {@link Long#MAX_VALUE} if there is nothing to do. This time may be
+	 * earlier than needed.
+	 */
+	long getNextEvent() {
+		return nextEvent;
+	}
+	
+	/**
+	 * This method removes expired records, and collects the keys of records 
+	 * which have reached a refresh point.
+	 * @param now the current time in milliseconds
+	 * @param expired a list to which expired records are added
+	 * @param refresh a list to which the name/type key of records which should
+	 * be refreshed are added
+	 */
+	void maintain(long now, List<DNSRecord> expired, List<String> refresh) {
+		if (now<nextEvent)
+			return;
+		
+		nextEvent = Long.MAX_VALUE;
+		Iterator<Map.Entry<String, List<Entry>>> it = entries.entrySet().iterator();
+		while(it.hasNext()) {
+			Map.Entry<String, List<Entry>> m = it.next();
+			Iterator<Entry> i = m.getValue().iterator();
+			boolean refreshKey = false;
+			while(i.hasNext()) {
+				Entry e = i.next();
+				if (e.expires<=now) {
+					expired.add(e.record);
+					i.remove();
+					size--;
+					continue;
+				}
+				if (e.nextRefresh<=now) {
+					refreshKey = true;
+					e.nextRefresh = refreshTime(e, ++e.refreshStep);
+				}
+				nextEvent = Math.min(nextEvent, Math.min(e.expires, e.nextRefresh));
+			}
+			if (refreshKey)
+				refresh.add(m.getKey());
+			if (m.getValue().isEmpty())
+				it.remove();
+		}
+	}
+	
+	/**
+	 * This method returns the cached records with the given name and type 
+	 * @param name the name
+	 * @param type the type, or {@link DNSRecord#TYPE_ANY}
+	 * @param now the current time in milliseconds
+	 * @return the live entries (records about to be flushed are excluded)
+	 */
+	List<Entry> lookup(String name, int type, long now) {
+		List<Entry> result = new ArrayList<Entry>();
+		if (type==DNSRecord.TYPE_ANY) {
+			String prefix = name.toLowerCase() + '/';
+			for(Map.Entry<String, List<Entry>> m: entries.entrySet())
+				if (m.getKey().startsWith(prefix))
+					collect(m.getValue(), now, result);
+		} else {
+			List<Entry> list = entries.get(key(name, type));
+			if (list!=null)
+				collect(list, now, result);
+		}
+		return result;
+	}
+	
+	private static void collect(List<Entry> list, long now, List<Entry> result) {
+		for(Entry e: list)
+			if (e.expires - now > FLUSH_DELAY)
+				result.add(e);
+	}
+	
+	/**
+	 * This method returns the records to include in the answer section of a
+	 * query, ie records with more than half their TTL left (RFC 6762 section
+	 * 7.1), with their TTL set to the time left.
+	 */
+	List<DNSRecord> knownAnswers(String name, int type, long now) {
+		List<DNSRecord> result = new ArrayList<DNSRecord>();
+		for(Entry e: lookup(name, type, now))
+			if (e.expires - now > (e.expires - e.received) / 2)
+				result.add(e.record.withTTL(e.remainingTTL(now)));
+		return result;
+	}
+	
+	/**
+	 * @return the number of cached records
+	 */
+	int size() {
+		return size;
+	}
+	
+	/**
+	 * This method empties the cache
+	 * @return the records that were cached
+	 */
+	List<DNSRecord> clear() {
+		List<DNSRecord> result = new ArrayList<DNSRecord>(size);
+		for(List<Entry> list: entries.values())
+			for(Entry e: list)
+				result.add(e.record);
+		entries.clear();
+		size = 0;
+		nextEvent = Long.MAX_VALUE;
+		return result;
+	}
+}
@@ -0,0 +1,437 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j.sidecar;
+
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import avahi4j.Address;
+import avahi4j.Avahi4JConstants;
+import avahi4j.Client;
+import avahi4j.EntryGroup;
+import avahi4j.IEntryGroupCallback;
+import avahi4j.IServiceBrowserCallback;
+import avahi4j.IServiceResolverCallback;
+import avahi4j.Avahi4JConstants.BrowserEvent;
+import avahi4j.Avahi4JConstants.Protocol;
+import avahi4j.ServiceResolver.ServiceResolverEvent;
+import avahi4j.exceptions.Avahi4JException;
+
+/**
+ * A sidecar client browses, resolves and publishes services through a 
+ * {@link SidecarServer}, instead of connecting to the avahi daemon itself. 
+ * Events are delivered to the same callback interfaces as those of 
+ * {@link Client}, in order, from a thread dedicated to this client (so 
+ * callbacks can call this client's methods). Service resolver callbacks 
+ * receive a null {@link avahi4j.ServiceResolver}: use the 
+ * {@link SidecarHandle} returned by 
+ * {@link #createServiceResolver(IServiceResolverCallback, int, Protocol, String, String, String, Protocol, int) createServiceResolver()}
+ * instead.
+ * <br>
+ * If the connection to the sidecar is lost, browsers receive a 
+ * {@link BrowserEvent#FAILURE} event, resolvers a 
+ * {@link ServiceResolverEvent#RESOLVER_FAILURE} event and entry groups a 
+ * {@link EntryGroup.State#AVAHI_ENTRY_GROUP_FAILURE} state change, and all 
+ * methods throw an {@link Avahi4JException}. 
+ * <br>
+ * Clients MUST be closed when no longer needed, by calling {@link #close()}.
+ * @author gilles
+ *
+ */
+public final class SidecarClient implements AutoCloseable {
+	private final SocketChannel channel;
+	private final AtomicInteger nextId;
+	private final ArrayDeque<CompletableFuture<Integer>> pending;
+	private final Map<Integer, SidecarHandle> handles;
+	private final ExecutorService dispatcher;
+	private final Thread reader;
+	private boolean closed;
+	
+	/**
+	 * This method connects to a sidecar server.
+	 * @param path the sidecar's socket file
+	 * @throws Avahi4JException if the sidecar can not be reached
+	 */
+	public SidecarClient(Path path) throws Avahi4JException {
+		nextId = new AtomicInteger();
+		pending = new ArrayDeque<CompletableFuture<Integer>>();
+		handles = new ConcurrentHashMap<Integer, SidecarHandle>();
+		
+		try {
+			channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+			channel.connect(UnixDomainSocketAddress.of(path));
+		} catch (IOException e) {
+			throw new Avahi4JException("Error connecting to the sidecar "+path, e);
+		}
+		
+		dispatcher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "avahi4j sidecar dispatcher");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		reader = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				read();
+			}
+		}, "avahi4j sidecar client");
+		reader.setDaemon(true);
+		reader.start();
+		
+		try {
+			call(new SidecarProtocol.Frame(SidecarProtocol.HELLO, 0)
+				.putInt(SidecarProtocol.VERSION));
+		} catch (Avahi4JException e) {
+			close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * This method disconnects from the sidecar, which releases the 
+	 * browsers, resolvers and entry groups created by this client. It can be
+	 * called several times.
+	 */
+	@Override
+	public void close() {
+		synchronized (pending) {
+			if (closed)
+				return;
+			closed = true;
+		}
+		// no failures are reported for the handles
+		handles.clear();
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// closed anyway
+		}
+	}
+	
+	/**
+	 * @return whether this client is still connected to the sidecar
+	 */
+	public boolean isConnected() {
+		synchronized (pending) {
+			return !closed;
+		}
+	}
+	
+	/**
+	 * This method creates a service browser in the sidecar. See 
+	 * {@link Client#createServiceBrowser(IServiceBrowserCallback, int, Protocol, String, String, int) Client.createServiceBrowser()}
+	 * for details. The browser is shared with the other JVMs browsing the 
+	 * same services.
+	 * @return a handle which MUST be released (by calling 
+	 * {@link SidecarHandle#release()}) when done.
+	 * @throws Avahi4JException if the browser can not be created, or if the
+	 * sidecar can not be reached
+	 */
+	public SidecarHandle createServiceBrowser(IServiceBrowserCallback callback,
+			int interfaceNum, Protocol proto, String type, String domain, 
+			int lookupFlags) throws Avahi4JException {
+		if (callback==null || type==null)
+			throw new NullPointerException("neither the callback nor the type can be null");
+		
+		SidecarHandle h = new SidecarHandle(this, nextId.incrementAndGet(), callback);
+		create(h, new SidecarProtocol.Frame(SidecarProtocol.BROWSE, h.id)
+			.putInt(interfaceNum).putByte(proto.ordinal()).putString(type)
+			.putString(domain).putInt(lookupFlags));
+		return h;
+	}
+	
+	/**
+	 * This method creates a service resolver in the sidecar. See 
+	 * {@link Client#createServiceResolver(IServiceResolverCallback, int, Protocol, String, String, String, Protocol, int) Client.createServiceResolver()}
+	 * for details.
+	 * @return a handle which MUST be released (by calling 
+	 * {@link SidecarHandle#release()}) when done.
+	 * @throws Avahi4JException if the resolver can not be created, or if the
+	 * sidecar can not be reached
+	 */
+	public SidecarHandle createServiceResolver(IServiceResolverCallback callback,
+			int interfaceNum, Protocol proto, String name, String type, 
+			String domain, Protocol addressProtocol, int lookupFlags) 
+			throws Avahi4JException {
+		if (callback==null || name==null || type==null)
+			throw new NullPointerException("neither the callback nor the type nor the name can be null");
+		
+		SidecarHandle h = new SidecarHandle(this, nextId.incrementAndGet(), callback);
+		create(h, new SidecarProtocol.Frame(SidecarProtocol.RESOLVE, h.id)
+			.putInt(interfaceNum).putByte(proto.ordinal()).putString(name)
+			.putString(type).putString(domain)
+			.putByte(addressProtocol.ordinal()).putInt(lookupFlags));
+		return h;
+	}
+	
+	/**
+	 * This method creates an entry group in the sidecar.
+	 * @param callback the callback object to receive state changes (can be 
+	 * null)
+	 * @return the entry group which MUST be released (by calling 
+	 * {@link SidecarEntryGroup#release()}) when done.
+	 * @throws Avahi4JException if the group can not be created, or if the
+	 * sidecar can not be reached
+	 */
+	public SidecarEntryGroup createEntryGroup(IEntryGroupCallback callback) 
+			throws Avahi4JException {
+		SidecarEntryGroup g = new SidecarEntryGroup(this, 
+				nextId.incrementAndGet(), callback);
+		create(g, new SidecarProtocol.Frame(SidecarProtocol.CREATE_GROUP, g.id));
+		return g;
+	}
+	
+	/**
+	 * This method registers a handle before creating its object, so it 
+	 * receives the events sent before the reply.
+	 */
+	private void create(SidecarHandle h, SidecarProtocol.Frame f) 
+			throws Avahi4JException {
+		handles.put(h.id, h);
+		try {
+			call(f);
+		} catch (Avahi4JException e) {
+			handles.remove(h.id);
+			throw e;
+		}
+	}
+	
+	/**
+	 * Called by {@link SidecarHandle#release()}.
+	 */
+	void release(SidecarHandle h) {
+		handles.remove(h.id);
+		try {
+			call(new SidecarProtocol.Frame(SidecarProtocol.RELEASE, h.id));
+		} catch (Avahi4JException e) {
+			// disconnected: released by the sidecar
+		}
+	}
+	
+	/**
+	 * This method sends a request and waits for its reply.
+	 * @return the result sent by the sidecar
+	 * @throws Avahi4JException if the request failed, or if the sidecar can
+	 * not be reached
+	 */
+	int call(SidecarProtocol.Frame f) throws Avahi4JException {
+		ByteBuffer frame = f.finish();
+		CompletableFuture<Integer> reply = new CompletableFuture<Integer>();
+		
+		// requests are written and queued in the same order
+		synchronized (pending) {
+			if (closed)
+				throw new Avahi4JException("Not connected to the sidecar");
+			pending.add(reply);
+			try {
+				while (frame.hasRemaining())
+					channel.write(frame);
+			} catch (IOException e) {
+				pending.remove(reply);
+				throw new Avahi4JException("Error sending a request to the sidecar", e);
+			}
+		}
+		
+		try {
+			return reply.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new Avahi4JException("Interrupted while waiting for the sidecar", e);
+		} catch (ExecutionException e) {
+			throw (Avahi4JException) e.getCause();
+		}
+	}
+	
+	private void read() {
+		ByteBuffer length = ByteBuffer.allocate(4);
+		try {
+			ByteBuffer frame;
+			while ((frame = SidecarProtocol.read(channel, length))!=null) {
+				byte op = frame.get();
+				int id = frame.getInt();
+				if (op==SidecarProtocol.RESULT || op==SidecarProtocol.ERROR) {
+					CompletableFuture<Integer> reply;
+					synchronized (pending) {
+						reply = pending.poll();
+					}
+					if (reply==null)
+						break;
+					if (op==SidecarProtocol.RESULT)
+						reply.complete(frame.getInt());
+					else
+						reply.completeExceptionally(new Avahi4JException(
+								SidecarProtocol.getString(frame)));
+				} else
+					event(op, id, frame);
+			}
+		} catch (IOException e) {
+			// disconnected
+		} catch (RuntimeException e) {
+			// malformed frame
+		}
+		
+		disconnected();
+	}
+	
+	/**
+	 * This method fails the pending requests and reports failures to all 
+	 * the handles.
+	 */
+	private void disconnected() {
+		List<CompletableFuture<Integer>> replies;
+		synchronized (pending) {
+			closed = true;
+			replies = new ArrayList<CompletableFuture<Integer>>(pending);
+			pending.clear();
+		}
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// closed anyway
+		}
+		
+		for(CompletableFuture<Integer> r: replies)
+			r.completeExceptionally(new Avahi4JException("Disconnected from the sidecar"));
+		
+		for(final SidecarHandle h: handles.values())
+			dispatcher.execute(new Runnable() {
+				@Override
+				public void run() {
+					if (handles.remove(h.id)==null)
+						return;
+					if (h.callback instanceof IServiceBrowserCallback)
+						((IServiceBrowserCallback) h.callback).serviceCallback(
+								Avahi4JConstants.AnyInterface, Protocol.ANY,
+								BrowserEvent.FAILURE, null, null, null, 0);
+					else if (h.callback instanceof IServiceResolverCallback)
+						((IServiceResolverCallback) h.callback).resolverCallback(
+								null, Avahi4JConstants.AnyInterface, Protocol.ANY,
+								ServiceResolverEvent.RESOLVER_FAILURE, null, null,
+								null, null, null, 0, null, 0);
+					else if (h instanceof SidecarEntryGroup) {
+						((SidecarEntryGroup) h).setState(
+								EntryGroup.State.AVAHI_ENTRY_GROUP_FAILURE);
+						if (h.callback!=null)
+							((IEntryGroupCallback) h.callback).groupStateChanged(
+									EntryGroup.State.AVAHI_ENTRY_GROUP_FAILURE);
+					}
+				}
+			});
+		dispatcher.shutdown();
+	}
+	
+	/**
+	 * This method decodes an event and hands it to the dispatcher thread.
+	 */
+	private void event(byte op, int id, ByteBuffer b) {
+		final SidecarHandle h = handles.get(id);
+		if (h==null)
+			return;
+		
+		final int interfaceNum;
+		final Protocol proto;
+		final String name, type, domain;
+		final int flags;
+		Runnable r;
+		
+		switch (op) {
+		case SidecarProtocol.BROWSER_EVENT:
+			interfaceNum = b.getInt();
+			proto = Protocol.values()[b.get()];
+			final BrowserEvent browserEvent = BrowserEvent.values()[b.get()];
+			name = SidecarProtocol.getString(b);
+			type = SidecarProtocol.getString(b);
+			domain = SidecarProtocol.getString(b);
+			flags = b.getInt();
+			r = new Runnable() {
+				@Override
+				public void run() {
+					if (handles.get(h.id)==h)
+						((IServiceBrowserCallback) h.callback).serviceCallback(
+								interfaceNum, proto, browserEvent, name, type, 
+								domain, flags);
+				}
+			};
+			break;
+			
+		case SidecarProtocol.RESOLVER_EVENT:
+			interfaceNum = b.getInt();
+			proto = Protocol.values()[b.get()];
+			final ServiceResolverEvent resolverEvent = 
+				ServiceResolverEvent.values()[b.get()];
+			name = SidecarProtocol.getString(b);
+			type = SidecarProtocol.getString(b);
+			domain = SidecarProtocol.getString(b);
+			final String hostname = SidecarProtocol.getString(b);
+			byte raw[] = SidecarProtocol.getBytes(b);
+			final int port = b.getInt();
+			final String txt[] = SidecarProtocol.getStrings(b);
+			flags = b.getInt();
+			final Address address = raw==null ? null : 
+				new Address(raw, interfaceNum, port);
+			r = new Runnable() {
+				@Override
+				public void run() {
+					if (handles.get(h.id)==h)
+						((IServiceResolverCallback) h.callback).resolverCallback(
+								null, interfaceNum, proto, resolverEvent, name, 
+								type, domain, hostname, address, port, txt, flags);
+				}
+			};
+			break;
+			
+		case SidecarProtocol.GROUP_EVENT:
+			final EntryGroup.State state = EntryGroup.State.values()[b.get()];
+			r = new Runnable() {
+				@Override
+				public void run() {
+					if (handles.get(h.id)!=h)
+						return;
+					((SidecarEntryGroup) h).setState(state);
+					if (h.callback!=null)
+						((IEntryGroupCallback) h.callback).groupStateChanged(state);
+				}
+			};
+			break;
+			
+		default:
+			// sent by a later version
+			return;
+		}
+		
+		dispatcher.execute(r);
+	}
+}
@@ -0,0 +1,344 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j.sidecar;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import avahi4j.Address;
+import avahi4j.Avahi4JConstants;
+import avahi4j.Client;
+import avahi4j.EntryGroup;
+import avahi4j.IEntryGroupCallback;
+import avahi4j.IServiceBrowserCallback;
+import avahi4j.IServiceResolverCallback;
+import avahi4j.ServiceResolver;
+import avahi4j.ServiceSubscription;
+import avahi4j.Avahi4JConstants.BrowserEvent;
+import avahi4j.Avahi4JConstants.Protocol;
+import avahi4j.EntryGroup.State;
+import avahi4j.ServiceResolver.ServiceResolverEvent;
+import avahi4j.exceptions.Avahi4JException;
+
+/**
+ * This class serves the requests of a JVM connected to a 
+ * {@link SidecarServer}. Requests are read and served by one thread, and 
+ * replies and events are written by another, from a bounded queue: a JVM 
+ * which does not keep up with its events is disconnected rather than 
+ * blocking the client's thread.
+ * @author gilles
+ *
+ */
+final class SidecarConnection {
+	/**
+	 * How many frames can be waiting to be written
+	 */
+	private static final int QUEUE_SIZE = 4096;
+	
+	// written to the queue to stop the writer thread
+	private static final ByteBuffer END = ByteBuffer.allocate(0);
+	
+	private final SidecarServer server;
+	private final Client client;
+	private final SocketChannel channel;
+	private final BlockingQueue<ByteBuffer> queue;
+	private final Map<Integer, Object> objects;
+	private final Thread reader, writer;
+	private boolean closed;
+	
+	SidecarConnection(SidecarServer server, Client client, SocketChannel channel) {
+		this.server = server;
+		this.client = client;
+		this.channel = channel;
+		queue = new ArrayBlockingQueue<ByteBuffer>(QUEUE_SIZE);
+		objects = new HashMap<Integer, Object>();
+		
+		reader = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				read();
+			}
+		}, "avahi4j sidecar reader");
+		reader.setDaemon(true);
+		writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				write();
+			}
+		}, "avahi4j sidecar writer");
+		writer.setDaemon(true);
+	}
+	
+	void start() {
+		writer.start();
+		reader.start();
+	}
+	
+	/**
+	 * This method closes the connection, and releases the objects created 
+	 * for the JVM.
+	 */
+	void close() {
+		List<Object> l;
+		synchronized (this) {
+			if (closed)
+				return;
+			closed = true;
+			l = new ArrayList<Object>(objects.values());
+			objects.clear();
+		}
+		
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// closed anyway
+		}
+		queue.clear();
+		queue.offer(END);
+		for(Object o: l)
+			release(o);
+		server.closed(this);
+	}
+	
+	private static void release(Object o) {
+		if (o instanceof ServiceSubscription)
+			((ServiceSubscription) o).release();
+		else if (o instanceof ServiceResolver)
+			((ServiceResolver) o).release();
+		else if (o instanceof EntryGroup)
+			((EntryGroup) o).release();
+	}
+	
+	/**
+	 * This method queues a frame, and disconnects the JVM if the queue is 
+	 * full.
+	 */
+	private void send(ByteBuffer frame) {
+		if (!queue.offer(frame))
+			close();
+	}
+	
+	private void write() {
+		try {
+			while (true) {
+				ByteBuffer frame = queue.take();
+				if (frame==END)
+					return;
+				while (frame.hasRemaining())
+					channel.write(frame);
+			}
+		} catch (InterruptedException e) {
+			close();
+		} catch (IOException e) {
+			close();
+		}
+	}
+	
+	private void read() {
+		ByteBuffer length = ByteBuffer.allocate(4);
+		try {
+			ByteBuffer frame = SidecarProtocol.read(channel, length);
+			if (frame==null || frame.get()!=SidecarProtocol.HELLO)
+				return;
+			int id = frame.getInt();
+			if (frame.getInt()!=SidecarProtocol.VERSION) {
+				send(new SidecarProtocol.Frame(SidecarProtocol.ERROR, id)
+					.putString("Unsupported protocol version").finish());
+				return;
+			}
+			send(new SidecarProtocol.Frame(SidecarProtocol.RESULT, id)
+				.putInt(Avahi4JConstants.AVAHI_OK).finish());
+			
+			while ((frame = SidecarProtocol.read(channel, length))!=null) {
+				byte op = frame.get();
+				id = frame.getInt();
+				try {
+					int result = serve(op, id, frame);
+					send(new SidecarProtocol.Frame(SidecarProtocol.RESULT, id)
+						.putInt(result).finish());
+				} catch (Avahi4JException e) {
+					send(new SidecarProtocol.Frame(SidecarProtocol.ERROR, id)
+						.putString(String.valueOf(e.getMessage())).finish());
+				} catch (RuntimeException e) {
+					send(new SidecarProtocol.Frame(SidecarProtocol.ERROR, id)
+						.putString(e.toString()).finish());
+				}
+			}
+		} catch (IOException e) {
+			// disconnected, or protocol error
+		} catch (RuntimeException e) {
+			// malformed frame
+		} finally {
+			close();
+		}
+	}
+	
+	/**
+	 * This method serves a request.
+	 * @return the result sent back
+	 * @throws Avahi4JException if the request failed
+	 */
+	private int serve(byte op, final int id, ByteBuffer b) 
+			throws Avahi4JException {
+		int interfaceNum;
+		Protocol proto;
+		String name, type, domain;
+		
+		switch (op) {
+		case SidecarProtocol.BROWSE:
+			interfaceNum = b.getInt();
+			proto = Protocol.values()[b.get()];
+			type = SidecarProtocol.getString(b);
+			domain = SidecarProtocol.getString(b);
+			int flags = b.getInt();
+			add(id, client.subscribeServiceBrowser(new IServiceBrowserCallback() {
+				@Override
+				public void serviceCallback(int interfaceNum, Protocol proto,
+						BrowserEvent browserEvent, String name, String type, 
+						String domain, int lookupResultFlag) {
+					send(new SidecarProtocol.Frame(SidecarProtocol.BROWSER_EVENT, id)
+						.putInt(interfaceNum).putByte(proto.ordinal())
+						.putByte(browserEvent.ordinal()).putString(name)
+						.putString(type).putString(domain)
+						.putInt(lookupResultFlag).finish());
+				}
+			}, interfaceNum, proto, type, domain, flags));
+			return Avahi4JConstants.AVAHI_OK;
+			
+		case SidecarProtocol.RESOLVE:
+			interfaceNum = b.getInt();
+			proto = Protocol.values()[b.get()];
+			name = SidecarProtocol.getString(b);
+			type = SidecarProtocol.getString(b);
+			domain = SidecarProtocol.getString(b);
+			Protocol addressProtocol = Protocol.values()[b.get()];
+			flags = b.getInt();
+			add(id, client.createServiceResolver(new IServiceResolverCallback() {
+				@Override
+				public void resolverCallback(ServiceResolver resolver, 
+						int interfaceNum, Protocol proto, 
+						ServiceResolverEvent resolverEvent, String name, 
+						String type, String domain, String hostname, 
+						Address address, int port, String[] txtRecords,
+						int lookupResultFlag) {
+					send(new SidecarProtocol.Frame(SidecarProtocol.RESOLVER_EVENT, id)
+						.putInt(interfaceNum).putByte(proto.ordinal())
+						.putByte(resolverEvent.ordinal()).putString(name)
+						.putString(type).putString(domain).putString(hostname)
+						.putBytes(address==null ? null : address.getBytes())
+						.putInt(port).putStrings(txtRecords)
+						.putInt(lookupResultFlag).finish());
+				}
+			}, interfaceNum, proto, name, type, domain, addressProtocol, flags));
+			return Avahi4JConstants.AVAHI_OK;
+			
+		case SidecarProtocol.CREATE_GROUP:
+			add(id, client.createEntryGroup(new IEntryGroupCallback() {
+				@Override
+				public void groupStateChanged(State newState) {
+					send(new SidecarProtocol.Frame(SidecarProtocol.GROUP_EVENT, id)
+						.putByte(newState.ordinal()).finish());
+				}
+			}));
+			return Avahi4JConstants.AVAHI_OK;
+			
+		case SidecarProtocol.ADD_SERVICE:
+			interfaceNum = b.getInt();
+			proto = Protocol.values()[b.get()];
+			name = SidecarProtocol.getString(b);
+			type = SidecarProtocol.getString(b);
+			domain = SidecarProtocol.getString(b);
+			String host = SidecarProtocol.getString(b);
+			int port = b.getInt();
+			String txt[] = SidecarProtocol.getStrings(b);
+			return group(id).addService(interfaceNum, proto, name, type, domain,
+					host, port, txt==null ? null : Arrays.asList(txt));
+			
+		case SidecarProtocol.ADD_SUBTYPE:
+			interfaceNum = b.getInt();
+			proto = Protocol.values()[b.get()];
+			name = SidecarProtocol.getString(b);
+			type = SidecarProtocol.getString(b);
+			domain = SidecarProtocol.getString(b);
+			String subtype = SidecarProtocol.getString(b);
+			return group(id).addServicesubType(interfaceNum, proto, name, type, 
+					domain, subtype);
+			
+		case SidecarProtocol.UPDATE_SERVICE:
+			interfaceNum = b.getInt();
+			proto = Protocol.values()[b.get()];
+			name = SidecarProtocol.getString(b);
+			type = SidecarProtocol.getString(b);
+			domain = SidecarProtocol.getString(b);
+			txt = SidecarProtocol.getStrings(b);
+			return group(id).updateService(interfaceNum, proto, name, type, 
+					domain, txt==null ? null : Arrays.asList(txt));
+			
+		case SidecarProtocol.COMMIT:
+			return group(id).commit();
+			
+		case SidecarProtocol.RESET:
+			return group(id).reset();
+			
+		case SidecarProtocol.RELEASE:
+			Object o;
+			synchronized (this) {
+				o = objects.remove(id);
+			}
+			if (o!=null)
+				release(o);
+			return Avahi4JConstants.AVAHI_OK;
+			
+		default:
+			throw new Avahi4JException("Unknown request "+op);
+		}
+	}
+	
+	/**
+	 * This method records an object created for the JVM, or releases it if 
+	 * the connection was closed in the meantime.
+	 */
+	private void add(int id, Object o) throws Avahi4JException {
+		boolean wasClosed;
+		synchronized (this) {
+			wasClosed = closed;
+			if (!closed && !objects.containsKey(id)) {
+				objects.put(id, o);
+				return;
+			}
+		}
+		release(o);
+		if (!wasClosed)
+			throw new Avahi4JException("Identifier "+id+" already in use");
+	}
+	
+	private synchronized EntryGroup group(int id) throws Avahi4JException {
+		Object o = objects.get(id);
+		if (!(o instanceof EntryGroup))
+			throw new Avahi4JException("No entry group with identifier "+id);
+		return (EntryGroup) o;
+	}
+}
@@ -0,0 +1,113 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j.sidecar;
+
+import java.util.List;
+
+import avahi4j.Avahi4JConstants;
+import avahi4j.EntryGroup;
+import avahi4j.IEntryGroupCallback;
+import avahi4j.Avahi4JConstants.Protocol;
+import avahi4j.exceptions.Avahi4JException;
+
+/**
+ * An entry group created in a sidecar by a {@link SidecarClient}. Its 
+ * methods behave like those of {@link EntryGroup}, but throw an 
+ * {@link Avahi4JException} if the sidecar can not be reached. It MUST be 
+ * released when no longer needed, by calling {@link #release()}: its 
+ * services are withdrawn then, or when the JVM disconnects from the sidecar.
+ * @author gilles
+ *
+ */
+public final class SidecarEntryGroup extends SidecarHandle {
+	private volatile EntryGroup.State state;
+	
+	SidecarEntryGroup(SidecarClient client, int id, IEntryGroupCallback callback) {
+		super(client, id, callback);
+		state = EntryGroup.State.AVAHI_ENTRY_GROUP_UNCOMMITED;
+	}
+	
+	/**
+	 * @return the last state reported by the sidecar
+	 */
+	public EntryGroup.State getState() {
+		return state;
+	}
+	
+	void setState(EntryGroup.State s) {
+		state = s;
+	}
+	
+	/**
+	 * See {@link EntryGroup#addService(int, Protocol, String, String, String, String, int, List)}.
+	 * @return AVAHI_OK or one of AVAHI_ERR_* constants (see {@link Avahi4JConstants}).
+	 * @throws Avahi4JException if the sidecar can not be reached
+	 */
+	public int addService(int interfaceNum, Protocol proto, String name,
+			String type, String domain, String host, int port, 
+			List<String> txtRecord) throws Avahi4JException {
+		return client.call(new SidecarProtocol.Frame(SidecarProtocol.ADD_SERVICE, id)
+			.putInt(interfaceNum).putByte(proto.ordinal()).putString(name)
+			.putString(type).putString(domain).putString(host).putInt(port)
+			.putStrings(txtRecord==null ? null : txtRecord.toArray(new String[0])));
+	}
+	
+	/**
+	 * See {@link EntryGroup#addServicesubType(int, Protocol, String, String, String, String)}.
+	 * @return AVAHI_OK or one of AVAHI_ERR_* constants (see {@link Avahi4JConstants}).
+	 * @throws Avahi4JException if the sidecar can not be reached
+	 */
+	public int addServicesubType(int interfaceNum, Protocol proto, String name,
+			String type, String domain, String subtype) throws Avahi4JException {
+		return client.call(new SidecarProtocol.Frame(SidecarProtocol.ADD_SUBTYPE, id)
+			.putInt(interfaceNum).putByte(proto.ordinal()).putString(name)
+			.putString(type).putString(domain).putString(subtype));
+	}
+	
+	/**
+	 * See {@link EntryGroup#updateService(int, Protocol, String, String, String, List)}.
+	 * @return AVAHI_OK or one of AVAHI_ERR_* constants (see {@link Avahi4JConstants}).
+	 * @throws Avahi4JException if the sidecar can not be reached
+	 */
+	public int updateService(int interfaceNum, Protocol proto, String name,
+			String type, String domain, List<String> txtRecord) 
+			throws Avahi4JException {
+		return client.call(new SidecarProtocol.Frame(SidecarProtocol.UPDATE_SERVICE, id)
+			.putInt(interfaceNum).putByte(proto.ordinal()).putString(name)
+			.putString(type).putString(domain)
+			.putStrings(txtRecord==null ? null : txtRecord.toArray(new String[0])));
+	}
+	
+	/**
+	 * See {@link EntryGroup#commit()}.
+	 * @return AVAHI_OK or one of AVAHI_ERR_* constants (see {@link Avahi4JConstants}).
+	 * @throws Avahi4JException if the sidecar can not be reached
+	 */
+	public int commit() throws Avahi4JException {
+		return client.call(new SidecarProtocol.Frame(SidecarProtocol.COMMIT, id));
+	}
+	
+	/**
+	 * See {@link EntryGroup#reset()}.
+	 * @return AVAHI_OK or one of AVAHI_ERR_* constants (see {@link Avahi4JConstants}).
+	 * @throws Avahi4JException if the sidecar can not be reached
+	 */
+	public int reset() throws Avahi4JException {
+		return client.call(new SidecarProtocol.Frame(SidecarProtocol.RESET, id));
+	}
+}
@@ -0,0 +1,67 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j.sidecar;
+
+/**
+ * A handle on a service browser or service resolver created by a 
+ * {@link SidecarClient}. It MUST be released when no longer needed, by 
+ * calling {@link #release()}.
+ * @author gilles
+ *
+ */
+public class SidecarHandle implements AutoCloseable {
+	final SidecarClient client;
+	final int id;
+	final Object callback;
+	private boolean released;
+	
+	SidecarHandle(SidecarClient client, int id, Object callback) {
+		this.client = client;
+		this.id = id;
+		this.callback = callback;
+	}
+	
+	/**
+	 * This method releases the browser or resolver in the sidecar. No more 
+	 * events are delivered to its callback after this method returns, 
+	 * unless it is called from the callback itself.
+	 */
+	public void release() {
+		synchronized (this) {
+			if (released)
+				return;
+			released = true;
+		}
+		client.release(this);
+	}
+	
+	/**
+	 * This method releases this handle, like {@link #release()}.
+	 */
+	@Override
+	public void close() {
+		release();
+	}
+	
+	/**
+	 * @return whether this handle was released
+	 */
+	public synchronized boolean isReleased() {
+		return released;
+	}
+}
@@ -0,0 +1,238 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j.sidecar;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class defines the binary protocol spoken between a 
+ * {@link SidecarServer} and its {@link SidecarClient}s, and encodes and 
+ * decodes its frames. 
+ * <br>
+ * Each frame is made of its length (int, excluding itself), an operation 
+ * code (byte), the identifier of the request or of the object it relates to
+ * (int) and the operation's arguments. Strings are written as their UTF-8 
+ * length (short, -1 for null) followed by their UTF-8 bytes, string arrays 
+ * as their length (short, -1 for null) followed by their strings.
+ * <br>
+ * Every request gets exactly one {@link #RESULT} or {@link #ERROR} reply, 
+ * in order. Events can be sent at any time.
+ * @author gilles
+ *
+ */
+final class SidecarProtocol {
+	/**
+	 * The protocol version, sent by the client with {@link #HELLO}
+	 */
+	static final int VERSION = 1;
+	
+	/**
+	 * The largest frame accepted, in bytes
+	 */
+	static final int MAX_FRAME = 1 << 20;
+	
+	/*
+	 * requests (client to server)
+	 */
+	/** version (int) */
+	static final byte HELLO = 1;
+	/** interface (int), protocol, type, domain, lookup flags (int) */
+	static final byte BROWSE = 2;
+	/** interface (int), protocol, name, type, domain, address protocol, lookup flags (int) */
+	static final byte RESOLVE = 3;
+	/** no arguments */
+	static final byte CREATE_GROUP = 4;
+	/** interface (int), protocol, name, type, domain, host, port (int), TXT records */
+	static final byte ADD_SERVICE = 5;
+	/** interface (int), protocol, name, type, domain, subtype */
+	static final byte ADD_SUBTYPE = 6;
+	/** interface (int), protocol, name, type, domain, TXT records */
+	static final byte UPDATE_SERVICE = 7;
+	/** no arguments */
+	static final byte COMMIT = 8;
+	/** no arguments */
+	static final byte RESET = 9;
+	/** no arguments */
+	static final byte RELEASE = 10;
+	
+	/*
+	 * replies and events (server to client)
+	 */
+	/** result (int) */
+	static final byte RESULT = 64;
+	/** message */
+	static final byte ERROR = 65;
+	/** interface (int), protocol, event, name, type, domain, flags (int) */
+	static final byte BROWSER_EVENT = 66;
+	/** interface (int), protocol, event, name, type, domain, host, address 
+	 * (byte array), port (int), TXT records, flags (int) */
+	static final byte RESOLVER_EVENT = 67;
+	/** state */
+	static final byte GROUP_EVENT = 68;
+	
+	private SidecarProtocol() {
+	}
+	
+	/**
+	 * This method reads the next frame from the given channel.
+	 * @param channel the channel to read from
+	 * @param length a buffer of 4 bytes for the frame length
+	 * @return the frame, positioned at its operation code, or null if the 
+	 * channel was closed between two frames
+	 * @throws IOException if the channel can not be read, is closed in the 
+	 * middle of a frame, or if the frame is too large
+	 */
+	static ByteBuffer read(ReadableByteChannel channel, ByteBuffer length) 
+			throws IOException {
+		length.clear();
+		while (length.hasRemaining())
+			if (channel.read(length)<0) {
+				if (length.position()==0)
+					return null;
+				throw new EOFException();
+			}
+		
+		int size = length.getInt(0);
+		if (size<5 || size>MAX_FRAME)
+			throw new IOException("Invalid frame length "+size);
+		
+		ByteBuffer frame = ByteBuffer.allocate(size);
+		while (frame.hasRemaining())
+			if (channel.read(frame)<0)
+				throw new EOFException();
+		frame.flip();
+		return frame;
+	}
+	
+	static String getString(ByteBuffer b) {
+		int length = b.getShort();
+		if (length<0)
+			return null;
+		String s = new String(b.array(), b.arrayOffset() + b.position(), 
+				length, StandardCharsets.UTF_8);
+		b.position(b.position() + length);
+		return s;
+	}
+	
+	static String[] getStrings(ByteBuffer b) {
+		int count = b.getShort();
+		if (count<0)
+			return null;
+		String s[] = new String[count];
+		for(int i=0; i<count; i++)
+			s[i] = getString(b);
+		return s;
+	}
+	
+	static byte[] getBytes(ByteBuffer b) {
+		int length = b.getShort();
+		if (length<0)
+			return null;
+		byte bytes[] = new byte[length];
+		b.get(bytes);
+		return bytes;
+	}
+	
+	/**
+	 * This class builds a frame.
+	 */
+	static final class Frame {
+		private ByteBuffer buffer;
+		
+		/**
+		 * This method starts a new frame.
+		 * @param op the operation code
+		 * @param id the request or object identifier
+		 */
+		Frame(byte op, int id) {
+			buffer = ByteBuffer.allocate(128);
+			buffer.putInt(0);
+			buffer.put(op);
+			buffer.putInt(id);
+		}
+		
+		private void ensure(int bytes) {
+			if (buffer.remaining()<bytes) {
+				ByteBuffer b = ByteBuffer.allocate(
+						Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+				buffer.flip();
+				b.put(buffer);
+				buffer = b;
+			}
+		}
+		
+		Frame putInt(int i) {
+			ensure(4);
+			buffer.putInt(i);
+			return this;
+		}
+		
+		Frame putByte(int b) {
+			ensure(1);
+			buffer.put((byte) b);
+			return this;
+		}
+		
+		Frame putBytes(byte b[]) {
+			if (b==null)
+				return putShort(-1);
+			putShort(b.length);
+			ensure(b.length);
+			buffer.put(b);
+			return this;
+		}
+		
+		private Frame putShort(int s) {
+			ensure(2);
+			buffer.putShort((short) s);
+			return this;
+		}
+		
+		Frame putString(String s) {
+			if (s==null)
+				return putShort(-1);
+			byte b[] = s.getBytes(StandardCharsets.UTF_8);
+			if (b.length>Short.MAX_VALUE)
+				throw new IllegalArgumentException("string too long");
+			return putBytes(b);
+		}
+		
+		Frame putStrings(String s[]) {
+			if (s==null)
+				return putShort(-1);
+			putShort(s.length);
+			for(String str: s)
+				putString(str);
+			return this;
+		}
+		
+		/**
+		 * This method completes this frame.
+		 * @return the frame, ready to be written
+		 */
+		ByteBuffer finish() {
+			buffer.putInt(0, buffer.position() - 4);
+			buffer.flip();
+			return buffer;
+		}
+	}
+}
@@ -0,0 +1,191 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j.sidecar;
+
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import avahi4j.Client;
+import avahi4j.exceptions.Avahi4JException;
+
+/**
+ * A sidecar server lets the JVMs of a host share a single {@link Client}, 
+ * and therefore a single connection to the avahi daemon. JVMs connect to it
+ * with a {@link SidecarClient}, over a Unix domain socket, to browse, 
+ * resolve and publish services. 
+ * <br>
+ * Service browsers are shared: however many JVMs browse the same services,
+ * a single browser is created (see 
+ * {@link Client#subscribeServiceBrowser(avahi4j.IServiceBrowserCallback, int, avahi4j.Avahi4JConstants.Protocol, String, String, int) subscribeServiceBrowser()}),
+ * and JVMs which start browsing later on are given the services already 
+ * found straight away. The browsers, resolvers and entry groups created for
+ * a JVM are released when it disconnects.
+ * <br>
+ * The server can be run on its own with:
+ * <pre>java -cp avahi4j.jar avahi4j.sidecar.SidecarServer /run/avahi4j.sock</pre>
+ * @author gilles
+ *
+ */
+public final class SidecarServer {
+	private final Client client;
+	private final Path path;
+	private final ServerSocketChannel channel;
+	private final Set<SidecarConnection> connections;
+	private final Thread acceptThread;
+	private boolean closed;
+	
+	/**
+	 * This method creates a new sidecar server, listening on the given 
+	 * socket. A stale socket file left by a previous server is removed. 
+	 * Connections are accepted once {@link #start()} is called.
+	 * @param client the client shared by the connected JVMs. It must be 
+	 * started, and is not released by {@link #close()}
+	 * @param path the socket file
+	 * @throws Avahi4JException if the socket can not be bound
+	 */
+	public SidecarServer(Client client, Path path) throws Avahi4JException {
+		if (client==null || path==null)
+			throw new NullPointerException("neither the client nor the path can be null");
+		this.client = client;
+		this.path = path;
+		connections = new HashSet<SidecarConnection>();
+		
+		try {
+			Files.deleteIfExists(path);
+			channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+			channel.bind(UnixDomainSocketAddress.of(path));
+		} catch (IOException e) {
+			throw new Avahi4JException("Error binding the sidecar socket "+path, e);
+		}
+		
+		acceptThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				accept();
+			}
+		}, "avahi4j sidecar server");
+		acceptThread.setDaemon(true);
+	}
+	
+	/**
+	 * This method starts accepting connections.
+	 */
+	public void start() {
+		acceptThread.start();
+	}
+	
+	/**
+	 * This method stops accepting connections, closes the existing ones 
+	 * (releasing their browsers, resolvers and entry groups) and removes the
+	 * socket file.
+	 */
+	public void close() {
+		List<SidecarConnection> l;
+		synchronized (this) {
+			if (closed)
+				return;
+			closed = true;
+			l = new ArrayList<SidecarConnection>(connections);
+		}
+		
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// the channel is closed anyway
+		}
+		for(SidecarConnection c: l)
+			c.close();
+		try {
+			Files.deleteIfExists(path);
+		} catch (IOException e) {
+			// nothing more we can do
+		}
+	}
+	
+	/**
+	 * @return the number of JVMs currently connected
+	 */
+	public synchronized int getConnectionCount() {
+		return connections.size();
+	}
+	
+	private void accept() {
+		while (true) {
+			SocketChannel c;
+			try {
+				c = channel.accept();
+			} catch (IOException e) {
+				// closed
+				return;
+			}
+			
+			SidecarConnection connection = new SidecarConnection(this, client, c);
+			synchronized (this) {
+				if (closed) {
+					connection.close();
+					return;
+				}
+				connections.add(connection);
+			}
+			connection.start();
+		}
+	}
+	
+	/**
+	 * Called by a connection once it is closed.
+	 */
+	synchronized void closed(SidecarConnection c) {
+		connections.remove(c);
+	}
+	
+	/**
+	 * This method runs a sidecar server until the JVM is stopped.
+	 * @param args the socket file
+	 * @throws Exception if the server can not be started
+	 */
+	public static void main(String args[]) throws Exception {
+		if (args.length!=1) {
+			System.err.println("Usage: SidecarServer <socket file>");
+			System.exit(1);
+		}
+		
+		final Client client = new Client();
+		client.start();
+		final SidecarServer server = new SidecarServer(client, Paths.get(args[0]));
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				server.close();
+				client.release();
+			}
+		});
+		server.start();
+		
+		Thread.sleep(Long.MAX_VALUE);
+	}
+}
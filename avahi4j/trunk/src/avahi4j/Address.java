@@ -16,45 +16,62 @@
 *
 */
 package avahi4j;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+
 import avahi4j.Avahi4JConstants.Protocol;
 import avahi4j.exceptions.JNIException;
 
 /**
- * This class encapsulate an IP address, either IPv4 or IPv6.
+ * This class encapsulate an IP address, either IPv4 or IPv6. The address is
+ * kept in binary form, as received from avahi. Its string, {@link InetAddress}
+ * and {@link InetSocketAddress} forms are only created when first asked for, 
+ * and are then cached. None of them involves a name lookup.
  * @author gilles
  *
  */
 public class Address {
+	private final byte bytes[];
+	private final int scopeId;
+	private final int port;
+	private final Protocol protocol;
 	private String address;
-	private Protocol protocol;
+	private InetAddress inetAddress;
+	private InetSocketAddress socketAddress;
 	
 	/**
-	 * This method sets the address member of this class according to the address
-	 * contained in the AvahiAddress object pointed to by the argument.
-	 * @param avahi_address_ptr
-	 * @return the address' protocol as an index into the {@link Protocol} enumeration 
+	 * This method creates an address from its raw bytes
+	 * @param raw the address, 4 or 16 bytes in network order. The array is 
+	 * not copied.
+	 * @param interfaceNum the interface the address was found on. It is used
+	 * as the scope of link-local IPv6 addresses.
+	 * @param port the port of the service at this address, or 0
 	 */
-	private native int parse_avahi_address(long avahi_address_ptr);
-	
-	Address(long avahi_address_ptr){
-		protocol = Protocol.values()[parse_avahi_address(avahi_address_ptr)];
-	}
-
-	Address(String a, Protocol p){
-		if(a==null)
+	public Address(byte raw[], int interfaceNum, int port){
+		if(raw==null)
 			throw new NullPointerException("The address can not be null");
-		if(p.equals(Protocol.ANY))
-			throw new JNIException("The protocol can not be set to ANY");
+		if(raw.length!=4 && raw.length!=16)
+			throw new JNIException("Invalid address length "+raw.length);
 		
-		address = a;
-		protocol = p;
+		bytes = raw;
+		protocol = raw.length==4 ? Protocol.INET : Protocol.INET6;
+		// only link-local addresses (fe80::/10) are scoped
+		scopeId = raw.length==16 && (raw[0] & 0xff)==0xfe && (raw[1] & 0xc0)==0x80 
+			&& interfaceNum>0 ? interfaceNum : 0;
+		this.port = port;
 	}
 	
 	/**
-	 * This method returns the IP address as a string.
+	 * This method returns the IP address as a string, in the same format as
+	 * avahi (eg. "192.168.0.1" or "fe80::1"), without scope.
 	 * @return the IP address contained in this object, as a string.
 	 */
-	public String getAddress() {
+	public synchronized String getAddress() {
+		if (address==null)
+			address = format(bytes);
 		return address;
 	}
 	
@@ -66,11 +83,143 @@ public class Address {
 		return protocol;
 	}
 	
+	/**
+	 * This method returns a copy of the raw address
+	 * @return the address, 4 or 16 bytes in network order
+	 */
+	public byte[] getBytes() {
+		return bytes.clone();
+	}
+	
+	/**
+	 * This method copies the raw address to the given array, without 
+	 * allocating
+	 * @param dst the destination array
+	 * @param offset where to copy the address in <code>dst</code>
+	 * @return the number of bytes copied (4 or 16)
+	 */
+	public int getBytes(byte dst[], int offset) {
+		System.arraycopy(bytes, 0, dst, offset, bytes.length);
+		return bytes.length;
+	}
+	
+	/**
+	 * @return the scope ID (interface index) of a link-local IPv6 address, or 0
+	 */
+	public int getScopeId() {
+		return scopeId;
+	}
+	
+	/**
+	 * @return the port of the service at this address, or 0 if unknown
+	 */
+	public int getPort() {
+		return port;
+	}
+	
+	/**
+	 * This method returns this address as an {@link InetAddress}, created on
+	 * first use
+	 * @return this address as an {@link InetAddress}
+	 */
+	public synchronized InetAddress getInetAddress() {
+		if (inetAddress==null) {
+			try {
+				if (scopeId!=0)
+					inetAddress = Inet6Address.getByAddress(null, bytes, scopeId);
+				else
+					inetAddress = InetAddress.getByAddress(bytes);
+			} catch (UnknownHostException e) {
+				// can not happen, the length has been checked
+				throw new JNIException("Invalid address: "+e.getMessage());
+			}
+		}
+		return inetAddress;
+	}
+	
+	/**
+	 * This method returns this address and the port of the service as an 
+	 * {@link InetSocketAddress}, created on first use
+	 * @return this address and port as an {@link InetSocketAddress}
+	 */
+	public synchronized InetSocketAddress getSocketAddress() {
+		if (socketAddress==null)
+			socketAddress = new InetSocketAddress(getInetAddress(), port);
+		return socketAddress;
+	}
+	
+	/**
+	 * This method formats an address the same way as avahi_address_snprint()
+	 * (ie. inet_ntop()): the longest run of two or more zero groups of an 
+	 * IPv6 address is replaced with "::".
+	 */
+	static String format(byte a[]) {
+		StringBuilder sb = new StringBuilder(39);
+		if (a.length==4) {
+			for(int i=0; i<4; i++) {
+				if (i>0)
+					sb.append('.');
+				sb.append(a[i] & 0xff);
+			}
+			return sb.toString();
+		}
+		
+		// find the longest run of zero groups
+		int bestStart = -1, bestLength = 0;
+		for(int i=0; i<8; ) {
+			int j = i;
+			while(j<8 && a[2*j]==0 && a[2*j+1]==0)
+				j++;
+			if (j-i>bestLength) {
+				bestStart = i;
+				bestLength = j-i;
+			}
+			i = j==i ? i+1 : j;
+		}
+		if (bestLength<2)
+			bestStart = -1;
+		
+		// IPv4-mapped and IPv4-compatible addresses end in dotted quad
+		boolean v4 = bestStart==0 && (bestLength==6 
+				|| (bestLength==5 && a[10]==(byte) 0xff && a[11]==(byte) 0xff));
+		for(int i=0; i<8; i++) {
+			if (i==bestStart) {
+				sb.append(i==0 ? "::" : ":");
+				i += bestLength - 1;
+				continue;
+			}
+			if (v4 && i==6) {
+				sb.append(a[12] & 0xff).append('.').append(a[13] & 0xff).append('.')
+					.append(a[14] & 0xff).append('.').append(a[15] & 0xff);
+				break;
+			}
+			sb.append(Integer.toHexString(((a[2*i] & 0xff) << 8) | (a[2*i+1] & 0xff)));
+			if (i<7)
+				sb.append(':');
+		}
+		return sb.toString();
+	}
+	
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(bytes) * 31 + scopeId;
+	}
+	
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof Address))
+			return false;
+		Address other = (Address) obj;
+		return scopeId==other.scopeId && Arrays.equals(bytes, other.bytes);
+	}
+	
 	public String toString() {
 		if(protocol==Protocol.INET){
-			return "IPv4: "+address;
+			return "IPv4: "+getAddress();
 		} else {
-			return "IPv6: "+address;
+			return "IPv6: "+getAddress();
 		}
 	}
 }
@@ -24,6 +24,14 @@ package avahi4j;
  *
  */
 public class Avahi4JConstants {
+	
+	/*
+	 * The values of the enumerations below, by ordinal. values() returns a new
+	 * copy of them every time, which the dispatch methods would otherwise 
+	 * allocate for every event.
+	 */
+	static final BrowserEvent BROWSER_EVENTS[] = BrowserEvent.values();
+	static final Protocol PROTOCOLS[] = Protocol.values();
 
 	/**
 	 * This enumeration contains a list of possible browser events (either from
@@ -64,56 +72,112 @@ public class Avahi4JConstants {
 		/**
 		 * The Internet DNS class
 		 */
-		AVAHI_DNS_CLASS_IN
+		AVAHI_DNS_CLASS_IN(1);
+		
+		private static final DNS_Class VALUES[] = values();
+		
+		private final int code;
+		
+		private DNS_Class(int code) {
+			this.code = code;
+		}
+		
+		/**
+		 * @return the numeric value of this class, as found in DNS messages
+		 */
+		public int getCode() {
+			return code;
+		}
+		
+		/**
+		 * This method returns the class with the given numeric value
+		 * @param code the numeric value
+		 * @return the matching class, or null if it is not in this enumeration
+		 */
+		public static DNS_Class fromCode(int code) {
+			for(DNS_Class c: VALUES)
+				if (c.code==code)
+					return c;
+			return null;
+		}
 	}
 	
 	/**
 	 * This enumeration contains a list of possible DNS Resource Record types.
 	 * See http://en.wikipedia.org/wiki/List_of_DNS_record_types for 
-	 * more information. 
+	 * more information. Other types can be browsed by numeric value with
+	 * {@link Client#createRecordBrowser(IRecordDataCallback, int, Protocol, String, int, int, int)}.
 	 * @author gilles
 	 */
 	public enum DNS_RRType{
 		/**
 		 * The A RR (IPv4 address)
 		 */
-		A,
+		A(1),
 		/**
 		 * The NS RR (name server)
 		 */
-		NS,
+		NS(2),
 		/**
 		 * The CNAME RR  (alias)
 		 */
-		CNAME,
+		CNAME(5),
 		/**
 		 * The SOA RR (Start Of Authority)
 		 */
-		SOA,
+		SOA(6),
 		/**
 		 * The PTR RR (IPv4 to hostname matching)
 		 */
-		PTR,
+		PTR(12),
 		/**
 		 * The HINFO RR (host information)
 		 */
-		HINFO ,
+		HINFO(13),
 		/**
 		 * The MX RR (Mail eXchange)
 		 */
-		MX,
+		MX(15),
 		/**
 		 * The TXT RR (text information)
 		 */
-		TXT,
+		TXT(16),
 		/**
 		 * The AAAA RR (IPv6 address)
 		 */
-		AAAA,
+		AAAA(28),
 		/**
 		 * The SRV RR (available service)
 		 */
-		SRV
+		SRV(33);
+		
+		private static final DNS_RRType BY_CODE[] = new DNS_RRType[34];
+		static {
+			for(DNS_RRType t: values())
+				BY_CODE[t.code] = t;
+		}
+		
+		private final int code;
+		
+		private DNS_RRType(int code) {
+			this.code = code;
+		}
+		
+		/**
+		 * @return the numeric value of this type, as found in DNS messages
+		 */
+		public int getCode() {
+			return code;
+		}
+		
+		/**
+		 * This method returns the type with the given numeric value
+		 * @param code the numeric value
+		 * @return the matching type, or null if it is not in this enumeration
+		 */
+		public static DNS_RRType fromCode(int code) {
+			return code>=0 && code<BY_CODE.length ? BY_CODE[code] : null;
+		}
 	}
 	
 	/**
@@ -209,7 +273,9 @@ public class Avahi4JConstants {
 	 * @param error the error to be converted
 	 * @return a string description of the error
 	 */
-	public native static String getErrorString(int error);
+	public static String getErrorString(int error) {
+		return Client.backend.getErrorString(error);
+	}
 	
 	/**
 	 * No error
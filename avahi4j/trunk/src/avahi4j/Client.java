@@ -18,9 +18,20 @@
 
 package avahi4j;
 
+import java.io.Closeable;
+import java.io.File;
+import java.net.InetAddress;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+import avahi4j.Avahi4JConstants.BrowserEvent;
 import avahi4j.Avahi4JConstants.DNS_Class;
 import avahi4j.Avahi4JConstants.DNS_RRType;
 import avahi4j.Avahi4JConstants.Protocol;
+import avahi4j.DomainBrowser.DomainBrowserType;
+import avahi4j.LogicalServiceBrowser.ResolvePolicy;
 import avahi4j.ServiceResolver.ServiceResolverEvent;
 import avahi4j.examples.TestServiceBrowser;
 import avahi4j.examples.TestServicePublish;
@@ -70,27 +81,73 @@ import avahi4j.exceptions.Avahi4JException;
  * @author gilles
  *
  */
-public class Client {
+public class Client implements Closeable {
+	
+	/**
+	 * The time given to 
+	 * {@link #resolveService(int, Protocol, String, String, String, Protocol, int)}
+	 * to resolve a service, in milliseconds
+	 */
+	public static final long RESOLVE_TIMEOUT = 30000;
+	
+	/**
+	 * The native backend used by all Avahi4J objects
+	 */
+	static final INativeBackend backend;
 	
-	// try and load the JNI library
+	// select and load the native backend
 	static {
-		try {
-			System.loadLibrary("avahi4j");
-		} catch (Throwable t) {
-			System.out.println("Error loading the Avahi4J JNI library.");
-			System.out.println("Make sure you have specified the right directory"
-					+ " where the library can be found by passing;\n"
-					+ " -Djava.library.path=/path/to/jni_lib/dir"
-					+ " to the JVM. Currently, this is set to:\n"
-					+ System.getProperty("java.library.path")+"\n");
-			t.printStackTrace();
-			// throw RunTimeError
-			throw new Error("Error loading JNI library.", t);
-		}
+		backend = loadBackend(System.getProperty("avahi4j.backend", "jni"));
 		
-		String version = getVersion();
+		String version = backend.getVersion();
 		if(version!=null)
 			System.out.println("Avahi4J v"+version);
+		
+		// set the initial trace level if requested (ignored by the backends
+		// other than JNI)
+		String traceLevel = System.getProperty("avahi4j.trace");
+		if(traceLevel!=null) {
+			try {
+				Trace.setLevel(Trace.Level.valueOf(traceLevel.trim().toUpperCase()));
+			} catch (IllegalArgumentException e) {
+				System.out.println("Unknown Avahi4J trace level: "+traceLevel);
+			}
+		}
+	}
+	
+	/**
+	 * This method instantiates the requested native backend.
+	 * @param name the name of the backend: "jni", "ffm" or "mdns"
+	 * @return the native backend
+	 * @throws Error if the backend can not be loaded
+	 */
+	private static INativeBackend loadBackend(String name) {
+		if (name.equalsIgnoreCase("jni"))
+			return new JNIBackend();
+		
+		if (name.equalsIgnoreCase("mdns")) {
+			try {
+				return (INativeBackend) Class.forName("avahi4j.MDNSBackend")
+						.getDeclaredConstructor().newInstance();
+			} catch (Throwable t) {
+				throw new Error("Error loading the Avahi4J mDNS backend. It "
+						+ "requires Java 7 or later and Avahi4J built with "
+						+ "'ant jar-mdns'", t);
+			}
+		}
+		
+		if (name.equalsIgnoreCase("ffm")) {
+			try {
+				return (INativeBackend) Class.forName("avahi4j.FFMBackend")
+						.getDeclaredConstructor().newInstance();
+			} catch (Throwable t) {
+				throw new Error("Error loading the Avahi4J FFM backend. It "
+						+ "requires Java 22 or later and Avahi4J built with "
+						+ "'ant jar-ffm'", t);
+			}
+		}
+		
+		throw new Error("Unknown Avahi4J backend '"+name+"' (expected 'jni', 'ffm' or 'mdns')");
 	}
 	
 	/**
@@ -119,69 +176,25 @@ public class Client {
 		 */
 		CONNECTING
 	}
+	
+	/**
+	 * the values of {@link State}, by ordinal
+	 */
+	private static final State STATES[] = State.values();
 
 	
 	/*
 	 * M E M B E R S
 	 */
 	private IClientCallback clientCallback;
-	private boolean 		pollLoopStarted;
+	private final Peer		peer;
 	private long			avahi4j_client_ptr;
-	
-	
-	/*
-	 * N A T I V E   M E T H O D S
-	 */
-	/**
-	 * This method initialises the client
-	 * @throws Avahi4JException if there is an error initialising the client
-	 */
-	private native long initClient() throws Avahi4JException;
-	/**
-	 * This method return this client's domain name 
-	 * @return this client's domain name
-	 */
-	private native String get_domain_name(long o);
-	/**
-	 * This method return this client's host name 
-	 * @return this client's host name
-	 */
-	private native String get_host_name(long o);
-	/**
-	 * This method return this client's fqdn
-	 * @return this client's fqdn
-	 */
-	private native String get_fqdn(long o);
-	/**
-	 * This method stes this client's host name
-	 * @param name the new client's host name
-	 * @return avahi_client_set_host_name() raw result
-	 */
-	private native int set_host_name(long o, String name);
-	/**
-	 * This method return this client's state as an int
-	 * @return this client's state
-	 */
-	private native int get_state(long o);
-	/**
-	 * This method starts the threaded poll loop
-	 * @return the raw result from avahi 
-	 */
-	private native int startLoop(long o);
-	/**
-	 * This method stops the threaded poll lopp
-	 * @return the raw result from avahi
-	 */
-	private native int stopLoop(long o);
-	/**
-	 * This method releases the client
-	 */
-	private native void releaseClient(long o);
-	/**
-	 * This method returns the Avahi4J version
-	 * @return the Avahi4J version
-	 */
-	private static native String getVersion();
+	private LatencyStats	latencyStats;
+	private volatile long	eventTimestamp;
+	private ResolverCache	resolverCache;
+	private volatile EventJournal journal;
+	private final Map<String, SharedServiceBrowser> sharedBrowsers = 
+		new HashMap<String, SharedServiceBrowser>();
 	
 	
 	/*
@@ -195,9 +208,11 @@ public class Client {
 	 */
 	public Client(IClientCallback callback) throws Avahi4JException{
 		clientCallback = callback;
-		pollLoopStarted = false;
+		latencyStats = new LatencyStats();
 		
-		avahi4j_client_ptr = initClient();
+		peer = new Peer(this);
+		avahi4j_client_ptr = backend.initClient(peer);
+		peer.created(avahi4j_client_ptr);
 	}
 	
 	/**
@@ -218,10 +233,10 @@ public class Client {
 		int result = Avahi4JConstants.AVAHI_OK;
 		
 		// if the poll loop is not started, start it
-		if (!pollLoopStarted) {
-			result = startLoop(avahi4j_client_ptr); 
+		if (!peer.loopStarted) {
+			result = backend.startLoop(avahi4j_client_ptr); 
 			if (result==0)
-				pollLoopStarted = true;
+				peer.loopStarted = true;
 		}
 		
 		return result;
@@ -233,7 +248,7 @@ public class Client {
 	 * @return AVAHI_OK or one of AVAHI_ERR_* constants (see {@link Avahi4JConstants})
 	 */
 	public synchronized int setHostName(String name) {
-		return set_host_name(avahi4j_client_ptr, name);
+		return backend.setHostName(avahi4j_client_ptr, name);
 	}
 	
 	/**
@@ -241,7 +256,7 @@ public class Client {
 	 * @return the current host name
 	 */
 	public synchronized String getHostName() {
-		return get_host_name(avahi4j_client_ptr);
+		return backend.getHostName(avahi4j_client_ptr);
 	}
 	
 	/**
@@ -249,7 +264,7 @@ public class Client {
 	 * @return the current domain name
 	 */
 	public synchronized String getDomainName() {
-		return get_domain_name(avahi4j_client_ptr);
+		return backend.getDomainName(avahi4j_client_ptr);
 	}
 	
 	/**
@@ -257,7 +272,7 @@ public class Client {
 	 * @return the current fully-qualified domain name
 	 */
 	public synchronized String getFQDN() {
-		return get_fqdn(avahi4j_client_ptr);
+		return backend.getFQDN(avahi4j_client_ptr);
 	}
 	
 	/**
@@ -265,7 +280,122 @@ public class Client {
 	 * @return this client's current {@link State}.
 	 */
 	public synchronized State getState() {
-		return State.values()[get_state(avahi4j_client_ptr)];
+		return STATES[backend.getState(avahi4j_client_ptr)];
+	}
+	
+	/**
+	 * This method returns the error code of the last operation of this client
+	 * which failed. It tells why a create method threw an 
+	 * {@link Avahi4JException}, or why a resolver reported 
+	 * {@link ServiceResolverEvent#RESOLVER_FAILURE} (when called from the 
+	 * callback), for instance {@link Avahi4JConstants#AVAHI_ERR_TIMEOUT} or
+	 * {@link Avahi4JConstants#AVAHI_ERR_TOO_MANY_OBJECTS}. It can be called
+	 * from callbacks.
+	 * @return the last error, one of AVAHI_ERR_* constants (see 
+	 * {@link Avahi4JConstants}), or AVAHI_OK
+	 */
+	public int getLastError() {
+		return backend.getLastError(avahi4j_client_ptr);
+	}
+	
+	/**
+	 * This method returns the latency statistics of this client, covering
+	 * events delivered to the client itself and to all the browsers, resolvers
+	 * and entry groups created from it. The lock histograms are refreshed from
+	 * the native library every time this method is called.
+	 * @return this client's latency statistics
+	 */
+	public synchronized LatencyStats getLatencyStats() {
+		long wait[] = new long[LatencyHistogram.BUCKETS];
+		long hold[] = new long[LatencyHistogram.BUCKETS];
+		
+		backend.getLockHistograms(avahi4j_client_ptr, wait, hold);
+		latencyStats.getHistogram(LatencyStats.Stage.LOCK_WAIT).load(wait);
+		latencyStats.getHistogram(LatencyStats.Stage.LOCK_HOLD).load(hold);
+		
+		return latencyStats;
+	}
+	
+	/**
+	 * This method clears all the latency histograms of this client.
+	 */
+	public synchronized void resetLatencyStats() {
+		backend.resetLockHistograms(avahi4j_client_ptr);
+		latencyStats.reset();
+	}
+	
+	/**
+	 * This method returns the native timestamp of the event currently being
+	 * dispatched (or of the last dispatched event when called outside a
+	 * callback). The timestamp is taken as soon as the event reaches the JNI
+	 * library and uses the same clock as {@link System#nanoTime()}, so 
+	 * <code>System.nanoTime() - getEventTimestamp()</code> gives the time
+	 * elapsed since then.
+	 * @return the native timestamp of the current or last event, in nanoseconds
+	 */
+	public long getEventTimestamp() {
+		return eventTimestamp;
+	}
+	
+	/**
+	 * This method starts recording the events dispatched to the service 
+	 * browsers, service resolvers, record browsers and entry groups of this
+	 * client (including those created before this call) to the given file, 
+	 * which can be replayed later on with a {@link JournalReplayer}. This 
+	 * method is equivalent to calling {@link #startJournal(File, int)} with
+	 * {@link EventJournal#DEFAULT_BUFFER_SIZE}.
+	 * @param file the journal file. It is truncated if it exists
+	 * @return the journal, which MUST be closed (by calling 
+	 * {@link EventJournal#close()}) to stop recording.
+	 * @throws Avahi4JException if the file can not be created, or if a 
+	 * journal is already being recorded
+	 */
+	public EventJournal startJournal(File file) throws Avahi4JException {
+		return startJournal(file, EventJournal.DEFAULT_BUFFER_SIZE);
+	}
+	
+	/**
+	 * This method starts recording the events dispatched to the service 
+	 * browsers, service resolvers, record browsers and entry groups of this
+	 * client (including those created before this call) to the given file, 
+	 * which can be replayed later on with a {@link JournalReplayer}. 
+	 * @param file the journal file. It is truncated if it exists
+	 * @param bufferSize the size of the buffer events are written to before
+	 * they are written to the file, in bytes
+	 * @return the journal, which MUST be closed (by calling 
+	 * {@link EventJournal#close()}) to stop recording.
+	 * @throws Avahi4JException if the file can not be created, or if a 
+	 * journal is already being recorded
+	 */
+	public synchronized EventJournal startJournal(File file, int bufferSize)
+			throws Avahi4JException {
+		if (file==null)
+			throw new NullPointerException("the file can not be null");
+		if (bufferSize<EventJournal.HEADER_SIZE)
+			throw new IllegalArgumentException("invalid buffer size "+bufferSize);
+		if (journal!=null)
+			throw new Avahi4JException("A journal is already being recorded");
+		
+		journal = new EventJournal(this, file, bufferSize);
+		return journal;
+	}
+	
+	/**
+	 * This method returns the journal currently recording this client's 
+	 * events.
+	 * @return the current journal, or null if none
+	 */
+	public EventJournal getJournal() {
+		return journal;
+	}
+	
+	/**
+	 * This method stops recording events to the given journal, if it is the
+	 * current one. Called by {@link EventJournal#close()}.
+	 */
+	synchronized void stopJournal(EventJournal j) {
+		if (journal==j)
+			journal = null;
 	}
 	
 	/**
@@ -277,25 +407,45 @@ public class Client {
 		int result = Avahi4JConstants.AVAHI_ERR_BAD_STATE;
 		
 		// if the poll loop is started, stop it
-		if (pollLoopStarted) {
-			result = stopLoop(avahi4j_client_ptr);
+		if (peer.loopStarted) {
+			result = backend.stopLoop(avahi4j_client_ptr);
 			// somehow avahi_threaded_poll_stop() can return value >=0...
 			if (result>=0)
-				pollLoopStarted = false;
+				peer.loopStarted = false;
 		}
 		
 		return result;
 	}
 	
 	/**
-	 * This method must be called when the client is no longer needed.
+	 * This method must be called when the client is no longer needed. It can 
+	 * be called several times.
 	 */
 	public synchronized void release()
 	{
 		//make sure we are stopped
 		stop();
 		
-		releaseClient(avahi4j_client_ptr);
+		peer.release();
+	}
+	
+	/**
+	 * This method releases this client, like {@link #release()}.
+	 */
+	@Override
+	public void close() {
+		release();
+	}
+	
+	/**
+	 * This method returns the peer of this client. The objects of a 
+	 * released client must not call the native backend, their native 
+	 * objects were freed with the client's: its lock serializes their 
+	 * release with the client's (see {@link NativePeer}).
+	 * @return the peer of this client
+	 */
+	NativePeer<Client> getPeer() {
+		return peer;
 	}
 	
 	/*
@@ -311,7 +461,7 @@ public class Client {
 	 */
 	public synchronized EntryGroup createEntryGroup(IEntryGroupCallback callback)
 				throws Avahi4JException{
-		return new EntryGroup(callback, avahi4j_client_ptr);
+		return new EntryGroup(callback, avahi4j_client_ptr, latencyStats, this);
 	}
 	
 	/**
@@ -347,8 +497,357 @@ public class Client {
 		if (callback==null || type==null)
 			throw new NullPointerException("neither the callback nor the type can be null");
 		
-		return new ServiceBrowser(callback, avahi4j_client_ptr, interfaceNum, 
-				proto, type, domain, lookupFlags);
+		return createServiceBrowser(callback, interfaceNum, proto, type, domain,
+				lookupFlags, EventFilter.ACCEPT_ALL);
+	}
+	
+	/**
+	 * This method create a new {@link ServiceBrowser} object used to look for
+	 * services of a given type, whose callback only receives the events 
+	 * passing the given {@link EventFilter}. Other events are dropped by the
+	 * native backend before reaching Java.
+	 * @param callback the object which will receive notification of matching 
+	 * services
+	 * @param interfaceNum the interface number to be used for browsing, or
+	 * {@link Avahi4JConstants#AnyInterface} to browse on all available interfaces
+	 * @param proto the {@link Protocol} to use for browsing (in most cases, you
+	 * want to use {@link Protocol#ANY}). 
+	 * @param type the service type to browse (for instance '_workstation._tcp')
+	 * @param domain the domain to browse  (set it to null to browse on all domains)
+	 * @param lookupFlags lookup flags (See LOOKUP_* in {@link Avahi4JConstants})
+	 * @param filter the events to deliver to the callback
+	 * @return a service browser object which MUST be released (by calling
+	 * {@link ServiceBrowser#release()}) when done.
+	 * @throws Avahi4JException if there is an error creating the service browser
+	 */
+	public synchronized ServiceBrowser createServiceBrowser(
+			IServiceBrowserCallback callback, int interfaceNum, Protocol proto, 
+			String type, String domain,	int lookupFlags, EventFilter filter) 
+				throws Avahi4JException{
+		
+		if (callback==null || type==null || filter==null)
+			throw new NullPointerException("neither the callback nor the type nor the filter can be null");
+		
+		return new ServiceBrowser(callback, null, avahi4j_client_ptr, 
+				latencyStats, this, interfaceNum, proto, type, domain, lookupFlags,
+				filter);
+	}
+	
+	/**
+	 * This method create a new {@link ServiceBrowser} object used to look for
+	 * services of a given type, whose callback receives the events as a
+	 * {@link ServiceEvent} view, reused for every event. The name, type and
+	 * domain of the events are only decoded if the callback asks for them, so
+	 * that dispatching an event allocates nothing. Only the events passing the 
+	 * given {@link EventFilter} are delivered.
+	 * @param callback the object which will receive the events
+	 * @param interfaceNum the interface number to be used for browsing, or
+	 * {@link Avahi4JConstants#AnyInterface} to browse on all available interfaces
+	 * @param proto the {@link Protocol} to use for browsing (in most cases, you
+	 * want to use {@link Protocol#ANY}). 
+	 * @param type the service type to browse (for instance '_workstation._tcp')
+	 * @param domain the domain to browse  (set it to null to browse on all domains)
+	 * @param lookupFlags lookup flags (See LOOKUP_* in {@link Avahi4JConstants})
+	 * @param filter the events to deliver to the callback
+	 * @return a service browser object which MUST be released (by calling
+	 * {@link ServiceBrowser#release()}) when done.
+	 * @throws Avahi4JException if there is an error creating the service browser
+	 */
+	public synchronized ServiceBrowser createServiceBrowser(
+			IServiceEventCallback callback, int interfaceNum, Protocol proto, 
+			String type, String domain,	int lookupFlags, EventFilter filter) 
+				throws Avahi4JException{
+		
+		if (callback==null || type==null || filter==null)
+			throw new NullPointerException("neither the callback nor the type nor the filter can be null");
+		
+		return new ServiceBrowser(null, callback, avahi4j_client_ptr, 
+				latencyStats, this, interfaceNum, proto, type, domain, lookupFlags,
+				filter);
+	}
+	
+	/**
+	 * This method subscribes to services of a given type, sharing a single
+	 * {@link ServiceBrowser} with all the other subscriptions with the same
+	 * parameters. A new subscription is immediately given the services already
+	 * known to the shared browser. Use this method rather than
+	 * {@link #createServiceBrowser(IServiceBrowserCallback, int, Protocol, String, String, int) createServiceBrowser()}
+	 * when independent parts of an application may browse for the same type.
+	 * @param callback the object which will receive notification of matching 
+	 * services
+	 * @param interfaceNum the interface number to be used for browsing, or
+	 * {@link Avahi4JConstants#AnyInterface} to browse on all available interfaces
+	 * @param proto the {@link Protocol} to use for browsing
+	 * @param type the service type to browse (for instance '_workstation._tcp')
+	 * @param domain the domain to browse  (set it to null to browse on all domains)
+	 * @param lookupFlags lookup flags (See LOOKUP_* in {@link Avahi4JConstants})
+	 * @return a subscription which MUST be released (by calling
+	 * {@link ServiceSubscription#release()}) when done.
+	 * @throws Avahi4JException if there is an error creating the service browser
+	 */
+	public ServiceSubscription subscribeServiceBrowser(
+			IServiceBrowserCallback callback, int interfaceNum, Protocol proto,
+			String type, String domain, int lookupFlags) throws Avahi4JException{
+		
+		if (callback==null || type==null)
+			throw new NullPointerException("neither the callback nor the type can be null");
+		
+		return SharedServiceBrowser.subscribe(this, sharedBrowsers, callback, 
+				interfaceNum, proto, type, domain, lookupFlags);
+	}
+	
+	/**
+	 * This method subscribes to the services of a given type whose TXT 
+	 * record matches a {@link TXTPredicate}. The predicate is evaluated 
+	 * against the raw TXT data: only matching services are resolved and 
+	 * reported, and subscribers are notified when a TXT update makes a 
+	 * service enter or leave the set of matching services.
+	 * @param callback the object which will receive the matching services
+	 * @param interfaceNum the interface number to be used for browsing, or
+	 * {@link Avahi4JConstants#AnyInterface} to browse on all available interfaces
+	 * @param proto the {@link Protocol} to use for browsing
+	 * @param type the service type to browse (for instance '_workstation._tcp')
+	 * @param domain the domain to browse  (set it to null to browse on all domains)
+	 * @param predicate the predicate TXT records must match, see 
+	 * {@link TXTPredicate#compile(String)}
+	 * @param lookupFlags lookup flags (See LOOKUP_* in {@link Avahi4JConstants})
+	 * @return a subscription which MUST be released (by calling
+	 * {@link TXTSubscription#release()}) when done.
+	 * @throws Avahi4JException if there is an error creating the service browser
+	 */
+	public TXTSubscription subscribeServices(ITXTSubscriptionCallback callback,
+			int interfaceNum, Protocol proto, String type, String domain, 
+			TXTPredicate predicate, int lookupFlags) throws Avahi4JException{
+		
+		if (callback==null || type==null || predicate==null)
+			throw new NullPointerException("neither the callback nor the type nor the predicate can be null");
+		
+		return new TXTSubscription(this, callback, interfaceNum, proto, type, 
+				domain, predicate, lookupFlags);
+	}
+	
+	/**
+	 * This method starts a {@link ServiceSnapshot}, which gathers all the 
+	 * services of a given type currently on the network: it browses until 
+	 * the browser reports {@link BrowserEvent#NO_MORE} (or 
+	 * {@link BrowserEvent#CACHE_EXHAUSTED} in cache-only mode), optionally 
+	 * resolves the services found, and completes with their list. This 
+	 * method does not block.
+	 * @param callback the object to notify when the snapshot completes, or null
+	 * @param interfaceNum the interface number to be used for browsing, or
+	 * {@link Avahi4JConstants#AnyInterface} to browse on all available interfaces
+	 * @param proto the {@link Protocol} to use for browsing and resolving
+	 * @param type the service type to browse (for instance '_workstation._tcp')
+	 * @param domain the domain to browse  (set it to null to browse on all domains)
+	 * @param lookupFlags lookup flags (See LOOKUP_* in {@link Avahi4JConstants})
+	 * @param cacheOnly whether to complete as soon as the services already in
+	 * the cache have been reported
+	 * @param resolveConcurrency the maximum number of services resolved at a
+	 * time, 0 not to resolve them
+	 * @param timeout the time in milliseconds after which the snapshot 
+	 * completes with the services found so far, 0 for no limit
+	 * @return the snapshot, which is a {@link java.util.concurrent.Future} 
+	 * of the list of services. It releases its browser and resolvers when 
+	 * complete.
+	 * @throws Avahi4JException if there is an error creating the service browser
+	 */
+	public ServiceSnapshot snapshotServices(IServiceSnapshotCallback callback,
+			int interfaceNum, Protocol proto, String type, String domain, 
+			int lookupFlags, boolean cacheOnly, int resolveConcurrency, 
+			long timeout) throws Avahi4JException{
+		
+		if (type==null)
+			throw new NullPointerException("the type can not be null");
+		if (resolveConcurrency<0 || timeout<0)
+			throw new IllegalArgumentException("the concurrency and timeout can not be negative");
+		
+		return new ServiceSnapshot(this, callback, interfaceNum, proto, type,
+				domain, lookupFlags, cacheOnly, resolveConcurrency, timeout);
+	}
+	
+	/**
+	 * This method returns all the services of a given type currently on the
+	 * network. It blocks until the browser reports 
+	 * {@link BrowserEvent#NO_MORE} (or {@link BrowserEvent#CACHE_EXHAUSTED} 
+	 * in cache-only mode) and the services are resolved, or until the 
+	 * timeout expires. See 
+	 * {@link #snapshotServices(IServiceSnapshotCallback, int, Protocol, String, String, int, boolean, int, long) snapshotServices()}.
+	 * <b>It must not be called from a callback.</b>
+	 * @param interfaceNum the interface number to be used for browsing, or
+	 * {@link Avahi4JConstants#AnyInterface} to browse on all available interfaces
+	 * @param proto the {@link Protocol} to use for browsing and resolving
+	 * @param type the service type to browse (for instance '_workstation._tcp')
+	 * @param domain the domain to browse  (set it to null to browse on all domains)
+	 * @param lookupFlags lookup flags (See LOOKUP_* in {@link Avahi4JConstants})
+	 * @param cacheOnly whether to return as soon as the services already in
+	 * the cache have been reported
+	 * @param resolveConcurrency the maximum number of services resolved at a
+	 * time, 0 not to resolve them
+	 * @param timeout the time in milliseconds after which the services found 
+	 * so far are returned, 0 for no limit
+	 * @return the services found, in the order they were found
+	 * @throws Avahi4JException if there is an error browsing the services
+	 * @throws InterruptedException if the calling thread is interrupted
+	 */
+	public List<ResolvedService> browseServices(int interfaceNum, Protocol proto,
+			String type, String domain, int lookupFlags, boolean cacheOnly,
+			int resolveConcurrency, long timeout) 
+				throws Avahi4JException, InterruptedException{
+		
+		ServiceSnapshot snapshot = snapshotServices(null, interfaceNum, proto,
+				type, domain, lookupFlags, cacheOnly, resolveConcurrency, timeout);
+		try {
+			return snapshot.get();
+		} catch (ExecutionException e) {
+			throw (Avahi4JException) e.getCause();
+		} catch (InterruptedException e) {
+			snapshot.cancel(false);
+			throw e;
+		}
+	}
+	
+	/**
+	 * This method creates a new {@link ServiceTypeBrowser} object used to 
+	 * find the types of the services available on the network.
+	 * @param callback the object which will receive the service types
+	 * @param interfaceNum the interface number to be used for browsing, or
+	 * {@link Avahi4JConstants#AnyInterface} to browse on all available interfaces
+	 * @param proto the {@link Protocol} to use for browsing
+	 * @param domain the domain to browse (set it to null to use the default domain)
+	 * @param lookupFlags lookup flags (See LOOKUP_* in {@link Avahi4JConstants})
+	 * @return a service type browser object which MUST be released (by 
+	 * calling {@link ServiceTypeBrowser#release()}) when done.
+	 * @throws Avahi4JException if there is an error creating the browser
+	 */
+	public synchronized ServiceTypeBrowser createServiceTypeBrowser(
+			IServiceTypeBrowserCallback callback, int interfaceNum, Protocol proto,
+			String domain, int lookupFlags) throws Avahi4JException{
+		
+		if (callback==null)
+			throw new NullPointerException("the callback can not be null");
+		
+		return new ServiceTypeBrowser(callback, avahi4j_client_ptr, latencyStats, this,
+				interfaceNum, proto, domain, lookupFlags);
+	}
+	
+	/**
+	 * This method creates a new {@link DomainBrowser} object used to find the
+	 * domains recommended for browsing or registering services.
+	 * @param callback the object which will receive the domains
+	 * @param interfaceNum the interface number to be used for browsing, or
+	 * {@link Avahi4JConstants#AnyInterface} to browse on all available interfaces
+	 * @param proto the {@link Protocol} to use for browsing
+	 * @param domain the parent domain (set it to null to use the default domain)
+	 * @param type the kind of domains to look for
+	 * @param lookupFlags lookup flags (See LOOKUP_* in {@link Avahi4JConstants})
+	 * @return a domain browser object which MUST be released (by calling 
+	 * {@link DomainBrowser#release()}) when done.
+	 * @throws Avahi4JException if there is an error creating the browser
+	 */
+	public synchronized DomainBrowser createDomainBrowser(
+			IDomainBrowserCallback callback, int interfaceNum, Protocol proto,
+			String domain, DomainBrowserType type, int lookupFlags) 
+				throws Avahi4JException{
+		
+		if (callback==null || type==null)
+			throw new NullPointerException("neither the callback nor the type can be null");
+		
+		return new DomainBrowser(callback, avahi4j_client_ptr, latencyStats, this,
+				interfaceNum, proto, domain, type, lookupFlags);
+	}
+	
+	/**
+	 * This method creates a new {@link ServiceInventory}, which reports all
+	 * the services available on the network using one 
+	 * {@link ServiceTypeBrowser} and one {@link ServiceBrowser} per service 
+	 * type present, instead of one browser per type which might be present.
+	 * @param callback the object which will receive the services
+	 * @param interfaceNum the interface number to be used for browsing, or
+	 * {@link Avahi4JConstants#AnyInterface} to browse on all available interfaces
+	 * @param proto the {@link Protocol} to use for browsing
+	 * @param domain the domain to browse (set it to null to use the default domain)
+	 * @param lookupFlags lookup flags (See LOOKUP_* in {@link Avahi4JConstants})
+	 * @return a service inventory which MUST be released (by calling 
+	 * {@link ServiceInventory#release()}) when done.
+	 * @throws Avahi4JException if there is an error creating the service type 
+	 * browser
+	 */
+	public synchronized ServiceInventory createServiceInventory(
+			IServiceBrowserCallback callback, int interfaceNum, Protocol proto,
+			String domain, int lookupFlags) throws Avahi4JException{
+		
+		if (callback==null)
+			throw new NullPointerException("the callback can not be null");
+		
+		return new ServiceInventory(this, callback, interfaceNum, proto, domain,
+				lookupFlags);
+	}
+	
+	/**
+	 * This method creates a new {@link LogicalServiceBrowser}, which reports
+	 * each service once whatever the number of interfaces and protocols it is
+	 * seen on, and resolves it according to the given {@link ResolvePolicy}.
+	 * @param callback the object which will receive the logical services
+	 * @param interfaceNum the interface number to be used for browsing, or
+	 * {@link Avahi4JConstants#AnyInterface} to browse on all available interfaces
+	 * @param proto the {@link Protocol} to use for browsing
+	 * @param type the service type to browse (for instance '_workstation._tcp')
+	 * @param domain the domain to browse  (set it to null to browse on all domains)
+	 * @param addressProtocol the protocol of the resolved addresses
+	 * @param lookupFlags lookup flags (See LOOKUP_* in {@link Avahi4JConstants})
+	 * @param policy how services are resolved ({@link ResolvePolicy#ONCE}
+	 * resolves each logical service on one endpoint only)
+	 * @return a logical service browser which MUST be released (by calling
+	 * {@link LogicalServiceBrowser#release()}) when done.
+	 * @throws Avahi4JException if there is an error creating the service
+	 * browser
+	 */
+	public LogicalServiceBrowser createLogicalServiceBrowser(
+			ILogicalServiceCallback callback, int interfaceNum, Protocol proto,
+			String type, String domain, Protocol addressProtocol, int lookupFlags,
+			ResolvePolicy policy) throws Avahi4JException{
+		
+		if (callback==null || type==null || policy==null)
+			throw new NullPointerException("neither the callback nor the type nor the policy can be null");
+		
+		return new LogicalServiceBrowser(this, callback, interfaceNum, proto,
+				type, domain, addressProtocol, lookupFlags, policy);
+	}
+	
+	/**
+	 * This method creates a new {@link ServiceDirectory}, which keeps the 
+	 * resolved services of the given type in a memory-mapped file. The 
+	 * services saved in the file by a previous directory are reported 
+	 * straight away as {@link ServiceDirectory.DirectoryEvent#CACHED}, and 
+	 * are confirmed or removed as the browser and resolvers report them.
+	 * @param callback the object which will receive the directory events
+	 * @param file the directory file. It is created if it does not exist, 
+	 * and started afresh if its format or capacity differ
+	 * @param capacity the maximum number of services saved in the file 
+	 * (others are kept in memory only)
+	 * @param interfaceNum the interface number to be used for browsing, or
+	 * {@link Avahi4JConstants#AnyInterface} to browse on all available interfaces
+	 * @param proto the {@link Protocol} to use for browsing and resolving
+	 * @param type the service type to browse (for instance '_workstation._tcp')
+	 * @param domain the domain to browse  (set it to null to browse on all domains)
+	 * @param lookupFlags lookup flags (See LOOKUP_* in {@link Avahi4JConstants})
+	 * @return a service directory which MUST be released (by calling
+	 * {@link ServiceDirectory#release()}) when done.
+	 * @throws Avahi4JException if the file can not be mapped, or if there is 
+	 * an error creating the service browser
+	 */
+	public ServiceDirectory createServiceDirectory(
+			IServiceDirectoryCallback callback, File file, int capacity,
+			int interfaceNum, Protocol proto, String type, String domain,
+			int lookupFlags) throws Avahi4JException{
+		
+		if (callback==null || file==null || type==null)
+			throw new NullPointerException("neither the callback nor the file nor the type can be null");
+		if (capacity<=0 || capacity>(Integer.MAX_VALUE - 16) / ServiceDirectory.SLOT_SIZE)
+			throw new IllegalArgumentException("invalid capacity "+capacity);
+		
+		return new ServiceDirectory(this, callback, file, capacity, 
+				interfaceNum, proto, type, domain, lookupFlags);
 	}
 	
 	/**
@@ -373,19 +872,143 @@ public class Client {
 	 * {@link ServiceResolver#release()}) when done. As long as the service 
 	 * resolver is active (ie, not released), updates to the service, such as 
 	 * changes to the service's TXT records or service removal, will be 
-	 * delivered to the resolver.
+	 * delivered to the resolver. The caller must keep a reference to it until
+	 * then: a resolver which is garbage collected is reclaimed, and reports 
+	 * nothing more (see {@link NativeObjects}).
 	 * @throws Avahi4JException if there is an error creating the service resolver
 	 */
-	public synchronized ServiceResolver createServiceResolver(
+	public ServiceResolver createServiceResolver(
 			IServiceResolverCallback callback, int ifNum, Protocol proto, 
 			String name, String type, String domain, Protocol addressProtocol, 
 			int lookupFlags) throws Avahi4JException{
 		
+		return createServiceResolver(callback, ifNum, proto, name, type, domain,
+				addressProtocol, lookupFlags, 0);
+	}
+	
+	/**
+	 * This method create a new {@link ServiceResolver} object with a deadline.
+	 * If the resolver reports neither 
+	 * {@link ServiceResolverEvent#RESOLVER_FOUND} nor 
+	 * {@link ServiceResolverEvent#RESOLVER_FAILURE} before the deadline, it is 
+	 * released and reports {@link ServiceResolverEvent#RESOLVER_TIMEOUT}, from 
+	 * the thread enforcing the deadlines of all the resolvers (the callback 
+	 * should not block it). Deadlines are enforced with a precision of about 
+	 * 50 milliseconds.
+	 * @param ifNum the interface the service is running on. Pass the exact 
+	 * interface number as received by a service browser.
+	 * @param proto the protocol used by the service. Pass the exact protocol as
+	 * received by a service browser.
+	 * @param name the name of the service. Pass the exact name as received by a
+	 * service browser
+	 * @param type the service type. Pass the exact type as received by a 
+	 * service browser
+	 * @param domain the domain the service belongs to. Pass the exact domain as
+	 * received by a service browser
+	 * @param addressProtocol the protocol of the address to be resolved
+	 * @param lookupFlags lookup flags (See LOOKUP_* in {@link Avahi4JConstants})
+	 * @param deadline the delay in milliseconds given to the resolver to report
+	 * something, or 0 for no deadline
+	 * @return a service resolver object which MUST be released (by calling
+	 * {@link ServiceResolver#release()}) when done, unless it timed out. It 
+	 * must be kept reachable until it reports: if it is reclaimed first, its 
+	 * deadline is cancelled and it reports nothing (see {@link NativeObjects}).
+	 * @throws Avahi4JException if there is an error creating the service resolver
+	 */
+	public synchronized ServiceResolver createServiceResolver(
+			IServiceResolverCallback callback, int ifNum, Protocol proto, 
+			String name, String type, String domain, Protocol addressProtocol, 
+			int lookupFlags, long deadline) throws Avahi4JException{
+		
 		if (callback==null || name==null || type==null)
 			throw new NullPointerException("neither the callback nor the type nor the name can be null");
+		if (deadline<0)
+			throw new IllegalArgumentException("invalid deadline "+deadline);
 		
-		return new ServiceResolver(avahi4j_client_ptr, callback, ifNum, proto, 
-				name, type, domain, addressProtocol, lookupFlags);
+		return new ServiceResolver(avahi4j_client_ptr, latencyStats, this, callback,
+				ifNum, proto, name, type, domain, addressProtocol, lookupFlags, 
+				deadline);
+	}
+	
+	/**
+	 * This method creates a new {@link ResolverLimiter}, which limits the
+	 * number of service resolutions in progress at once, and adapts the limit
+	 * to the back-pressure of the avahi daemon.
+	 * @param initialLimit the initial number of resolutions in progress at once
+	 * @param maxLimit the maximum number of resolutions in progress at once
+	 * @return a limiter which should be released (by calling
+	 * {@link ResolverLimiter#release()}) when done.
+	 */
+	public ResolverLimiter createResolverLimiter(int initialLimit, int maxLimit) {
+		if (initialLimit<1 || maxLimit<initialLimit)
+			throw new IllegalArgumentException("invalid limits "+initialLimit
+					+", "+maxLimit);
+		
+		return new ResolverLimiter(this, initialLimit, maxLimit);
+	}
+
+	/**
+	 * This method creates a new {@link HostNameResolver} which finds the 
+	 * address of a host. Applications looking up many hosts should use the 
+	 * client's {@link ResolverCache} instead (see {@link #getResolverCache()}).
+	 * @param callback the callback object which will receive the address
+	 * @param ifNum the interface where the query should be issued
+	 * @param proto the protocol used by the query
+	 * @param name the host name, eg. "myhost.local"
+	 * @param addressProtocol the protocol of the address to be resolved
+	 * @param lookupFlags lookup flags (See LOOKUP_* in {@link Avahi4JConstants})
+	 * @return a host name resolver object which MUST be released (by calling
+	 * {@link HostNameResolver#release()}) when done, and which the caller must
+	 * refer to until it reports (see {@link NativeObjects}).
+	 * @throws Avahi4JException if there is an error creating the resolver
+	 */
+	public synchronized HostNameResolver createHostNameResolver(
+			IHostNameResolverCallback callback, int ifNum, Protocol proto,
+			String name, Protocol addressProtocol, int lookupFlags) 
+				throws Avahi4JException{
+		
+		if (callback==null || name==null)
+			throw new NullPointerException("neither the callback nor the name can be null");
+		
+		return new HostNameResolver(avahi4j_client_ptr, latencyStats, this, callback,
+				ifNum, proto, name, addressProtocol, lookupFlags);
+	}
+	
+	/**
+	 * This method creates a new {@link AddressResolver} which finds the name
+	 * of a host from one of its addresses. Applications looking up many hosts
+	 * should use the client's {@link ResolverCache} instead (see 
+	 * {@link #getResolverCache()}).
+	 * @param callback the callback object which will receive the host name
+	 * @param ifNum the interface where the query should be issued
+	 * @param proto the protocol used by the query
+	 * @param address the IPv4 or IPv6 address
+	 * @param lookupFlags lookup flags (See LOOKUP_* in {@link Avahi4JConstants})
+	 * @return an address resolver object which MUST be released (by calling
+	 * {@link AddressResolver#release()}) when done, and which the caller must
+	 * refer to until it reports (see {@link NativeObjects}).
+	 * @throws Avahi4JException if there is an error creating the resolver
+	 */
+	public synchronized AddressResolver createAddressResolver(
+			IAddressResolverCallback callback, int ifNum, Protocol proto,
+			InetAddress address, int lookupFlags) throws Avahi4JException{
+		
+		if (callback==null || address==null)
+			throw new NullPointerException("neither the callback nor the address can be null");
+		
+		return new AddressResolver(avahi4j_client_ptr, latencyStats, this, callback,
+				ifNum, proto, address, lookupFlags);
+	}
+	
+	/**
+	 * This method returns this client's {@link ResolverCache}, which looks up
+	 * and caches host names and addresses.
+	 * @return this client's resolver cache
+	 */
+	public synchronized ResolverCache getResolverCache() {
+		if (resolverCache==null)
+			resolverCache = new ResolverCache(this);
+		return resolverCache;
 	}
 	
 	/**
@@ -410,13 +1033,77 @@ public class Client {
 		if (callback==null || name==null)
 			throw new NullPointerException("neither the callback nor the name can be null");
 		
-		return new RecordBrowser(avahi4j_client_ptr, callback, interfaceIdx, proto, 
-				name, clazz, type, lookupFlags);
+		return new RecordBrowser(avahi4j_client_ptr, latencyStats, this, callback, null,
+				interfaceIdx, proto, name, clazz.getCode(), type.getCode(), lookupFlags,
+				EventFilter.ACCEPT_ALL);
+	}
+	
+	/**
+	 * This method creates a new {@link RecordBrowser} object which can be used
+	 * to query records of any type for a host. The records' data is handed to
+	 * the callback without being copied, as a {@link RecordData} decoder.
+	 * @param callback the callback object which will receive the records
+	 * @param interfaceIdx the interface where the query should be issued
+	 * @param proto the protocol used by the query
+	 * @param name the hostname 
+	 * @param clazz the numeric DNS class (see {@link DNS_Class#getCode()})
+	 * @param type the numeric record type (see {@link DNS_RRType#getCode()}),
+	 * which does not have to be listed in {@link DNS_RRType}
+	 * @param lookupFlags lookup flags (See @link Avahi4JConstants.LOOKUP_*)
+	 * @return a record browser object which must be released (by calling 
+	 * {@link RecordBrowser#release()} when done.
+	 * @throws Avahi4JException if there is an error creating the record browser
+	 */
+	public synchronized RecordBrowser createRecordBrowser(
+			IRecordDataCallback callback, int interfaceIdx, Protocol proto, 
+			String name, int clazz, int type, int lookupFlags) 
+				throws Avahi4JException{
+		
+		if (callback==null || name==null)
+			throw new NullPointerException("neither the callback nor the name can be null");
+		
+		return createRecordBrowser(callback, interfaceIdx, proto, name, clazz, 
+				type, lookupFlags, EventFilter.ACCEPT_ALL);
+	}
+	
+	/**
+	 * This method creates a new {@link RecordBrowser} object which can be used
+	 * to query records of any type for a host, whose callback only receives 
+	 * the events passing the given {@link EventFilter}. Other events are 
+	 * dropped by the native backend before reaching Java. The records' data 
+	 * is handed to the callback without being copied, as a {@link RecordData}
+	 * decoder.
+	 * @param callback the callback object which will receive the records
+	 * @param interfaceIdx the interface where the query should be issued
+	 * @param proto the protocol used by the query
+	 * @param name the hostname 
+	 * @param clazz the numeric DNS class (see {@link DNS_Class#getCode()})
+	 * @param type the numeric record type (see {@link DNS_RRType#getCode()}),
+	 * 255 for any type
+	 * @param lookupFlags lookup flags (See @link Avahi4JConstants.LOOKUP_*)
+	 * @param filter the events to deliver to the callback
+	 * @return a record browser object which must be released (by calling 
+	 * {@link RecordBrowser#release()} when done.
+	 * @throws Avahi4JException if there is an error creating the record browser
+	 */
+	public synchronized RecordBrowser createRecordBrowser(
+			IRecordDataCallback callback, int interfaceIdx, Protocol proto, 
+			String name, int clazz, int type, int lookupFlags, EventFilter filter) 
+				throws Avahi4JException{
+		
+		if (callback==null || name==null || filter==null)
+			throw new NullPointerException("neither the callback nor the name nor the filter can be null");
+		if (clazz<0 || clazz>0xffff || type<0 || type>0xffff)
+			throw new IllegalArgumentException("Invalid DNS class or record type");
+		
+		return new RecordBrowser(avahi4j_client_ptr, latencyStats, this, null, callback,
+				interfaceIdx, proto, name, clazz, type, lookupFlags, filter);
 	}
 	
 	/**
 	 * This method resolves a service, blocks until the result is received and
-	 * returns it.
+	 * returns it. It gives up after {@link #RESOLVE_TIMEOUT} milliseconds, see
+	 * {@link #resolveService(int, Protocol, String, String, String, Protocol, int, long)}.
 	 * @param ifNum the interface the service is running on. Pass the exact 
 	 * interface number as received by a service browser.
 	 * @param proto the protocol used by the service. Pass the exact protocol as
@@ -436,8 +1123,41 @@ public class Client {
 	public static ResolvedService resolveService(int ifNum, Protocol proto, 
 			String name, String type, String domain, Protocol addressProtocol, 
 			int lookupFlags) throws Avahi4JException{
+		return resolveService(ifNum, proto, name, type, domain, addressProtocol,
+				lookupFlags, RESOLVE_TIMEOUT);
+	}
+	
+	/**
+	 * This method resolves a service, blocks until the result is received or
+	 * the timeout expires, and returns it. If the timeout expires, the 
+	 * returned object's <code>resolverEvent</code> is 
+	 * {@link ServiceResolverEvent#RESOLVER_TIMEOUT}.
+	 * @param ifNum the interface the service is running on. Pass the exact 
+	 * interface number as received by a service browser.
+	 * @param proto the protocol used by the service. Pass the exact protocol as
+	 * received by a service browser.
+	 * @param name the name of the service. Pass the exact name as received by a
+	 * service browser
+	 * @param type the service type. Pass the exact type as received by a 
+	 * service browser
+	 * @param domain the domain the service belongs to. Pass the exact domain as
+	 * received by a service browser
+	 * @param addressProtocol the protocol of the address to be looked up
+	 * @param lookupFlags lookup flags (See Avahi4JConstants.LOOKUP_* in 
+	 * {@link Avahi4JConstants})
+	 * @param timeout the maximum time to wait for, in milliseconds (at least 1)
+	 * @return a ResolvedService object containing the details of the resolve service.
+	 * @throws Avahi4JException if there is an error resolving the service
+	 */
+	public static ResolvedService resolveService(int ifNum, Protocol proto, 
+			String name, String type, String domain, Protocol addressProtocol, 
+			int lookupFlags, long timeout) throws Avahi4JException{
+		
+		if (timeout<1)
+			throw new IllegalArgumentException("invalid timeout "+timeout);
 		
 		Client client = null;
+		ServiceResolver resolver = null;
 		final ResolvedService result = new ResolvedService();
 		
 		try {
@@ -446,9 +1166,11 @@ public class Client {
 			client.start();
 			
 			// create a service resolver and wait on the result. The callback
-			// object will wake us up
+			// object will wake us up, either with the result or the timeout.
+			// The resolver is only weakly referenced by its native peer, so it
+			// must stay reachable until then.
 			synchronized(result) {
-				client.createServiceResolver(new IServiceResolverCallback() {
+				resolver = client.createServiceResolver(new IServiceResolverCallback() {
 					
 					@Override
 					public void resolverCallback(ServiceResolver resolver, int interfaceNum,
@@ -456,38 +1178,51 @@ public class Client {
 							String type, String domain, String hostname, Address address,
 							int port, String[] txtRecords, int lookupResultFlag) {
 						
-						result.address = address;
-						result.domain = domain;
-						result.hostname = hostname;
-						result.interfaceNum = interfaceNum;
-						result.lookupResultFlag = lookupResultFlag;
-						result.name = name;
-						result.port = port;
-						result.proto = proto;
-						result.resolverEvent = resolverEvent;
-						result.txtRecords = txtRecords;
-						result.type = type;
-						
 						synchronized(result){
+							// keep the first answer only
+							if (result.resolverEvent!=null)
+								return;
+							
+							result.address = address;
+							result.domain = domain;
+							result.hostname = hostname;
+							result.interfaceNum = interfaceNum;
+							result.lookupResultFlag = lookupResultFlag;
+							result.name = name;
+							result.port = port;
+							result.proto = proto;
+							result.resolverEvent = resolverEvent;
+							result.txtRecords = txtRecords;
+							result.type = type;
+							
 							// wake up waiting thread
 							result.notify();
 						}
-						
-						// discard resolver
-						resolver.release();
 					}
-				}, ifNum, proto, name, type, domain, addressProtocol, lookupFlags);	
-				result.wait();
+				}, ifNum, proto, name, type, domain, addressProtocol, lookupFlags,
+						timeout);
+				
+				// do not rely on the resolver's deadline alone
+				long deadline = System.currentTimeMillis() + timeout;
+				long left;
+				while (result.resolverEvent==null && 
+						(left = deadline - System.currentTimeMillis())>0)
+					result.wait(left);
+				if (result.resolverEvent==null)
+					result.resolverEvent = ServiceResolverEvent.RESOLVER_TIMEOUT;
 			}
 			
 		} catch (Throwable t){
+			if (resolver!=null)
+				resolver.release();
 			if (client!=null)
 				client.release();
 
 			throw new Avahi4JException("Error resolving the service", t);
 		}
 
-		// stop and release the client
+		// discard the resolver, then stop and release the client
+		resolver.release();
 		client.release();
 		
 		return result;
@@ -497,11 +1232,20 @@ public class Client {
 	 * Called from JNI context when a callback is received
 	 * and needs to be dispatched to the registered {@link IClientCallback}
 	 * @param newState the new client state
+	 * @param wakeupTimestamp when the poll loop woke up (0 if unknown)
+	 * @param timestamp when the native callback was invoked
 	 */
-	@SuppressWarnings("unused")
-	private void dispatchCallback(int newState){
-		if(clientCallback!=null)
-			clientCallback.clientStateChanged(Client.State.values()[newState]);
+	void dispatchCallback(int newState, long wakeupTimestamp, long timestamp){
+		long dispatched = System.nanoTime();
+		eventTimestamp = timestamp;
+		
+		try {
+			if(clientCallback!=null)
+				clientCallback.clientStateChanged(STATES[newState]);
+		} finally {
+			latencyStats.recordEvent(wakeupTimestamp, timestamp, dispatched,
+					System.nanoTime());
+		}
 	}
 	@Override
 	public int hashCode() {
@@ -524,4 +1268,39 @@ public class Client {
 			return false;
 		return true;
 	}
+	
+	/**
+	 * Objects of this class hold the native side of a {@link Client}
+	 * (see {@link NativePeer}), and forward it the native events.
+	 * @author gilles
+	 *
+	 */
+	static final class Peer extends NativePeer<Client> {
+		/**
+		 * whether the poll loop is running (guarded by the client's lock)
+		 */
+		private volatile boolean loopStarted;
+		
+		private Peer(Client client) {
+			super(NativeObjects.Kind.CLIENT, client, null);
+			loopStarted = false;
+		}
+		
+		@Override
+		void free(long nativePtr) {
+			if (loopStarted)
+				backend.stopLoop(nativePtr);
+			backend.releaseClient(nativePtr);
+		}
+		
+		/**
+		 * This method is called from the native backend to dispatch a 
+		 * callback, unless the client was garbage collected.
+		 */
+		void dispatchCallback(int newState, long wakeupTimestamp, long timestamp) {
+			Client client = getOwner();
+			if (client!=null)
+				client.dispatchCallback(newState, wakeupTimestamp, timestamp);
+		}
+	}
 }
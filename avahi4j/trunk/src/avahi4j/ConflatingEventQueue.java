@@ -0,0 +1,239 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+
+import avahi4j.Avahi4JConstants.BrowserEvent;
+import avahi4j.Avahi4JConstants.Protocol;
+import avahi4j.ServiceResolver.ServiceResolverEvent;
+
+/**
+ * This class sits between service browsers and resolvers, and a consumer 
+ * which may not keep up with them. Instead of queuing every event, it only 
+ * keeps the net change of each service until the consumer drains the queue:
+ * <ul>
+ * <li>browser events are keyed by service (interface, protocol, name, type
+ * and domain). A service which appears and disappears (or the reverse) 
+ * before the consumer drains the queue produces no event at all, and one 
+ * which flaps many times produces at most one,</li>
+ * <li>resolver events are keyed by resolver, and only the latest one is 
+ * kept,</li>
+ * <li>CACHE_EXHAUSTED, NO_MORE and FAILURE browser events are kept once 
+ * each.</li>
+ * </ul>
+ * Memory use is thus bounded by the number of distinct services rather than
+ * by the event rate. Events are delivered in the order their keys were 
+ * first queued.
+ * <br>
+ * Pass the queue as the callback of service browsers and resolvers, and 
+ * call {@link #drain(IServiceBrowserCallback, IServiceResolverCallback)} 
+ * from the consumer's thread, for instance after {@link #await(long)}.
+ * @author gilles
+ *
+ */
+public final class ConflatingEventQueue implements IServiceBrowserCallback, 
+		IServiceResolverCallback {
+	/**
+	 * The pending state of a service found by a browser
+	 */
+	private static final class BrowserEntry {
+		final String key;
+		int interfaceNum;
+		Protocol proto;
+		BrowserEvent event;
+		String name, type, domain;
+		int flags;
+		
+		BrowserEntry(String key) {
+			this.key = key;
+		}
+	}
+	
+	/**
+	 * The latest event of a resolver
+	 */
+	private static final class ResolverEntry {
+		ServiceResolver resolver;
+		int interfaceNum;
+		Protocol proto;
+		ServiceResolverEvent event;
+		String name, type, domain, hostname;
+		Address address;
+		int port;
+		String txtRecords[];
+		int flags;
+	}
+	
+	
+	/*
+	 * M E M B E R S
+	 */
+	private final LinkedHashMap<Object, Object> pending;
+	// the services the consumer was told about, ie. NEW was the last event 
+	// delivered for them
+	private final Set<String> known;
+	private long received, delivered;
+	
+	
+	/*
+	 * M E T H O D S
+	 */
+	public ConflatingEventQueue() {
+		pending = new LinkedHashMap<Object, Object>();
+		known = new HashSet<String>();
+	}
+	
+	@Override
+	public synchronized void serviceCallback(int interfaceNum, Protocol proto,
+			BrowserEvent browserEvent, String name, String type, String domain,
+			int lookupResultFlag) {
+		received++;
+		String key;
+		if (browserEvent==BrowserEvent.NEW || browserEvent==BrowserEvent.REMOVE)
+			key = interfaceNum + "/" + proto.ordinal() + "/" + name + "." + type 
+				+ "." + domain;
+		else
+			key = browserEvent.name();
+		
+		BrowserEntry e = (BrowserEntry) pending.get(key);
+		if (e==null) {
+			e = new BrowserEntry(key);
+			pending.put(key, e);
+		}
+		e.interfaceNum = interfaceNum;
+		e.proto = proto;
+		e.event = browserEvent;
+		e.name = name;
+		e.type = type;
+		e.domain = domain;
+		e.flags = lookupResultFlag;
+		notifyAll();
+	}
+	
+	@Override
+	public synchronized void resolverCallback(ServiceResolver resolver, 
+			int interfaceNum, Protocol proto, ServiceResolverEvent resolverEvent, 
+			String name, String type, String domain, String hostname, 
+			Address address, int port, String[] txtRecords, int lookupResultFlag) {
+		received++;
+		ResolverEntry e = (ResolverEntry) pending.get(resolver);
+		if (e==null) {
+			e = new ResolverEntry();
+			pending.put(resolver, e);
+		}
+		e.resolver = resolver;
+		e.interfaceNum = interfaceNum;
+		e.proto = proto;
+		e.event = resolverEvent;
+		e.name = name;
+		e.type = type;
+		e.domain = domain;
+		e.hostname = hostname;
+		e.address = address;
+		e.port = port;
+		e.txtRecords = txtRecords;
+		e.flags = lookupResultFlag;
+		notifyAll();
+	}
+	
+	/**
+	 * This method delivers the net changes queued since the last call, from
+	 * the calling thread.
+	 * @param browserCallback the callback receiving browser events (may be 
+	 * null if the queue is only given resolver events)
+	 * @param resolverCallback the callback receiving resolver events (may be
+	 * null if the queue is only given browser events)
+	 * @return the number of events delivered
+	 */
+	public int drain(IServiceBrowserCallback browserCallback, 
+			IServiceResolverCallback resolverCallback) {
+		List<Object> events;
+		synchronized (this) {
+			events = new ArrayList<Object>(pending.size());
+			for(Object o: pending.values()) {
+				if (o instanceof BrowserEntry) {
+					BrowserEntry e = (BrowserEntry) o;
+					// drop transitions which cancel out
+					if (e.event==BrowserEvent.NEW && !known.add(e.key))
+						continue;
+					if (e.event==BrowserEvent.REMOVE && !known.remove(e.key))
+						continue;
+				}
+				events.add(o);
+			}
+			pending.clear();
+			delivered += events.size();
+		}
+		
+		for(Object o: events) {
+			if (o instanceof BrowserEntry) {
+				BrowserEntry e = (BrowserEntry) o;
+				if (browserCallback!=null)
+					browserCallback.serviceCallback(e.interfaceNum, e.proto, e.event,
+							e.name, e.type, e.domain, e.flags);
+			} else {
+				ResolverEntry e = (ResolverEntry) o;
+				if (resolverCallback!=null)
+					resolverCallback.resolverCallback(e.resolver, e.interfaceNum, 
+							e.proto, e.event, e.name, e.type, e.domain, e.hostname,
+							e.address, e.port, e.txtRecords, e.flags);
+			}
+		}
+		return events.size();
+	}
+	
+	/**
+	 * This method waits until events are queued
+	 * @param timeout how long to wait at most, in milliseconds
+	 * @return whether events are queued
+	 * @throws InterruptedException if the calling thread is interrupted
+	 */
+	public synchronized boolean await(long timeout) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeout;
+		long left;
+		while(pending.isEmpty() && (left = deadline - System.currentTimeMillis())>0)
+			wait(left);
+		return !pending.isEmpty();
+	}
+	
+	/**
+	 * @return the number of keys with a pending event
+	 */
+	public synchronized int size() {
+		return pending.size();
+	}
+	
+	/**
+	 * @return the number of events received from browsers and resolvers
+	 */
+	public synchronized long getReceivedCount() {
+		return received;
+	}
+	
+	/**
+	 * @return the number of events delivered to the consumer
+	 */
+	public synchronized long getDeliveredCount() {
+		return delivered;
+	}
+}
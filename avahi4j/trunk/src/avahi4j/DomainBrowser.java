@@ -0,0 +1,192 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j;
+
+import java.io.Closeable;
+
+import avahi4j.Avahi4JConstants.BrowserEvent;
+import avahi4j.Avahi4JConstants.Protocol;
+import avahi4j.exceptions.Avahi4JException;
+
+/**
+ * A domain browser reports the domains recommended for browsing or 
+ * registering services, as announced on the network. To create one, call
+ * {@link Client#createDomainBrowser(IDomainBrowserCallback, int, Protocol, String, DomainBrowserType, int) createDomainBrowser()}
+ * on an existing {@link Client}.
+ * @author gilles
+ *
+ */
+public final class DomainBrowser implements Closeable {
+	/**
+	 * This enumeration lists the kinds of domains a {@link DomainBrowser} can
+	 * look for
+	 * @author gilles
+	 *
+	 */
+	public enum DomainBrowserType {
+		/**
+		 * Domains recommended for browsing
+		 */
+		BROWSE,
+		/**
+		 * The default domain for browsing
+		 */
+		BROWSE_DEFAULT,
+		/**
+		 * Domains recommended for registering services
+		 */
+		REGISTER,
+		/**
+		 * The default domain for registering services
+		 */
+		REGISTER_DEFAULT,
+		/**
+		 * Domains for "legacy browsing" (see the DNS-SD specification)
+		 */
+		BROWSE_LEGACY
+	};
+	
+	
+	/*
+	 * M E M B E R S
+	 */
+	private final Peer peer;
+	private IDomainBrowserCallback browserCallback;
+	private LatencyStats latencyStats;
+	private volatile long eventTimestamp;
+	
+	
+	/*
+	 * M E T H O D S
+	 */
+	/**
+	 * This method builds a new domain browser. 
+	 * @param callback the callback object to receive the domains
+	 * @param avahi4j_client_ptr a struct avahi4j_client pointer
+	 * @param stats the client's latency statistics
+	 * @param client the client creating this object
+	 * @param intefaceNum the interface number
+	 * @param proto the {@link Protocol} number
+	 * @param domain the parent domain (can be null to use client's domain)
+	 * @param type the kind of domains to look for
+	 * @param lookupFlags the lookup flags (see Avahi4JConstants.LOOKUP_*)
+	 * @throws Avahi4JException if there is a problem creating the browser
+	 */
+	DomainBrowser(IDomainBrowserCallback callback, long avahi4j_client_ptr,
+			LatencyStats stats, Client client, int interfaceNum, Protocol proto,
+			String domain, DomainBrowserType type, int lookupFlags) throws Avahi4JException {
+
+		browserCallback = callback;
+		latencyStats = stats;
+		peer = new Peer(this, client);
+		peer.created(Client.backend.initDomainBrowser(peer,
+				avahi4j_client_ptr, interfaceNum, proto.ordinal(), domain, 
+				type.ordinal(), lookupFlags));
+	}
+	
+	/**
+	 * This method must be called when this browser is no longer needed.
+	 */
+	public void release() {
+		peer.release();
+	}
+	
+	/**
+	 * This method releases this browser, like {@link #release()}. It can be
+	 * called several times.
+	 */
+	@Override
+	public void close() {
+		release();
+	}	
+	
+	/**
+	 * This method returns the native timestamp of the event currently being
+	 * dispatched by this browser (see {@link Client#getEventTimestamp()}).
+	 * @return the native timestamp of the current or last event, in nanoseconds
+	 */
+	public long getEventTimestamp() {
+		return eventTimestamp;
+	}
+	
+	
+	/*
+	 * C A L L B A C K
+	 */
+	/**
+	 * This method is called from the native backend to dispatch a callback
+	 */
+	void browserCallback(int interfaceNum, int proto, int browserEvent,
+			String domain, int flags, long wakeupTimestamp, long timestamp){
+		
+		long dispatched = System.nanoTime();
+		eventTimestamp = timestamp;
+		
+		try {
+			browserCallback.domainCallback(interfaceNum, Avahi4JConstants.PROTOCOLS[proto],
+					Avahi4JConstants.BROWSER_EVENTS[browserEvent], domain, flags);
+		} finally {
+			latencyStats.recordEvent(wakeupTimestamp, timestamp, dispatched, 
+					System.nanoTime());
+		}
+	}
+	
+	@Override
+	public int hashCode() {
+		return (int) (peer.ptr ^ (peer.ptr >>> 32));
+	}
+	
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof DomainBrowser))
+			return false;
+		return peer.ptr == 
+			((DomainBrowser) obj).peer.ptr;
+	}
+	
+	/**
+	 * Objects of this class hold the native side of a {@link DomainBrowser}
+	 * (see {@link NativePeer}), and forward it the native events.
+	 * @author gilles
+	 *
+	 */
+	static final class Peer extends NativePeer<DomainBrowser> {
+		private Peer(DomainBrowser browser, Client client) {
+			super(NativeObjects.Kind.DOMAIN_BROWSER, browser, client);
+		}
+		
+		@Override
+		void free(long nativePtr) {
+			Client.backend.releaseDomainBrowser(nativePtr);
+		}
+		
+		/**
+		 * This method is called from the native backend to dispatch a 
+		 * callback, unless the browser was garbage collected.
+		 */
+		void browserCallback(int interfaceNum, int proto, int browserEvent,
+			String domain, int flags, long wakeupTimestamp, long timestamp) {
+			DomainBrowser browser = getOwner();
+			if (browser!=null)
+				browser.browserCallback(interfaceNum, proto, browserEvent,
+						domain, flags, wakeupTimestamp, timestamp);
+		}
+	}
+}
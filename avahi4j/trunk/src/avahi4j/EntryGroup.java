@@ -17,6 +17,7 @@
 */
 package avahi4j;
 
+import java.io.Closeable;
 import java.util.List;
 import java.util.Vector;
 
@@ -40,7 +41,7 @@ import avahi4j.exceptions.Avahi4JException;
  * @author gilles
  *
  */
-public class EntryGroup {
+public class EntryGroup implements Closeable {
 	/**
 	 * This enumeration represents the various states an entry group
 	 * can be in.
@@ -79,118 +80,40 @@ public class EntryGroup {
 		AVAHI_ENTRY_GROUP_FAILURE 
 	};
 	
-	
-	/*
-	 * N A T I V E   M E T H O D S
-	 */
-	/**
-	 * This method create the avahi_entry_group
-	 * @param o a jni avahi4j_client struct pointer
-	 * @return a jni avahi4j_entry_group pointer
-	 * @throws Avahi4JException if there is an error creating the group
-	 */
-	private native long initGroup(long o) throws Avahi4JException;
 	/**
-	 * This method frees the avahi entry group
-	 * @param o a jni avahi4j_entry_group pointer
-	 * @return the raw result from avahi_entry_group_free()
+	 * the values of {@link State}, by ordinal
 	 */
-	private native int release(long o);
-	/**
-	 * This method commit the avahi entry group
-	 * @param o a jni avahi4j_entry_group pointer
-	 * @return the raw result from avahi_entry_group_commit()
-	 */
-	private native int commit_group(long o);
-	/**
-	 * This method gets the current state of the avahi entry group
-	 * @param o a jni avahi4j_entry_group pointer
-	 * @return an index into the {@link State} enum. 
-	 */
-	private native int get_state(long o);
-	/**
-	 * This method reset the avahi entry group
-	 * @param o a jni avahi4j_entry_group pointer
-	 * @return the raw result from avahi_entry_group_reset()
-	 */
-	private native int reset_group(long o);
-	/**
-	 * This method test if the avahi entry group is empty
-	 * @param o a jni avahi4j_entry_group pointer
-	 * @return the raw result from avahi_entry_group_is_empty()
+	static final State STATES[] = State.values();
+	
+	
+	/*
+	 * M E M B E R S
 	 */
-	private native int is_group_empty(long o);
 	/**
-	 * This method adds a new service and its TXT record to this group
-	 * @param o a jni avahi4j_entry_group pointer
-	 * @param interfaceNum the interface this service shall be announced on
-	 * @param proto the protocol this service shall be announced with
-	 * @param name the name for this new service (less that 63 characters, UTF8), not null
-	 * @param type the type of the new service, can not be null
-	 * @param domain the domain to register this service on. If null, the domain
-	 * this host belongs to will be used
-	 * @param host the host the service resides on. If null, the current hostname
-	 * will be used
-	 * @param port the port number this service runs on
-	 * @param txtRecord an array of TXT records for this service
-	 * @param recordNum the number of TXT records in the previous array
-	 * @return the raw result from avahi_entry_group_add_service()
+	 * the native side of this group, holding a pointer to a struct 
+	 * avahi4j_group_entry
 	 */
-	private native int add_service_txt_records(long o, int interfaceNum, 
-			int proto, String name, String type, String domain, 
-			String host, int port, String txtRecord[], int recordNum);
+	private final Peer peer;
 	/**
-	 * This method test if the avahi entry group is empty
-	 * @param o a jni avahi4j_entry_group pointer
-	 * @param interfaceNum the interface this service shall be announced on
-	 * @param proto the protocol this service shall be announced with
-	 * @param name the name for this new service (less that 63 characters, UTF8), not null
-	 * @param type the type of the new service, can not be null
-	 * @param domain the domain to register this service on. If null, the domain
-	 * this host belongs to will be used
-	 * @param subtype the new subtype to register for the specified service. not null
-	 * @return the raw result from avahi_entry_group_add_service_subtype()
+	 * the group's callback object (may be null)
 	 */
-	private native int add_service_subtype(long o, int interfaceNum, 
-			int proto, String name, String type, String domain, 
-			String subtype);
+	private IEntryGroupCallback groupCallback;
 	/**
-	 * This method update a existing service and its TXT record
-	 * @param o a jni avahi4j_entry_group pointer
-	 * @param interfaceNum the interface this service shall be announced on
-	 * @param proto the protocol this service shall be announced with
-	 * @param name the name for this new service (less that 63 characters, UTF8), not null
-	 * @param type the type of the new service, can not be null
-	 * @param domain the domain to register this service on. If null, the domain
-	 * this host belongs to will be used
-	 * @param txtRecord an array of TXT records for this service
-	 * @param recordNum the number of TXT records in the previous array
-	 * @return the raw result from avahi_entry_group_update_service_txt()
+	 * the client's latency statistics
 	 */
-	private native int update_service_txt_records(long o, int interfaceNum, 
-			int proto, String name, String type, String domain, 
-			String txtRecord[], int recordNum);
-	
+	private LatencyStats latencyStats;
 	/**
-	 * This method finds an alternative name for a service
-	 * @param collidingName the service name for which there is a collision
-	 * @return the fixed-up name
-	 */
-	private static native String find_alternative_serivce_name(String collidingName);
-	
-	
-	
-	/*
-	 * M E M B E R S
+	 * the native timestamp of the current or last event
 	 */
+	private volatile long eventTimestamp;
 	/**
-	 * A JNI pointer to a struct avahi4j_group_entry
+	 * the client, whose {@link EventJournal} records the events
 	 */
-	private long avahi4j_group_entry_ptr;
+	private final Client client;
 	/**
-	 * the group's callback object (may be null)
+	 * this group's identifier in event journals
 	 */
-	private IEntryGroupCallback groupCallback;
+	private final int journalId;
 
 	
 	
@@ -202,18 +125,35 @@ public class EntryGroup {
 	 * This method builds a new entry group. 
 	 * @param callback the callback object to receive notification about the entry group
 	 * @param o a struct avahi4j_client pointer (can be null)
+	 * @param stats the client's latency statistics
+	 * @param client the client, whose {@link EventJournal} records the events
 	 * @throws Avahi4JException if there is a problem creating the entry group
 	 */
-	EntryGroup(IEntryGroupCallback callback, long avahi4j_client_ptr) throws Avahi4JException{
+	EntryGroup(IEntryGroupCallback callback, long avahi4j_client_ptr,
+			LatencyStats stats, Client client) throws Avahi4JException{
 		groupCallback = callback;
-		avahi4j_group_entry_ptr = initGroup(avahi4j_client_ptr);
+		latencyStats = stats;
+		this.client = client;
+		journalId = EventJournal.nextId();
+		peer = new Peer(this, client);
+		peer.created(Client.backend.initGroup(peer, avahi4j_client_ptr));
 	}
 	
 	/**
-	 * This method must be called when this group is no longer needed.
+	 * This method must be called when this group is no longer needed. It can 
+	 * be called several times. Once released, the methods of this group 
+	 * return {@link Avahi4JConstants#AVAHI_ERR_BAD_STATE}.
 	 */
 	public synchronized void release() {
-		release(avahi4j_group_entry_ptr);
+		peer.release();
+	}
+	
+	/**
+	 * This method releases this group, like {@link #release()}.
+	 */
+	@Override
+	public void close() {
+		release();
 	}
 	
 	/**
@@ -226,15 +166,21 @@ public class EntryGroup {
 	 * the same name	 * 
 	 */
 	public synchronized int commit() {
-		return commit_group(avahi4j_group_entry_ptr);	
+		if (peer.isReleased())
+			return Avahi4JConstants.AVAHI_ERR_BAD_STATE;
+		
+		return Client.backend.commitGroup(peer.ptr);
 	}
 	
 	/**
 	 * This method returns the current {@link State} of this group
-	 * @return the current {@link State} of this group
+	 * @return the current {@link State} of this group 
+	 * ({@link State#AVAHI_ENTRY_GROUP_FAILURE} once released)
 	 */
 	public synchronized State getState() {
-		return State.values()[get_state(avahi4j_group_entry_ptr)];
+		if (peer.isReleased())
+			return State.AVAHI_ENTRY_GROUP_FAILURE;
+		return STATES[Client.backend.getGroupState(peer.ptr)];
 	}
 	
 	/**
@@ -244,16 +190,21 @@ public class EntryGroup {
 	 * @return AVAHI_OK or one of AVAHI_ERR_* constants (see {@link Avahi4JConstants}).
 	 */
 	public synchronized int reset() {
-		return reset_group(avahi4j_group_entry_ptr);
+		if (peer.isReleased())
+			return Avahi4JConstants.AVAHI_ERR_BAD_STATE;
+		
+		return Client.backend.resetGroup(peer.ptr);
 	}
 	
 	/**
 	 * This method tests whether this group has no contents, ie no services have
 	 * been added yet.
-	 * @return whether this group is empty
+	 * @return whether this group is empty (true once released)
 	 */
 	public synchronized boolean isEmpty() {
-		return is_group_empty(avahi4j_group_entry_ptr)>=0;
+		if (peer.isReleased())
+			return true;
+		return Client.backend.isGroupEmpty(peer.ptr)>=0;
 	}
 	
 	/**
@@ -274,6 +225,9 @@ public class EntryGroup {
 	public synchronized int addService(int interfaceNum, Protocol proto, String name,
 			String type, String domain, String host, int port, List<String> txtRecord) {
 		
+		if (peer.isReleased())
+			return Avahi4JConstants.AVAHI_ERR_BAD_STATE;
+		
 		// check name & its length
 		if (name==null || name.length()>63)
 			return Avahi4JConstants.AVAHI_ERR_INVALID_SERVICE_NAME;
@@ -290,11 +244,9 @@ public class EntryGroup {
 		if (txtRecord==null)
 			txtRecord = new Vector<String>();
 		
-		int numRecords = txtRecord.size();
-		
-		return add_service_txt_records(avahi4j_group_entry_ptr, interfaceNum, 
+		return Client.backend.addService(peer.ptr, interfaceNum, 
 				proto.ordinal(), name, type, domain, host, port,
-				txtRecord.toArray(new String[0]), numRecords);
+				txtRecord.toArray(new String[0]));
 	}
 	
 	/**
@@ -314,6 +266,9 @@ public class EntryGroup {
 	public synchronized int addServicesubType(int interfaceNum, Protocol proto,
 			String name, String type, String domain, String subtype){
 		
+		if (peer.isReleased())
+			return Avahi4JConstants.AVAHI_ERR_BAD_STATE;
+		
 		// check name & its length
 		if (name==null || name.length()>63)
 			return Avahi4JConstants.AVAHI_ERR_INVALID_SERVICE_NAME;
@@ -322,7 +277,7 @@ public class EntryGroup {
 		if (type==null || subtype==null)
 			return Avahi4JConstants.AVAHI_ERR_INVALID_SERVICE_SUBTYPE;
 		
-		return add_service_subtype(avahi4j_group_entry_ptr, interfaceNum, 
+		return Client.backend.addServiceSubtype(peer.ptr, interfaceNum, 
 				proto.ordinal(), name, type, domain, subtype);
 	}
 	
@@ -345,6 +300,9 @@ public class EntryGroup {
 	public synchronized int updateService(int interfaceNum, Protocol proto, 
 			String name, String type, String domain, List<String> txtRecord) {
 		
+		if (peer.isReleased())
+			return Avahi4JConstants.AVAHI_ERR_BAD_STATE;
+		
 		// check name & its length
 		if (name==null || name.length()>63)
 			return Avahi4JConstants.AVAHI_ERR_INVALID_SERVICE_NAME;
@@ -357,11 +315,8 @@ public class EntryGroup {
 		if (txtRecord==null)
 			txtRecord = new Vector<String>();
 		
-		int numRecords = txtRecord.size();
-		
-		return update_service_txt_records(avahi4j_group_entry_ptr, interfaceNum, 
-				proto.ordinal(), name, type, domain, txtRecord.toArray(new String[0]),
-				numRecords);
+		return Client.backend.updateServiceTxt(peer.ptr, interfaceNum, 
+				proto.ordinal(), name, type, domain, txtRecord.toArray(new String[0]));
 	}
 	
 	/**
@@ -372,7 +327,16 @@ public class EntryGroup {
 	 * names.
 	 */
 	public static String findAlternativeServiceName(String collidingServiceName){
-		return find_alternative_serivce_name(collidingServiceName);
+		return Client.backend.findAlternativeServiceName(collidingServiceName);
+	}
+	
+	/**
+	 * This method returns the native timestamp of the event currently being
+	 * dispatched by this entry group (see {@link Client#getEventTimestamp()}).
+	 * @return the native timestamp of the current or last event, in nanoseconds
+	 */
+	public long getEventTimestamp() {
+		return eventTimestamp;
 	}
 	
 	
@@ -382,12 +346,52 @@ public class EntryGroup {
 	 * C A L L B A C K    M E T H O D
 	 */
 	/**
-	 * This method is invoked from JNI code to dispatch the callback
+	 * This method is invoked from the native backend to dispatch the callback
 	 * @param newState the new state of this group entry
+	 * @param wakeupTimestamp when the poll loop woke up (0 if unknown)
+	 * @param timestamp when the native callback was invoked
 	 */
-	@SuppressWarnings("unused")
-	private void dispatchCallback(int newState){
-		if(groupCallback!=null)
-			groupCallback.groupStateChanged(State.values()[newState]);
+	void dispatchCallback(int newState, long wakeupTimestamp, long timestamp){
+		long dispatched = System.nanoTime();
+		eventTimestamp = timestamp;
+		
+		EventJournal journal = client.getJournal();
+		if (journal!=null)
+			journal.entryGroupEvent(journalId, timestamp, newState);
+		
+		try {
+			if(groupCallback!=null)
+				groupCallback.groupStateChanged(STATES[newState]);
+		} finally {
+			latencyStats.recordEvent(wakeupTimestamp, timestamp, dispatched,
+					System.nanoTime());
+		}
+	}
+	
+	/**
+	 * Objects of this class hold the native side of an {@link EntryGroup}
+	 * (see {@link NativePeer}), and forward it the native events.
+	 * @author gilles
+	 *
+	 */
+	static final class Peer extends NativePeer<EntryGroup> {
+		private Peer(EntryGroup group, Client client) {
+			super(NativeObjects.Kind.ENTRY_GROUP, group, client);
+		}
+		
+		@Override
+		void free(long nativePtr) {
+			Client.backend.releaseGroup(nativePtr);
+		}
+		
+		/**
+		 * This method is called from the native backend to dispatch a 
+		 * callback, unless the group was garbage collected.
+		 */
+		void dispatchCallback(int newState, long wakeupTimestamp, long timestamp) {
+			EntryGroup group = getOwner();
+			if (group!=null)
+				group.dispatchCallback(newState, wakeupTimestamp, timestamp);
+		}
 	}
 }
@@ -0,0 +1,174 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j;
+
+import avahi4j.Avahi4JConstants.BrowserEvent;
+
+/**
+ * An event filter tells a {@link ServiceBrowser} or a {@link RecordBrowser} 
+ * which events its callback is interested in. Filters are evaluated by the 
+ * native backend as soon as an event is received: with the JNI backend, an 
+ * event which does not pass the filter costs no JVM attachment, no string 
+ * and no call into Java. A filter is made of:
+ * <ul>
+ * <li>an event mask, built with {@link #mask(BrowserEvent...)}: events 
+ * whose kind is not in the mask are dropped,</li>
+ * <li>an optional name prefix, for service browsers: NEW and REMOVE events
+ * for services whose name does not start with the prefix are dropped. The 
+ * comparison ignores the case of ASCII letters,</li>
+ * <li>an optional record type, for record browsers (useful when browsing 
+ * records of any type): NEW and REMOVE events for records of other types 
+ * are dropped.</li>
+ * </ul>
+ * Event filters are immutable.
+ * @author gilles
+ *
+ */
+public final class EventFilter {
+	/**
+	 * The event mask letting all events through
+	 */
+	public static final int ALL_EVENTS = 0x1f;
+	
+	/**
+	 * The record type matching all record types
+	 */
+	public static final int ANY_RECORD_TYPE = -1;
+	
+	/**
+	 * The filter letting all events through
+	 */
+	public static final EventFilter ACCEPT_ALL = 
+		new EventFilter(ALL_EVENTS, null, ANY_RECORD_TYPE);
+	
+	
+	/*
+	 * M E M B E R S
+	 */
+	private final int eventMask;
+	private final String namePrefix;
+	private final int recordType;
+	
+	
+	/*
+	 * M E T H O D S
+	 */
+	/**
+	 * This method builds an event mask from a list of event kinds.
+	 * @param events the event kinds to let through
+	 * @return the event mask
+	 */
+	public static int mask(BrowserEvent... events) {
+		int mask = 0;
+		for(BrowserEvent e: events)
+			mask |= 1 << e.ordinal();
+		return mask;
+	}
+	
+	/**
+	 * This method builds a new event filter.
+	 * @param eventMask the kinds of events to let through (see 
+	 * {@link #mask(BrowserEvent...)})
+	 * @param namePrefix the prefix service names must start with, or null
+	 * @param recordType the numeric type records must have (see 
+	 * {@link Avahi4JConstants.DNS_RRType#getCode()}), or 
+	 * {@link #ANY_RECORD_TYPE}
+	 */
+	public EventFilter(int eventMask, String namePrefix, int recordType) {
+		if (recordType<ANY_RECORD_TYPE || recordType>0xffff)
+			throw new IllegalArgumentException("Invalid record type");
+		this.eventMask = eventMask & ALL_EVENTS;
+		this.namePrefix = namePrefix==null || namePrefix.length()==0 ? null : namePrefix;
+		this.recordType = recordType;
+	}
+	
+	/**
+	 * This method builds a new event filter which only checks the kind of
+	 * events.
+	 * @param eventMask the kinds of events to let through (see 
+	 * {@link #mask(BrowserEvent...)})
+	 */
+	public EventFilter(int eventMask) {
+		this(eventMask, null, ANY_RECORD_TYPE);
+	}
+	
+	/**
+	 * @return the kinds of events let through
+	 */
+	public int getEventMask() {
+		return eventMask;
+	}
+	
+	/**
+	 * @return the prefix service names must start with, or null
+	 */
+	public String getNamePrefix() {
+		return namePrefix;
+	}
+	
+	/**
+	 * @return the numeric type records must have, or {@link #ANY_RECORD_TYPE}
+	 */
+	public int getRecordType() {
+		return recordType;
+	}
+	
+	/**
+	 * This method checks whether an event passes the filter. It is used by 
+	 * backends which can not evaluate the filter natively, before creating 
+	 * any object for the event.
+	 * @param event the ordinal of the {@link BrowserEvent}
+	 * @param name the service name, or null for record browsers (which have 
+	 * no name prefix)
+	 * @param type the record type, or {@link #ANY_RECORD_TYPE} for service
+	 * browsers
+	 * @return whether the event should be delivered
+	 */
+	boolean accept(int event, CharSequence name, int type) {
+		if ((eventMask & (1 << event))==0)
+			return false;
+		
+		// only NEW and REMOVE events carry a name and a type
+		if (event>BrowserEvent.REMOVE.ordinal())
+			return true;
+		
+		if (recordType!=ANY_RECORD_TYPE && type!=ANY_RECORD_TYPE && type!=recordType)
+			return false;
+		
+		// like the native filter, an event without a name never matches a prefix
+		if (namePrefix!=null) {
+			if (name==null || name.length()<namePrefix.length())
+				return false;
+			for(int i=0; i<namePrefix.length(); i++)
+				if (lower(name.charAt(i))!=lower(namePrefix.charAt(i)))
+					return false;
+		}
+		return true;
+	}
+	
+	private static char lower(char c) {
+		return c>='A' && c<='Z' ? (char) (c + 'a' - 'A') : c;
+	}
+	
+	@Override
+	public String toString() {
+		return "events=0x" + Integer.toHexString(eventMask) + 
+			(namePrefix==null ? "" : " prefix='" + namePrefix + "'") +
+			(recordType==ANY_RECORD_TYPE ? "" : " type=" + recordType);
+	}
+}
@@ -0,0 +1,455 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import avahi4j.exceptions.Avahi4JException;
+
+/**
+ * An event journal records the events dispatched to the service browsers, 
+ * service resolvers, record browsers and entry groups of a {@link Client} 
+ * to a binary file, so they can be replayed later on with a 
+ * {@link JournalReplayer}. 
+ * <br>
+ * Events are written with the arguments received from the backend, before 
+ * they are dispatched to the callback objects, along with their native 
+ * timestamp and the object they were dispatched to. They are appended to an
+ * in-memory buffer, which is written to the file when full, when 
+ * {@link #flush()} is called, and when the journal is closed.
+ * <br>
+ * To start recording, call {@link Client#startJournal(File)}. Journals 
+ * MUST be closed when no longer needed, by calling {@link #close()}.
+ * <br>
+ * The file starts with a header (magic number, version, wall clock time and
+ * native timestamp of the journal creation), followed by the events. Each 
+ * event is made of its length (int, excluding itself), kind (byte), 
+ * timestamp relative to the journal creation (long, nanoseconds), object 
+ * identifier (int) and arguments. Strings are written as their UTF-8 
+ * length (short, -1 for null) followed by their UTF-8 bytes.
+ * @author gilles
+ *
+ */
+public final class EventJournal {
+	/**
+	 * The default size of the buffer events are written to, in bytes
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+	
+	static final int MAGIC = 0x41344a4a;
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 24;
+	
+	/*
+	 * event kinds
+	 */
+	static final byte SERVICE_BROWSER_EVENT = 1;
+	static final byte SERVICE_RESOLVER_EVENT = 2;
+	static final byte RECORD_BROWSER_EVENT = 3;
+	static final byte ENTRY_GROUP_EVENT = 4;
+	
+	// object identifiers, shared by all journals
+	private static final AtomicInteger nextId = new AtomicInteger();
+	
+	
+	/*
+	 * M E M B E R S
+	 */
+	private final Client client;
+	private final FileOutputStream stream;
+	private final FileChannel channel;
+	private final CharsetEncoder encoder;
+	private final long base;
+	private ByteBuffer buffer;
+	private long eventCount;
+	private long droppedCount;
+	private long byteCount;
+	private boolean closed;
+	private IOException error;
+	
+	
+	/*
+	 * M E T H O D S
+	 */
+	/**
+	 * This method creates a new journal, and writes its header.
+	 * @param client the client whose events are recorded
+	 * @param file the file to write to. It is truncated if it exists
+	 * @param bufferSize the size of the write buffer
+	 * @throws Avahi4JException if the file can not be created
+	 */
+	EventJournal(Client client, File file, int bufferSize) 
+			throws Avahi4JException {
+		this.client = client;
+		encoder = Charset.forName("UTF-8").newEncoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		buffer = ByteBuffer.allocateDirect(bufferSize);
+		base = System.nanoTime();
+		
+		try {
+			stream = new FileOutputStream(file);
+		} catch (IOException e) {
+			throw new Avahi4JException("Error creating the journal file "+file, e);
+		}
+		channel = stream.getChannel();
+		
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+		buffer.putLong(System.currentTimeMillis());
+		buffer.putLong(base);
+		try {
+			drain();
+		} catch (IOException e) {
+			closeStream();
+			throw new Avahi4JException("Error writing the journal file "+file, e);
+		}
+	}
+	
+	/**
+	 * This method returns a new object identifier.
+	 * @return a new object identifier
+	 */
+	static int nextId() {
+		return nextId.incrementAndGet();
+	}
+	
+	/**
+	 * This method stops recording, writes the buffered events to the file and
+	 * closes it.
+	 * @throws Avahi4JException if the buffered events could not be written
+	 */
+	public void close() throws Avahi4JException {
+		client.stopJournal(this);
+		synchronized (this) {
+			if (!closed) {
+				closed = true;
+				try {
+					drain();
+				} catch (IOException e) {
+					error = e;
+				} finally {
+					closeStream();
+				}
+			}
+			checkError();
+		}
+	}
+	
+	/**
+	 * This method throws the error which stopped the recording, if any. Must
+	 * be called with this object's lock held.
+	 */
+	private void checkError() throws Avahi4JException {
+		if (error!=null)
+			throw new Avahi4JException("Error writing the journal file", error);
+	}
+	
+	private void closeStream() {
+		try {
+			stream.close();
+		} catch (IOException e) {
+			// the events have been written, or the error already reported
+		}
+	}
+	
+	/**
+	 * This method writes the buffered events to the file.
+	 * @throws Avahi4JException if the events could not be written
+	 */
+	public synchronized void flush() throws Avahi4JException {
+		if (!closed) {
+			try {
+				drain();
+			} catch (IOException e) {
+				failed(e);
+			}
+		}
+		checkError();
+	}
+	
+	/**
+	 * @return the number of events recorded so far
+	 */
+	public synchronized long getEventCount() {
+		return eventCount;
+	}
+	
+	/**
+	 * @return the number of events which could not be recorded, because 
+	 * they were larger than the buffer even after it was enlarged
+	 */
+	public synchronized long getDroppedCount() {
+		return droppedCount;
+	}
+	
+	/**
+	 * @return the number of bytes recorded so far, including those still in 
+	 * the buffer
+	 */
+	public synchronized long getByteCount() {
+		return byteCount + buffer.position();
+	}
+	
+	/**
+	 * @return whether this journal is closed
+	 */
+	public synchronized boolean isClosed() {
+		return closed;
+	}
+	
+	/**
+	 * This method writes the buffer to the file. Must be called with this 
+	 * object's lock held.
+	 */
+	private void drain() throws IOException {
+		buffer.flip();
+		byteCount += buffer.remaining();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+	
+	/**
+	 * This method starts a new event, after draining the buffer if it 
+	 * overflowed while writing the previous attempt. Must be called with 
+	 * this object's lock held.
+	 * @return the position of the event in the buffer, or -1 if the journal 
+	 * is closed
+	 */
+	private int begin(int attempt, byte kind, long timestamp, int id) 
+			throws IOException {
+		if (closed)
+			return -1;
+		if (attempt==1)
+			drain();
+		else if (attempt==2)
+			// larger than the whole buffer, which is empty
+			buffer = ByteBuffer.allocateDirect(buffer.capacity() * 4);
+		
+		if (buffer.remaining()<17)
+			throw new BufferOverflowException();
+		int start = buffer.position();
+		buffer.putInt(0);
+		buffer.put(kind);
+		buffer.putLong(timestamp - base);
+		buffer.putInt(id);
+		return start;
+	}
+	
+	/**
+	 * This method completes an event by writing its length. Must be called 
+	 * with this object's lock held.
+	 */
+	private void end(int start) {
+		buffer.putInt(start, buffer.position() - start - 4);
+		eventCount++;
+	}
+	
+	/**
+	 * This method rewinds the buffer to the beginning of an event which did 
+	 * not fit, and counts it as dropped after the last attempt. Must be 
+	 * called with this object's lock held.
+	 */
+	private void rewind(int start, int attempt) {
+		if (start>=0)
+			buffer.position(start);
+		if (attempt==2)
+			droppedCount++;
+	}
+	
+	private void putString(String s) {
+		if (s==null) {
+			buffer.putShort((short) -1);
+			return;
+		}
+		
+		int start = buffer.position();
+		buffer.putShort((short) 0);
+		encoder.reset();
+		CoderResult r = encoder.encode(CharBuffer.wrap(s), buffer, true);
+		if (r.isOverflow() || encoder.flush(buffer).isOverflow())
+			throw new BufferOverflowException();
+		int length = buffer.position() - start - 2;
+		if (length>Short.MAX_VALUE)
+			throw new BufferOverflowException();
+		buffer.putShort(start, (short) length);
+	}
+	
+	private void putBytes(byte b[]) {
+		if (b==null)
+			buffer.putShort((short) -1);
+		else {
+			buffer.putShort((short) b.length);
+			buffer.put(b);
+		}
+	}
+	
+	/**
+	 * This method records an event dispatched to a {@link ServiceBrowser}.
+	 */
+	synchronized void serviceBrowserEvent(int id, long timestamp, 
+			int interfaceNum, int proto, int event, String name, String type, 
+			String domain, int flags) {
+		for(int attempt=0; attempt<3; attempt++) {
+			int start = -1;
+			try {
+				start = begin(attempt, SERVICE_BROWSER_EVENT, timestamp, id);
+				if (start<0)
+					return;
+				buffer.putInt(interfaceNum);
+				buffer.put((byte) proto);
+				buffer.put((byte) event);
+				putString(name);
+				putString(type);
+				putString(domain);
+				buffer.putInt(flags);
+				end(start);
+				return;
+			} catch (BufferOverflowException e) {
+				rewind(start, attempt);
+			} catch (IOException e) {
+				failed(e);
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * This method records an event dispatched to a {@link ServiceResolver}.
+	 */
+	synchronized void serviceResolverEvent(int id, long timestamp, 
+			int interfaceNum, int proto, int event, String name, String type, 
+			String domain, String hostname, byte address[], int port, 
+			String txtRecords[], int flags) {
+		for(int attempt=0; attempt<3; attempt++) {
+			int start = -1;
+			try {
+				start = begin(attempt, SERVICE_RESOLVER_EVENT, timestamp, id);
+				if (start<0)
+					return;
+				buffer.putInt(interfaceNum);
+				buffer.put((byte) proto);
+				buffer.put((byte) event);
+				putString(name);
+				putString(type);
+				putString(domain);
+				putString(hostname);
+				putBytes(address);
+				buffer.putInt(port);
+				if (txtRecords==null)
+					buffer.putShort((short) -1);
+				else {
+					buffer.putShort((short) txtRecords.length);
+					for(String t: txtRecords)
+						putString(t);
+				}
+				buffer.putInt(flags);
+				end(start);
+				return;
+			} catch (BufferOverflowException e) {
+				rewind(start, attempt);
+			} catch (IOException e) {
+				failed(e);
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * This method records an event dispatched to a {@link RecordBrowser}. The
+	 * rdata buffer is left untouched.
+	 */
+	synchronized void recordBrowserEvent(int id, long timestamp, 
+			int interfaceNum, int proto, int event, String name, int clazz, 
+			int type, ByteBuffer rdata, int flags) {
+		for(int attempt=0; attempt<3; attempt++) {
+			int start = -1;
+			try {
+				start = begin(attempt, RECORD_BROWSER_EVENT, timestamp, id);
+				if (start<0)
+					return;
+				buffer.putInt(interfaceNum);
+				buffer.put((byte) proto);
+				buffer.put((byte) event);
+				putString(name);
+				buffer.putShort((short) clazz);
+				buffer.putShort((short) type);
+				if (rdata==null)
+					buffer.putInt(-1);
+				else {
+					buffer.putInt(rdata.remaining());
+					buffer.put(rdata.duplicate());
+				}
+				buffer.putInt(flags);
+				end(start);
+				return;
+			} catch (BufferOverflowException e) {
+				rewind(start, attempt);
+			} catch (IOException e) {
+				failed(e);
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * This method records an event dispatched to an {@link EntryGroup}.
+	 */
+	synchronized void entryGroupEvent(int id, long timestamp, int state) {
+		for(int attempt=0; attempt<3; attempt++) {
+			int start = -1;
+			try {
+				start = begin(attempt, ENTRY_GROUP_EVENT, timestamp, id);
+				if (start<0)
+					return;
+				buffer.put((byte) state);
+				end(start);
+				return;
+			} catch (BufferOverflowException e) {
+				rewind(start, attempt);
+			} catch (IOException e) {
+				failed(e);
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * This method stops recording after a write error. Events are dispatched 
+	 * from the backend threads, so the error can not be thrown: it is 
+	 * reported by the next call to {@link #flush()} or {@link #close()}.
+	 * Must be called with this object's lock held.
+	 */
+	private void failed(IOException e) {
+		closed = true;
+		error = e;
+		closeStream();
+	}
+}
@@ -0,0 +1,239 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import avahi4j.Avahi4JConstants.BrowserEvent;
+import avahi4j.Avahi4JConstants.Protocol;
+
+/**
+ * This class suppresses the flaps of services which briefly disappear and 
+ * reappear (devices on Wi-Fi for instance). It is given the events of one or
+ * more service browsers and passes them on to another 
+ * {@link IServiceBrowserCallback}, except that a REMOVE event is held down 
+ * for a configurable time: it is only passed on if the service has not come
+ * back by then, in which case neither the REMOVE nor the NEW event are 
+ * passed on.
+ * <br>
+ * Held down REMOVE events are passed on from a timer thread, other events 
+ * from the thread which delivered them. Events are never passed on 
+ * concurrently, and are passed on in order for each service.
+ * @author gilles
+ *
+ */
+public final class FlapSuppressor implements IServiceBrowserCallback {
+	/**
+	 * The default hold-down time, in milliseconds
+	 */
+	public static final long DEFAULT_HOLD_DOWN = 2000;
+	
+	/**
+	 * A REMOVE event being held down
+	 */
+	private final class PendingRemoval implements Runnable {
+		final String key;
+		final int interfaceNum;
+		final Protocol proto;
+		final String name, type, domain;
+		final int flags;
+		ScheduledFuture<?> timer;
+		
+		PendingRemoval(String key, int interfaceNum, Protocol proto, String name,
+				String type, String domain, int flags) {
+			this.key = key;
+			this.interfaceNum = interfaceNum;
+			this.proto = proto;
+			this.name = name;
+			this.type = type;
+			this.domain = domain;
+			this.flags = flags;
+		}
+		
+		@Override
+		public void run() {
+			synchronized (FlapSuppressor.this) {
+				if (pending.get(key)!=this)
+					return;
+				confirm(this);
+			}
+		}
+	}
+	
+	
+	/*
+	 * M E M B E R S
+	 */
+	private final IServiceBrowserCallback callback;
+	private final ScheduledExecutorService timer;
+	private final Map<String, PendingRemoval> pending;
+	private long holdDown;
+	private long suppressed, confirmed;
+	private boolean closed;
+	
+	
+	/*
+	 * M E T H O D S
+	 */
+	/**
+	 * This method builds a new flap suppressor
+	 * @param callback the callback the events are passed on to
+	 * @param holdDown how long REMOVE events are held down, in milliseconds
+	 */
+	public FlapSuppressor(IServiceBrowserCallback callback, long holdDown) {
+		if (callback==null)
+			throw new NullPointerException("the callback can not be null");
+		this.callback = callback;
+		this.holdDown = holdDown;
+		pending = new HashMap<String, PendingRemoval>();
+		timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "avahi4j flap suppressor");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+	
+	/**
+	 * This method builds a new flap suppressor holding REMOVE events down 
+	 * for {@link #DEFAULT_HOLD_DOWN} milliseconds
+	 * @param callback the callback the events are passed on to
+	 */
+	public FlapSuppressor(IServiceBrowserCallback callback) {
+		this(callback, DEFAULT_HOLD_DOWN);
+	}
+	
+	@Override
+	public synchronized void serviceCallback(int interfaceNum, Protocol proto,
+			BrowserEvent browserEvent, String name, String type, String domain,
+			int lookupResultFlag) {
+		if (closed)
+			return;
+		
+		if (browserEvent==BrowserEvent.NEW || browserEvent==BrowserEvent.REMOVE) {
+			String key = interfaceNum + "/" + proto.ordinal() + "/" + name + "." 
+				+ type + "." + domain;
+			PendingRemoval p = pending.get(key);
+			
+			if (browserEvent==BrowserEvent.NEW && p!=null) {
+				// the service came back in time: the consumer never knew it left
+				pending.remove(key);
+				p.timer.cancel(false);
+				suppressed++;
+				return;
+			}
+			
+			if (browserEvent==BrowserEvent.REMOVE && holdDown>0) {
+				if (p==null) {
+					p = new PendingRemoval(key, interfaceNum, proto, name, type, 
+							domain, lookupResultFlag);
+					pending.put(key, p);
+					p.timer = timer.schedule(p, holdDown, TimeUnit.MILLISECONDS);
+				}
+				return;
+			}
+		}
+		
+		callback.serviceCallback(interfaceNum, proto, browserEvent, name, type, 
+				domain, lookupResultFlag);
+	}
+	
+	/**
+	 * This method passes on a held down REMOVE event. Must be called with 
+	 * this object's lock held.
+	 */
+	private void confirm(PendingRemoval p) {
+		pending.remove(p.key);
+		confirmed++;
+		callback.serviceCallback(p.interfaceNum, p.proto, BrowserEvent.REMOVE, 
+				p.name, p.type, p.domain, p.flags);
+	}
+	
+	/**
+	 * This method passes on all the held down REMOVE events straight away,
+	 * from the calling thread
+	 */
+	public synchronized void flush() {
+		List<PendingRemoval> l = new ArrayList<PendingRemoval>(pending.values());
+		for(PendingRemoval p: l) {
+			p.timer.cancel(false);
+			confirm(p);
+		}
+	}
+	
+	/**
+	 * This method stops the timer thread. Held down REMOVE events are 
+	 * discarded, and no more events are passed on.
+	 */
+	public synchronized void close() {
+		if (closed)
+			return;
+		closed = true;
+		for(PendingRemoval p: pending.values())
+			p.timer.cancel(false);
+		pending.clear();
+		timer.shutdownNow();
+	}
+	
+	/**
+	 * @return how long REMOVE events are held down, in milliseconds
+	 */
+	public synchronized long getHoldDown() {
+		return holdDown;
+	}
+	
+	/**
+	 * @param holdDown how long REMOVE events are held down, in milliseconds.
+	 * 0 passes them on straight away. Only applies to future REMOVE events.
+	 */
+	public synchronized void setHoldDown(long holdDown) {
+		this.holdDown = holdDown;
+	}
+	
+	/**
+	 * @return the number of flaps suppressed, ie. REMOVE and NEW pairs which
+	 * were not passed on
+	 */
+	public synchronized long getSuppressedCount() {
+		return suppressed;
+	}
+	
+	/**
+	 * @return the number of REMOVE events passed on after being held down
+	 */
+	public synchronized long getConfirmedCount() {
+		return confirmed;
+	}
+	
+	/**
+	 * @return the number of REMOVE events currently held down
+	 */
+	public synchronized int getPendingCount() {
+		return pending.size();
+	}
+}
@@ -0,0 +1,171 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j;
+
+import java.io.Closeable;
+
+import avahi4j.Avahi4JConstants.Protocol;
+import avahi4j.ServiceResolver.ServiceResolverEvent;
+import avahi4j.exceptions.Avahi4JException;
+
+/**
+ * Objects of this class are used to find the address of a host from its name
+ * (eg. "myhost.local").<br>
+ * To create a host name resolver, call 
+ * {@link Client#createHostNameResolver(IHostNameResolverCallback, int, Protocol, String, Protocol, int) createHostNameResolver()}
+ * on an existing {@link Client} object. Results will be delivered to the 
+ * provided callback object until the resolver is released. <b>Host name 
+ * resolver objects MUST be released when no longer needed, by calling 
+ * {@link #release()}.</b> To look up many host names, use the 
+ * {@link ResolverCache} returned by {@link Client#getResolverCache()} instead.
+ * @author gilles
+ *
+ */
+public final class HostNameResolver implements Closeable {
+	
+	/*
+	 * M E M B E R S
+	 */
+	private final Peer peer;
+	private IHostNameResolverCallback resolverCallback;
+	private LatencyStats latencyStats;
+	private volatile long eventTimestamp;
+	
+	
+	/*
+	 * M E T H O D S
+	 */
+	/**
+	 * This method builds a new host name resolver. 
+	 * @param avahi4j_client_ptr a pointer to the client's native structure
+	 * @param stats the client's latency statistics
+	 * @param client the client creating this object
+	 * @param callback the callback object which will receive the results
+	 * @param ifNum the interface to look for the host on, or -1 for all
+	 * @param proto the protocol to use for the query
+	 * @param name the host name
+	 * @param addressProtocol the protocol of the address to look for
+	 * @param lookupFlags the lookup flags (Avahi4JConstants.LOOKUP_*)
+	 * @throws Avahi4JException if there is an error creating the resolver 
+	 */
+	HostNameResolver(long avahi4j_client_ptr, LatencyStats stats, Client client,
+			IHostNameResolverCallback callback, int ifNum, Protocol proto,
+			String name, Protocol addressProtocol, int lookupFlags) 
+			throws Avahi4JException {
+		
+		resolverCallback = callback;
+		latencyStats = stats;
+		peer = new Peer(this, client);
+		peer.created(Client.backend.initHostNameResolver(peer, 
+				avahi4j_client_ptr, ifNum, proto.ordinal(), name, 
+				addressProtocol.ordinal(), lookupFlags));
+	}
+	
+	/**
+	 * This method must be called when this resolver is no longer needed, to 
+	 * release resources. It can be called from the callback.
+	 */
+	public void release() {
+		peer.release();
+	}
+	
+	/**
+	 * This method releases this resolver, like {@link #release()}. It can be
+	 * called several times.
+	 */
+	@Override
+	public void close() {
+		release();
+	}
+	
+	/**
+	 * This method returns the native timestamp of the event currently being
+	 * dispatched by this resolver (see {@link Client#getEventTimestamp()}).
+	 * @return the native timestamp of the current or last event, in nanoseconds
+	 */
+	public long getEventTimestamp() {
+		return eventTimestamp;
+	}
+	
+	/**
+	 * This method is called from the native backend to dispatch a resolver 
+	 * callback. The address is given in binary form (4 or 16 bytes, or null).
+	 */
+	void dispatchCallback(int interfaceNum, int proto, int resolverEvent,
+			String name, byte address[], int lookupResultFlag, 
+			long wakeupTimestamp, long timestamp){
+		
+		long dispatched = System.nanoTime();
+		eventTimestamp = timestamp;
+		
+		Address a = address==null ? null : new Address(address, interfaceNum, 0);
+		try {
+			resolverCallback.resolverCallback(this, interfaceNum, 
+				Avahi4JConstants.PROTOCOLS[proto], 
+				ServiceResolver.RESOLVER_EVENTS[resolverEvent], name, a, lookupResultFlag);
+		} finally {
+			latencyStats.recordEvent(wakeupTimestamp, timestamp, dispatched,
+					System.nanoTime());
+		}
+	}
+	
+	@Override
+	public int hashCode() {
+		return (int) (peer.ptr ^ (peer.ptr >>> 32));
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof HostNameResolver))
+			return false;
+		return peer.ptr==((HostNameResolver) obj).peer.ptr;
+	}
+	
+	/**
+	 * Objects of this class hold the native side of a {@link HostNameResolver}
+	 * (see {@link NativePeer}), and forward it the native events.
+	 * @author gilles
+	 *
+	 */
+	static final class Peer extends NativePeer<HostNameResolver> {
+		private Peer(HostNameResolver resolver, Client client) {
+			super(NativeObjects.Kind.HOST_NAME_RESOLVER, resolver, client);
+		}
+		
+		@Override
+		void free(long nativePtr) {
+			Client.backend.releaseHostNameResolver(nativePtr);
+		}
+		
+		/**
+		 * This method is called from the native backend to dispatch a 
+		 * callback, unless the resolver was garbage collected.
+		 */
+		void dispatchCallback(int interfaceNum, int proto, int resolverEvent,
+			String name, byte address[], int lookupResultFlag, 
+			long wakeupTimestamp, long timestamp) {
+			HostNameResolver resolver = getOwner();
+			if (resolver!=null)
+				resolver.dispatchCallback(interfaceNum, proto, resolverEvent,
+						name, address, lookupResultFlag, wakeupTimestamp,
+						timestamp);
+		}
+	}
+}
@@ -0,0 +1,47 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j;
+
+import avahi4j.Avahi4JConstants.Protocol;
+import avahi4j.ServiceResolver.ServiceResolverEvent;
+
+/**
+ * Classes implementing this interface receive notifications from 
+ * {@link AddressResolver} objects when an address has been resolved to a 
+ * host name. 
+ * @author gilles
+ *
+ */
+public interface IAddressResolverCallback {
+	/**
+	 * This method is called when an address has been resolved, or could not
+	 * be resolved.
+	 * @param resolver the {@link AddressResolver} object calling this method
+	 * @param interfaceNum the interface the name was found on
+	 * @param proto the protocol
+	 * @param resolverEvent the event. If {@link ServiceResolverEvent#RESOLVER_FAILURE}
+	 * is received, all the other fields are meaningless.
+	 * @param address the address
+	 * @param name the host name
+	 * @param lookupResultFlag the lookup result flag LOOKUP_RESULT_* 
+	 * (See {@link Avahi4JConstants})
+	 */
+	public void resolverCallback(AddressResolver resolver, int interfaceNum,
+			Protocol proto, ServiceResolverEvent resolverEvent, Address address, 
+			String name, int lookupResultFlag);
+}
@@ -0,0 +1,45 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j;
+
+import avahi4j.Avahi4JConstants.BrowserEvent;
+import avahi4j.Avahi4JConstants.Protocol;
+
+/**
+ * Objects implementing this interface can receive notifications from a 
+ * {@link DomainBrowser} about the browsing and registration domains 
+ * announced on the network.
+ * @author gilles
+ *
+ */
+public interface IDomainBrowserCallback {
+	/**
+	 * This method is called by a {@link DomainBrowser} when a domain appears or
+	 * disappears.
+	 * @param interfaceNum the interface number the domain was found on
+	 * @param proto the protocol the domain was found with
+	 * @param browserEvent the event that triggered this call. If 
+	 * {@link BrowserEvent#FAILURE} is received, all the other values are 
+	 * meaningless
+	 * @param domain the domain
+	 * @param lookupResultFlag lookup result flags 
+	 * (See Avahi4JConstants.LOOKUP_RESULT_* )
+	 */
+	public void domainCallback(int interfaceNum, Protocol proto, 
+			BrowserEvent browserEvent, String domain, int lookupResultFlag);
+}
@@ -0,0 +1,35 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j;
+
+/**
+ * Classes implementing this interface receive the results of 
+ * {@link ResolverCache} lookups.
+ * @author gilles
+ *
+ */
+public interface IHostLookupCallback {
+	/**
+	 * This method is called when a lookup completes, either straight away
+	 * from the calling thread if the result was cached, or later from the 
+	 * client's thread. It must not block.
+	 * @param name the host name, or null if an address lookup failed
+	 * @param address the host's address, or null if a host name lookup failed
+	 */
+	public void lookupDone(String name, Address address);
+}
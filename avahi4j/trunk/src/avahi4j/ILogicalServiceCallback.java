@@ -0,0 +1,40 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j;
+
+import avahi4j.LogicalServiceBrowser.LogicalServiceEvent;
+
+/**
+ * Classes implementing this interface receive notifications from 
+ * {@link LogicalServiceBrowser} objects when a logical service appears, 
+ * changes, is resolved or disappears.
+ * @author gilles
+ *
+ */
+public interface ILogicalServiceCallback {
+	/**
+	 * This method is called when a logical service appears, changes, is 
+	 * resolved or disappears.
+	 * @param browser the {@link LogicalServiceBrowser} calling this method
+	 * @param event the {@link LogicalServiceEvent}
+	 * @param service a snapshot of the logical service, after the event. 
+	 * It is null for {@link LogicalServiceEvent#BROWSER_FAILURE} events.
+	 */
+	public void logicalServiceCallback(LogicalServiceBrowser browser, 
+			LogicalServiceEvent event, LogicalService service);
+}
@@ -0,0 +1,154 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j;
+
+import avahi4j.exceptions.Avahi4JException;
+
+/**
+ * This interface abstracts the native layer binding Avahi4J to libavahi-client.
+ * Three implementations exist: {@link JNIBackend} (the default), which uses 
+ * the libavahi4j.so JNI library, FFMBackend, which binds libavahi-client 
+ * directly using the Foreign Function &amp; Memory API (Java 22 or later), and
+ * MDNSBackend, which implements mDNS in pure Java without the avahi daemon 
+ * (Java 7 or later). The backend is selected once, when the {@link Client} 
+ * class is loaded, using the <code>avahi4j.backend</code> system property 
+ * ("jni", "ffm" or "mdns").<br>
+ * Native objects are identified by opaque <code>long</code> handles. Events are
+ * delivered by calling the package-private dispatch methods of the Java
+ * objects passed to the <code>init*()</code> methods.
+ * @author gilles
+ *
+ */
+interface INativeBackend {
+	/*
+	 * C L I E N T
+	 */
+	/**
+	 * This method creates a new avahi client
+	 * @param client the client object to dispatch state changes to
+	 * @return a handle to the native client
+	 * @throws Avahi4JException if there is an error creating the client
+	 */
+	long initClient(Client.Peer client) throws Avahi4JException;
+	String getHostName(long client);
+	String getDomainName(long client);
+	String getFQDN(long client);
+	int setHostName(long client, String name);
+	/**
+	 * @return an index into the {@link Client.State} enum
+	 */
+	int getState(long client);
+	/**
+	 * @return the AVAHI_ERR_* code of the last failed operation of the client
+	 */
+	int getLastError(long client);
+	int startLoop(long client);
+	int stopLoop(long client);
+	void releaseClient(long client);
+	/**
+	 * This method fills the given arrays with the lock wait and hold histogram
+	 * buckets (see {@link LatencyHistogram})
+	 */
+	void getLockHistograms(long client, long wait[], long hold[]);
+	void resetLockHistograms(long client);
+	/**
+	 * @return the version of the native layer, or null
+	 */
+	String getVersion();
+	/**
+	 * @return a string description of the given AVAHI_ERR_* error
+	 */
+	String getErrorString(int error);
+	
+	/*
+	 * E N T R Y   G R O U P
+	 */
+	long initGroup(EntryGroup.Peer group, long client) throws Avahi4JException;
+	int releaseGroup(long group);
+	int commitGroup(long group);
+	/**
+	 * @return an index into the {@link EntryGroup.State} enum
+	 */
+	int getGroupState(long group);
+	int resetGroup(long group);
+	int isGroupEmpty(long group);
+	int addService(long group, int interfaceNum, int proto, String name, 
+			String type, String domain, String host, int port, String txtRecord[]);
+	int addServiceSubtype(long group, int interfaceNum, int proto, String name,
+			String type, String domain, String subtype);
+	int updateServiceTxt(long group, int interfaceNum, int proto, String name,
+			String type, String domain, String txtRecord[]);
+	String findAlternativeServiceName(String name);
+	
+	/*
+	 * B R O W S E R S   &   R E S O L V E R S
+	 */
+	/**
+	 * <code>eventMask</code> and <code>namePrefix</code> come from an 
+	 * {@link EventFilter}: events which do not pass it must not be 
+	 * dispatched, and should be dropped before any object is created for them
+	 */
+	long initServiceBrowser(ServiceBrowser.Peer browser, long client, int interfaceNum,
+			int proto, String type, String domain, int lookupFlags, int eventMask,
+			String namePrefix) throws Avahi4JException;
+	int releaseServiceBrowser(long browser);
+	
+	long initServiceTypeBrowser(ServiceTypeBrowser.Peer browser, long client,
+			int interfaceNum, int proto, String domain, int lookupFlags)
+			throws Avahi4JException;
+	int releaseServiceTypeBrowser(long browser);
+	
+	/**
+	 * <code>type</code> is the ordinal of a 
+	 * {@link DomainBrowser.DomainBrowserType}
+	 */
+	long initDomainBrowser(DomainBrowser.Peer browser, long client, int interfaceNum,
+			int proto, String domain, int type, int lookupFlags) 
+			throws Avahi4JException;
+	int releaseDomainBrowser(long browser);
+	
+	long initServiceResolver(ServiceResolver.Peer resolver, long client, int interfaceNum,
+			int proto, String name, String type, String domain, int addressProtocol,
+			int lookupFlags) throws Avahi4JException;
+	int releaseServiceResolver(long resolver);
+	
+	long initHostNameResolver(HostNameResolver.Peer resolver, long client,
+			int interfaceNum, int proto, String name, int addressProtocol,
+			int lookupFlags) throws Avahi4JException;
+	int releaseHostNameResolver(long resolver);
+	
+	/**
+	 * <code>address</code> holds the 4 or 16 bytes of an IPv4 or IPv6 address
+	 */
+	long initAddressResolver(AddressResolver.Peer resolver, long client,
+			int interfaceNum, int proto, byte[] address, int lookupFlags)
+			throws Avahi4JException;
+	int releaseAddressResolver(long resolver);
+	
+	/**
+	 * <code>clazz</code> and <code>type</code> are numeric DNS values, and so
+	 * are the ones given to {@link RecordBrowser}'s dispatch method, along with
+	 * the rdata which need only remain valid until it returns. 
+	 * <code>eventMask</code> and <code>recordType</code> come from an
+	 * {@link EventFilter}, as for {@link #initServiceBrowser}
+	 */
+	long initRecordBrowser(RecordBrowser.Peer browser, long client, int interfaceNum,
+			int proto, String name, int clazz, int type, int lookupFlags, 
+			int eventMask, int recordType) throws Avahi4JException;
+	int releaseRecordBrowser(long browser);
+}
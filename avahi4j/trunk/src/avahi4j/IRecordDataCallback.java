@@ -0,0 +1,53 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j;
+
+import avahi4j.Avahi4JConstants.BrowserEvent;
+import avahi4j.Avahi4JConstants.Protocol;
+
+/**
+ * Classes implementing this interface receive the records found by a 
+ * {@link RecordBrowser} created with 
+ * {@link Client#createRecordBrowser(IRecordDataCallback, int, Protocol, String, int, int, int)}.
+ * Unlike {@link IRecordBrowserCallback}, record classes and types are given
+ * as numeric values, so any type can be browsed, and the rdata is not copied:
+ * it is handed over as a {@link RecordData} decoder which is only valid until
+ * this method returns.
+ * @author gilles
+ *
+ */
+public interface IRecordDataCallback {
+	/**
+	 * This method is called when a record is found or removed. 
+	 * @param browser the {@link RecordBrowser} object calling this method.
+	 * @param interfaceNum the interface number the record was found on
+	 * @param proto the protocol
+	 * @param event the event associated with this record. If {@link BrowserEvent#FAILURE}
+	 * is received, all the other fields are meaningless.
+	 * @param name the record name
+	 * @param clazz the numeric RR class (1 for IN)
+	 * @param type the numeric RR type
+	 * @param rdata the record's data. This object is reused, and must not be 
+	 * kept after this method returns.
+	 * @param lookupResultFlags the lookup result flag LOOKUP_RESULT_* 
+	 * (See {@link Avahi4JConstants})
+	 */
+	public void recordCallback(RecordBrowser browser, int interfaceNum,
+			Protocol proto, BrowserEvent event, String name, int clazz, int type,
+			RecordData rdata, int lookupResultFlags);
+}
@@ -0,0 +1,39 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j;
+
+import avahi4j.ServiceDirectory.DirectoryEvent;
+
+/**
+ * Classes implementing this interface receive notifications from 
+ * {@link ServiceDirectory} objects when services are loaded from the 
+ * directory file, confirmed, added, updated or removed.
+ * @author gilles
+ *
+ */
+public interface IServiceDirectoryCallback {
+	/**
+	 * This method is called when the directory changes.
+	 * @param directory the {@link ServiceDirectory} calling this method
+	 * @param event the {@link DirectoryEvent}
+	 * @param service the service details. For 
+	 * {@link DirectoryEvent#REMOVED} events, these are the last details known.
+	 */
+	public void directoryCallback(ServiceDirectory directory, 
+			DirectoryEvent event, ResolvedService service);
+}
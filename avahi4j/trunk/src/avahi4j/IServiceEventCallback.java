@@ -0,0 +1,39 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j;
+
+/**
+ * Classes implementing this interface receive the events of a 
+ * {@link ServiceBrowser} created with 
+ * {@link Client#createServiceBrowser(IServiceEventCallback, int, avahi4j.Avahi4JConstants.Protocol, String, String, int, EventFilter) createServiceBrowser()}.
+ * Unlike {@link IServiceBrowserCallback}, events are handed over as a 
+ * {@link ServiceEvent} view which is reused for every event, and whose name, 
+ * type and domain are only decoded if asked for, so that dispatching an event
+ * allocates nothing.
+ * @author gilles
+ *
+ */
+public interface IServiceEventCallback {
+	/**
+	 * This method is called when a service is found or removed, or when the
+	 * browser reports its progress or a failure.
+	 * @param event the event. This object is reused, and must not be kept 
+	 * after this method returns.
+	 */
+	public void serviceEvent(ServiceEvent event);
+}
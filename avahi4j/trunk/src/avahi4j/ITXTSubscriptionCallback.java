@@ -0,0 +1,43 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j;
+
+import avahi4j.TXTSubscription.TXTSubscriptionEvent;
+
+/**
+ * Classes implementing this interface receive notifications from 
+ * {@link TXTSubscription} objects when a service starts or stops matching 
+ * their {@link TXTPredicate}.
+ * @author gilles
+ *
+ */
+public interface ITXTSubscriptionCallback {
+	/**
+	 * This method is called when a service enters or leaves the set of 
+	 * matching services, or when a matching service changes.
+	 * @param subscription the {@link TXTSubscription} calling this method
+	 * @param event the {@link TXTSubscriptionEvent}
+	 * @param service the service details. Its TXT records are those of the
+	 * TXT record which matched the predicate. For 
+	 * {@link TXTSubscriptionEvent#LEFT} events, these are the last details 
+	 * reported. For {@link TXTSubscriptionEvent#FAILURE} events, only the 
+	 * interface, protocol, name, type and domain are meaningful.
+	 */
+	public void txtSubscriptionCallback(TXTSubscription subscription, 
+			TXTSubscriptionEvent event, ResolvedService service);
+}
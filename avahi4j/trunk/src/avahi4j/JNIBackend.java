@@ -0,0 +1,357 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j;
+
+import avahi4j.exceptions.Avahi4JException;
+
+/**
+ * This is the default {@link INativeBackend}, which uses the Avahi4J JNI
+ * library (libavahi4j.so).
+ * @author gilles
+ *
+ */
+final class JNIBackend implements INativeBackend {
+	
+	private static boolean loaded = false;
+	
+	/**
+	 * This method loads the JNI library if it hasn't been loaded yet.
+	 * @throws Error if the library can not be loaded
+	 */
+	static synchronized void loadLibrary() {
+		if (loaded)
+			return;
+		
+		try {
+			System.loadLibrary("avahi4j");
+		} catch (Throwable t) {
+			System.out.println("Error loading the Avahi4J JNI library.");
+			System.out.println("Make sure you have specified the right directory"
+					+ " where the library can be found by passing;\n"
+					+ " -Djava.library.path=/path/to/jni_lib/dir"
+					+ " to the JVM. Currently, this is set to:\n"
+					+ System.getProperty("java.library.path")+"\n");
+			t.printStackTrace();
+			// throw RunTimeError
+			throw new Error("Error loading JNI library.", t);
+		}
+		loaded = true;
+	}
+	
+	JNIBackend() {
+		loadLibrary();
+	}
+	
+	
+	/*
+	 * N A T I V E   M E T H O D S
+	 */
+	private native String get_version();
+	private native String get_error_string(int error);
+	
+	private native long init_client(Client.Peer client) throws Avahi4JException;
+	private native String get_domain_name(long o);
+	private native String get_host_name(long o);
+	private native String get_fqdn(long o);
+	private native int set_host_name(long o, String name);
+	private native int get_client_state(long o);
+	private native int get_last_error(long o);
+	private native int start_loop(long o);
+	private native int stop_loop(long o);
+	private native void release_client(long o);
+	private native void get_lock_histograms(long o, long wait[], long hold[]);
+	private native void reset_lock_histograms(long o);
+	
+	private native long init_group(EntryGroup.Peer group, long o) throws Avahi4JException;
+	private native int release_group(long o);
+	private native int commit_group(long o);
+	private native int get_group_state(long o);
+	private native int reset_group(long o);
+	private native int is_group_empty(long o);
+	private native int add_service_txt_records(long o, int interfaceNum, 
+			int proto, String name, String type, String domain, 
+			String host, int port, String txtRecord[], int recordNum);
+	private native int add_service_subtype(long o, int interfaceNum, 
+			int proto, String name, String type, String domain, 
+			String subtype);
+	private native int update_service_txt_records(long o, int interfaceNum, 
+			int proto, String name, String type, String domain, 
+			String txtRecord[], int recordNum);
+	private native String find_alternative_service_name(String collidingName);
+	
+	private native long init_service_browser(ServiceBrowser.Peer browser, 
+			long avahi4j_client_ptr, int interfaceNum, int proto, String type,
+			String domain, int lookupFlags, int eventMask, String namePrefix)
+			throws Avahi4JException;
+	private native int release_service_browser(long o);
+	
+	private native long init_service_type_browser(ServiceTypeBrowser.Peer browser, 
+			long avahi4j_client_ptr, int interfaceNum, int proto, String domain,
+			int lookupFlags) throws Avahi4JException;
+	private native int release_service_type_browser(long o);
+	
+	private native long init_domain_browser(DomainBrowser.Peer browser, 
+			long avahi4j_client_ptr, int interfaceNum, int proto, String domain,
+			int type, int lookupFlags) throws Avahi4JException;
+	private native int release_domain_browser(long o);
+	
+	private native long init_service_resolver(ServiceResolver.Peer resolver, 
+			long avahi4j_client_ptr, int ifNum, int proto, String name, 
+			String type, String domain, int addressProtocol, int lookupFlags)
+			throws Avahi4JException;
+	private native int release_service_resolver(long o);
+	
+	private native long init_host_name_resolver(HostNameResolver.Peer resolver, 
+			long avahi4j_client_ptr, int ifNum, int proto, String name, 
+			int addressProtocol, int lookupFlags) throws Avahi4JException;
+	private native int release_host_name_resolver(long o);
+	
+	private native long init_address_resolver(AddressResolver.Peer resolver, 
+			long avahi4j_client_ptr, int ifNum, int proto, byte[] address, 
+			int lookupFlags) throws Avahi4JException;
+	private native int release_address_resolver(long o);
+	
+	private native long init_record_browser(RecordBrowser.Peer browser, 
+			long avahi4j_client_ptr, int interfaceIdx, int proto, String name,
+			int clazz, int type, int lookupFlag, int eventMask, int recordType)
+			throws Avahi4JException;
+	private native int release_record_browser(long o);
+	
+	
+	/*
+	 * M E T H O D S
+	 */
+	@Override
+	public String getVersion() {
+		return get_version();
+	}
+	
+	@Override
+	public String getErrorString(int error) {
+		return get_error_string(error);
+	}
+
+	@Override
+	public long initClient(Client.Peer client) throws Avahi4JException {
+		return init_client(client);
+	}
+
+	@Override
+	public String getHostName(long client) {
+		return get_host_name(client);
+	}
+
+	@Override
+	public String getDomainName(long client) {
+		return get_domain_name(client);
+	}
+
+	@Override
+	public String getFQDN(long client) {
+		return get_fqdn(client);
+	}
+
+	@Override
+	public int setHostName(long client, String name) {
+		return set_host_name(client, name);
+	}
+
+	@Override
+	public int getState(long client) {
+		return get_client_state(client);
+	}
+
+	@Override
+	public int getLastError(long client) {
+		return get_last_error(client);
+	}
+
+	@Override
+	public int startLoop(long client) {
+		return start_loop(client);
+	}
+
+	@Override
+	public int stopLoop(long client) {
+		return stop_loop(client);
+	}
+
+	@Override
+	public void releaseClient(long client) {
+		release_client(client);
+	}
+
+	@Override
+	public void getLockHistograms(long client, long[] wait, long[] hold) {
+		get_lock_histograms(client, wait, hold);
+	}
+
+	@Override
+	public void resetLockHistograms(long client) {
+		reset_lock_histograms(client);
+	}
+
+	@Override
+	public long initGroup(EntryGroup.Peer group, long client) throws Avahi4JException {
+		return init_group(group, client);
+	}
+
+	@Override
+	public int releaseGroup(long group) {
+		return release_group(group);
+	}
+
+	@Override
+	public int commitGroup(long group) {
+		return commit_group(group);
+	}
+
+	@Override
+	public int getGroupState(long group) {
+		return get_group_state(group);
+	}
+
+	@Override
+	public int resetGroup(long group) {
+		return reset_group(group);
+	}
+
+	@Override
+	public int isGroupEmpty(long group) {
+		return is_group_empty(group);
+	}
+
+	@Override
+	public int addService(long group, int interfaceNum, int proto, String name,
+			String type, String domain, String host, int port, String[] txtRecord) {
+		return add_service_txt_records(group, interfaceNum, proto, name, type,
+				domain, host, port, txtRecord, txtRecord.length);
+	}
+
+	@Override
+	public int addServiceSubtype(long group, int interfaceNum, int proto,
+			String name, String type, String domain, String subtype) {
+		return add_service_subtype(group, interfaceNum, proto, name, type, 
+				domain, subtype);
+	}
+
+	@Override
+	public int updateServiceTxt(long group, int interfaceNum, int proto,
+			String name, String type, String domain, String[] txtRecord) {
+		return update_service_txt_records(group, interfaceNum, proto, name, 
+				type, domain, txtRecord, txtRecord.length);
+	}
+
+	@Override
+	public String findAlternativeServiceName(String name) {
+		return find_alternative_service_name(name);
+	}
+
+	@Override
+	public long initServiceBrowser(ServiceBrowser.Peer browser, long client,
+			int interfaceNum, int proto, String type, String domain,
+			int lookupFlags, int eventMask, String namePrefix) 
+			throws Avahi4JException {
+		return init_service_browser(browser, client, interfaceNum, proto, type,
+				domain, lookupFlags, eventMask, namePrefix);
+	}
+
+	@Override
+	public int releaseServiceBrowser(long browser) {
+		return release_service_browser(browser);
+	}
+
+	@Override
+	public long initServiceTypeBrowser(ServiceTypeBrowser.Peer browser, long client,
+			int interfaceNum, int proto, String domain, int lookupFlags)
+			throws Avahi4JException {
+		return init_service_type_browser(browser, client, interfaceNum, proto,
+				domain, lookupFlags);
+	}
+
+	@Override
+	public int releaseServiceTypeBrowser(long browser) {
+		return release_service_type_browser(browser);
+	}
+
+	@Override
+	public long initDomainBrowser(DomainBrowser.Peer browser, long client,
+			int interfaceNum, int proto, String domain, int type, int lookupFlags)
+			throws Avahi4JException {
+		return init_domain_browser(browser, client, interfaceNum, proto, domain,
+				type, lookupFlags);
+	}
+
+	@Override
+	public int releaseDomainBrowser(long browser) {
+		return release_domain_browser(browser);
+	}
+
+	@Override
+	public long initServiceResolver(ServiceResolver.Peer resolver, long client,
+			int interfaceNum, int proto, String name, String type, String domain,
+			int addressProtocol, int lookupFlags) throws Avahi4JException {
+		return init_service_resolver(resolver, client, interfaceNum, proto, name,
+				type, domain, addressProtocol, lookupFlags);
+	}
+
+	@Override
+	public int releaseServiceResolver(long resolver) {
+		return release_service_resolver(resolver);
+	}
+
+	@Override
+	public long initHostNameResolver(HostNameResolver.Peer resolver, long client,
+			int interfaceNum, int proto, String name, int addressProtocol,
+			int lookupFlags) throws Avahi4JException {
+		return init_host_name_resolver(resolver, client, interfaceNum, proto,
+				name, addressProtocol, lookupFlags);
+	}
+
+	@Override
+	public int releaseHostNameResolver(long resolver) {
+		return release_host_name_resolver(resolver);
+	}
+
+	@Override
+	public long initAddressResolver(AddressResolver.Peer resolver, long client,
+			int interfaceNum, int proto, byte[] address, int lookupFlags)
+			throws Avahi4JException {
+		return init_address_resolver(resolver, client, interfaceNum, proto,
+				address, lookupFlags);
+	}
+
+	@Override
+	public int releaseAddressResolver(long resolver) {
+		return release_address_resolver(resolver);
+	}
+
+	@Override
+	public long initRecordBrowser(RecordBrowser.Peer browser, long client,
+			int interfaceNum, int proto, String name, int clazz, int type,
+			int lookupFlags, int eventMask, int recordType) 
+			throws Avahi4JException {
+		return init_record_browser(browser, client, interfaceNum, proto, name,
+				clazz, type, lookupFlags, eventMask, recordType);
+	}
+
+	@Override
+	public int releaseRecordBrowser(long browser) {
+		return release_record_browser(browser);
+	}
+}
@@ -0,0 +1,362 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.concurrent.locks.LockSupport;
+
+import avahi4j.Avahi4JConstants.BrowserEvent;
+import avahi4j.Avahi4JConstants.Protocol;
+import avahi4j.EntryGroup.State;
+import avahi4j.ServiceResolver.ServiceResolverEvent;
+import avahi4j.exceptions.Avahi4JException;
+
+/**
+ * A journal replayer reads the events recorded by an {@link EventJournal}
+ * and dispatches them to callback objects, at their original pace, faster, 
+ * or as fast as possible. It does not need a {@link Client}, so handlers 
+ * can be benchmarked and tested offline.
+ * <br>
+ * Events are dispatched to the callback object registered for their kind 
+ * (events without one are skipped), from the thread calling 
+ * {@link #replay(double)}. Since the browsers and resolvers which received
+ * them do not exist any more, callbacks taking a {@link ServiceResolver} or
+ * a {@link RecordBrowser} receive null instead: {@link #getObjectId()} 
+ * tells which of the recorded objects an event was dispatched to. 
+ * @author gilles
+ *
+ */
+public final class JournalReplayer {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	
+	/*
+	 * M E M B E R S
+	 */
+	private final File file;
+	private final long startTime;
+	private final RecordData recordData;
+	private IServiceBrowserCallback serviceBrowserCallback;
+	private IServiceResolverCallback serviceResolverCallback;
+	private IRecordDataCallback recordCallback;
+	private IEntryGroupCallback entryGroupCallback;
+	private ByteBuffer buffer;
+	private FileChannel channel;
+	private int objectId;
+	private long eventTimestamp;
+	
+	
+	/*
+	 * M E T H O D S
+	 */
+	/**
+	 * This method creates a new replayer for the given journal file, and 
+	 * checks its header.
+	 * @param file the journal file
+	 * @throws Avahi4JException if the file can not be read, or is not a 
+	 * journal file
+	 */
+	public JournalReplayer(File file) throws Avahi4JException {
+		this.file = file;
+		recordData = new RecordData();
+		buffer = ByteBuffer.allocate(EventJournal.DEFAULT_BUFFER_SIZE);
+		
+		try {
+			FileInputStream in = new FileInputStream(file);
+			try {
+				ByteBuffer header = ByteBuffer.allocate(EventJournal.HEADER_SIZE);
+				while (header.hasRemaining())
+					if (in.getChannel().read(header)<0)
+						throw new EOFException();
+				header.flip();
+				if (header.getInt()!=EventJournal.MAGIC 
+						|| header.getInt()!=EventJournal.VERSION)
+					throw new Avahi4JException(file+" is not a journal file");
+				startTime = header.getLong();
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			throw new Avahi4JException("Error reading the journal file "+file, e);
+		}
+	}
+	
+	/**
+	 * @return when the journal was created, in milliseconds since the epoch
+	 */
+	public long getStartTime() {
+		return startTime;
+	}
+	
+	/**
+	 * This method sets the object receiving service browser events.
+	 * @param callback the callback object, or null to skip these events
+	 */
+	public synchronized void setServiceBrowserCallback(
+			IServiceBrowserCallback callback) {
+		serviceBrowserCallback = callback;
+	}
+	
+	/**
+	 * This method sets the object receiving service resolver events. 
+	 * @param callback the callback object, or null to skip these events
+	 */
+	public synchronized void setServiceResolverCallback(
+			IServiceResolverCallback callback) {
+		serviceResolverCallback = callback;
+	}
+	
+	/**
+	 * This method sets the object receiving record browser events. Their 
+	 * {@link RecordData} is only valid until the callback returns.
+	 * @param callback the callback object, or null to skip these events
+	 */
+	public synchronized void setRecordCallback(IRecordDataCallback callback) {
+		recordCallback = callback;
+	}
+	
+	/**
+	 * This method sets the object receiving entry group events.
+	 * @param callback the callback object, or null to skip these events
+	 */
+	public synchronized void setEntryGroupCallback(IEntryGroupCallback callback) {
+		entryGroupCallback = callback;
+	}
+	
+	/**
+	 * This method returns the identifier of the object the event currently 
+	 * being replayed was dispatched to. Identifiers are only unique within a
+	 * journal.
+	 * @return the object identifier of the current or last event
+	 */
+	public int getObjectId() {
+		return objectId;
+	}
+	
+	/**
+	 * This method returns the timestamp of the event currently being 
+	 * replayed, relative to the creation of the journal.
+	 * @return the timestamp of the current or last event, in nanoseconds
+	 */
+	public long getEventTimestamp() {
+		return eventTimestamp;
+	}
+	
+	/**
+	 * This method replays the whole journal, from the calling thread, and 
+	 * returns once the last event has been dispatched. An event recorded 
+	 * partially (because the application recording it stopped abruptly) ends 
+	 * the replay.
+	 * @param speed how fast events are replayed: 1 replays them at their 
+	 * original pace, 2 twice as fast..., and 0 as fast as possible
+	 * @return the number of events dispatched
+	 * @throws Avahi4JException if the journal can not be read or is corrupted
+	 * @throws IllegalArgumentException if the speed is negative
+	 */
+	public synchronized long replay(double speed) throws Avahi4JException {
+		if (speed<0 || Double.isNaN(speed))
+			throw new IllegalArgumentException("invalid speed "+speed);
+		
+		long count = 0;
+		long start = 0;
+		long first = 0;
+		try {
+			FileInputStream in = new FileInputStream(file);
+			try {
+				channel = in.getChannel();
+				channel.position(EventJournal.HEADER_SIZE);
+				buffer.clear().flip();
+				
+				while (fill(4)) {
+					int length = buffer.getInt();
+					if (length<13)
+						throw new Avahi4JException("Corrupted journal file "+file);
+					if (!fill(length))
+						break;
+					
+					int end = buffer.position() + length;
+					byte kind = buffer.get();
+					eventTimestamp = buffer.getLong();
+					objectId = buffer.getInt();
+					
+					// wait until the event is due
+					if (count==0) {
+						start = System.nanoTime();
+						first = eventTimestamp;
+					} else if (speed>0) {
+						long due = start + (long) ((eventTimestamp - first) / speed);
+						long now;
+						while ((now = System.nanoTime())<due)
+							LockSupport.parkNanos(due - now);
+					}
+					
+					dispatch(kind);
+					buffer.position(end);
+					count++;
+				}
+			} finally {
+				channel = null;
+				in.close();
+			}
+		} catch (IOException e) {
+			throw new Avahi4JException("Error reading the journal file "+file, e);
+		} catch (RuntimeException e) {
+			throw new Avahi4JException("Corrupted journal file "+file, e);
+		}
+		
+		return count;
+	}
+	
+	/**
+	 * This method makes sure the buffer holds the given number of bytes, 
+	 * reading and enlarging it as needed.
+	 * @return false if the end of the file was reached first
+	 */
+	private boolean fill(int bytes) throws IOException {
+		if (buffer.remaining()>=bytes)
+			return true;
+		
+		if (buffer.capacity()<bytes) {
+			ByteBuffer b = ByteBuffer.allocate(bytes * 2);
+			b.put(buffer);
+			buffer = b;
+		} else
+			buffer.compact();
+		
+		while (buffer.position()<bytes)
+			if (channel.read(buffer)<0) {
+				buffer.flip();
+				return false;
+			}
+		buffer.flip();
+		return true;
+	}
+	
+	/**
+	 * This method decodes the event at the current position in the buffer, 
+	 * and dispatches it.
+	 */
+	private void dispatch(byte kind) {
+		int interfaceNum, proto, event, flags;
+		String name;
+		
+		switch (kind) {
+		case EventJournal.SERVICE_BROWSER_EVENT:
+			if (serviceBrowserCallback==null)
+				return;
+			interfaceNum = buffer.getInt();
+			proto = buffer.get();
+			event = buffer.get();
+			name = getString();
+			String type = getString();
+			String domain = getString();
+			flags = buffer.getInt();
+			serviceBrowserCallback.serviceCallback(interfaceNum, 
+					Avahi4JConstants.PROTOCOLS[proto], Avahi4JConstants.BROWSER_EVENTS[event], 
+					name, type, domain, flags);
+			break;
+			
+		case EventJournal.SERVICE_RESOLVER_EVENT:
+			if (serviceResolverCallback==null)
+				return;
+			interfaceNum = buffer.getInt();
+			proto = buffer.get();
+			event = buffer.get();
+			name = getString();
+			type = getString();
+			domain = getString();
+			String hostname = getString();
+			byte address[] = getBytes();
+			int port = buffer.getInt();
+			String txtRecords[] = null;
+			int count = buffer.getShort();
+			if (count>=0) {
+				txtRecords = new String[count];
+				for(int i=0; i<count; i++)
+					txtRecords[i] = getString();
+			}
+			flags = buffer.getInt();
+			serviceResolverCallback.resolverCallback(null, interfaceNum, 
+					Avahi4JConstants.PROTOCOLS[proto], 
+					ServiceResolver.RESOLVER_EVENTS[event], name, type, domain,
+					hostname, address==null ? null : new Address(address, 
+					interfaceNum, port), port, txtRecords, flags);
+			break;
+			
+		case EventJournal.RECORD_BROWSER_EVENT:
+			if (recordCallback==null)
+				return;
+			interfaceNum = buffer.getInt();
+			proto = buffer.get();
+			event = buffer.get();
+			name = getString();
+			int clazz = buffer.getShort() & 0xffff;
+			int rrtype = buffer.getShort() & 0xffff;
+			int length = buffer.getInt();
+			ByteBuffer rdata = null;
+			if (length>=0) {
+				rdata = buffer.slice();
+				rdata.limit(length);
+				buffer.position(buffer.position() + length);
+			}
+			flags = buffer.getInt();
+			recordData.wrap(rrtype, rdata);
+			try {
+				recordCallback.recordCallback(null, interfaceNum, 
+						Avahi4JConstants.PROTOCOLS[proto], Avahi4JConstants.BROWSER_EVENTS[event],
+						name, clazz, rrtype, recordData, flags);
+			} finally {
+				recordData.wrap(0, null);
+			}
+			break;
+			
+		case EventJournal.ENTRY_GROUP_EVENT:
+			if (entryGroupCallback!=null)
+				entryGroupCallback.groupStateChanged(EntryGroup.STATES[buffer.get()]);
+			break;
+			
+		default:
+			// recorded by a later version: skip it
+		}
+	}
+	
+	private String getString() {
+		int length = buffer.getShort();
+		if (length<0)
+			return null;
+		String s = new String(buffer.array(), buffer.arrayOffset() 
+				+ buffer.position(), length, UTF8);
+		buffer.position(buffer.position() + length);
+		return s;
+	}
+	
+	private byte[] getBytes() {
+		int length = buffer.getShort();
+		if (length<0)
+			return null;
+		byte b[] = new byte[length];
+		buffer.get(b);
+		return b;
+	}
+}
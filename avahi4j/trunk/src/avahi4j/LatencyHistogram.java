@@ -0,0 +1,161 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A latency histogram with power-of-two buckets. Bucket <code>i</code> counts
+ * durations in the range [2<sup>i</sup>, 2<sup>i+1</sup>) nanoseconds (bucket 0
+ * also counts durations of 0 ns). The same bucket layout is used by the native
+ * code, so histograms filled from JNI can be compared directly with those
+ * filled in Java. Recording a value is lock-free and does not allocate.
+ * @author gilles
+ *
+ */
+public final class LatencyHistogram {
+	/**
+	 * The number of buckets in a histogram
+	 */
+	public static final int BUCKETS = 64;
+	
+	/*
+	 * M E M B E R S
+	 */
+	private final String name;
+	private final AtomicLongArray buckets;
+	
+	
+	/*
+	 * M E T H O D S
+	 */
+	/**
+	 * This method builds a new empty histogram.
+	 * @param name a name describing what this histogram measures
+	 */
+	public LatencyHistogram(String name) {
+		this.name = name;
+		buckets = new AtomicLongArray(BUCKETS);
+	}
+	
+	/**
+	 * This method returns the index of the bucket the given duration falls into.
+	 * @param nanos a duration in nanoseconds
+	 * @return the index of the matching bucket
+	 */
+	static int bucketIndex(long nanos) {
+		if (nanos<0)
+			nanos = 0;
+		return 63 - Long.numberOfLeadingZeros(nanos | 1);
+	}
+	
+	/**
+	 * This method records a new duration.
+	 * @param nanos the duration in nanoseconds. Negative values are counted as 0.
+	 */
+	public void record(long nanos) {
+		buckets.incrementAndGet(bucketIndex(nanos));
+	}
+	
+	/**
+	 * This method replaces the content of this histogram with the given
+	 * bucket counts.
+	 * @param counts an array of at least {@link #BUCKETS} bucket counts
+	 */
+	void load(long counts[]) {
+		for(int i=0; i<BUCKETS; i++)
+			buckets.set(i, counts[i]);
+	}
+	
+	/**
+	 * This method returns the name of this histogram
+	 * @return the name of this histogram
+	 */
+	public String getName() {
+		return name;
+	}
+	
+	/**
+	 * This method returns the number of durations recorded in the given bucket.
+	 * @param bucket the bucket index (0 to {@link #BUCKETS}-1)
+	 * @return the number of durations recorded in the given bucket
+	 */
+	public long getBucketCount(int bucket) {
+		return buckets.get(bucket);
+	}
+	
+	/**
+	 * This method returns the largest duration (in nanoseconds) counted by 
+	 * the given bucket.
+	 * @param bucket the bucket index (0 to {@link #BUCKETS}-1)
+	 * @return the largest duration counted by the given bucket
+	 */
+	public static long getBucketUpperBound(int bucket) {
+		return bucket>=63 ? Long.MAX_VALUE : (1L << (bucket+1)) - 1;
+	}
+	
+	/**
+	 * This method returns the total number of durations recorded.
+	 * @return the total number of durations recorded
+	 */
+	public long getCount() {
+		long count = 0;
+		for(int i=0; i<BUCKETS; i++)
+			count += buckets.get(i);
+		return count;
+	}
+	
+	/**
+	 * This method returns an upper bound (in nanoseconds) for the given 
+	 * percentile. The value is accurate to within a factor of two.
+	 * @param percentile the percentile, between 0 and 100
+	 * @return an upper bound for the given percentile, or 0 if the histogram
+	 * is empty
+	 */
+	public long getPercentile(double percentile) {
+		long counts[] = new long[BUCKETS];
+		long total = 0;
+		for(int i=0; i<BUCKETS; i++)
+			total += (counts[i] = buckets.get(i));
+		
+		if (total==0)
+			return 0;
+		
+		long rank = (long) Math.ceil(total * Math.min(Math.max(percentile, 0), 100) / 100);
+		long seen = 0;
+		for(int i=0; i<BUCKETS; i++){
+			seen += counts[i];
+			if (seen>=rank && seen>0)
+				return getBucketUpperBound(i);
+		}
+		return getBucketUpperBound(BUCKETS-1);
+	}
+	
+	/**
+	 * This method clears all the buckets.
+	 */
+	public void reset() {
+		for(int i=0; i<BUCKETS; i++)
+			buckets.set(i, 0);
+	}
+	
+	public String toString() {
+		return name+": count="+getCount()+" p50<="+getPercentile(50)+"ns p99<="
+				+getPercentile(99)+"ns max<="+getPercentile(100)+"ns";
+	}
+}
@@ -0,0 +1,123 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j;
+
+/**
+ * This class collects latency histograms for each stage an Avahi event goes 
+ * through before and while it is handled, so delays can be attributed to the
+ * right place:
+ * <ul>
+ * <li>{@link Stage#POLL_LOOP}: from the moment the poll loop thread wakes up
+ * until the native callback for the event is invoked (time spent in 
+ * libavahi-client and queued behind other events of the same wake-up),</li>
+ * <li>{@link Stage#JNI_UPCALL}: from the native callback to the Java dispatch
+ * method (JVM attach, argument conversion and the JNI transition),</li>
+ * <li>{@link Stage#HANDLER}: time spent in the user's callback method,</li>
+ * <li>{@link Stage#LOCK_WAIT} and {@link Stage#LOCK_HOLD}: how long Java 
+ * threads waited for, and then held, the poll loop lock in native methods.</li>
+ * </ul>
+ * A {@link Client}'s statistics are returned by {@link Client#getLatencyStats()}.
+ * All timestamps come from the same monotonic clock as {@link System#nanoTime()}.
+ * @author gilles
+ *
+ */
+public final class LatencyStats {
+	/**
+	 * This enumeration lists the measured stages.
+	 * @author gilles
+	 */
+	public enum Stage {
+		/**
+		 * Poll loop wake-up to native callback
+		 */
+		POLL_LOOP,
+		/**
+		 * Native callback to Java dispatch method
+		 */
+		JNI_UPCALL,
+		/**
+		 * Time spent in the user callback
+		 */
+		HANDLER,
+		/**
+		 * Time spent waiting for the poll loop lock
+		 */
+		LOCK_WAIT,
+		/**
+		 * Time the poll loop lock was held by a Java thread
+		 */
+		LOCK_HOLD
+	}
+	
+	private static final Stage STAGES[] = Stage.values();
+	
+	/*
+	 * M E M B E R S
+	 */
+	private final LatencyHistogram histograms[];
+	
+	
+	/*
+	 * M E T H O D S
+	 */
+	LatencyStats() {
+		histograms = new LatencyHistogram[STAGES.length];
+		for(Stage s: STAGES)
+			histograms[s.ordinal()] = new LatencyHistogram(s.name());
+	}
+	
+	/**
+	 * This method records the timestamps of a dispatched event.
+	 * @param wakeupTimestamp when the poll loop woke up, or 0 if the event was
+	 * not delivered from the poll loop thread
+	 * @param eventTimestamp when the native callback was invoked
+	 * @param dispatchTimestamp when the Java dispatch method was entered
+	 * @param doneTimestamp when the user callback returned
+	 */
+	void recordEvent(long wakeupTimestamp, long eventTimestamp,
+			long dispatchTimestamp, long doneTimestamp) {
+		if (wakeupTimestamp!=0)
+			histograms[Stage.POLL_LOOP.ordinal()].record(eventTimestamp - wakeupTimestamp);
+		histograms[Stage.JNI_UPCALL.ordinal()].record(dispatchTimestamp - eventTimestamp);
+		histograms[Stage.HANDLER.ordinal()].record(doneTimestamp - dispatchTimestamp);
+	}
+	
+	/**
+	 * This method returns the histogram for the given stage.
+	 * @param stage the stage
+	 * @return the histogram for the given stage
+	 */
+	public LatencyHistogram getHistogram(Stage stage) {
+		return histograms[stage.ordinal()];
+	}
+	
+	/**
+	 * This method clears all histograms.
+	 */
+	void reset() {
+		for(LatencyHistogram h: histograms)
+			h.reset();
+	}
+	
+	public String toString() {
+		String s = "";
+		for(LatencyHistogram h: histograms)
+			s += h + "\n";
+		return s;
+	}
+}
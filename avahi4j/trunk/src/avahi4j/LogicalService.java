@@ -0,0 +1,206 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import avahi4j.Avahi4JConstants.Protocol;
+
+/**
+ * This class describes a logical service, ie. a service as the user sees it
+ * rather than as it is reported by avahi. Avahi reports a service once per 
+ * interface and protocol it is seen on (up to twice the number of interfaces
+ * when browsing with {@link Protocol#ANY} on 
+ * {@link Avahi4JConstants#AnyInterface}). A logical service groups all these
+ * reports into a set of {@link Endpoint}s. It contains:
+ * <ul>
+ * <li>The name, type and domain of the service</li>
+ * <li>The endpoints (interface and protocol pairs) it was reported on</li>
+ * <li>Once resolved, the name of the host offering the service, its port, 
+ * its TXT records, and the addresses it was resolved to</li>
+ * </ul>
+ * Objects of this class are snapshots created by a 
+ * {@link LogicalServiceBrowser}: they do not change once created.
+ * @author gilles
+ *
+ */
+public final class LogicalService {
+	/**
+	 * This class describes an interface and protocol pair a service was 
+	 * reported on.
+	 * @author gilles
+	 *
+	 */
+	public static final class Endpoint {
+		private final int interfaceNum;
+		private final Protocol proto;
+		
+		Endpoint(int interfaceNum, Protocol proto) {
+			this.interfaceNum = interfaceNum;
+			this.proto = proto;
+		}
+		
+		/**
+		 * @return the interface number the service was reported on
+		 */
+		public int getInterfaceNum() {
+			return interfaceNum;
+		}
+		
+		/**
+		 * @return the protocol the service was reported on
+		 */
+		public Protocol getProtocol() {
+			return proto;
+		}
+		
+		@Override
+		public int hashCode() {
+			return interfaceNum * 31 + proto.ordinal();
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof Endpoint))
+				return false;
+			Endpoint other = (Endpoint) obj;
+			return interfaceNum==other.interfaceNum && proto==other.proto;
+		}
+		
+		@Override
+		public String toString() {
+			return interfaceNum + "/" + proto;
+		}
+	}
+	
+	
+	/*
+	 * M E M B E R S
+	 */
+	private final String name, type, domain;
+	private final List<Endpoint> endpoints;
+	private final boolean resolved;
+	private final String hostname;
+	private final int port;
+	private final String txtRecords[];
+	private final List<Address> addresses;
+	
+	
+	/*
+	 * M E T H O D S
+	 */
+	/**
+	 * This method builds a new logical service snapshot. The lists are 
+	 * copied.
+	 */
+	LogicalService(String name, String type, String domain, 
+			List<Endpoint> endpoints, boolean resolved, String hostname, 
+			int port, String txtRecords[], List<Address> addresses) {
+		this.name = name;
+		this.type = type;
+		this.domain = domain;
+		this.endpoints = Collections.unmodifiableList(
+				new ArrayList<Endpoint>(endpoints));
+		this.resolved = resolved;
+		this.hostname = hostname;
+		this.port = port;
+		this.txtRecords = txtRecords==null ? new String[0] : txtRecords.clone();
+		this.addresses = Collections.unmodifiableList(
+				new ArrayList<Address>(addresses));
+	}
+	
+	/**
+	 * @return the name of the service
+	 */
+	public String getName() {
+		return name;
+	}
+	
+	/**
+	 * @return the type of the service
+	 */
+	public String getType() {
+		return type;
+	}
+	
+	/**
+	 * @return the domain of the service
+	 */
+	public String getDomain() {
+		return domain;
+	}
+	
+	/**
+	 * @return the interface and protocol pairs the service is currently 
+	 * reported on, in the order they were first reported
+	 */
+	public List<Endpoint> getEndpoints() {
+		return endpoints;
+	}
+	
+	/**
+	 * @return whether the service has been resolved. If not, the host name,
+	 * port, TXT records and addresses are meaningless.
+	 */
+	public boolean isResolved() {
+		return resolved;
+	}
+	
+	/**
+	 * @return the name of the host offering the service, or null if not 
+	 * resolved
+	 */
+	public String getHostName() {
+		return hostname;
+	}
+	
+	/**
+	 * @return the port the service is running on, or 0 if not resolved
+	 */
+	public int getPort() {
+		return port;
+	}
+	
+	/**
+	 * @return the TXT records of the service (an empty array if not 
+	 * resolved)
+	 */
+	public String[] getTxtRecords() {
+		return txtRecords.clone();
+	}
+	
+	/**
+	 * @return the distinct addresses the service was resolved to, on all 
+	 * the endpoints it was resolved on
+	 */
+	public List<Address> getAddresses() {
+		return addresses;
+	}
+	
+	@Override
+	public String toString() {
+		String s = name + "." + type + "." + domain + " on " + endpoints;
+		if (resolved)
+			s += " at " + hostname + ":" + port + " " + addresses;
+		return s;
+	}
+}
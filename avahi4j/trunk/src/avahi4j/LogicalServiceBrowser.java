@@ -0,0 +1,441 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import avahi4j.Avahi4JConstants.BrowserEvent;
+import avahi4j.Avahi4JConstants.Protocol;
+import avahi4j.LogicalService.Endpoint;
+import avahi4j.ServiceResolver.ServiceResolverEvent;
+import avahi4j.exceptions.Avahi4JException;
+
+/**
+ * A logical service browser looks for services of a given type, like a 
+ * {@link ServiceBrowser}, but reports each service once whatever the number
+ * of interfaces and protocols it is seen on: the NEW and REMOVE events for 
+ * the same name, type and domain are merged into one {@link LogicalService}
+ * with a set of endpoints. Services are resolved once per logical service
+ * by default (see {@link ResolvePolicy}), instead of once per endpoint.
+ * <br>
+ * To create one, call 
+ * {@link Client#createLogicalServiceBrowser(ILogicalServiceCallback, int, Protocol, String, String, Protocol, int, ResolvePolicy) createLogicalServiceBrowser()}
+ * on an existing {@link Client}. It must be released when no longer needed.
+ * @author gilles
+ *
+ */
+public final class LogicalServiceBrowser implements Closeable {
+	/**
+	 * This enumeration lists the events reported by a logical service 
+	 * browser.
+	 * @author gilles
+	 *
+	 */
+	public enum LogicalServiceEvent {
+		/**
+		 * The service was reported for the first time.
+		 */
+		ADDED,
+		/**
+		 * The service was reported on a new endpoint, or is no longer 
+		 * reported on one of its endpoints.
+		 */
+		ENDPOINTS_CHANGED,
+		/**
+		 * The service was resolved, or its resolved details changed.
+		 */
+		RESOLVED,
+		/**
+		 * The service could not be resolved.
+		 */
+		RESOLVER_FAILURE,
+		/**
+		 * The service is no longer reported on any endpoint.
+		 */
+		REMOVED,
+		/**
+		 * The underlying service browser failed. The service is null.
+		 */
+		BROWSER_FAILURE
+	};
+	
+	/**
+	 * This enumeration lists how logical services are resolved.
+	 * @author gilles
+	 *
+	 */
+	public enum ResolvePolicy {
+		/**
+		 * Services are not resolved.
+		 */
+		NONE,
+		/**
+		 * Each logical service is resolved on one of its endpoints only. If
+		 * that endpoint disappears, the service is resolved again on another 
+		 * one.
+		 */
+		ONCE,
+		/**
+		 * Each logical service is resolved on every endpoint, to collect all
+		 * its addresses.
+		 */
+		EVERY_ENDPOINT
+	};
+	
+	/**
+	 * A logical service, and the resolvers used for it. An endpoint is being
+	 * resolved as soon as it has a callback in <code>resolving</code>, its 
+	 * resolver is only added to <code>resolvers</code> once created.
+	 */
+	private static final class Entry {
+		final String name, type, domain;
+		final Set<Endpoint> endpoints = new LinkedHashSet<Endpoint>();
+		final Map<Endpoint, EntryResolverCallback> resolving = 
+			new HashMap<Endpoint, EntryResolverCallback>();
+		final Map<Endpoint, ServiceResolver> resolvers = 
+			new HashMap<Endpoint, ServiceResolver>();
+		final Map<Endpoint, Address> addresses = 
+			new LinkedHashMap<Endpoint, Address>();
+		boolean resolved;
+		String hostname;
+		int port;
+		String txtRecords[];
+		
+		Entry(String name, String type, String domain) {
+			this.name = name;
+			this.type = type;
+			this.domain = domain;
+		}
+		
+		LogicalService snapshot() {
+			List<Address> l = new ArrayList<Address>();
+			for(Address a: addresses.values())
+				if (!l.contains(a))
+					l.add(a);
+			return new LogicalService(name, type, domain, 
+					new ArrayList<Endpoint>(endpoints), resolved, hostname, port,
+					txtRecords, l);
+		}
+	}
+	
+	
+	/*
+	 * M E M B E R S
+	 */
+	private final Client client;
+	private final ILogicalServiceCallback callback;
+	private final Protocol addressProtocol;
+	private final int lookupFlags;
+	private final ResolvePolicy policy;
+	private final Map<String, Entry> services;
+	private ServiceSubscription subscription;
+	private long resolverCount;
+	private boolean released;
+	
+	
+	/*
+	 * M E T H O D S
+	 */
+	/**
+	 * This method builds a new logical service browser.
+	 * @param client the client used to create the browser and resolvers
+	 * @param callback the callback object which will receive the services
+	 * @param interfaceNum the interface number
+	 * @param proto the {@link Protocol}
+	 * @param type the service type
+	 * @param domain the domain to search (can be null to use client's domain)
+	 * @param addressProtocol the protocol of the resolved addresses
+	 * @param lookupFlags the lookup flags (see Avahi4JConstants.LOOKUP_*)
+	 * @param policy how services are resolved
+	 * @throws Avahi4JException if there is a problem creating the service 
+	 * browser
+	 */
+	LogicalServiceBrowser(Client client, ILogicalServiceCallback callback, 
+			int interfaceNum, Protocol proto, String type, String domain, 
+			Protocol addressProtocol, int lookupFlags, ResolvePolicy policy) 
+			throws Avahi4JException {
+		this.client = client;
+		this.callback = callback;
+		this.addressProtocol = addressProtocol;
+		this.lookupFlags = lookupFlags;
+		this.policy = policy;
+		services = new LinkedHashMap<String, Entry>();
+		
+		ServiceSubscription s = client.subscribeServiceBrowser(
+				new IServiceBrowserCallback() {
+			@Override
+			public void serviceCallback(int interfaceNum, Protocol proto,
+					BrowserEvent browserEvent, String name, String type, 
+					String domain, int lookupResultFlag) {
+				browserEvent(interfaceNum, proto, browserEvent, name, type, 
+						domain);
+			}
+		}, interfaceNum, proto, type, domain, lookupFlags);
+		
+		synchronized (this) {
+			subscription = s;
+		}
+	}
+	
+	/**
+	 * This method releases the service browser and all the resolvers. No 
+	 * more events are reported after it returns.
+	 */
+	public void release() {
+		List<ServiceResolver> resolvers = new ArrayList<ServiceResolver>();
+		ServiceSubscription s;
+		synchronized (this) {
+			if (released)
+				return;
+			released = true;
+			s = subscription;
+			for(Entry e: services.values())
+				resolvers.addAll(e.resolvers.values());
+			services.clear();
+		}
+		if (s!=null)
+			s.release();
+		for(ServiceResolver r: resolvers)
+			r.release();
+	}
+	
+	/**
+	 * This method releases this browser, like {@link #release()}.
+	 */
+	@Override
+	public void close() {
+		release();
+	}
+	
+	/**
+	 * @return a snapshot of the logical services currently known
+	 */
+	public synchronized List<LogicalService> getServices() {
+		List<LogicalService> l = new ArrayList<LogicalService>(services.size());
+		for(Entry e: services.values())
+			l.add(e.snapshot());
+		return l;
+	}
+	
+	/**
+	 * @return the number of service resolvers currently in use
+	 */
+	public synchronized int getActiveResolverCount() {
+		int n = 0;
+		for(Entry e: services.values())
+			n += e.resolving.size();
+		return n;
+	}
+	
+	/**
+	 * @return the number of service resolvers created since this browser
+	 * was created
+	 */
+	public synchronized long getResolverCount() {
+		return resolverCount;
+	}
+	
+	/**
+	 * @return the {@link ResolvePolicy} of this browser
+	 */
+	public ResolvePolicy getResolvePolicy() {
+		return policy;
+	}
+	
+	/**
+	 * This method merges the service browser's events into logical services
+	 */
+	private void browserEvent(int ifNum, Protocol p, BrowserEvent event, 
+			String name, String type, String domain) {
+		LogicalServiceEvent report;
+		LogicalService snapshot = null;
+		ServiceResolver stale = null;
+		List<EntryResolverCallback> start = null;
+		
+		synchronized (this) {
+			if (released)
+				return;
+			
+			if (event==BrowserEvent.FAILURE) {
+				report = LogicalServiceEvent.BROWSER_FAILURE;
+			} else if (event==BrowserEvent.NEW || event==BrowserEvent.REMOVE) {
+				String key = (name + "." + type + "." + domain).toLowerCase();
+				Endpoint endpoint = new Endpoint(ifNum, p);
+				Entry e = services.get(key);
+				
+				if (event==BrowserEvent.NEW) {
+					if (e==null) {
+						e = new Entry(name, type, domain);
+						services.put(key, e);
+						report = LogicalServiceEvent.ADDED;
+					} else
+						report = LogicalServiceEvent.ENDPOINTS_CHANGED;
+					if (!e.endpoints.add(endpoint))
+						return;
+					start = resolve(e);
+				} else {
+					if (e==null || !e.endpoints.remove(endpoint))
+						return;
+					e.resolving.remove(endpoint);
+					stale = e.resolvers.remove(endpoint);
+					e.addresses.remove(endpoint);
+					if (e.endpoints.isEmpty()) {
+						services.remove(key);
+						report = LogicalServiceEvent.REMOVED;
+					} else {
+						report = LogicalServiceEvent.ENDPOINTS_CHANGED;
+						// resolve again on another endpoint if need be
+						start = resolve(e);
+					}
+				}
+				snapshot = e.snapshot();
+			} else
+				return;
+		}
+		
+		if (stale!=null)
+			stale.release();
+		if (start!=null)
+			startResolvers(start);
+		callback.logicalServiceCallback(this, report, snapshot);
+	}
+	
+	/**
+	 * This method selects the endpoints of a logical service which must be 
+	 * resolved according to the resolve policy, and marks them as being 
+	 * resolved. Must be called with this object's lock held.
+	 * @return the callbacks of the resolvers to create with 
+	 * {@link #startResolvers(List)}, or null if there are none
+	 */
+	private List<EntryResolverCallback> resolve(Entry e) {
+		if (policy==ResolvePolicy.NONE)
+			return null;
+		
+		List<EntryResolverCallback> l = null;
+		for(Endpoint endpoint: e.endpoints) {
+			if (policy==ResolvePolicy.ONCE && !e.resolving.isEmpty())
+				break;
+			if (e.resolving.containsKey(endpoint))
+				continue;
+			EntryResolverCallback c = new EntryResolverCallback(e, endpoint);
+			e.resolving.put(endpoint, c);
+			if (l==null)
+				l = new ArrayList<EntryResolverCallback>();
+			l.add(c);
+		}
+		return l;
+	}
+	
+	/**
+	 * This method creates the resolvers selected by {@link #resolve(Entry)}.
+	 * It must be called without holding this object's lock, as creating a 
+	 * resolver takes the client's lock, which the client's thread holds 
+	 * while delivering events to this browser.
+	 */
+	private void startResolvers(List<EntryResolverCallback> callbacks) {
+		for(EntryResolverCallback c: callbacks) {
+			ServiceResolver r;
+			try {
+				r = client.createServiceResolver(c, 
+						c.endpoint.getInterfaceNum(), c.endpoint.getProtocol(), 
+						c.entry.name, c.entry.type, c.entry.domain, 
+						addressProtocol, lookupFlags);
+			} catch (Avahi4JException ex) {
+				// reported as a failure, retried when the endpoints change
+				synchronized (this) {
+					if (c.entry.resolving.get(c.endpoint)==c)
+						c.entry.resolving.remove(c.endpoint);
+				}
+				continue;
+			}
+			
+			synchronized (this) {
+				resolverCount++;
+				// unless the endpoint went away or failed in the meantime
+				if (!released && c.entry.resolving.get(c.endpoint)==c) {
+					c.entry.resolvers.put(c.endpoint, r);
+					r = null;
+				}
+			}
+			if (r!=null)
+				r.release();
+		}
+	}
+	
+	/**
+	 * This class receives the resolver events of one endpoint of a logical
+	 * service
+	 */
+	private final class EntryResolverCallback implements IServiceResolverCallback {
+		final Entry entry;
+		final Endpoint endpoint;
+		
+		EntryResolverCallback(Entry entry, Endpoint endpoint) {
+			this.entry = entry;
+			this.endpoint = endpoint;
+		}
+		
+		@Override
+		public void resolverCallback(ServiceResolver resolver, int interfaceNum,
+				Protocol proto, ServiceResolverEvent resolverEvent, String name,
+				String type, String domain, String hostname, Address address,
+				int port, String[] txtRecords, int lookupResultFlag) {
+			LogicalServiceEvent report;
+			LogicalService snapshot;
+			ServiceResolver stale = null;
+			
+			synchronized (LogicalServiceBrowser.this) {
+				// ignore events from a resolver which has been released. Its
+				// events can be received before it has been added to 
+				// entry.resolvers, so it is identified by its callback.
+				if (released || entry.resolving.get(endpoint)!=this)
+					return;
+				
+				if (resolverEvent==ServiceResolverEvent.RESOLVER_FAILURE) {
+					entry.resolving.remove(endpoint);
+					stale = entry.resolvers.remove(endpoint);
+					report = LogicalServiceEvent.RESOLVER_FAILURE;
+				} else if (name==null) {
+					// the service went away: the browser will report it
+					return;
+				} else {
+					entry.resolved = true;
+					entry.hostname = hostname;
+					entry.port = port;
+					entry.txtRecords = txtRecords;
+					if (address!=null)
+						entry.addresses.put(endpoint, address);
+					report = LogicalServiceEvent.RESOLVED;
+				}
+				snapshot = entry.snapshot();
+			}
+			
+			if (stale!=null)
+				stale.release();
+			callback.logicalServiceCallback(LogicalServiceBrowser.this, report,
+					snapshot);
+		}
+	}
+}
@@ -0,0 +1,86 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j;
+
+import avahi4j.NativeObjects.Kind;
+
+/**
+ * This class describes a native object alive, as returned by 
+ * {@link NativeObjects#getLiveObjects()}.
+ * @author gilles
+ *
+ */
+public final class NativeObjectRecord {
+	private final Kind kind;
+	private final long timestamp;
+	private final String threadName;
+	private final StackTraceElement stackTrace[];
+	
+	NativeObjectRecord(Kind kind, long timestamp, String threadName, 
+			StackTraceElement stackTrace[]) {
+		this.kind = kind;
+		this.timestamp = timestamp;
+		this.threadName = threadName;
+		this.stackTrace = stackTrace;
+	}
+	
+	/**
+	 * This method returns the kind of native object.
+	 * @return the kind of native object
+	 */
+	public Kind getKind() {
+		return kind;
+	}
+	
+	/**
+	 * This method returns the time the native object was created. It uses the
+	 * same clock as {@link System#nanoTime()}.
+	 * @return the time the native object was created, in nanoseconds
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+	
+	/**
+	 * This method returns the name of the thread which created the object.
+	 * @return the name of the thread which created the object
+	 */
+	public String getThreadName() {
+		return threadName;
+	}
+	
+	/**
+	 * This method returns the stack trace of the thread which created the 
+	 * object, if it was sampled (see {@link NativeObjects#setSampling(int)}).
+	 * @return the allocation stack trace, or null if it was not sampled
+	 */
+	public StackTraceElement[] getStackTrace() {
+		return stackTrace==null ? null : stackTrace.clone();
+	}
+	
+	public String toString() {
+		StringBuilder b = new StringBuilder();
+		b.append(kind).append(" created ")
+			.append((System.nanoTime() - timestamp)/1000000).append(" ms ago by ")
+			.append(threadName);
+		if (stackTrace!=null)
+			for(StackTraceElement e: stackTrace)
+				b.append("\n\tat ").append(e);
+		return b.toString();
+	}
+}
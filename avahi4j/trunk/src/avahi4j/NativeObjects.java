@@ -0,0 +1,375 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class keeps track of the native objects (avahi objects, or their 
+ * equivalent in the pure Java backend) created by Avahi4J. It reports how 
+ * many of them are alive, and reclaims the ones whose Java owner was garbage 
+ * collected without being released: when that happens, the native object is 
+ * released from a daemon thread (the "avahi4j reaper"), and counted in 
+ * {@link #getReclaimedCount()}. A reclaimed object never delivers events 
+ * again. A client is only reclaimed once all its objects have been released
+ * or reclaimed.<br>
+ * A growing reclaimed count points to objects which are not released by the
+ * application. To find out where they are created, turn on sampling with 
+ * {@link #setSampling(int)} (or with the <code>avahi4j.leak.sampling</code> 
+ * system property): the stack trace of the sampled objects is then kept, 
+ * listed in {@link #getLeakReport()}, and printed on stderr if the object 
+ * is reclaimed.<br>
+ * Note that the native object refers to the callback, but not to its owner:
+ * an object which the application no longer refers to can be reclaimed 
+ * before it reports anything, even if its callback would release it. A 
+ * resolver, for instance, must be kept reachable until it reports.
+ * @author gilles
+ *
+ */
+public final class NativeObjects {
+	/**
+	 * This enumeration lists the kinds of native objects tracked
+	 * @author gilles
+	 *
+	 */
+	public enum Kind {
+		/**
+		 * {@link Client} objects
+		 */
+		CLIENT,
+		/**
+		 * {@link EntryGroup} objects
+		 */
+		ENTRY_GROUP,
+		/**
+		 * {@link ServiceBrowser} objects
+		 */
+		SERVICE_BROWSER,
+		/**
+		 * {@link ServiceTypeBrowser} objects
+		 */
+		SERVICE_TYPE_BROWSER,
+		/**
+		 * {@link DomainBrowser} objects
+		 */
+		DOMAIN_BROWSER,
+		/**
+		 * {@link ServiceResolver} objects
+		 */
+		SERVICE_RESOLVER,
+		/**
+		 * {@link HostNameResolver} objects
+		 */
+		HOST_NAME_RESOLVER,
+		/**
+		 * {@link AddressResolver} objects
+		 */
+		ADDRESS_RESOLVER,
+		/**
+		 * {@link RecordBrowser} objects
+		 */
+		RECORD_BROWSER
+	}
+	
+	private static final ReferenceQueue<Object> queue = new ReferenceQueue<Object>();
+	
+	/**
+	 * the registrations of the objects alive, which must stay reachable until 
+	 * they are enqueued
+	 */
+	private static final Set<Registration> registrations = new HashSet<Registration>();
+	private static final AtomicLongArray live = 
+		new AtomicLongArray(Kind.values().length);
+	private static final AtomicLongArray reclaimed = 
+		new AtomicLongArray(Kind.values().length);
+	private static final AtomicLong created = new AtomicLong();
+	private static volatile int sampling;
+	private static Thread reaper;
+	
+	// set the initial sampling interval if requested
+	static {
+		sampling = Integer.getInteger("avahi4j.leak.sampling", 0).intValue();
+	}
+	
+	
+	/*
+	 * M E T H O D S
+	 */
+	private NativeObjects() {}
+	
+	/**
+	 * This method returns the number of native objects alive, ie created and 
+	 * not yet released or reclaimed
+	 * @return the number of native objects alive
+	 */
+	public static long getLiveCount() {
+		long count = 0;
+		for(int i=0; i<live.length(); i++)
+			count += live.get(i);
+		return count;
+	}
+	
+	/**
+	 * This method returns the number of native objects of the given kind alive
+	 * @param kind the kind of native object
+	 * @return the number of native objects of the given kind alive
+	 */
+	public static long getLiveCount(Kind kind) {
+		return live.get(kind.ordinal());
+	}
+	
+	/**
+	 * This method returns the number of native objects which were released
+	 * because their Java owner was garbage collected
+	 * @return the number of native objects reclaimed
+	 */
+	public static long getReclaimedCount() {
+		long count = 0;
+		for(int i=0; i<reclaimed.length(); i++)
+			count += reclaimed.get(i);
+		return count;
+	}
+	
+	/**
+	 * This method returns the number of native objects of the given kind which
+	 * were released because their Java owner was garbage collected
+	 * @param kind the kind of native object
+	 * @return the number of native objects of the given kind reclaimed
+	 */
+	public static long getReclaimedCount(Kind kind) {
+		return reclaimed.get(kind.ordinal());
+	}
+	
+	/**
+	 * This method sets how often the allocation stack trace of native objects
+	 * is recorded. Capturing a stack trace is expensive, so only one object 
+	 * out of <code>interval</code> is sampled. It can be called at any time, 
+	 * and only affects the objects created afterwards.
+	 * @param interval 0 to disable sampling (the default), 1 to sample every 
+	 * object, n to sample one object out of n
+	 */
+	public static void setSampling(int interval) {
+		if (interval<0)
+			throw new IllegalArgumentException("invalid sampling interval "+interval);
+		sampling = interval;
+	}
+	
+	/**
+	 * This method returns the current sampling interval
+	 * @return the current sampling interval (0 if sampling is disabled)
+	 */
+	public static int getSampling() {
+		return sampling;
+	}
+	
+	/**
+	 * This method lists the native objects alive, oldest first.
+	 * @return a list of the native objects alive
+	 */
+	public static List<NativeObjectRecord> getLiveObjects() {
+		List<NativeObjectRecord> records = new ArrayList<NativeObjectRecord>();
+		synchronized(registrations) {
+			for(Registration r: registrations)
+				records.add(r.record);
+		}
+		
+		Collections.sort(records, new Comparator<NativeObjectRecord>() {
+			@Override
+			public int compare(NativeObjectRecord a, NativeObjectRecord b) {
+				long d = a.getTimestamp() - b.getTimestamp();
+				return d<0 ? -1 : (d>0 ? 1 : 0);
+			}
+		});
+		return records;
+	}
+	
+	/**
+	 * This method builds a human-readable report of the native objects alive:
+	 * their number per kind, followed by the allocation stack traces of the 
+	 * sampled ones, with the number of objects alive created from each.
+	 * @return the leak report
+	 */
+	public static String getLeakReport() {
+		List<NativeObjectRecord> records = getLiveObjects();
+		StringBuilder b = new StringBuilder();
+		b.append(records.size()).append(" native objects alive, ")
+			.append(getReclaimedCount()).append(" reclaimed\n");
+		
+		int counts[] = new int[Kind.values().length];
+		Map<List<Object>, Integer> sites = new LinkedHashMap<List<Object>, Integer>();
+		int unsampled = 0;
+		for(NativeObjectRecord r: records) {
+			counts[r.getKind().ordinal()]++;
+			StackTraceElement stack[] = r.getStackTrace();
+			if (stack==null) {
+				unsampled++;
+				continue;
+			}
+			
+			List<Object> site = new ArrayList<Object>(stack.length + 1);
+			site.add(r.getKind());
+			site.addAll(Arrays.asList(stack));
+			Integer count = sites.get(site);
+			sites.put(site, count==null ? 1 : count+1);
+		}
+		
+		for(Kind k: Kind.values())
+			if (counts[k.ordinal()]>0)
+				b.append('\t').append(k).append(": ").append(counts[k.ordinal()])
+					.append('\n');
+		
+		for(Map.Entry<List<Object>, Integer> e: sites.entrySet()) {
+			List<Object> site = e.getKey();
+			b.append(e.getValue()).append(" x ").append(site.get(0))
+				.append(" created at:\n");
+			for(Object frame: site.subList(1, site.size()))
+				b.append("\tat ").append(frame).append('\n');
+		}
+		if (unsampled>0 && !sites.isEmpty())
+			b.append(unsampled).append(" objects alive were not sampled\n");
+		
+		return b.toString();
+	}
+	
+	/**
+	 * This method registers a native object. The returned registration must 
+	 * be closed when the native object is released. If it is not closed by 
+	 * the time the owner is garbage collected, the given task is run by the 
+	 * reaper thread to release the native object. The task must not refer
+	 * to the owner.
+	 * @param kind the kind of native object
+	 * @param owner the Java object owning the native object
+	 * @param reclaim the task releasing the native object 
+	 * @return the registration
+	 */
+	static Registration register(Kind kind, Object owner, Runnable reclaim) {
+		int interval = sampling;
+		StackTraceElement stack[] = null;
+		if (interval>0 && created.getAndIncrement() % interval == 0)
+			stack = callerStack();
+		
+		Registration r = new Registration(new NativeObjectRecord(kind, 
+				System.nanoTime(), Thread.currentThread().getName(), stack), 
+				owner, reclaim);
+		synchronized(registrations) {
+			registrations.add(r);
+			if (reaper==null) {
+				reaper = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						reap();
+					}
+				}, "avahi4j reaper");
+				reaper.setDaemon(true);
+				reaper.start();
+			}
+		}
+		live.incrementAndGet(kind.ordinal());
+		return r;
+	}
+	
+	/**
+	 * This method returns the current stack trace, without the frames of 
+	 * this class and of {@link NativePeer}
+	 */
+	private static StackTraceElement[] callerStack() {
+		StackTraceElement stack[] = new Throwable().getStackTrace();
+		int first = 0;
+		while (first<stack.length-1 && 
+				(stack[first].getClassName().equals(NativeObjects.class.getName()) ||
+				stack[first].getClassName().equals(NativePeer.class.getName())))
+			first++;
+		return Arrays.copyOfRange(stack, first, stack.length);
+	}
+	
+	/**
+	 * This method runs the reclaim tasks of the registrations whose owner was
+	 * garbage collected, for ever.
+	 */
+	private static void reap() {
+		while(true) {
+			Reference<?> ref;
+			try {
+				ref = queue.remove();
+			} catch (InterruptedException e) {
+				continue;
+			}
+			
+			Registration r = (Registration) ref;
+			if (r.close()) {
+				reclaimed.incrementAndGet(r.record.getKind().ordinal());
+				if (r.record.getStackTrace()!=null)
+					System.err.println("Avahi4J: reclaiming a native object which " +
+							"was not released: "+r.record);
+				try {
+					r.reclaim.run();
+				} catch (Throwable t) {
+					t.printStackTrace();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Objects of this class tie a native object to its Java owner.
+	 * @author gilles
+	 *
+	 */
+	static final class Registration extends PhantomReference<Object> {
+		private final NativeObjectRecord record;
+		private final Runnable reclaim;
+		private boolean closed;
+		
+		private Registration(NativeObjectRecord record, Object owner, 
+				Runnable reclaim) {
+			super(owner, queue);
+			this.record = record;
+			this.reclaim = reclaim;
+			closed = false;
+		}
+		
+		/**
+		 * This method must be called when the native object is released
+		 * @return false if this registration was already closed
+		 */
+		boolean close() {
+			synchronized(registrations) {
+				if (closed)
+					return false;
+				closed = true;
+				registrations.remove(this);
+			}
+			clear();
+			live.decrementAndGet(record.getKind().ordinal());
+			return true;
+		}
+	}
+}
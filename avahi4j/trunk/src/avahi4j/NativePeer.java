@@ -0,0 +1,196 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * This class holds the native side of an Avahi4J object (its owner): the
+ * pointer returned by the native backend and whether it was released. The
+ * native backends refer to the peer instead of the owner, and forward it the
+ * native events. Since the peer only refers weakly to its owner, an owner 
+ * which is no longer used can be garbage collected even if it was not 
+ * released, and its native object reclaimed (see {@link NativeObjects}), 
+ * whether or not it has reported anything yet.<br>
+ * The peer of an object created by a {@link Client} keeps the client alive, 
+ * so that a client is never reclaimed before its objects. As releasing a 
+ * client frees its objects' native objects, the client's peer lock 
+ * serializes the two: objects are not freed once the client is released, 
+ * and the client is not freed while its objects are being freed.
+ * @author gilles
+ *
+ * @param <T> the type of the owner
+ */
+abstract class NativePeer<T> {
+	
+	/*
+	 * M E M B E R S
+	 */
+	private final WeakReference<T> owner;
+	private final NativeObjects.Kind kind;
+	/**
+	 * the client which created the owner (null for the peer of a client)
+	 */
+	final Client client;
+	/**
+	 * the native pointer, set once the backend returns
+	 */
+	volatile long ptr;
+	private boolean released;
+	private NativeObjects.Registration registration;
+	/**
+	 * the number of objects of the client being freed (client peers only)
+	 */
+	private int freeing;
+	
+	
+	/*
+	 * M E T H O D S
+	 */
+	/**
+	 * This method builds the peer of a new object. {@link #created(long)} 
+	 * must be called once the native object is created.
+	 * @param kind the kind of native object
+	 * @param owner the Java object owning the native object
+	 * @param client the client which created the owner, or null
+	 */
+	NativePeer(NativeObjects.Kind kind, T owner, Client client) {
+		this.owner = new WeakReference<T>(owner);
+		this.kind = kind;
+		this.client = client;
+		released = false;
+	}
+	
+	/**
+	 * This method returns the owner of this peer
+	 * @return the owner, or null if it was garbage collected
+	 */
+	final T getOwner() {
+		return owner.get();
+	}
+	
+	/**
+	 * This method tells whether the native object was released
+	 * @return whether the native object was released
+	 */
+	final synchronized boolean isReleased() {
+		return released;
+	}
+	
+	/**
+	 * This method is called once the native backend has created the native 
+	 * object. It registers it with {@link NativeObjects}, unless it was 
+	 * released (from a callback) in the meantime, in which case it is freed.
+	 * The native backend is never called with this object's lock held, since
+	 * the backends may hold their own lock when dispatching events.
+	 * @param nativePtr the pointer returned by the native backend
+	 */
+	final void created(long nativePtr) {
+		synchronized(this) {
+			ptr = nativePtr;
+			if (!released) {
+				registration = NativeObjects.register(kind, owner.get(), 
+						new Runnable() {
+							@Override
+							public void run() {
+								release();
+							}
+						});
+				return;
+			}
+		}
+		
+		freeNative(nativePtr);
+	}
+	
+	/**
+	 * This method releases the native object, if not done already. The 
+	 * native object of an object created by a client is not freed if the 
+	 * client was released first, as the client freed it already.
+	 * @return whether this call released the native object
+	 */
+	final boolean release() {
+		NativeObjects.Registration r;
+		synchronized(this) {
+			if (released)
+				return false;
+			released = true;
+			r = registration;
+			releasing();
+			
+			// the client's objects being freed must be freed first
+			boolean interrupted = false;
+			while(freeing>0) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+		
+		// still being created, created() frees it
+		if (r==null)
+			return true;
+		
+		freeNative(ptr);
+		r.close();
+		return true;
+	}
+	
+	/**
+	 * This method frees the native object, unless it belongs to a client 
+	 * which was released, as the client freed it already.
+	 */
+	private void freeNative(long nativePtr) {
+		if (client==null) {
+			free(nativePtr);
+			return;
+		}
+		
+		NativePeer<Client> clientPeer = client.getPeer();
+		synchronized (clientPeer) {
+			if (clientPeer.released)
+				return;
+			clientPeer.freeing++;
+		}
+		try {
+			free(nativePtr);
+		} finally {
+			synchronized (clientPeer) {
+				if (--clientPeer.freeing==0)
+					clientPeer.notifyAll();
+			}
+		}
+	}
+	
+	/**
+	 * This method is called with this object's lock held, when the native 
+	 * object is about to be released. It does nothing by default.
+	 */
+	void releasing() {
+	}
+	
+	/**
+	 * This method frees the native object, by calling the native backend.
+	 * @param nativePtr the pointer returned by the native backend
+	 */
+	abstract void free(long nativePtr);
+}
@@ -17,6 +17,9 @@
 */
 package avahi4j;
 
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+
 import avahi4j.Avahi4JConstants.BrowserEvent;
 import avahi4j.Avahi4JConstants.DNS_Class;
 import avahi4j.Avahi4JConstants.DNS_RRType;
@@ -33,67 +36,105 @@ import avahi4j.exceptions.Avahi4JException;
  * @author gilles
  *
  */
-public final class RecordBrowser {
+public final class RecordBrowser implements Closeable {
 	
 	/*
 	 * M E M B E R S
 	 */
-	private boolean released;
 	private IRecordBrowserCallback callback;
-	private long avahi4j_record_browser_ptr;
-	
-	
-	/*
-	 * N A T I V E   M E T H O D S
-	 */
-	/**
-	 * This method create an avahi record browser object
-	 * @return a JNI pointer to a avahi4j_record_browser struct
-	 * @throws Avahi4JException if there is an error creating the record browser
-	 */
-	private native long initBrowser(long avahi4j_client_ptr,  int interfaceIdx,
-			int proto, String name, int clazz, int type, int lookupFlag) 
-			throws Avahi4JException;
-	
-	private native int releaseBrowser(long avahi4j_record_browser_ptr);
+	private IRecordDataCallback dataCallback;
+	private final RecordData recordData;
+	private final Peer peer;
+	private LatencyStats latencyStats;
+	private volatile long eventTimestamp;
+	private final Client client;
+	private final int journalId;
 	
 	
 	/*
 	 * M E T H O D S
 	 */
 	/**
-	 * This method creates a new record browser
+	 * This method creates a new record browser. Exactly one of the callbacks 
+	 * must be given. Only the events passing the {@link EventFilter} are 
+	 * dispatched.
 	 */
-	RecordBrowser(long avahi4j_client_ptr, IRecordBrowserCallback cb, 
-			int interfaceIdx, Protocol proto, String name, DNS_Class clazz, 
-			DNS_RRType type, int lookupFlag) throws Avahi4JException{
+	RecordBrowser(long avahi4j_client_ptr, LatencyStats stats, Client client,
+			IRecordBrowserCallback cb, IRecordDataCallback dataCb, int interfaceIdx,
+			Protocol proto, String name, int clazz, int type, int lookupFlag,
+			EventFilter filter) throws Avahi4JException{
 		
-		released = false;
 		callback = cb;
-		avahi4j_record_browser_ptr = initBrowser(avahi4j_client_ptr, interfaceIdx,
-				proto.ordinal(), name, clazz.ordinal(), type.ordinal(), lookupFlag);
+		dataCallback = dataCb;
+		recordData = new RecordData();
+		latencyStats = stats;
+		this.client = client;
+		journalId = EventJournal.nextId();
+		peer = new Peer(this, client);
+		peer.created(Client.backend.initRecordBrowser(peer,
+				avahi4j_client_ptr, interfaceIdx, proto.ordinal(), name,
+				clazz, type, lookupFlag, filter.getEventMask(), 
+				filter.getRecordType()));
 	}
 	
 	/**
 	 * This method releases this record browser object.
 	 */
-	public synchronized void release() {
-		if(!released){
-			releaseBrowser(avahi4j_record_browser_ptr);
-			released = true;
-		}
+	public void release() {
+		peer.release();
+	}
+	
+	/**
+	 * This method releases this browser, like {@link #release()}. It can be
+	 * called several times.
+	 */
+	@Override
+	public void close() {
+		release();
+	}
+	
+	/**
+	 * This method returns the native timestamp of the event currently being
+	 * dispatched by this browser (see {@link Client#getEventTimestamp()}).
+	 * @return the native timestamp of the current or last event, in nanoseconds
+	 */
+	public long getEventTimestamp() {
+		return eventTimestamp;
 	}
 	
 	/**
-	 * callback dispatch method called form JNI
+	 * callback dispatch method called from the native backend. The rdata 
+	 * buffer is only valid until this method returns (the JNI backend wraps 
+	 * avahi's own buffer), <code>clazz</code> and <code>type</code> are 
+	 * numeric values.
 	 */
-	@SuppressWarnings("unused")
-	private void dispatchCallback(int interfaceNum, int proto, int event,
-			String name, int clazz, int type, byte rdata[], int flags){
+	void dispatchCallback(int interfaceNum, int proto, int event,
+			String name, int clazz, int type, ByteBuffer rdata, int flags,
+			long wakeupTimestamp, long timestamp){
+		
+		long dispatched = System.nanoTime();
+		eventTimestamp = timestamp;
 		
-		callback.recordBrowserCallback(this, interfaceNum, Protocol.values()[proto],
-				BrowserEvent.values()[event], name, DNS_Class.values()[clazz],
-				DNS_RRType.values()[type], rdata, flags);
+		EventJournal journal = client.getJournal();
+		if (journal!=null)
+			journal.recordBrowserEvent(journalId, timestamp, interfaceNum, proto,
+					event, name, clazz, type, rdata, flags);
+		
+		recordData.wrap(type, rdata);
+		try {
+			if (dataCallback!=null)
+				dataCallback.recordCallback(this, interfaceNum, Avahi4JConstants.PROTOCOLS[proto],
+						Avahi4JConstants.BROWSER_EVENTS[event], name, clazz, type, recordData, flags);
+			else
+				callback.recordBrowserCallback(this, interfaceNum, 
+						Avahi4JConstants.PROTOCOLS[proto], 
+						Avahi4JConstants.BROWSER_EVENTS[event], name, DNS_Class.fromCode(clazz),
+						DNS_RRType.fromCode(type), recordData.toByteArray(), flags);
+		} finally {
+			recordData.wrap(0, null);
+			latencyStats.recordEvent(wakeupTimestamp, timestamp, dispatched,
+					System.nanoTime());
+		}
 	}
 
 	@Override
@@ -102,7 +143,7 @@ public final class RecordBrowser {
 		int result = 1;
 		result = prime
 				* result
-				+ (int) (avahi4j_record_browser_ptr ^ (avahi4j_record_browser_ptr >>> 32));
+				+ (int) (peer.ptr ^ (peer.ptr >>> 32));
 		return result;
 	}
 
@@ -115,8 +156,38 @@ public final class RecordBrowser {
 		if (!(obj instanceof RecordBrowser))
 			return false;
 		RecordBrowser other = (RecordBrowser) obj;
-		if (avahi4j_record_browser_ptr != other.avahi4j_record_browser_ptr)
+		if (peer.ptr != other.peer.ptr)
 			return false;
 		return true;
 	}
+	
+	/**
+	 * Objects of this class hold the native side of a {@link RecordBrowser}
+	 * (see {@link NativePeer}), and forward it the native events.
+	 * @author gilles
+	 *
+	 */
+	static final class Peer extends NativePeer<RecordBrowser> {
+		private Peer(RecordBrowser browser, Client client) {
+			super(NativeObjects.Kind.RECORD_BROWSER, browser, client);
+		}
+		
+		@Override
+		void free(long nativePtr) {
+			Client.backend.releaseRecordBrowser(nativePtr);
+		}
+		
+		/**
+		 * This method is called from the native backend to dispatch a 
+		 * callback, unless the browser was garbage collected.
+		 */
+		void dispatchCallback(int interfaceNum, int proto, int event,
+			String name, int clazz, int type, ByteBuffer rdata, int flags,
+			long wakeupTimestamp, long timestamp) {
+			RecordBrowser browser = getOwner();
+			if (browser!=null)
+				browser.dispatchCallback(interfaceNum, proto, event, name,
+						clazz, type, rdata, flags, wakeupTimestamp, timestamp);
+		}
+	}
 }
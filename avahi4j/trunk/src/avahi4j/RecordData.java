@@ -0,0 +1,448 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j;
+
+import java.nio.ByteBuffer;
+
+/**
+ * This class decodes the data of a DNS record (rdata) in place. It is a 
+ * flyweight: {@link #wrap(int, ByteBuffer)} points it at the rdata of a 
+ * record, and its accessors read the fields they are asked for straight from
+ * the buffer, without copying it or creating intermediate objects. A single
+ * instance can be reused for any number of records. It is passed to 
+ * {@link IRecordDataCallback}s this way, and is then only valid for the 
+ * duration of the callback.<br>
+ * The following types are understood (other types can still be read byte
+ * by byte with {@link #getByte(int)}):
+ * <ul>
+ * <li>A and AAAA: {@link #getAddressLength()}, {@link #getAddress(byte[], int)},
+ * {@link #getIPv4Address()},</li>
+ * <li>SRV: {@link #getSRVPriority()}, {@link #getSRVWeight()}, 
+ * {@link #getSRVPort()} and the target name,</li>
+ * <li>PTR, CNAME, NS: the target name,</li>
+ * <li>MX: {@link #getMXPreference()} and the exchange name,</li>
+ * <li>TXT: {@link #getTXTCount()}, {@link #findTXT(CharSequence)}, 
+ * {@link #getTXTOffset(int)}, {@link #getTXTLength(int)}...</li>
+ * </ul>
+ * Names are compared with {@link #nameEquals(CharSequence)} or appended to a 
+ * {@link StringBuilder} with {@link #appendName(StringBuilder)}, using the 
+ * same escaping as avahi ('.' and '\' in labels are escaped with a '\'). The
+ * methods which return a String or an array are conveniences, and allocate.
+ * <br>Offsets are relative to the start of the rdata. Accessors do not check
+ * that the record has the right type, and throw an 
+ * {@link IndexOutOfBoundsException} if the rdata is too short.
+ * @author gilles
+ *
+ */
+public final class RecordData {
+	
+	private static final int TYPE_NS = 2;
+	private static final int TYPE_CNAME = 5;
+	private static final int TYPE_PTR = 12;
+	private static final int TYPE_MX = 15;
+	private static final int TYPE_SRV = 33;
+	
+	/*
+	 * M E M B E R S
+	 */
+	private ByteBuffer buffer;
+	private int start;
+	private int length;
+	private int type;
+	
+	
+	/*
+	 * M E T H O D S
+	 */
+	/**
+	 * This method points this object at the given rdata, from the buffer's
+	 * position to its limit. The buffer's position, limit and content must not
+	 * change while this object is used.
+	 * @param type the record type (see {@link Avahi4JConstants.DNS_RRType#getCode()})
+	 * @param rdata the buffer holding the rdata
+	 * @return this object
+	 */
+	public RecordData wrap(int type, ByteBuffer rdata) {
+		this.type = type;
+		this.buffer = rdata;
+		this.start = rdata==null ? 0 : rdata.position();
+		this.length = rdata==null ? 0 : rdata.remaining();
+		return this;
+	}
+	
+	/**
+	 * @return the record type (see {@link Avahi4JConstants.DNS_RRType#getCode()})
+	 */
+	public int getType() {
+		return type;
+	}
+	
+	/**
+	 * @return the length of the rdata in bytes
+	 */
+	public int getLength() {
+		return length;
+	}
+	
+	/**
+	 * @param offset the offset of the byte in the rdata
+	 * @return the byte, as an unsigned value
+	 */
+	public int getByte(int offset) {
+		return buffer.get(index(offset, 1)) & 0xff;
+	}
+	
+	/**
+	 * This method copies the rdata to a new array
+	 * @return a copy of the rdata, or null if this object holds no rdata
+	 */
+	public byte[] toByteArray() {
+		if (buffer==null)
+			return null;
+		byte data[] = new byte[length];
+		for(int i=0; i<length; i++)
+			data[i] = buffer.get(start + i);
+		return data;
+	}
+	
+	private int getShort(int offset) {
+		return buffer.getShort(index(offset, 2)) & 0xffff;
+	}
+	
+	private int index(int offset, int size) {
+		if (offset<0 || offset+size>length)
+			throw new IndexOutOfBoundsException("Offset "+offset+" is outside the rdata ("
+					+length+" bytes)");
+		return start + offset;
+	}
+	
+	/*
+	 * A D D R E S S E S
+	 */
+	/**
+	 * @return the length of the address held by an A (4) or AAAA (16) record
+	 */
+	public int getAddressLength() {
+		return length;
+	}
+	
+	/**
+	 * This method copies the address of an A or AAAA record, in network order
+	 * @param dst the destination array
+	 * @param offset where to copy the address in <code>dst</code>
+	 */
+	public void getAddress(byte dst[], int offset) {
+		for(int i=0; i<length; i++)
+			dst[offset + i] = buffer.get(start + i);
+	}
+	
+	/**
+	 * @return the address of an A record, as an int in network order 
+	 * (eg. 0x7f000001 for 127.0.0.1)
+	 */
+	public int getIPv4Address() {
+		return buffer.getInt(index(0, 4));
+	}
+	
+	/*
+	 * S R V   &   M X
+	 */
+	public int getSRVPriority() {
+		return getShort(0);
+	}
+	
+	public int getSRVWeight() {
+		return getShort(2);
+	}
+	
+	public int getSRVPort() {
+		return getShort(4);
+	}
+	
+	public int getMXPreference() {
+		return getShort(0);
+	}
+	
+	/**
+	 * @return the offset of the name in the rdata of SRV, MX, PTR, CNAME and 
+	 * NS records, or -1 for other types
+	 */
+	public int getNameOffset() {
+		switch(type) {
+		case TYPE_SRV:
+			return 6;
+		case TYPE_MX:
+			return 2;
+		case TYPE_PTR:
+		case TYPE_CNAME:
+		case TYPE_NS:
+			return 0;
+		default:
+			return -1;
+		}
+	}
+	
+	/**
+	 * This method appends the name held by a SRV, MX, PTR, CNAME or NS record 
+	 * (without the trailing dot) to the given {@link StringBuilder}
+	 * @param sb the {@link StringBuilder}
+	 * @return <code>sb</code>
+	 */
+	public StringBuilder appendName(StringBuilder sb) {
+		int offset = checkNameOffset();
+		boolean first = true;
+		int len;
+		while((len = getByte(offset))!=0) {
+			if (len>63)
+				throw new IllegalStateException("Compressed or invalid name in rdata");
+			if (!first)
+				sb.append('.');
+			first = false;
+			int end = offset + 1 + len;
+			index(offset + 1, len);
+			for(int i=offset+1; i<end; ) {
+				int c = buffer.get(start + i) & 0xff;
+				if (c=='.' || c=='\\') {
+					sb.append('\\').append((char) c);
+					i++;
+				} else
+					i = appendUTF8(i, end, sb);
+			}
+			offset = end;
+		}
+		return sb;
+	}
+	
+	/**
+	 * @return the name held by a SRV, MX, PTR, CNAME or NS record
+	 */
+	public String getName() {
+		return appendName(new StringBuilder(length)).toString();
+	}
+	
+	/**
+	 * This method compares the name held by a SRV, MX, PTR, CNAME or NS record
+	 * with the given name, ignoring the case of ASCII letters and an eventual
+	 * trailing dot
+	 * @param name the name to compare, escaped as avahi does
+	 * @return whether the names are equal
+	 */
+	public boolean nameEquals(CharSequence name) {
+		int offset = checkNameOffset();
+		int pos = 0, n = name.length();
+		int len;
+		boolean first = true;
+		while((len = getByte(offset))!=0) {
+			if (!first) {
+				if (pos>=n || name.charAt(pos)!='.')
+					return false;
+				pos++;
+			}
+			first = false;
+			index(offset + 1, len);
+			for(int i=offset+1; i<offset+1+len; i++) {
+				if (pos>=n)
+					return false;
+				char c = name.charAt(pos++);
+				if (c=='\\' && pos<n)
+					c = name.charAt(pos++);
+				int b = buffer.get(start + i) & 0xff;
+				if (b>=0x80) {
+					// non-ASCII characters are compared as UTF-8 bytes
+					int cp = Character.codePointAt(name, pos - 1);
+					pos += Character.charCount(cp) - 1;
+					int count = utf8Length(cp);
+					if (i + count > offset + 1 + len || !utf8Equals(i, cp, count))
+						return false;
+					i += count - 1;
+				} else if (Character.toLowerCase(c)!=Character.toLowerCase((char) b))
+					return false;
+			}
+			offset += 1 + len;
+		}
+		return pos==n || (pos==n-1 && name.charAt(pos)=='.');
+	}
+	
+	private int checkNameOffset() {
+		int offset = getNameOffset();
+		if (offset<0)
+			throw new IllegalStateException("Records of type "+type+" do not hold a name");
+		return offset;
+	}
+	
+	/*
+	 * T X T
+	 */
+	/**
+	 * @return the number of strings in a TXT record. A TXT record holding a
+	 * single empty string (an empty TXT record) has no strings.
+	 */
+	public int getTXTCount() {
+		if (length==1 && getByte(0)==0)
+			return 0;
+		int count = 0;
+		for(int offset=0; offset<length; offset+=1+getByte(offset))
+			count++;
+		return count;
+	}
+	
+	/**
+	 * @param index the index of the string in a TXT record
+	 * @return the offset of the first byte of the string (after its length)
+	 */
+	public int getTXTOffset(int index) {
+		int offset = 0;
+		for(int i=0; i<index; i++)
+			offset += 1 + getByte(offset);
+		index(offset, 1);
+		return offset + 1;
+	}
+	
+	/**
+	 * @param index the index of the string in a TXT record
+	 * @return the length of the string in bytes
+	 */
+	public int getTXTLength(int index) {
+		return getByte(getTXTOffset(index) - 1);
+	}
+	
+	/**
+	 * This method looks for a "key=value" (or "key") string in a TXT record. 
+	 * Keys are compared ignoring the case of ASCII letters (RFC 6763 section 
+	 * 6.4).
+	 * @param key the key
+	 * @return the index of the first string with this key, or -1
+	 */
+	public int findTXT(CharSequence key) {
+		int count = getTXTCount();
+		int offset = 1;
+		int n = key.length();
+		for(int index=0; index<count; index++) {
+			int len = getByte(offset - 1);
+			boolean match = len>=n;
+			for(int i=0; match && i<n; i++)
+				match = Character.toLowerCase((char) getByte(offset + i)) 
+					== Character.toLowerCase(key.charAt(i));
+			if (match && (len==n || getByte(offset + n)=='='))
+				return index;
+			offset += 1 + len;
+		}
+		return -1;
+	}
+	
+	/**
+	 * @param index the index of the string in a TXT record
+	 * @return the offset of the value of a "key=value" string, or -1 if the
+	 * string has no '='
+	 */
+	public int getTXTValueOffset(int index) {
+		int offset = getTXTOffset(index);
+		int end = offset + getByte(offset - 1);
+		for(int i=offset; i<end; i++)
+			if (getByte(i)=='=')
+				return i + 1;
+		return -1;
+	}
+	
+	/**
+	 * @param index the index of the string in a TXT record
+	 * @return the length of the value of a "key=value" string, or -1 if the 
+	 * string has no '='
+	 */
+	public int getTXTValueLength(int index) {
+		int value = getTXTValueOffset(index);
+		if (value<0)
+			return -1;
+		int offset = getTXTOffset(index);
+		return offset + getByte(offset - 1) - value;
+	}
+	
+	/**
+	 * This method appends a string of a TXT record, decoded as UTF-8, to the 
+	 * given {@link StringBuilder}
+	 * @param index the index of the string in the TXT record
+	 * @param sb the {@link StringBuilder}
+	 * @return <code>sb</code>
+	 */
+	public StringBuilder appendTXT(int index, StringBuilder sb) {
+		int offset = getTXTOffset(index);
+		int end = offset + getByte(offset - 1);
+		index(offset, end - offset);
+		for(int i=offset; i<end; )
+			i = appendUTF8(i, end, sb);
+		return sb;
+	}
+	
+	/**
+	 * @return the strings of a TXT record
+	 */
+	public String[] getTXTStrings() {
+		String result[] = new String[getTXTCount()];
+		StringBuilder sb = new StringBuilder();
+		for(int i=0; i<result.length; i++) {
+			sb.setLength(0);
+			result[i] = appendTXT(i, sb).toString();
+		}
+		return result;
+	}
+	
+	/*
+	 * U T F - 8
+	 */
+	/**
+	 * This method decodes the UTF-8 character at the given offset and appends
+	 * it to <code>sb</code>. Invalid sequences are replaced with U+FFFD.
+	 * @return the offset of the next character
+	 */
+	private int appendUTF8(int offset, int end, StringBuilder sb) {
+		int b = buffer.get(start + offset) & 0xff;
+		int count = b<0x80 ? 1 : b<0xc2 ? 0 : b<0xe0 ? 2 : b<0xf0 ? 3 : b<0xf5 ? 4 : 0;
+		if (count==0 || offset + count > end) {
+			sb.append('\ufffd');
+			return offset + 1;
+		}
+		if (count==1) {
+			sb.append((char) b);
+			return offset + 1;
+		}
+		int cp = b & (0xff >> (count + 1));
+		for(int i=1; i<count; i++) {
+			int c = buffer.get(start + offset + i) & 0xff;
+			if ((c & 0xc0)!=0x80) {
+				sb.append('\ufffd');
+				return offset + i;
+			}
+			cp = (cp << 6) | (c & 0x3f);
+		}
+		sb.appendCodePoint(cp);
+		return offset + count;
+	}
+	
+	private static int utf8Length(int cp) {
+		return cp<0x80 ? 1 : cp<0x800 ? 2 : cp<0x10000 ? 3 : 4;
+	}
+	
+	private boolean utf8Equals(int offset, int cp, int count) {
+		for(int i=count-1; i>0; i--) {
+			if ((buffer.get(start + offset + i) & 0xff)!=(0x80 | (cp & 0x3f)))
+				return false;
+			cp >>= 6;
+		}
+		return (buffer.get(start + offset) & 0xff)==((0xf00 >> count) & 0xff | cp);
+	}
+}
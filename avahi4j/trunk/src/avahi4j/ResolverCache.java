@@ -0,0 +1,442 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import avahi4j.Avahi4JConstants.Protocol;
+import avahi4j.ServiceResolver.ServiceResolverEvent;
+import avahi4j.exceptions.Avahi4JException;
+
+/**
+ * This class looks up host names and addresses with {@link HostNameResolver}s
+ * and {@link AddressResolver}s, and caches the results. It is meant for 
+ * applications which need to look up many hosts, such as connection layers:
+ * <ul>
+ * <li>results (including failures) are cached for a configurable time, 
+ * {@link #DEFAULT_TTL} (the TTL of mDNS address records) for found hosts 
+ * and {@link #DEFAULT_NEGATIVE_TTL} for failures,</li>
+ * <li>concurrent lookups of the same name or address are coalesced: a single
+ * resolver is created, and all the callers are given its result,</li>
+ * <li>resolvers are released as soon as they have a result, or after 
+ * {@link #LOOKUP_TIMEOUT} milliseconds, in which case the lookup fails.</li>
+ * </ul>
+ * The cache holds at most {@link #getMaxEntries()} entries, the least 
+ * recently used ones being evicted first. A {@link ResolverCache} is obtained
+ * from {@link Client#getResolverCache()}, and is only usable while its 
+ * client is running. All methods are thread-safe; the blocking ones must not
+ * be called from a callback.
+ * @author gilles
+ *
+ */
+public final class ResolverCache {
+	/**
+	 * How long found hosts are cached by default, in milliseconds
+	 */
+	public static final long DEFAULT_TTL = 120000;
+	/**
+	 * How long failed lookups are cached by default, in milliseconds
+	 */
+	public static final long DEFAULT_NEGATIVE_TTL = 5000;
+	/**
+	 * The default maximum number of entries
+	 */
+	public static final int DEFAULT_MAX_ENTRIES = 4096;
+	/**
+	 * How long a resolver is given to answer, in milliseconds
+	 */
+	public static final long LOOKUP_TIMEOUT = 30000;
+	
+	/**
+	 * A cached result, or a lookup in progress if <code>waiters</code> is
+	 * not null
+	 */
+	private static final class CacheEntry {
+		String name;
+		Address address;
+		long expires;
+		List<IHostLookupCallback> waiters;
+		// the resolver of a lookup in progress, which is only weakly 
+		// referenced by its native peer and must be kept reachable here
+		Closeable resolver;
+		TimerWheel.Timeout deadline;
+	}
+	
+	/**
+	 * This class receives the result of a blocking lookup
+	 */
+	private static final class Result implements IHostLookupCallback {
+		String name;
+		Address address;
+		boolean done;
+		
+		@Override
+		public synchronized void lookupDone(String n, Address a) {
+			name = n;
+			address = a;
+			done = true;
+			notifyAll();
+		}
+		
+		synchronized void await(long timeout) throws InterruptedException {
+			long deadline = System.currentTimeMillis() + timeout;
+			long left;
+			while(!done && (left = deadline - System.currentTimeMillis())>0)
+				wait(left);
+		}
+	}
+	
+	
+	/*
+	 * M E M B E R S
+	 */
+	private final Client client;
+	private final LinkedHashMap<String, CacheEntry> entries;
+	private long ttl;
+	private long negativeTtl;
+	private int maxEntries;
+	private long hits, misses, coalesced;
+	
+	
+	/*
+	 * M E T H O D S
+	 */
+	ResolverCache(Client client) {
+		this.client = client;
+		ttl = DEFAULT_TTL;
+		negativeTtl = DEFAULT_NEGATIVE_TTL;
+		maxEntries = DEFAULT_MAX_ENTRIES;
+		entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+				// lookups in progress are never evicted
+				return size()>maxEntries && eldest.getValue().waiters==null;
+			}
+		};
+	}
+	
+	/**
+	 * This method looks up the address of a host.
+	 * @param name the host name, eg. "myhost.local"
+	 * @param addressProtocol the protocol of the address to look for
+	 * @param callback the callback receiving the result. It is called before
+	 * this method returns if the result is cached.
+	 * @throws Avahi4JException if the resolver can not be created
+	 */
+	public void lookupHostName(final String name, Protocol addressProtocol, 
+			IHostLookupCallback callback) throws Avahi4JException {
+		if (name==null || callback==null)
+			throw new NullPointerException("neither the name nor the callback can be null");
+		
+		final String key = "n" + addressProtocol.ordinal() + ":" + name.toLowerCase();
+		final CacheEntry e = start(key, callback);
+		if (e==null)
+			return;
+		
+		HostNameResolver r;
+		try {
+			r = client.createHostNameResolver(new IHostNameResolverCallback() {
+				@Override
+				public void resolverCallback(HostNameResolver resolver, int interfaceNum,
+						Protocol proto, ServiceResolverEvent resolverEvent, String n,
+						Address address, int lookupResultFlag) {
+					resolver.release();
+					boolean found = resolverEvent==ServiceResolverEvent.RESOLVER_FOUND;
+					complete(e, found ? n : name, found ? address : null);
+				}
+			}, Avahi4JConstants.AnyInterface, Protocol.ANY, name, addressProtocol, 0);
+		} catch (Avahi4JException ex) {
+			fail(key, e, name, null);
+			throw ex;
+		}
+		started(e, r, name, null);
+	}
+	
+	/**
+	 * This method looks up the name of a host from its address.
+	 * @param address the address
+	 * @param callback the callback receiving the result. It is called before
+	 * this method returns if the result is cached.
+	 * @throws Avahi4JException if the resolver can not be created
+	 */
+	public void lookupAddress(final InetAddress address, IHostLookupCallback callback) 
+			throws Avahi4JException {
+		if (address==null || callback==null)
+			throw new NullPointerException("neither the address nor the callback can be null");
+		
+		final Address a = new Address(address.getAddress(), 0, 0);
+		final String key = "a:" + a.getAddress();
+		final CacheEntry e = start(key, callback);
+		if (e==null)
+			return;
+		
+		AddressResolver r;
+		try {
+			r = client.createAddressResolver(new IAddressResolverCallback() {
+				@Override
+				public void resolverCallback(AddressResolver resolver, int interfaceNum,
+						Protocol proto, ServiceResolverEvent resolverEvent, Address found,
+						String name, int lookupResultFlag) {
+					resolver.release();
+					complete(e, resolverEvent==ServiceResolverEvent.RESOLVER_FOUND 
+							? name : null, a);
+				}
+			}, Avahi4JConstants.AnyInterface, Protocol.ANY, address, 0);
+		} catch (Avahi4JException ex) {
+			fail(key, e, null, a);
+			throw ex;
+		}
+		started(e, r, null, a);
+	}
+	
+	/**
+	 * This method looks up the address of a host and waits for the result
+	 * @param name the host name, eg. "myhost.local"
+	 * @param addressProtocol the protocol of the address to look for
+	 * @param timeout how long to wait, in milliseconds
+	 * @return the address, or null if it was not found in time
+	 * @throws Avahi4JException if the resolver can not be created
+	 * @throws InterruptedException if the calling thread is interrupted
+	 */
+	public Address getHostAddress(String name, Protocol addressProtocol, long timeout) 
+			throws Avahi4JException, InterruptedException {
+		Result r = new Result();
+		lookupHostName(name, addressProtocol, r);
+		r.await(timeout);
+		synchronized (r) {
+			return r.address;
+		}
+	}
+	
+	/**
+	 * This method looks up the name of a host from its address and waits for
+	 * the result
+	 * @param address the address
+	 * @param timeout how long to wait, in milliseconds
+	 * @return the host name, or null if it was not found in time
+	 * @throws Avahi4JException if the resolver can not be created
+	 * @throws InterruptedException if the calling thread is interrupted
+	 */
+	public String getHostName(InetAddress address, long timeout) 
+			throws Avahi4JException, InterruptedException {
+		Result r = new Result();
+		lookupAddress(address, r);
+		r.await(timeout);
+		synchronized (r) {
+			return r.name;
+		}
+	}
+	
+	/**
+	 * This method either delivers a cached result, adds the callback to a 
+	 * lookup in progress, or registers a new lookup
+	 * @return the entry of the new lookup if a resolver must be created, or
+	 * null
+	 */
+	private CacheEntry start(String key, IHostLookupCallback callback) {
+		CacheEntry e;
+		synchronized (this) {
+			e = entries.get(key);
+			if (e!=null && e.waiters!=null) {
+				e.waiters.add(callback);
+				coalesced++;
+				return null;
+			}
+			if (e==null || e.expires<=now()) {
+				misses++;
+				e = new CacheEntry();
+				e.waiters = new ArrayList<IHostLookupCallback>(1);
+				e.waiters.add(callback);
+				entries.put(key, e);
+				return e;
+			}
+			hits++;
+		}
+		callback.lookupDone(e.name, e.address);
+		return null;
+	}
+	
+	/**
+	 * This method keeps the resolver of a lookup until it answers, and sets
+	 * the lookup's deadline, after which it fails with the given result, 
+	 * unless the resolver has answered already
+	 */
+	private void started(final CacheEntry e, Closeable resolver, 
+			final String name, final Address address) {
+		synchronized (this) {
+			if (e.waiters==null)
+				return;
+			e.resolver = resolver;
+		}
+		
+		TimerWheel.Timeout t = TimerWheel.getShared().schedule(new Runnable() {
+			@Override
+			public void run() {
+				complete(e, name, address);
+			}
+		}, LOOKUP_TIMEOUT);
+		
+		synchronized (this) {
+			if (e.waiters!=null)
+				e.deadline = t;
+			else
+				t.cancel();
+		}
+	}
+	
+	/**
+	 * This method caches the result of a lookup and hands it to the waiting
+	 * callbacks. A lookup whose deadline expired is cached as a failure.
+	 */
+	private void complete(CacheEntry e, String name, Address address) {
+		List<IHostLookupCallback> waiters;
+		Closeable resolver;
+		synchronized (this) {
+			if (e.waiters==null)
+				return;
+			waiters = e.waiters;
+			resolver = e.resolver;
+			e.waiters = null;
+			e.resolver = null;
+			if (e.deadline!=null)
+				e.deadline.cancel();
+			e.deadline = null;
+			e.name = name;
+			e.address = address;
+			e.expires = now() + (name!=null && address!=null ? ttl : negativeTtl);
+		}
+		// the resolver released itself if it answered
+		release(resolver);
+		for(IHostLookupCallback c: waiters)
+			c.lookupDone(name, address);
+	}
+	
+	/**
+	 * This method fails a lookup whose resolver could not be created, without
+	 * caching the failure
+	 */
+	private void fail(String key, CacheEntry e, String name, Address address) {
+		List<IHostLookupCallback> waiters;
+		synchronized (this) {
+			if (e.waiters==null)
+				return;
+			entries.remove(key);
+			waiters = e.waiters;
+			e.waiters = null;
+			// the caller gets the exception instead
+			waiters.remove(0);
+		}
+		for(IHostLookupCallback c: waiters)
+			c.lookupDone(name, address);
+	}
+	
+	private static void release(Closeable resolver) {
+		if (resolver==null)
+			return;
+		try {
+			resolver.close();
+		} catch (IOException e) {
+			// resolvers do not throw it
+		}
+	}
+	
+	private static long now() {
+		return System.nanoTime() / 1000000;
+	}
+	
+	/**
+	 * This method empties the cache. Lookups in progress are not affected.
+	 */
+	public synchronized void clear() {
+		Iterator<CacheEntry> i = entries.values().iterator();
+		while(i.hasNext())
+			if (i.next().waiters==null)
+				i.remove();
+	}
+	
+	/**
+	 * @return the number of cached results and lookups in progress
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+	
+	public synchronized long getTTL() {
+		return ttl;
+	}
+	
+	/**
+	 * @param ttl how long found hosts are cached, in milliseconds. Only 
+	 * applies to future results.
+	 */
+	public synchronized void setTTL(long ttl) {
+		this.ttl = ttl;
+	}
+	
+	public synchronized long getNegativeTTL() {
+		return negativeTtl;
+	}
+	
+	/**
+	 * @param ttl how long failed lookups are cached, in milliseconds. Only 
+	 * applies to future results.
+	 */
+	public synchronized void setNegativeTTL(long ttl) {
+		negativeTtl = ttl;
+	}
+	
+	public synchronized int getMaxEntries() {
+		return maxEntries;
+	}
+	
+	public synchronized void setMaxEntries(int max) {
+		if (max<1)
+			throw new IllegalArgumentException("The cache must hold at least one entry");
+		maxEntries = max;
+	}
+	
+	/**
+	 * @return the number of lookups answered from the cache
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+	
+	/**
+	 * @return the number of lookups which created a resolver
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+	
+	/**
+	 * @return the number of lookups which joined a lookup in progress
+	 */
+	public synchronized long getCoalesced() {
+		return coalesced;
+	}
+}
@@ -0,0 +1,433 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import avahi4j.Avahi4JConstants.Protocol;
+import avahi4j.ServiceResolver.ServiceResolverEvent;
+import avahi4j.exceptions.Avahi4JException;
+
+/**
+ * This class limits the number of service resolutions in progress at once, 
+ * adapting the limit to what the avahi daemon can handle (additive increase,
+ * multiplicative decrease). Resolutions are queued and started as the limit 
+ * allows. Each one takes a slot until its resolver reports something, or is 
+ * released. The limit grows by about one every time a full window of 
+ * resolutions succeeds, and is halved when the daemon pushes back: when a 
+ * resolver can not be created, or fails, because of 
+ * {@link Avahi4JConstants#AVAHI_ERR_TOO_MANY_OBJECTS},
+ * {@link Avahi4JConstants#AVAHI_ERR_TOO_MANY_CLIENTS} or 
+ * {@link Avahi4JConstants#AVAHI_ERR_TIMEOUT}, or when its deadline expires.
+ * The limit is halved at most once per window, so a burst of failures caused
+ * by the same overload only counts once. A resolution whose resolver could 
+ * not be created because of back-pressure is retried later.<br>
+ * To create a limiter, call {@link Client#createResolverLimiter(int, int)}.
+ * The resolvers it creates are given to the callbacks, which MUST release 
+ * them as usual. Events are delivered from the client's thread, or from the 
+ * thread calling {@link #resolve(IServiceResolverCallback, int, Protocol, String, String, String, Protocol, int, long) resolve()}
+ * if a resolver can not be created.
+ * @author gilles
+ *
+ */
+public final class ResolverLimiter implements Closeable {
+	/**
+	 * The factor applied to the limit on back-pressure
+	 */
+	public static final double DECREASE_FACTOR = 0.5;
+	
+	/**
+	 * The delay before retrying, when a resolver could not be created because
+	 * of back-pressure and no other resolution is in progress, in milliseconds
+	 */
+	public static final long RETRY_DELAY = 250;
+	
+	/**
+	 * The limit itself: it grows by 1/limit with each success, so by about 
+	 * one per window, and is multiplied by {@link ResolverLimiter#DECREASE_FACTOR}
+	 * on back-pressure, at most once per window. Resolutions are numbered as
+	 * they are started, and a window ends with the last resolution started 
+	 * before a decrease. This class is not thread-safe.
+	 */
+	static final class Limit {
+		private final int max;
+		private double limit;
+		/**
+		 * the number of resolutions started so far
+		 */
+		private long started;
+		/**
+		 * the value of {@link #started} when the limit was last decreased
+		 */
+		private long lastDecrease;
+		
+		Limit(int initial, int max) {
+			this.max = max;
+			limit = initial;
+			started = 0;
+			lastDecrease = 0;
+		}
+		
+		/**
+		 * This method is called when a resolution is started
+		 * @return the sequence number of the resolution
+		 */
+		long start() {
+			return ++started;
+		}
+		
+		/**
+		 * This method increases the limit after a success
+		 */
+		void increase() {
+			if (limit<max)
+				limit = Math.min(max, limit + 1/limit);
+		}
+		
+		/**
+		 * This method decreases the limit, unless it was already decreased 
+		 * since the given resolution was started
+		 * @param sequence the sequence number of the resolution pushed back
+		 * @return whether the limit was decreased
+		 */
+		boolean decrease(long sequence) {
+			if (sequence<=lastDecrease)
+				return false;
+			lastDecrease = started;
+			limit = Math.max(1, limit*DECREASE_FACTOR);
+			return true;
+		}
+		
+		/**
+		 * @return the current number of resolutions allowed at once
+		 */
+		int get() {
+			return (int) limit;
+		}
+	}
+	
+	/**
+	 * A queued or in-progress resolution
+	 */
+	private final class Request implements IServiceResolverCallback, Runnable {
+		final IServiceResolverCallback callback;
+		final int interfaceNum;
+		final Protocol proto;
+		final String name, type, domain;
+		final Protocol addressProtocol;
+		final int lookupFlags;
+		final long deadline;
+		/**
+		 * the window this resolution was started in
+		 */
+		long sequence;
+		/**
+		 * whether the limit was reached when this resolution was started
+		 */
+		boolean saturated;
+		/**
+		 * whether this resolution has given its slot back
+		 */
+		boolean done;
+		ServiceResolver resolver;
+		
+		Request(IServiceResolverCallback callback, int interfaceNum, Protocol proto,
+				String name, String type, String domain, Protocol addressProtocol,
+				int lookupFlags, long deadline) {
+			this.callback = callback;
+			this.interfaceNum = interfaceNum;
+			this.proto = proto;
+			this.name = name;
+			this.type = type;
+			this.domain = domain;
+			this.addressProtocol = addressProtocol;
+			this.lookupFlags = lookupFlags;
+			this.deadline = deadline;
+		}
+		
+		@Override
+		public void resolverCallback(ServiceResolver resolver, int interfaceNum,
+				Protocol proto, ServiceResolverEvent resolverEvent, String name,
+				String type, String domain, String hostname, Address address,
+				int port, String[] txtRecords, int lookupResultFlag) {
+			
+			int error = resolverEvent==ServiceResolverEvent.RESOLVER_FAILURE ?
+					client.getLastError() : Avahi4JConstants.AVAHI_OK;
+			boolean first = completed(this, resolverEvent, error);
+			
+			callback.resolverCallback(resolver, interfaceNum, proto, resolverEvent,
+					name, type, domain, hostname, address, port, txtRecords, 
+					lookupResultFlag);
+			
+			if (first)
+				startQueued();
+		}
+		
+		/**
+		 * called when the resolver is released
+		 */
+		@Override
+		public void run() {
+			if (completed(this, null, Avahi4JConstants.AVAHI_OK))
+				startQueued();
+		}
+	}
+	
+	
+	/*
+	 * M E M B E R S
+	 */
+	private final Client client;
+	private final LinkedList<Request> queue;
+	private final List<Request> inProgress;
+	private final Limit limit;
+	/**
+	 * whether starting resolutions is suspended after back-pressure, until a
+	 * resolution completes or the retry delay expires
+	 */
+	private boolean suspended;
+	private long backPressureCount;
+	private boolean released;
+	
+	
+	/*
+	 * M E T H O D S
+	 */
+	/**
+	 * This method builds a new limiter
+	 * @param client the client creating the resolvers
+	 * @param initialLimit the initial number of resolutions in progress at once
+	 * @param maxLimit the maximum number of resolutions in progress at once
+	 */
+	ResolverLimiter(Client client, int initialLimit, int maxLimit) {
+		this.client = client;
+		queue = new LinkedList<Request>();
+		inProgress = new ArrayList<Request>();
+		limit = new Limit(initialLimit, maxLimit);
+		suspended = false;
+		backPressureCount = 0;
+		released = false;
+	}
+	
+	/**
+	 * This method queues the resolution of a service. The arguments are those
+	 * of {@link Client#createServiceResolver(IServiceResolverCallback, int, Protocol, String, String, String, Protocol, int, long)}.
+	 * If the resolver can not be created for another reason than 
+	 * back-pressure, the callback receives 
+	 * {@link ServiceResolverEvent#RESOLVER_FAILURE} with a null resolver.
+	 * @param callback the callback object which will receive the resolver's
+	 * events
+	 * @param ifNum the interface the service is running on
+	 * @param proto the protocol used by the service
+	 * @param name the name of the service
+	 * @param type the service type
+	 * @param domain the domain the service belongs to
+	 * @param addressProtocol the protocol of the address to be resolved
+	 * @param lookupFlags lookup flags (See LOOKUP_* in {@link Avahi4JConstants})
+	 * @param deadline the delay in milliseconds given to the resolver to report
+	 * something once started, or 0 for no deadline
+	 */
+	public void resolve(IServiceResolverCallback callback, int ifNum, 
+			Protocol proto, String name, String type, String domain, 
+			Protocol addressProtocol, int lookupFlags, long deadline) {
+		
+		if (callback==null || name==null || type==null)
+			throw new NullPointerException("neither the callback nor the type nor the name can be null");
+		if (deadline<0)
+			throw new IllegalArgumentException("invalid deadline "+deadline);
+		
+		synchronized (this) {
+			if (released)
+				throw new IllegalStateException("the limiter was released");
+			queue.add(new Request(callback, ifNum, proto, name, type, domain, 
+					addressProtocol, lookupFlags, deadline));
+		}
+		startQueued();
+	}
+	
+	/**
+	 * This method starts queued resolutions while the limit allows. Resolvers
+	 * are created without this object's lock held, as the client's thread 
+	 * takes it to report events.
+	 */
+	private void startQueued() {
+		while (true) {
+			Request r;
+			synchronized (this) {
+				if (released || suspended || queue.isEmpty() || 
+						inProgress.size()>=getLimit())
+					return;
+				r = queue.removeFirst();
+				inProgress.add(r);
+				r.sequence = limit.start();
+				r.saturated = inProgress.size()>=getLimit();
+			}
+			
+			ServiceResolver resolver;
+			try {
+				resolver = client.createServiceResolver(r, r.interfaceNum, r.proto,
+						r.name, r.type, r.domain, r.addressProtocol, r.lookupFlags,
+						r.deadline);
+			} catch (Avahi4JException e) {
+				if (!creationFailed(r, client.getLastError()))
+					r.callback.resolverCallback(null, r.interfaceNum, r.proto, 
+							ServiceResolverEvent.RESOLVER_FAILURE, r.name, r.type, 
+							r.domain, null, null, 0, null, 0);
+				continue;
+			}
+			
+			// the resolver may have reported something already
+			synchronized (this) {
+				if (!r.done) {
+					r.resolver = resolver;
+					resolver.setReleaseListener(r);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * This method is called when a resolver can not be created
+	 * @return whether the resolution was queued again, because of back-pressure
+	 */
+	private synchronized boolean creationFailed(Request r, int error) {
+		inProgress.remove(r);
+		r.done = true;
+		if (!isBackPressure(error) || released)
+			return false;
+		
+		decrease(r);
+		r.done = false;
+		queue.addFirst(r);
+		
+		// wait for a resolution to complete, or retry later if there is none
+		suspended = true;
+		if (inProgress.isEmpty())
+			TimerWheel.getShared().schedule(new Runnable() {
+				@Override
+				public void run() {
+					synchronized (ResolverLimiter.this) {
+						suspended = false;
+					}
+					startQueued();
+				}
+			}, RETRY_DELAY);
+		return true;
+	}
+	
+	/**
+	 * This method is called when a resolver reports its first event, or is 
+	 * released before that. It gives the slot back and adapts the limit.
+	 * @param event the event reported, or null if the resolver was released
+	 * @param error the client's last error, for a failure
+	 * @return whether this was the first call for this resolution
+	 */
+	private synchronized boolean completed(Request r, ServiceResolverEvent event,
+			int error) {
+		if (r.done)
+			return false;
+		r.done = true;
+		r.resolver = null;
+		inProgress.remove(r);
+		suspended = false;
+		
+		if (event==ServiceResolverEvent.RESOLVER_FOUND) {
+			// only grow the limit if it is actually used
+			if (r.saturated)
+				limit.increase();
+		} else if (event==ServiceResolverEvent.RESOLVER_TIMEOUT || 
+				(event==ServiceResolverEvent.RESOLVER_FAILURE && isBackPressure(error)))
+			decrease(r);
+		
+		return true;
+	}
+	
+	/**
+	 * This method records back-pressure on the given resolution
+	 */
+	private void decrease(Request r) {
+		backPressureCount++;
+		limit.decrease(r.sequence);
+	}
+	
+	private static boolean isBackPressure(int error) {
+		return error==Avahi4JConstants.AVAHI_ERR_TOO_MANY_OBJECTS ||
+			error==Avahi4JConstants.AVAHI_ERR_TOO_MANY_CLIENTS ||
+			error==Avahi4JConstants.AVAHI_ERR_TIMEOUT;
+	}
+	
+	/**
+	 * @return the current number of resolutions allowed at once
+	 */
+	public synchronized int getLimit() {
+		return limit.get();
+	}
+	
+	/**
+	 * @return the number of resolutions in progress
+	 */
+	public synchronized int getInProgressCount() {
+		return inProgress.size();
+	}
+	
+	/**
+	 * @return the number of resolutions waiting to be started
+	 */
+	public synchronized int getQueuedCount() {
+		return queue.size();
+	}
+	
+	/**
+	 * @return the number of back-pressure signals received so far (failures,
+	 * timeouts and resolvers which could not be created)
+	 */
+	public synchronized long getBackPressureCount() {
+		return backPressureCount;
+	}
+	
+	/**
+	 * This method drops the queued resolutions and releases the resolvers 
+	 * which have not reported anything yet. The resolvers which have are 
+	 * left to their callbacks.
+	 */
+	public void release() {
+		List<ServiceResolver> resolvers = new ArrayList<ServiceResolver>();
+		synchronized (this) {
+			if (released)
+				return;
+			released = true;
+			queue.clear();
+			for(Request r: inProgress)
+				if (r.resolver!=null)
+					resolvers.add(r.resolver);
+		}
+		for(ServiceResolver r: resolvers)
+			r.release();
+	}
+	
+	/**
+	 * This method releases this limiter, like {@link #release()}.
+	 */
+	@Override
+	public void close() {
+		release();
+	}
+}
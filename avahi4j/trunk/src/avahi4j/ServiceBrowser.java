@@ -17,6 +17,8 @@
 */
 package avahi4j;
 
+import java.io.Closeable;
+
 import avahi4j.Avahi4JConstants.BrowserEvent;
 import avahi4j.Avahi4JConstants.Protocol;
 import avahi4j.exceptions.Avahi4JException;
@@ -26,88 +28,143 @@ import avahi4j.exceptions.Avahi4JException;
  * of criteria. To create service browser object, call
  * {@link Client#createServiceBrowser(IServiceBrowserCallback, int, avahi4j.Avahi4JConstants.Protocol, String, String, int) createServiceBrowser()}
  * on an existing {@link Client}. When a matching service is found, its details
- * will be provided to the {@link IServiceBrowserCallback} object.
+ * will be provided to the {@link IServiceBrowserCallback} object, or to the
+ * {@link IServiceEventCallback} object as a reusable {@link ServiceEvent}.
  * @author gilles
  *
  */
-public final class ServiceBrowser {
+public final class ServiceBrowser implements Closeable {
 	/*
 	 * M E M B E R S
 	 */
-	private long avahi4j_service_browser_ptr;
+	private final Peer peer;
 	private IServiceBrowserCallback browserCallback;
-	private boolean released;
-	
-	
-	/*
-	 * N A T I V E   M E T H O D S
-	 */
-	/**
-	 * This method create the struct avahi4j_service_browser
-	 * @param o a jni avahi4j_client struct pointer
-	 * @return a jni avahi4j_service_browser_ptr pointer
-	 * @throws Avahi4JException if there is an error creating the browser
-	 */
-	private native long initBrowser(long avahi4j_client_ptr,
-			int interfaceNum, int proto, String type, String domain, 
-			int lookupFlags) throws Avahi4JException;
-	/**
-	 * This method frees the avahi4j_service_browser
-	 * @param o a jni avahi4j_service_browser pointer
-	 * @return the raw result from avahi_service_browser_free()
-	 */
-	private native int release(long o);
+	private IServiceEventCallback eventCallback;
+	private final ServiceEvent event;
+	private LatencyStats latencyStats;
+	private volatile long eventTimestamp;
+	private final Client client;
+	private final int journalId;
 	
 	
 	/*
 	 * M E T H O D S
 	 */
 	/**
-	 * This method builds a new service browser. 
+	 * This method builds a new service browser. Exactly one of the callbacks
+	 * must be given.
 	 * @param callback the callback object to receive notification about the entry group
-	 * @param avahi4j_client_ptr a struct avahi4j_service_browser_ptr pointer
+	 * @param eventCallback the callback object to receive the events as a 
+	 * {@link ServiceEvent}
+	 * @param avahi4j_client_ptr a struct peer.ptr pointer
+	 * @param stats the client's latency statistics
+	 * @param client the client, whose {@link EventJournal} records the events
 	 * @param intefaceNum the interface number
 	 * @param proto the {@link Protocol} number
 	 * @param type the service type to browse
 	 * @param domain the domain to search (can be null to use client's domain)
 	 * @param lookupFlags the lookup flags (see Avahi4JConstants.LOOKUP_*)
+	 * @param filter the events to dispatch
 	 * @throws Avahi4JException if there is a problem creating the browser
 	 * @throws NullPointerException iftype is null
 	 */
-	ServiceBrowser(IServiceBrowserCallback callback, long avahi4j_client_ptr,
-			int interfaceNum, Protocol proto, String type, String domain, 
-			int lookupFlags) throws Avahi4JException {
+	ServiceBrowser(IServiceBrowserCallback callback, 
+			IServiceEventCallback eventCallback, long avahi4j_client_ptr,
+			LatencyStats stats, Client client, int interfaceNum, Protocol proto,
+			String type, String domain, int lookupFlags, EventFilter filter) 
+			throws Avahi4JException {
 
-		released = false;
 		browserCallback = callback;
-		avahi4j_service_browser_ptr =  initBrowser(avahi4j_client_ptr, interfaceNum,
-				proto.ordinal(), type, domain, lookupFlags);
+		this.eventCallback = eventCallback;
+		event = new ServiceEvent(this);
+		latencyStats = stats;
+		this.client = client;
+		journalId = EventJournal.nextId();
+		peer = new Peer(this, client);
+		peer.created(Client.backend.initServiceBrowser(peer,
+				avahi4j_client_ptr, interfaceNum, proto.ordinal(), type, domain,
+				lookupFlags, filter.getEventMask(), filter.getNamePrefix()));
 	}
 	
 	/**
 	 * This method must be called when this browser is no longer needed.
 	 */
-	public synchronized void release() {
-		if(!released){
-			release(avahi4j_service_browser_ptr);
-			released = true;
-		}
+	public void release() {
+		peer.release();
+	}
+	
+	/**
+	 * This method releases this browser, like {@link #release()}. It can be
+	 * called several times.
+	 */
+	@Override
+	public void close() {
+		release();
 	}	
 	
+	/**
+	 * This method returns the native timestamp of the event currently being
+	 * dispatched by this browser (see {@link Client#getEventTimestamp()}).
+	 * @return the native timestamp of the current or last event, in nanoseconds
+	 */
+	public long getEventTimestamp() {
+		return eventTimestamp;
+	}
+	
 	
 	/*
 	 * C A L L B A C K
 	 */
 	/**
-	 * This method is called from JNI to dispatch a callback
+	 * This method is called from the native backend to dispatch a callback
 	 */
-	@SuppressWarnings("unused")
-	private void browserCallback(int interfaceNum, int proto, int browserEvent,
-			String name, String type, String domain, int flags){
+	void browserCallback(int interfaceNum, int proto, int browserEvent,
+			String name, String type, String domain, int flags, long wakeupTimestamp,
+			long timestamp){
 		
-		browserCallback.serviceCallback(interfaceNum, Protocol.values()[proto],
-				BrowserEvent.values()[browserEvent], name, type, domain,
-				flags);
+		long dispatched = System.nanoTime();
+		event.set(interfaceNum, proto, browserEvent, flags, timestamp, name, 
+				type, domain);
+		dispatch(wakeupTimestamp, timestamp, dispatched);
+	}
+	
+	/**
+	 * This method is called from the native backend to dispatch a callback
+	 * whose name, type and domain are UTF-8 bytes, one after the other 
+	 * (a length of -1 stands for null)
+	 */
+	void browserEvent(int interfaceNum, int proto, int browserEvent,
+			byte names[], int nameLength, int typeLength, int domainLength, 
+			int flags, long wakeupTimestamp, long timestamp){
+		
+		long dispatched = System.nanoTime();
+		event.set(interfaceNum, proto, browserEvent, flags, timestamp, names,
+				nameLength, typeLength, domainLength);
+		dispatch(wakeupTimestamp, timestamp, dispatched);
+	}
+	
+	private void dispatch(long wakeupTimestamp, long timestamp, long dispatched) {
+		eventTimestamp = timestamp;
+		
+		EventJournal journal = client.getJournal();
+		if (journal!=null)
+			journal.serviceBrowserEvent(journalId, timestamp, event.getInterface(),
+					event.getProtocol().ordinal(), event.getEvent().ordinal(), 
+					event.getName(), event.getType(), event.getDomain(), 
+					event.getLookupResultFlags());
+		
+		try {
+			if (eventCallback!=null)
+				eventCallback.serviceEvent(event);
+			else
+				browserCallback.serviceCallback(event.getInterface(), 
+						event.getProtocol(), event.getEvent(), event.getName(), 
+						event.getType(), event.getDomain(), event.getLookupResultFlags());
+		} finally {
+			event.clear();
+			latencyStats.recordEvent(wakeupTimestamp, timestamp, dispatched, 
+					System.nanoTime());
+		}
 	}
 	
 	@Override
@@ -116,7 +173,7 @@ public final class ServiceBrowser {
 		int result = 1;
 		result = prime
 				* result
-				+ (int) (avahi4j_service_browser_ptr ^ (avahi4j_service_browser_ptr >>> 32));
+				+ (int) (peer.ptr ^ (peer.ptr >>> 32));
 		return result;
 	}
 	@Override
@@ -128,8 +185,72 @@ public final class ServiceBrowser {
 		if (!(obj instanceof ServiceBrowser))
 			return false;
 		ServiceBrowser other = (ServiceBrowser) obj;
-		if (avahi4j_service_browser_ptr != other.avahi4j_service_browser_ptr)
+		if (peer.ptr != other.peer.ptr)
 			return false;
 		return true;
-	}	
+	}
+	
+	/**
+	 * Objects of this class hold the native side of a {@link ServiceBrowser}
+	 * (see {@link NativePeer}), and forward it the native events.
+	 * @author gilles
+	 *
+	 */
+	static final class Peer extends NativePeer<ServiceBrowser> {
+		/**
+		 * the buffer the native backend copies the name, type and domain of
+		 * an event to, before calling 
+		 * {@link #browserEvent(int, int, int, int, int, int, int, long, long)}
+		 */
+		byte names[];
+		
+		private Peer(ServiceBrowser browser, Client client) {
+			super(NativeObjects.Kind.SERVICE_BROWSER, browser, client);
+			names = new byte[256];
+		}
+		
+		/**
+		 * This method is called from the native backend when {@link #names}
+		 * is too small for an event
+		 * @param capacity the number of bytes needed
+		 * @return the new buffer
+		 */
+		byte[] growNames(int capacity) {
+			names = new byte[Math.max(capacity, names.length * 2)];
+			return names;
+		}
+		
+		@Override
+		void free(long nativePtr) {
+			Client.backend.releaseServiceBrowser(nativePtr);
+		}
+		
+		/**
+		 * This method is called from the native backend to dispatch a 
+		 * callback, unless the browser was garbage collected.
+		 */
+		void browserCallback(int interfaceNum, int proto, int browserEvent,
+			String name, String type, String domain, int flags, long wakeupTimestamp,
+			long timestamp) {
+			ServiceBrowser browser = getOwner();
+			if (browser!=null)
+				browser.browserCallback(interfaceNum, proto, browserEvent, name,
+						type, domain, flags, wakeupTimestamp, timestamp);
+		}
+		
+		/**
+		 * This method is called from the native backend to dispatch a 
+		 * callback whose name, type and domain were copied to 
+		 * {@link #names}, unless the browser was garbage collected.
+		 */
+		void browserEvent(int interfaceNum, int proto, int browserEvent,
+			int nameLength, int typeLength, int domainLength, int flags, 
+			long wakeupTimestamp, long timestamp) {
+			ServiceBrowser browser = getOwner();
+			if (browser!=null)
+				browser.browserEvent(interfaceNum, proto, browserEvent, names,
+						nameLength, typeLength, domainLength, flags, 
+						wakeupTimestamp, timestamp);
+		}
+	}
 }
@@ -0,0 +1,669 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import avahi4j.Avahi4JConstants.BrowserEvent;
+import avahi4j.Avahi4JConstants.Protocol;
+import avahi4j.ServiceResolver.ServiceResolverEvent;
+import avahi4j.exceptions.Avahi4JException;
+
+/**
+ * A service directory keeps the resolved services of a given type, and 
+ * persists them to a file so that they are available as soon as the 
+ * application restarts, before any mDNS announcement comes in. 
+ * <br>
+ * When created, the directory loads the services saved in its file and 
+ * reports them as {@link DirectoryEvent#CACHED}: they are not verified yet.
+ * It then resolves each of them again, and browses and resolves the 
+ * services of its type. Cached services which are resolved are 
+ * {@link DirectoryEvent#CONFIRMED}, those which can not be resolved are 
+ * {@link DirectoryEvent#REMOVED}. 
+ * <br>
+ * The file is memory-mapped, and made of fixed-size slots, one per service:
+ * each change only rewrites the slot of the service concerned. Services too
+ * large for a slot (because of their TXT records) are kept in memory only.
+ * <br>
+ * To create one, call 
+ * {@link Client#createServiceDirectory(IServiceDirectoryCallback, File, int, int, Protocol, String, String, int) createServiceDirectory()}
+ * on an existing {@link Client}. It must be released when no longer needed.
+ * @author gilles
+ *
+ */
+public final class ServiceDirectory implements Closeable {
+	/**
+	 * This enumeration lists the events reported by a service directory.
+	 * @author gilles
+	 *
+	 */
+	public enum DirectoryEvent {
+		/**
+		 * A service was loaded from the directory file. It has not been 
+		 * verified yet.
+		 */
+		CACHED,
+		/**
+		 * A cached service was found and resolved. Its details may have 
+		 * changed.
+		 */
+		CONFIRMED,
+		/**
+		 * A service which was not cached was found and resolved.
+		 */
+		ADDED,
+		/**
+		 * The details of a service changed.
+		 */
+		UPDATED,
+		/**
+		 * A service went away, or a cached service could not be confirmed.
+		 */
+		REMOVED
+	};
+	
+	/**
+	 * The size of a slot in the directory file, in bytes
+	 */
+	public static final int SLOT_SIZE = 1024;
+	
+	// file header: magic, version, slot size, slot count
+	private static final int MAGIC = 0x41344a44;
+	private static final int VERSION = 2;
+	private static final int HEADER_SIZE = 16;
+	// slot header: used byte, data length (unsigned short), data CRC32
+	private static final int SLOT_HEADER_SIZE = 7;
+	
+	/**
+	 * A service in the directory
+	 */
+	private static final class Entry {
+		final String key;
+		ResolvedService service;
+		// the slot in the file, -1 if none
+		int slot = -1;
+		// whether the service was loaded from the file and not verified yet
+		boolean cached;
+		// whether the service has been reported
+		boolean reported;
+		// whether the browser reported the service
+		boolean live;
+		// the resolution requested, null if none. The resolver is only 
+		// stored once created, but its events can be received before.
+		Resolution resolution;
+		ServiceResolver resolver;
+		
+		Entry(String key) {
+			this.key = key;
+		}
+	}
+	
+	/**
+	 * The resolution of a service, which receives its resolver's events
+	 */
+	private final class Resolution implements IServiceResolverCallback {
+		final Entry entry;
+		final int interfaceNum;
+		final Protocol proto;
+		final String name, type, domain;
+		
+		Resolution(Entry e) {
+			entry = e;
+			interfaceNum = e.service.interfaceNum;
+			proto = e.service.proto;
+			name = e.service.name;
+			type = e.service.type;
+			domain = e.service.domain;
+		}
+		
+		@Override
+		public void resolverCallback(ServiceResolver resolver, 
+				int interfaceNum, Protocol proto, 
+				ServiceResolverEvent resolverEvent, String name, String type,
+				String domain, String hostname, Address address, int port, 
+				String[] txtRecords, int lookupResultFlag) {
+			resolved(this, resolver, resolverEvent, name, hostname, address, 
+					port, txtRecords, lookupResultFlag);
+		}
+	}
+	
+	
+	/*
+	 * M E M B E R S
+	 */
+	private final Client client;
+	private final IServiceDirectoryCallback callback;
+	private final String type;
+	private final int lookupFlags;
+	private final Map<String, Entry> entries;
+	private final RandomAccessFile file;
+	private final MappedByteBuffer map;
+	private final BitSet usedSlots;
+	private final int slotCount;
+	private final ByteBuffer slotData;
+	private final CRC32 crc;
+	private ServiceSubscription subscription;
+	private boolean released;
+	
+	
+	/*
+	 * M E T H O D S
+	 */
+	/**
+	 * This method builds a new service directory, loads its file and reports
+	 * the services found in it, then starts verifying them and browsing.
+	 * @param client the client used to create the browser and resolvers
+	 * @param callback the callback object which will receive the services
+	 * @param path the directory file. It is created if it does not exist, or
+	 * if it was created with a different capacity
+	 * @param capacity the maximum number of services saved in the file
+	 * @param interfaceNum the interface number
+	 * @param proto the {@link Protocol}, also used for the resolved addresses
+	 * @param type the service type
+	 * @param domain the domain to search (can be null to use client's domain)
+	 * @param lookupFlags the lookup flags (see Avahi4JConstants.LOOKUP_*)
+	 * @throws Avahi4JException if the file can not be mapped, or if there is
+	 * a problem creating the service browser
+	 */
+	ServiceDirectory(Client client, IServiceDirectoryCallback callback, 
+			File path, int capacity, int interfaceNum, Protocol proto, 
+			String type, String domain, int lookupFlags) throws Avahi4JException {
+		this.client = client;
+		this.callback = callback;
+		this.type = type;
+		this.lookupFlags = lookupFlags;
+		entries = new LinkedHashMap<String, Entry>();
+		slotCount = capacity;
+		usedSlots = new BitSet(capacity);
+		slotData = ByteBuffer.allocate(SLOT_SIZE - SLOT_HEADER_SIZE);
+		crc = new CRC32();
+		
+		long size = HEADER_SIZE + (long) SLOT_SIZE * capacity;
+		try {
+			file = new RandomAccessFile(path, "rw");
+			try {
+				if (file.length()!=size)
+					file.setLength(0);
+				file.setLength(size);
+				map = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+			} catch (IOException e) {
+				file.close();
+				throw e;
+			}
+		} catch (IOException e) {
+			throw new Avahi4JException("Error mapping the service directory file "
+					+ path, e);
+		}
+		
+		// load the services saved, or start afresh
+		List<ResolvedService> loaded = new ArrayList<ResolvedService>();
+		synchronized (this) {
+			if (map.getInt(0)==MAGIC && map.getInt(4)==VERSION 
+					&& map.getInt(8)==SLOT_SIZE && map.getInt(12)==capacity)
+				load(loaded);
+			else {
+				for(int i=0; i<capacity; i++)
+					map.put(HEADER_SIZE + i * SLOT_SIZE, (byte) 0);
+				map.putInt(0, MAGIC);
+				map.putInt(4, VERSION);
+				map.putInt(8, SLOT_SIZE);
+				map.putInt(12, capacity);
+			}
+		}
+		for(ResolvedService s: loaded)
+			callback.directoryCallback(this, DirectoryEvent.CACHED, s);
+		
+		ServiceSubscription s;
+		try {
+			s = client.subscribeServiceBrowser(new IServiceBrowserCallback() {
+				@Override
+				public void serviceCallback(int interfaceNum, Protocol proto,
+						BrowserEvent browserEvent, String name, String type, 
+						String domain, int lookupResultFlag) {
+					browserEvent(interfaceNum, proto, browserEvent, name, type, 
+							domain);
+				}
+			}, interfaceNum, proto, type, domain, lookupFlags);
+		} catch (Avahi4JException e) {
+			closeFile();
+			throw e;
+		}
+		List<Resolution> verify = new ArrayList<Resolution>();
+		synchronized (this) {
+			subscription = s;
+			
+			// verify the cached services which the browser has not reported
+			for(Entry e: entries.values())
+				if (e.cached && e.resolution==null && !released)
+					verify.add(requestResolution(e));
+		}
+		for(Resolution r: verify)
+			resolve(r);
+	}
+	
+	/**
+	 * This method releases the browser and the resolvers, writes the 
+	 * directory file to disk and closes it. No more events are reported 
+	 * after it returns.
+	 */
+	public void release() {
+		List<ServiceResolver> resolvers = new ArrayList<ServiceResolver>();
+		ServiceSubscription s;
+		synchronized (this) {
+			if (released)
+				return;
+			released = true;
+			s = subscription;
+			for(Entry e: entries.values())
+				if (e.resolver!=null)
+					resolvers.add(e.resolver);
+		}
+		if (s!=null)
+			s.release();
+		for(ServiceResolver r: resolvers)
+			r.release();
+		closeFile();
+	}
+	
+	/**
+	 * This method releases this directory, like {@link #release()}.
+	 */
+	@Override
+	public void close() {
+		release();
+	}
+	
+	private synchronized void closeFile() {
+		map.force();
+		try {
+			file.close();
+		} catch (IOException e) {
+			// nothing we can do, the data has been written
+		}
+	}
+	
+	/**
+	 * This method writes the changes made to the directory file to disk. It 
+	 * is not needed for the changes to survive the application: they are 
+	 * written to the file as they happen. 
+	 */
+	public synchronized void flush() {
+		if (!released)
+			map.force();
+	}
+	
+	/**
+	 * @return the services in the directory, verified or not
+	 */
+	public synchronized List<ResolvedService> getServices() {
+		List<ResolvedService> l = new ArrayList<ResolvedService>();
+		for(Entry e: entries.values())
+			if (e.reported)
+				l.add(e.service);
+		return l;
+	}
+	
+	/**
+	 * @return the number of services loaded from the file which have not 
+	 * been confirmed or removed yet
+	 */
+	public synchronized int getUnverifiedCount() {
+		int n = 0;
+		for(Entry e: entries.values())
+			if (e.cached)
+				n++;
+		return n;
+	}
+	
+	private static String key(int ifNum, Protocol p, String name) {
+		return ifNum + "/" + p.ordinal() + "/" + name;
+	}
+	
+	/**
+	 * This method resolves the services reported by the browser, and forgets
+	 * those which go away
+	 */
+	private void browserEvent(int ifNum, Protocol p, BrowserEvent event,
+			String name, String type, String domain) {
+		List<Entry> removed = new ArrayList<Entry>();
+		Resolution resolution = null;
+		
+		synchronized (this) {
+			if (released)
+				return;
+			
+			if (event==BrowserEvent.NEW) {
+				String key = key(ifNum, p, name);
+				Entry e = entries.get(key);
+				if (e==null) {
+					e = new Entry(key);
+					e.service = new ResolvedService();
+					e.service.interfaceNum = ifNum;
+					e.service.proto = p;
+					e.service.name = name;
+					e.service.type = type;
+					e.service.domain = domain;
+					entries.put(key, e);
+				}
+				e.live = true;
+				if (e.resolution==null)
+					resolution = requestResolution(e);
+			} else if (event==BrowserEvent.REMOVE) {
+				Entry e = entries.get(key(ifNum, p, name));
+				if (e!=null && e.live)
+					removed.add(remove(e));
+			}
+		}
+		
+		if (resolution!=null)
+			resolve(resolution);
+		report(removed);
+	}
+	
+	/**
+	 * This method records that a service must be resolved. Must be called 
+	 * with this object's lock held.
+	 * @return the resolution to start with {@link #resolve(Resolution)}
+	 */
+	private Resolution requestResolution(Entry e) {
+		e.resolution = new Resolution(e);
+		return e.resolution;
+	}
+	
+	/**
+	 * This method creates the resolver of a service. It must be called 
+	 * without holding this object's lock, as creating a resolver takes the
+	 * client's lock, which the client's thread holds while delivering 
+	 * events to this directory.
+	 */
+	private void resolve(Resolution r) {
+		Entry e = r.entry;
+		ServiceResolver resolver;
+		try {
+			resolver = client.createServiceResolver(r, r.interfaceNum, r.proto,
+					r.name, r.type, r.domain, r.proto, lookupFlags);
+		} catch (Avahi4JException ex) {
+			// it will be retried if the service is reported again
+			synchronized (this) {
+				if (e.resolution==r)
+					e.resolution = null;
+			}
+			return;
+		}
+		
+		synchronized (this) {
+			// unless the service went away or failed in the meantime
+			if (!released && e.resolution==r) {
+				e.resolver = resolver;
+				return;
+			}
+		}
+		resolver.release();
+	}
+	
+	/**
+	 * This method records the resolution of a service, in memory and in the
+	 * file
+	 */
+	private void resolved(Resolution r, ServiceResolver resolver, 
+			ServiceResolverEvent event, String name, String hostname, 
+			Address address, int port, String txtRecords[], int flags) {
+		DirectoryEvent report = null;
+		ResolvedService service = null;
+		List<Entry> removed = new ArrayList<Entry>();
+		ServiceResolver stale = null;
+		Entry e = r.entry;
+		
+		synchronized (this) {
+			if (released || entries.get(e.key)!=e || e.resolution!=r)
+				return;
+			
+			if (event==ServiceResolverEvent.RESOLVER_FAILURE) {
+				stale = resolver;
+				e.resolution = null;
+				e.resolver = null;
+				// a cached service which can not be resolved is stale
+				if (e.cached || !e.reported)
+					removed.add(remove(e));
+			} else if (name!=null) {
+				service = new ResolvedService();
+				service.interfaceNum = e.service.interfaceNum;
+				service.proto = e.service.proto;
+				service.resolverEvent = event;
+				service.name = e.service.name;
+				service.type = e.service.type;
+				service.domain = e.service.domain;
+				service.hostname = hostname;
+				service.address = address;
+				service.port = port;
+				service.txtRecords = txtRecords;
+				service.lookupResultFlag = flags;
+				
+				report = e.cached ? DirectoryEvent.CONFIRMED : e.reported 
+						? DirectoryEvent.UPDATED : DirectoryEvent.ADDED;
+				e.service = service;
+				e.cached = false;
+				e.reported = true;
+				store(e);
+			}
+		}
+		
+		if (stale!=null)
+			stale.release();
+		report(removed);
+		if (report!=null)
+			callback.directoryCallback(this, report, service);
+	}
+	
+	/**
+	 * This method removes a service from the directory and from the file. 
+	 * Must be called with this object's lock held.
+	 * @return the entry
+	 */
+	private Entry remove(Entry e) {
+		entries.remove(e.key);
+		e.resolution = null;
+		if (e.slot>=0) {
+			map.put(slotOffset(e.slot), (byte) 0);
+			usedSlots.clear(e.slot);
+			e.slot = -1;
+		}
+		return e;
+	}
+	
+	/**
+	 * This method releases the resolvers of removed services, and reports 
+	 * those which were reported
+	 */
+	private void report(List<Entry> removed) {
+		for(Entry e: removed) {
+			if (e.resolver!=null)
+				e.resolver.release();
+			if (e.reported)
+				callback.directoryCallback(this, DirectoryEvent.REMOVED, e.service);
+		}
+	}
+	
+	
+	/*
+	 * F I L E
+	 *
+	 * Each slot is made of a byte telling whether it is used, the length of
+	 * its data (unsigned short) and their CRC32 (int), followed by the data:
+	 * the interface number (int), protocol (byte), port (unsigned short), 
+	 * address (length byte, then 0, 4 or 16 bytes), name, type, domain, host 
+	 * name and TXT record count (unsigned short) followed by the TXT records.
+	 * Strings are stored as an unsigned short length followed by UTF-8 bytes.
+	 */
+	private int slotOffset(int slot) {
+		return HEADER_SIZE + slot * SLOT_SIZE;
+	}
+	
+	/**
+	 * This method writes a service to its slot, allocating one if needed. 
+	 * The writes to a mapped file may reach the disk in any order, so a slot
+	 * which could not be written completely is told by its CRC when loading.
+	 * Must be called with this object's lock held.
+	 */
+	private void store(Entry e) {
+		if (e.slot<0) {
+			int slot = usedSlots.nextClearBit(0);
+			if (slot>=slotCount)
+				return;
+			e.slot = slot;
+			usedSlots.set(slot);
+		}
+		
+		int offset = slotOffset(e.slot);
+		ByteBuffer b = slotData;
+		b.clear();
+		try {
+			ResolvedService s = e.service;
+			b.putInt(s.interfaceNum);
+			b.put((byte) s.proto.ordinal());
+			b.putShort((short) s.port);
+			byte address[] = s.address==null ? new byte[0] : s.address.getBytes();
+			b.put((byte) address.length);
+			b.put(address);
+			putString(b, s.name);
+			putString(b, s.type);
+			putString(b, s.domain);
+			putString(b, s.hostname);
+			String txt[] = s.txtRecords==null ? new String[0] : s.txtRecords;
+			b.putShort((short) txt.length);
+			for(String t: txt)
+				putString(b, t);
+		} catch (BufferOverflowException ex) {
+			// too large for a slot: kept in memory only
+			map.put(offset, (byte) 0);
+			usedSlots.clear(e.slot);
+			e.slot = -1;
+			return;
+		}
+		
+		crc.reset();
+		crc.update(b.array(), 0, b.position());
+		ByteBuffer m = map.duplicate();
+		m.position(offset);
+		m.put((byte) 0);
+		m.putShort((short) b.position());
+		m.putInt((int) crc.getValue());
+		m.put(b.array(), 0, b.position());
+		map.put(offset, (byte) 1);
+	}
+	
+	/**
+	 * This method loads the services saved in the file. Slots holding 
+	 * services of another type are freed. Must be called with this object's
+	 * lock held.
+	 */
+	private void load(List<ResolvedService> loaded) {
+		for(int slot=0; slot<slotCount; slot++) {
+			int offset = slotOffset(slot);
+			if (map.get(offset)!=1)
+				continue;
+			
+			ResolvedService s = new ResolvedService();
+			try {
+				ByteBuffer b = map.duplicate();
+				b.position(offset + 1);
+				int length = b.getShort() & 0xffff;
+				int checksum = b.getInt();
+				if (length>SLOT_SIZE - SLOT_HEADER_SIZE)
+					throw new IllegalStateException("bad slot length");
+				b.limit(b.position() + length);
+				byte data[] = new byte[length];
+				b.slice().get(data);
+				crc.reset();
+				crc.update(data, 0, length);
+				if ((int) crc.getValue()!=checksum)
+					throw new IllegalStateException("bad slot checksum");
+				
+				s.interfaceNum = b.getInt();
+				s.proto = Avahi4JConstants.PROTOCOLS[b.get()];
+				s.port = b.getShort() & 0xffff;
+				byte address[] = new byte[b.get()];
+				b.get(address);
+				s.name = getString(b);
+				s.type = getString(b);
+				s.domain = getString(b);
+				s.hostname = getString(b);
+				s.txtRecords = new String[b.getShort() & 0xffff];
+				for(int i=0; i<s.txtRecords.length; i++)
+					s.txtRecords[i] = getString(b);
+				if (address.length>0)
+					s.address = new Address(address, s.interfaceNum, s.port);
+				s.resolverEvent = ServiceResolverEvent.RESOLVER_FOUND;
+			} catch (RuntimeException ex) {
+				// corrupted slot
+				s = null;
+			}
+			
+			String key = s==null ? null : key(s.interfaceNum, s.proto, s.name);
+			if (s==null || !type.equalsIgnoreCase(s.type) || entries.containsKey(key)) {
+				map.put(offset, (byte) 0);
+				continue;
+			}
+			Entry e = new Entry(key);
+			e.service = s;
+			e.slot = slot;
+			e.cached = true;
+			e.reported = true;
+			usedSlots.set(slot);
+			entries.put(key, e);
+			loaded.add(s);
+		}
+	}
+	
+	private static void putString(ByteBuffer b, String s) {
+		byte bytes[];
+		try {
+			bytes = s==null ? new byte[0] : s.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new Error(e);
+		}
+		if (bytes.length>0xffff)
+			throw new BufferOverflowException();
+		b.putShort((short) bytes.length);
+		b.put(bytes);
+	}
+	
+	private static String getString(ByteBuffer b) {
+		byte bytes[] = new byte[b.getShort() & 0xffff];
+		b.get(bytes);
+		try {
+			return new String(bytes, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new Error(e);
+		}
+	}
+}
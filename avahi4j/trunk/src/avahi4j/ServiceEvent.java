@@ -0,0 +1,373 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j;
+
+import java.nio.charset.Charset;
+
+import avahi4j.Avahi4JConstants.BrowserEvent;
+import avahi4j.Avahi4JConstants.Protocol;
+
+/**
+ * This class is a view on the event being dispatched by a 
+ * {@link ServiceBrowser} to an {@link IServiceEventCallback}. A single 
+ * instance is reused for all the events of a browser, and is only valid until
+ * the callback returns. Its accessors do not allocate, except 
+ * {@link #getName()}, {@link #getType()} and {@link #getDomain()}, which 
+ * decode the name, type and domain the first time they are called for an 
+ * event (the native backends hand them over as UTF-8 bytes). Names are 
+ * compared with {@link #nameEquals(CharSequence)}, appended to a 
+ * {@link StringBuilder} with {@link #appendName(StringBuilder)} or copied with
+ * {@link #getNameBytes(byte[], int)} without creating a String.
+ * @author gilles
+ *
+ */
+public final class ServiceEvent {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	/*
+	 * M E M B E R S
+	 */
+	private final ServiceBrowser browser;
+	private int interfaceNum;
+	private int proto;
+	private int event;
+	private int flags;
+	private long timestamp;
+	/**
+	 * the name, type and domain as UTF-8 bytes, one after the other, or null
+	 * if they were given as Strings
+	 */
+	private byte names[];
+	private int nameLength;
+	private int typeLength;
+	private int domainLength;
+	private String name;
+	private String type;
+	private String domain;
+	
+	
+	/*
+	 * M E T H O D S
+	 */
+	ServiceEvent(ServiceBrowser browser) {
+		this.browser = browser;
+	}
+	
+	/**
+	 * This method points this view at an event whose name, type and domain 
+	 * are UTF-8 bytes (a length of -1 stands for null)
+	 */
+	void set(int interfaceNum, int proto, int event, int flags, long timestamp,
+			byte names[], int nameLength, int typeLength, int domainLength) {
+		set(interfaceNum, proto, event, flags, timestamp);
+		this.names = names;
+		this.nameLength = nameLength;
+		this.typeLength = typeLength;
+		this.domainLength = domainLength;
+		name = null;
+		type = null;
+		domain = null;
+	}
+	
+	/**
+	 * This method points this view at an event whose name, type and domain 
+	 * are Strings
+	 */
+	void set(int interfaceNum, int proto, int event, int flags, long timestamp,
+			String name, String type, String domain) {
+		set(interfaceNum, proto, event, flags, timestamp);
+		names = null;
+		this.name = name;
+		this.type = type;
+		this.domain = domain;
+	}
+	
+	private void set(int interfaceNum, int proto, int event, int flags, 
+			long timestamp) {
+		this.interfaceNum = interfaceNum;
+		this.proto = proto;
+		this.event = event;
+		this.flags = flags;
+		this.timestamp = timestamp;
+	}
+	
+	/**
+	 * This method drops the references to the last event
+	 */
+	void clear() {
+		names = null;
+		name = null;
+		type = null;
+		domain = null;
+	}
+	
+	/**
+	 * @return the {@link ServiceBrowser} which received this event
+	 */
+	public ServiceBrowser getBrowser() {
+		return browser;
+	}
+	
+	/**
+	 * @return the interface number the service was found on
+	 */
+	public int getInterface() {
+		return interfaceNum;
+	}
+	
+	/**
+	 * @return the protocol the service was found with
+	 */
+	public Protocol getProtocol() {
+		return Avahi4JConstants.PROTOCOLS[proto];
+	}
+	
+	/**
+	 * @return the event. If it is {@link BrowserEvent#FAILURE}, all the other
+	 * fields are meaningless.
+	 */
+	public BrowserEvent getEvent() {
+		return Avahi4JConstants.BROWSER_EVENTS[event];
+	}
+	
+	/**
+	 * @return the lookup result flags LOOKUP_RESULT_* (see 
+	 * {@link Avahi4JConstants})
+	 */
+	public int getLookupResultFlags() {
+		return flags;
+	}
+	
+	/**
+	 * @return the native timestamp of this event (see 
+	 * {@link ServiceBrowser#getEventTimestamp()})
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+	
+	/**
+	 * @return the name of the service, or null for events which do not 
+	 * carry a name. It is decoded the first time this method is called for 
+	 * an event.
+	 */
+	public String getName() {
+		if (name==null && names!=null && nameLength>=0)
+			name = new String(names, 0, nameLength, UTF8);
+		return name;
+	}
+	
+	/**
+	 * @return the type of the service, or null for events which do not 
+	 * carry a type. It is decoded the first time this method is called for 
+	 * an event.
+	 */
+	public String getType() {
+		if (type==null && names!=null && typeLength>=0)
+			type = new String(names, Math.max(nameLength, 0), typeLength, UTF8);
+		return type;
+	}
+	
+	/**
+	 * @return the domain of the service, or null for events which do not 
+	 * carry a domain. It is decoded the first time this method is called for 
+	 * an event.
+	 */
+	public String getDomain() {
+		if (domain==null && names!=null && domainLength>=0)
+			domain = new String(names, Math.max(nameLength, 0) + 
+					Math.max(typeLength, 0), domainLength, UTF8);
+		return domain;
+	}
+	
+	/**
+	 * @return the length of the name of the service in UTF-8 bytes, or -1 for
+	 * events which do not carry a name
+	 */
+	public int getNameLength() {
+		if (names!=null)
+			return nameLength;
+		if (name==null)
+			return -1;
+		int length = 0;
+		for(int i=0; i<name.length(); ) {
+			int cp = name.codePointAt(i);
+			length += utf8Length(cp);
+			i += Character.charCount(cp);
+		}
+		return length;
+	}
+	
+	/**
+	 * This method copies the name of the service, as UTF-8 bytes, to the given
+	 * array
+	 * @param dst the array, which must have room for {@link #getNameLength()}
+	 * bytes from <code>offset</code>
+	 * @param offset the offset of the first byte in <code>dst</code>
+	 * @return the number of bytes copied, or -1 for events which do not carry
+	 * a name
+	 */
+	public int getNameBytes(byte dst[], int offset) {
+		if (names!=null) {
+			if (nameLength>0)
+				System.arraycopy(names, 0, dst, offset, nameLength);
+			return nameLength;
+		}
+		if (name==null)
+			return -1;
+		int pos = offset;
+		for(int i=0; i<name.length(); ) {
+			int cp = name.codePointAt(i);
+			int count = utf8Length(cp);
+			i += Character.charCount(cp);
+			if (count==1)
+				dst[pos] = (byte) cp;
+			else {
+				for(int j=count-1; j>0; j--) {
+					dst[pos + j] = (byte) (0x80 | (cp & 0x3f));
+					cp >>= 6;
+				}
+				dst[pos] = (byte) ((0xf00 >> count) & 0xff | cp);
+			}
+			pos += count;
+		}
+		return pos - offset;
+	}
+	
+	/**
+	 * This method compares the name of the service with the given name, 
+	 * ignoring the case of ASCII letters
+	 * @param other the name to compare
+	 * @return whether the names are equal, false for events which do not 
+	 * carry a name
+	 */
+	public boolean nameEquals(CharSequence other) {
+		if (names==null) {
+			if (name==null || name.length()!=other.length())
+				return false;
+			for(int i=0; i<name.length(); i++)
+				if (!asciiEqualsIgnoreCase(name.charAt(i), other.charAt(i)))
+					return false;
+			return true;
+		}
+		
+		if (nameLength<0)
+			return false;
+		int pos = 0, n = other.length();
+		for(int i=0; i<nameLength; ) {
+			if (pos>=n)
+				return false;
+			int b = names[i] & 0xff;
+			if (b<0x80) {
+				if (!asciiEqualsIgnoreCase((char) b, other.charAt(pos)))
+					return false;
+				i++;
+				pos++;
+				continue;
+			}
+			// non-ASCII characters are compared as UTF-8 bytes
+			int cp = Character.codePointAt(other, pos);
+			int count = utf8Length(cp);
+			if (i + count > nameLength || !utf8Equals(i, cp, count))
+				return false;
+			i += count;
+			pos += Character.charCount(cp);
+		}
+		return pos==n;
+	}
+	
+	/**
+	 * This method appends the name of the service to the given 
+	 * {@link StringBuilder}. Nothing is appended for events which do not 
+	 * carry a name.
+	 * @param sb the {@link StringBuilder}
+	 * @return <code>sb</code>
+	 */
+	public StringBuilder appendName(StringBuilder sb) {
+		if (names==null) {
+			if (name!=null)
+				sb.append(name);
+			return sb;
+		}
+		for(int i=0; i<nameLength; )
+			i = appendUTF8(i, nameLength, sb);
+		return sb;
+	}
+	
+	@Override
+	public String toString() {
+		return getEvent()+" "+getName()+" "+getType()+" "+getDomain()
+			+" (interface "+interfaceNum+", "+getProtocol()+")";
+	}
+	
+	/*
+	 * U T F - 8
+	 */
+	private static boolean asciiEqualsIgnoreCase(char a, char b) {
+		if (a==b)
+			return true;
+		if (a>='A' && a<='Z')
+			a += 'a' - 'A';
+		if (b>='A' && b<='Z')
+			b += 'a' - 'A';
+		return a==b;
+	}
+	
+	/**
+	 * This method decodes the UTF-8 character at the given offset of the 
+	 * names and appends it to <code>sb</code>. Invalid sequences are replaced
+	 * with U+FFFD.
+	 * @return the offset of the next character
+	 */
+	private int appendUTF8(int offset, int end, StringBuilder sb) {
+		int b = names[offset] & 0xff;
+		int count = b<0x80 ? 1 : b<0xc2 ? 0 : b<0xe0 ? 2 : b<0xf0 ? 3 : b<0xf5 ? 4 : 0;
+		if (count==0 || offset + count > end) {
+			sb.append('\ufffd');
+			return offset + 1;
+		}
+		if (count==1) {
+			sb.append((char) b);
+			return offset + 1;
+		}
+		int cp = b & (0xff >> (count + 1));
+		for(int i=1; i<count; i++) {
+			int c = names[offset + i] & 0xff;
+			if ((c & 0xc0)!=0x80) {
+				sb.append('\ufffd');
+				return offset + i;
+			}
+			cp = (cp << 6) | (c & 0x3f);
+		}
+		sb.appendCodePoint(cp);
+		return offset + count;
+	}
+	
+	private static int utf8Length(int cp) {
+		return cp<0x80 ? 1 : cp<0x800 ? 2 : cp<0x10000 ? 3 : 4;
+	}
+	
+	private boolean utf8Equals(int offset, int cp, int count) {
+		for(int i=count-1; i>0; i--) {
+			if ((names[offset + i] & 0xff)!=(0x80 | (cp & 0x3f)))
+				return false;
+			cp >>= 6;
+		}
+		return (names[offset] & 0xff)==((0xf00 >> count) & 0xff | cp);
+	}
+}
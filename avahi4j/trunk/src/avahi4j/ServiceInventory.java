@@ -0,0 +1,287 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import avahi4j.Avahi4JConstants.BrowserEvent;
+import avahi4j.Avahi4JConstants.Protocol;
+import avahi4j.exceptions.Avahi4JException;
+
+/**
+ * A service inventory reports all the services available on the network (in
+ * a domain), whatever their type. It uses a single {@link ServiceTypeBrowser}
+ * and creates a {@link ServiceBrowser} for each service type when it first 
+ * appears, and releases it when the type disappears. Services are reported
+ * to an {@link IServiceBrowserCallback} as if they came from a single 
+ * service browser:
+ * <ul>
+ * <li>{@link BrowserEvent#NEW} and {@link BrowserEvent#REMOVE} events are 
+ * reported for every service of every type. When a type disappears, REMOVE
+ * events are reported for the services of that type which are still known,</li>
+ * <li>{@link BrowserEvent#CACHE_EXHAUSTED} and {@link BrowserEvent#NO_MORE} 
+ * events are only reported for the service types (the name and type are 
+ * null): per-type browsers report theirs at different times,</li>
+ * <li>{@link BrowserEvent#FAILURE} events are reported for all browsers.</li>
+ * </ul>
+ * To create one, call 
+ * {@link Client#createServiceInventory(IServiceBrowserCallback, int, Protocol, String, int) createServiceInventory()}
+ * on an existing {@link Client}. It must be released when no longer needed.
+ * @author gilles
+ *
+ */
+public final class ServiceInventory implements Closeable {
+	/**
+	 * A service reported by one of the service browsers
+	 */
+	private static final class Service {
+		final int interfaceNum;
+		final Protocol proto;
+		final String name, type, domain;
+		
+		Service(int interfaceNum, Protocol proto, String name, String type, 
+				String domain) {
+			this.interfaceNum = interfaceNum;
+			this.proto = proto;
+			this.name = name;
+			this.type = type;
+			this.domain = domain;
+		}
+	}
+	
+	/**
+	 * A service type, and the browser looking for services of that type
+	 */
+	private static final class TypeEntry {
+		final String type, domain;
+		ServiceBrowser browser;
+		// the interface/protocol pairs the type was reported on
+		final Set<String> sources = new HashSet<String>();
+		// the services reported by the browser, keyed by interface/protocol/name
+		final Map<String, Service> services = new HashMap<String, Service>();
+		
+		TypeEntry(String type, String domain) {
+			this.type = type;
+			this.domain = domain;
+		}
+	}
+	
+	
+	/*
+	 * M E M B E R S
+	 */
+	private final Client client;
+	private final IServiceBrowserCallback callback;
+	private final int interfaceNum;
+	private final Protocol proto;
+	private final int lookupFlags;
+	private final Map<String, TypeEntry> types;
+	private ServiceTypeBrowser typeBrowser;
+	private boolean released;
+	
+	
+	/*
+	 * M E T H O D S
+	 */
+	/**
+	 * This method builds a new service inventory.
+	 * @param client the client used to create the browsers
+	 * @param callback the callback object which will receive the services
+	 * @param interfaceNum the interface number
+	 * @param proto the {@link Protocol}
+	 * @param domain the domain to search (can be null to use client's domain)
+	 * @param lookupFlags the lookup flags (see Avahi4JConstants.LOOKUP_*)
+	 * @throws Avahi4JException if there is a problem creating the service 
+	 * type browser
+	 */
+	ServiceInventory(Client client, IServiceBrowserCallback callback, 
+			int interfaceNum, Protocol proto, String domain, int lookupFlags) 
+			throws Avahi4JException {
+		this.client = client;
+		this.callback = callback;
+		this.interfaceNum = interfaceNum;
+		this.proto = proto;
+		this.lookupFlags = lookupFlags;
+		types = new HashMap<String, TypeEntry>();
+		
+		ServiceTypeBrowser b = client.createServiceTypeBrowser(
+				new IServiceTypeBrowserCallback() {
+			@Override
+			public void serviceTypeCallback(int interfaceNum, Protocol proto,
+					BrowserEvent browserEvent, String type, String domain,
+					int lookupResultFlag) {
+				typeEvent(interfaceNum, proto, browserEvent, type, domain, 
+						lookupResultFlag);
+			}
+		}, interfaceNum, proto, domain, lookupFlags);
+		
+		synchronized (this) {
+			typeBrowser = b;
+		}
+	}
+	
+	/**
+	 * This method releases the service type browser and all the per-type
+	 * service browsers. No more events are reported after it returns.
+	 */
+	public void release() {
+		List<ServiceBrowser> browsers = new ArrayList<ServiceBrowser>();
+		ServiceTypeBrowser b;
+		synchronized (this) {
+			if (released)
+				return;
+			released = true;
+			b = typeBrowser;
+			for(TypeEntry t: types.values())
+				if (t.browser!=null)
+					browsers.add(t.browser);
+			types.clear();
+		}
+		if (b!=null)
+			b.release();
+		for(ServiceBrowser s: browsers)
+			s.release();
+	}
+	
+	/**
+	 * This method releases this inventory, like {@link #release()}.
+	 */
+	@Override
+	public void close() {
+		release();
+	}
+	
+	/**
+	 * This method returns the service types currently known, as 
+	 * "type.domain" strings (for instance "_http._tcp.local").
+	 * @return the service types currently browsed
+	 */
+	public synchronized List<String> getServiceTypes() {
+		List<String> l = new ArrayList<String>(types.size());
+		for(TypeEntry t: types.values())
+			l.add(t.type + "." + t.domain);
+		return l;
+	}
+	
+	/**
+	 * @return the number of service browsers currently in use
+	 */
+	public synchronized int getBrowserCount() {
+		int n = 0;
+		for(TypeEntry t: types.values())
+			if (t.browser!=null)
+				n++;
+		return n;
+	}
+	
+	/**
+	 * This method handles service type events: it creates a service browser
+	 * the first time a type is reported, and releases it when the type is 
+	 * no longer reported on any interface.
+	 */
+	private void typeEvent(int ifNum, Protocol p, BrowserEvent event, 
+			String type, String domain, int flags) {
+		if (event!=BrowserEvent.NEW && event!=BrowserEvent.REMOVE) {
+			synchronized (this) {
+				if (released)
+					return;
+			}
+			callback.serviceCallback(ifNum, p, event, null, null, domain, flags);
+			return;
+		}
+		
+		String key = (type + "." + domain).toLowerCase();
+		String source = ifNum + "/" + p.ordinal();
+		ServiceBrowser stale = null;
+		List<Service> removed = null;
+		
+		synchronized (this) {
+			if (released)
+				return;
+			TypeEntry t = types.get(key);
+			if (event==BrowserEvent.NEW) {
+				if (t==null) {
+					t = new TypeEntry(type, domain);
+					types.put(key, t);
+				}
+				t.sources.add(source);
+				if (t.browser==null)
+					t.browser = createBrowser(t);
+			} else if (t!=null && t.sources.remove(source) && t.sources.isEmpty()) {
+				types.remove(key);
+				stale = t.browser;
+				removed = new ArrayList<Service>(t.services.values());
+			}
+		}
+		
+		if (stale!=null)
+			stale.release();
+		if (removed!=null)
+			for(Service s: removed)
+				callback.serviceCallback(s.interfaceNum, s.proto, BrowserEvent.REMOVE,
+						s.name, s.type, s.domain, 0);
+	}
+	
+	/**
+	 * This method creates the service browser for a type, or returns null if
+	 * it can not be created (it will be retried the next time the type is 
+	 * reported)
+	 */
+	private ServiceBrowser createBrowser(final TypeEntry t) {
+		try {
+			return client.createServiceBrowser(new IServiceBrowserCallback() {
+				@Override
+				public void serviceCallback(int ifNum, Protocol p, BrowserEvent event,
+						String name, String type, String domain, int flags) {
+					serviceEvent(t, ifNum, p, event, name, type, domain, flags);
+				}
+			}, interfaceNum, proto, t.type, t.domain, lookupFlags);
+		} catch (Avahi4JException e) {
+			callback.serviceCallback(interfaceNum, proto, BrowserEvent.FAILURE, 
+					null, t.type, t.domain, 0);
+			return null;
+		}
+	}
+	
+	/**
+	 * This method keeps track of the services of a type and reports them
+	 */
+	private void serviceEvent(TypeEntry t, int ifNum, Protocol p, 
+			BrowserEvent event, String name, String type, String domain, int flags) {
+		synchronized (this) {
+			// ignore events from a browser which has been released
+			if (released || types.get((t.type + "." + t.domain).toLowerCase())!=t)
+				return;
+			
+			String key = ifNum + "/" + p.ordinal() + "/" + name;
+			if (event==BrowserEvent.NEW)
+				t.services.put(key, new Service(ifNum, p, name, type, domain));
+			else if (event==BrowserEvent.REMOVE)
+				t.services.remove(key);
+			else if (event!=BrowserEvent.FAILURE)
+				return;
+		}
+		callback.serviceCallback(ifNum, p, event, name, type, domain, flags);
+	}
+}
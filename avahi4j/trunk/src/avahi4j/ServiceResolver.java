@@ -17,6 +17,8 @@
 */
 package avahi4j;
 
+import java.io.Closeable;
+
 import avahi4j.Avahi4JConstants.Protocol;
 import avahi4j.exceptions.Avahi4JException;
 
@@ -27,12 +29,17 @@ import avahi4j.exceptions.Avahi4JException;
  * on an existing {@link Client} object. Once the service is resolved, results
  * will be delivered to the provided callback object until the service resolver
  * is released. <b>Service resolver objects MUST be released when no longer 
- * needed, by calling {@link #release()}.</b> 
+ * needed, by calling {@link #release()}.</b> Resolvers which are garbage 
+ * collected without being released are reclaimed (see {@link NativeObjects}),
+ * but not before the garbage collector finds them.<br>
+ * A resolver can be given a deadline, in which case it is released and 
+ * reports {@link ServiceResolverEvent#RESOLVER_TIMEOUT} if the service is
+ * neither resolved nor reported as failed in time.
  * 
  * @author gilles
  *
  */
-public final class ServiceResolver {
+public final class ServiceResolver implements Closeable {
 	/**
 	 * This enumeration lists the possible resolver events.
 	 * @author gilles
@@ -46,45 +53,27 @@ public final class ServiceResolver {
 		/**
 		 * The specified service could not be resolved.
 		 */
-		RESOLVER_FAILURE
+		RESOLVER_FAILURE,
+		/**
+		 * The specified service was not resolved before the resolver's 
+		 * deadline. The resolver has been released. This event is only 
+		 * delivered by resolvers created with a deadline, and only the 
+		 * interface, protocol, name, type and domain are given.
+		 */
+		RESOLVER_TIMEOUT
 	};
 	
-	
-	/*
-	 * M E M B E R S
+	/**
+	 * the values of {@link ServiceResolverEvent}, by ordinal
 	 */
-	private long avahi4j_resolver_ptr;
-	private IServiceResolverCallback resolverCallback;
-	private boolean released;
+	static final ServiceResolverEvent RESOLVER_EVENTS[] = ServiceResolverEvent.values();
 	
 	
 	/*
-	 * N A T I V E   M E T H O D S
-	 */
-	/**
-	 * this method creates an AvahiServiceResover object
-	 * @param avahi4j_client_ptr the avahi4j_client struct
-	 * @param ifNum the interface number
-	 * @param proto the protocol
-	 * @param name the name of the service
-	 * @param type the type of the service
-	 * @param domain the domain
-	 * @param addressProtocol the desired protocol of the resolved address 
-	 * @param lookupFlags the lookup flags (Avahi4JConstants.LOOKUP_*)
-	 * @return a pointer to a avahi4j_resolver struct
-	 * @throws Avahi4JException if there is an error creating the service resolver
-	 */
-	private native long init_resolver(long avahi4j_client_ptr, int ifNum, int proto,
-			String name, String type, String domain, int addressProtocol, 
-			int lookupFlags) throws Avahi4JException;
-	
-	/**
-	 * This method releases the service resolver
-	 * @param avahi4j_resolver_ptr the resolver to be released
-	 * @param lookupFlags lookup flags (see Avahi4JConstants.LOOKUP_* )
-	 * @return the raw result from avahi_service_resolver_free
+	 * M E M B E R S
 	 */
-	private native int release(long avahi4j_resolver_ptr);
+	private final Peer peer;
+	private volatile Runnable releaseListener;
 	
 	
 	/*
@@ -93,6 +82,8 @@ public final class ServiceResolver {
 	/**
 	 * This method builds a new service resolver. 
 	 * @param avahi4j_client_ptr a JNI pointer to a avahi4j_client struct
+	 * @param stats the client's latency statistics
+	 * @param client the client, whose {@link EventJournal} records the events
 	 * @param callback the callback object which will receive service resolving
 	 * notifications
 	 * @param ifNum the interface number of the service to be resolved. Pass 
@@ -107,45 +98,73 @@ public final class ServiceResolver {
 	 * received by the service browser
 	 * @param addressProtocol the protocol of the resolved address.
 	 * @param lookupFlags the lookup flags (Avahi4JConstants.LOOKUP_*)
+	 * @param deadline the delay in milliseconds after which the resolver is 
+	 * released if it has not reported anything, or 0 for no deadline
 	 * @throws Avahi4JException if there is an error creating the resolver 
 	 */
-	ServiceResolver(long avahi4j_client_ptr, IServiceResolverCallback callback,
-			int ifNum, Protocol proto, String name,	String type, String domain, 
-			Protocol addressProtocol, int lookupFlags) throws Avahi4JException {
+	ServiceResolver(long avahi4j_client_ptr, LatencyStats stats, Client client,
+			IServiceResolverCallback callback, int ifNum, Protocol proto,
+			String name, String type, String domain, Protocol addressProtocol,
+			int lookupFlags, long deadline) throws Avahi4JException {
 		
-		resolverCallback = callback;
-		released = false;
-		avahi4j_resolver_ptr = init_resolver(avahi4j_client_ptr, ifNum, proto.ordinal(), 
-				name, type, domain, addressProtocol.ordinal(), lookupFlags);
+		peer = new Peer(this, callback, stats, client, ifNum, proto, name, type,
+				domain);
+		peer.created(Client.backend.initServiceResolver(peer, avahi4j_client_ptr, 
+				ifNum, proto.ordinal(), name, type, domain,
+				addressProtocol.ordinal(), lookupFlags));
+		peer.startDeadline(deadline);
 	}
 	
 	/**
 	 * This method must be called when this resolver is no longer needed, to 
 	 * release resources.
 	 */
-	public synchronized void release() {
-		if(!released){
-			release(avahi4j_resolver_ptr);
-			released = true;
+	public void release() {
+		if (peer.release()) {
+			Runnable listener = releaseListener;
+			if (listener!=null)
+				listener.run();
 		}
 	}
 	
 	/**
-	 * This method is called from JNI to dispatch a resolver callback
+	 * This method sets the task run when this resolver is released with 
+	 * {@link #release()} (but not when its deadline expires or when it is
+	 * reclaimed), from the releasing thread.
+	 * @param listener the task to run, or null
 	 */
-	@SuppressWarnings("unused")
-	private void dispatchCallback(int interfaceNum, int proto, int resolverEvent,
-			String name, String type, String domain, String hostname, 
-			String address, int addressType, int port, String txtRecords[], int lookupResultFlag){
-		
-		Address a;
-		try {
-			a = new Address(address, Protocol.values()[addressType]);
-		} catch (Exception e) {a = null;}
-
-		resolverCallback.resolverCallback(this, interfaceNum, Protocol.values()[proto],
-			ServiceResolverEvent.values()[resolverEvent], name, type, domain,
-			hostname, a, port, txtRecords, lookupResultFlag);
+	void setReleaseListener(Runnable listener) {
+		releaseListener = listener;
+	}
+	
+	/**
+	 * This method releases this resolver, like {@link #release()}. It can be
+	 * called several times.
+	 */
+	@Override
+	public void close() {
+		release();
+	}
+	
+	/**
+	 * This method tells whether this resolver was released because its 
+	 * deadline expired.
+	 * @return whether this resolver reported 
+	 * {@link ServiceResolverEvent#RESOLVER_TIMEOUT}
+	 */
+	public boolean isTimedOut() {
+		synchronized(peer) {
+			return peer.timedOut;
+		}
+	}
+	
+	/**
+	 * This method returns the native timestamp of the event currently being
+	 * dispatched by this resolver (see {@link Client#getEventTimestamp()}).
+	 * @return the native timestamp of the current or last event, in nanoseconds
+	 */
+	public long getEventTimestamp() {
+		return peer.eventTimestamp;
 	}
 	
 	@Override
@@ -153,7 +172,7 @@ public final class ServiceResolver {
 		final int prime = 31;
 		int result = 1;
 		result = prime * result
-				+ (int) (avahi4j_resolver_ptr ^ (avahi4j_resolver_ptr >>> 32));
+				+ (int) (peer.ptr ^ (peer.ptr >>> 32));
 		return result;
 	}
 
@@ -166,8 +185,144 @@ public final class ServiceResolver {
 		if (!(obj instanceof ServiceResolver))
 			return false;
 		ServiceResolver other = (ServiceResolver) obj;
-		if (avahi4j_resolver_ptr != other.avahi4j_resolver_ptr)
+		if (peer.ptr != other.peer.ptr)
 			return false;
 		return true;
 	}
+	
+	/**
+	 * Objects of this class hold the native side of a {@link ServiceResolver}
+	 * (see {@link NativePeer}), and enforce its deadline.
+	 * @author gilles
+	 *
+	 */
+	static final class Peer extends NativePeer<ServiceResolver> {
+		private final IServiceResolverCallback callback;
+		private final LatencyStats latencyStats;
+		private final int journalId;
+		private final int interfaceNum;
+		private final Protocol proto;
+		private final String name, type, domain;
+		private volatile long eventTimestamp;
+		private boolean reported, timedOut;
+		private TimerWheel.Timeout deadline;
+		
+		private Peer(ServiceResolver resolver, IServiceResolverCallback callback,
+				LatencyStats stats, Client client, int interfaceNum, Protocol proto,
+				String name, String type, String domain) {
+			super(NativeObjects.Kind.SERVICE_RESOLVER, resolver, client);
+			this.callback = callback;
+			latencyStats = stats;
+			journalId = EventJournal.nextId();
+			this.interfaceNum = interfaceNum;
+			this.proto = proto;
+			this.name = name;
+			this.type = type;
+			this.domain = domain;
+			reported = false;
+			timedOut = false;
+		}
+		
+		/**
+		 * This method starts the deadline, unless the resolver has already 
+		 * reported something (or was released) 
+		 * @param delay the deadline in milliseconds, or 0 for no deadline
+		 */
+		private synchronized void startDeadline(long delay) {
+			if (delay>0 && !reported && !isReleased())
+				deadline = TimerWheel.getShared().schedule(new Runnable() {
+					@Override
+					public void run() {
+						expire();
+					}
+				}, delay);
+		}
+		
+		@Override
+		void releasing() {
+			if (deadline!=null) {
+				deadline.cancel();
+				deadline = null;
+			}
+		}
+		
+		@Override
+		void free(long nativePtr) {
+			Client.backend.releaseServiceResolver(nativePtr);
+		}
+		
+		/**
+		 * This method is run by the {@link TimerWheel} when the deadline 
+		 * expires. It releases the native resolver and reports the timeout.
+		 */
+		private void expire() {
+			synchronized(this) {
+				if (reported || isReleased())
+					return;
+				timedOut = true;
+			}
+			
+			ServiceResolver resolver = getOwner();
+			if (!release() || resolver==null)
+				return;
+			
+			long timestamp = System.nanoTime();
+			eventTimestamp = timestamp;
+			EventJournal journal = client.getJournal();
+			if (journal!=null)
+				journal.serviceResolverEvent(journalId, timestamp, interfaceNum, 
+						proto.ordinal(), ServiceResolverEvent.RESOLVER_TIMEOUT.ordinal(), 
+						name, type, domain, null, null, 0, null, 0);
+			
+			callback.resolverCallback(resolver, interfaceNum, proto,
+					ServiceResolverEvent.RESOLVER_TIMEOUT, name, type, domain, null,
+					null, 0, null, 0);
+		}
+		
+		/**
+		 * This method is called from the native backend to dispatch a resolver 
+		 * callback. The address is given in binary form (4 or 16 bytes, or null).
+		 * Events received after the resolver was released, or garbage 
+		 * collected, are dropped.
+		 */
+		void dispatchCallback(int interfaceNum, int proto, int resolverEvent,
+				String name, String type, String domain, String hostname, 
+				byte address[], int port, String txtRecords[], 
+				int lookupResultFlag, long wakeupTimestamp, long timestamp){
+			
+			long dispatched = System.nanoTime();
+			
+			ServiceResolver resolver = getOwner();
+			if (resolver==null)
+				return;
+			
+			synchronized(this) {
+				if (timedOut || isReleased())
+					return;
+				
+				// the resolver has answered, the deadline no longer applies
+				reported = true;
+				releasing();
+			}
+			
+			eventTimestamp = timestamp;
+			
+			EventJournal journal = client.getJournal();
+			if (journal!=null)
+				journal.serviceResolverEvent(journalId, timestamp, interfaceNum, 
+						proto, resolverEvent, name, type, domain, hostname, address,
+						port, txtRecords, lookupResultFlag);
+			
+			Address a = address==null ? null : new Address(address, interfaceNum, port);
+			
+			try {
+				callback.resolverCallback(resolver, interfaceNum, Avahi4JConstants.PROTOCOLS[proto],
+					ServiceResolver.RESOLVER_EVENTS[resolverEvent], name, type, domain,
+					hostname, a, port, txtRecords, lookupResultFlag);
+			} finally {
+				latencyStats.recordEvent(wakeupTimestamp, timestamp, dispatched,
+						System.nanoTime());
+			}
+		}
+	}
 }
@@ -0,0 +1,499 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import avahi4j.Avahi4JConstants.BrowserEvent;
+import avahi4j.Avahi4JConstants.Protocol;
+import avahi4j.ServiceResolver.ServiceResolverEvent;
+import avahi4j.exceptions.Avahi4JException;
+
+/**
+ * A service snapshot gathers all the services of a given type currently on
+ * the network: it browses until the browser reports 
+ * {@link BrowserEvent#NO_MORE} (or {@link BrowserEvent#CACHE_EXHAUSTED}, in
+ * cache-only mode), optionally resolves the services found with a limited 
+ * number of resolvers at a time, and completes with the list of services. 
+ * It completes with whatever was gathered so far if its deadline expires 
+ * first (see {@link #isTimedOut()}).
+ * <br>
+ * To create one, call 
+ * {@link Client#snapshotServices(IServiceSnapshotCallback, int, Protocol, String, String, int, boolean, int, long) snapshotServices()},
+ * or {@link Client#browseServices(int, Protocol, String, String, int, boolean, int, long) browseServices()}
+ * to wait for the result. The result is a list of {@link ResolvedService}s
+ * in the order they were found. Services which were not resolved have a 
+ * null {@link ResolvedService#resolverEvent} (when resolving is disabled) or
+ * {@link ServiceResolverEvent#RESOLVER_FAILURE} (when resolving failed or 
+ * timed out), and only their interface, protocol, name, type and domain are
+ * meaningful.
+ * <br>
+ * The browser and resolvers are released when the snapshot completes.
+ * @author gilles
+ *
+ */
+public final class ServiceSnapshot implements Future<List<ResolvedService>> {
+	/**
+	 * The timer thread enforcing deadlines, shared by all snapshots
+	 */
+	private static ScheduledExecutorService timer;
+	
+	private static synchronized ScheduledExecutorService timer() {
+		if (timer==null)
+			timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "avahi4j snapshot timer");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		return timer;
+	}
+	
+	
+	/*
+	 * M E M B E R S
+	 */
+	private final Client client;
+	private final IServiceSnapshotCallback callback;
+	private final boolean cacheOnly;
+	private final int concurrency;
+	private final Protocol addressProtocol;
+	private final int lookupFlags;
+	// the services found, keyed by interface/protocol/name
+	private final Map<String, ResolvedService> services;
+	// the services waiting for a resolver
+	private final LinkedList<ResolvedService> pending;
+	// the resolvers in use, and the service each one resolves
+	// the services being resolved, and their resolver once created
+	private final Map<ResolvedService, ServiceResolver> resolving;
+	private ServiceSubscription subscription;
+	private ScheduledFuture<?> deadline;
+	private boolean browsing, done, timedOut, cancelled;
+	private Avahi4JException failure;
+	private List<ResolvedService> result;
+	
+	
+	/*
+	 * M E T H O D S
+	 */
+	/**
+	 * This method starts a new service snapshot.
+	 * @param client the client used to create the browser and resolvers
+	 * @param callback the callback to notify on completion, or null
+	 * @param interfaceNum the interface number
+	 * @param proto the {@link Protocol}, also used for the resolved addresses
+	 * @param type the service type
+	 * @param domain the domain to search (can be null to use client's domain)
+	 * @param lookupFlags the lookup flags (see Avahi4JConstants.LOOKUP_*)
+	 * @param cacheOnly whether to stop browsing at CACHE_EXHAUSTED rather 
+	 * than NO_MORE
+	 * @param concurrency the maximum number of resolvers used at a time, 0
+	 * not to resolve the services
+	 * @param timeout the deadline in milliseconds, 0 for none
+	 * @throws Avahi4JException if there is a problem creating the service 
+	 * browser
+	 */
+	ServiceSnapshot(Client client, IServiceSnapshotCallback callback,
+			int interfaceNum, Protocol proto, String type, String domain, 
+			int lookupFlags, boolean cacheOnly, int concurrency, long timeout) 
+			throws Avahi4JException {
+		this.client = client;
+		this.callback = callback;
+		this.cacheOnly = cacheOnly;
+		this.concurrency = concurrency;
+		this.addressProtocol = proto;
+		this.lookupFlags = lookupFlags;
+		services = new LinkedHashMap<String, ResolvedService>();
+		pending = new LinkedList<ResolvedService>();
+		resolving = new LinkedHashMap<ResolvedService, ServiceResolver>();
+		browsing = true;
+		
+		if (timeout>0)
+			deadline = timer().schedule(new Runnable() {
+				@Override
+				public void run() {
+					complete(true, false);
+				}
+			}, timeout, TimeUnit.MILLISECONDS);
+		
+		ServiceSubscription s;
+		try {
+			s = client.subscribeServiceBrowser(new IServiceBrowserCallback() {
+				@Override
+				public void serviceCallback(int interfaceNum, Protocol proto,
+						BrowserEvent browserEvent, String name, String type, 
+						String domain, int lookupResultFlag) {
+					browserEvent(interfaceNum, proto, browserEvent, name, type, 
+							domain);
+				}
+			}, interfaceNum, proto, type, domain, lookupFlags);
+		} catch (Avahi4JException e) {
+			if (deadline!=null)
+				deadline.cancel(false);
+			throw e;
+		}
+		
+		boolean release;
+		synchronized (this) {
+			subscription = s;
+			// the subscription may have completed us already (replay)
+			release = !browsing;
+		}
+		if (release)
+			s.release();
+	}
+	
+	/**
+	 * This method gathers the services found by the browser, and stops 
+	 * browsing on NO_MORE (or CACHE_EXHAUSTED)
+	 */
+	private void browserEvent(int ifNum, Protocol p, BrowserEvent event, 
+			String name, String type, String domain) {
+		boolean finished = false;
+		List<ResolvedService> start = null;
+		
+		synchronized (this) {
+			if (!browsing)
+				return;
+			
+			switch(event) {
+			case NEW:
+				String key = ifNum + "/" + p.ordinal() + "/" + name;
+				if (services.containsKey(key))
+					return;
+				ResolvedService s = newService(ifNum, p, name, type, domain);
+				services.put(key, s);
+				if (concurrency==0)
+					return;
+				pending.add(s);
+				start = nextResolutions();
+				break;
+			case REMOVE:
+				ResolvedService r = services.remove(ifNum + "/" + p.ordinal() + "/" + name);
+				if (r!=null)
+					pending.remove(r);
+				return;
+			case CACHE_EXHAUSTED:
+				if (!cacheOnly)
+					return;
+				// fall through
+			case NO_MORE:
+				break;
+			default:
+				failure = new Avahi4JException("Error browsing services of type "
+						+ type);
+				break;
+			}
+			
+			if (event!=BrowserEvent.NEW) {
+				// stop browsing: we are done once all resolutions are
+				browsing = false;
+				finished = failure!=null 
+					|| (pending.isEmpty() && resolving.isEmpty());
+			}
+		}
+		
+		if (event==BrowserEvent.NEW) {
+			if (start!=null)
+				resolve(start);
+		} else if (finished)
+			complete(false, false);
+		else
+			releaseSubscription();
+	}
+	
+	private static ResolvedService newService(int ifNum, Protocol p, 
+			String name, String type, String domain) {
+		ResolvedService s = new ResolvedService();
+		s.interfaceNum = ifNum;
+		s.proto = p;
+		s.name = name;
+		s.type = type;
+		s.domain = domain;
+		return s;
+	}
+	
+	/**
+	 * This method moves pending services to the services being resolved, up
+	 * to the concurrency limit. Must be called with this object's lock held.
+	 * @return the services whose resolvers must be created with 
+	 * {@link #resolve(List)}, or null if there are none
+	 */
+	private List<ResolvedService> nextResolutions() {
+		List<ResolvedService> l = null;
+		while(!pending.isEmpty() && resolving.size()<concurrency) {
+			ResolvedService s = pending.removeFirst();
+			resolving.put(s, null);
+			if (l==null)
+				l = new ArrayList<ResolvedService>();
+			l.add(s);
+		}
+		return l;
+	}
+	
+	/**
+	 * This method creates the resolvers of the given services, and of the 
+	 * pending services which can be resolved once they fail, and completes
+	 * this snapshot if there is nothing left to do. It must be called 
+	 * without holding this object's lock, as creating a resolver takes the
+	 * client's lock, which the client's thread holds while delivering 
+	 * events to this snapshot.
+	 */
+	private void resolve(List<ResolvedService> next) {
+		boolean finished;
+		do {
+			for(final ResolvedService s: next) {
+				ServiceResolver r;
+				try {
+					r = client.createServiceResolver(
+							new IServiceResolverCallback() {
+						@Override
+						public void resolverCallback(ServiceResolver resolver, 
+								int interfaceNum, Protocol proto, 
+								ServiceResolverEvent resolverEvent, String name, 
+								String type, String domain, String hostname, 
+								Address address, int port, String[] txtRecords, 
+								int lookupResultFlag) {
+							resolved(resolver, s, resolverEvent, hostname, 
+									address, port, txtRecords, lookupResultFlag);
+						}
+					}, s.interfaceNum, s.proto, s.name, s.type, s.domain, 
+					addressProtocol, lookupFlags);
+				} catch (Avahi4JException e) {
+					synchronized (this) {
+						if (resolving.containsKey(s)) {
+							resolving.remove(s);
+							s.resolverEvent = ServiceResolverEvent.RESOLVER_FAILURE;
+						}
+					}
+					continue;
+				}
+				
+				synchronized (this) {
+					// the callback may have been called already
+					if (resolving.containsKey(s)) {
+						resolving.put(s, r);
+						r = null;
+					}
+				}
+				if (r!=null)
+					r.release();
+			}
+			
+			synchronized (this) {
+				next = done ? null : nextResolutions();
+				finished = !done && !browsing && pending.isEmpty() 
+					&& resolving.isEmpty();
+			}
+		} while(next!=null);
+		
+		if (finished)
+			complete(false, false);
+	}
+	
+	/**
+	 * This method records a service's resolution, and starts the next one
+	 */
+	private void resolved(ServiceResolver resolver, ResolvedService s,
+			ServiceResolverEvent event, String hostname, Address address, 
+			int port, String txtRecords[], int flags) {
+		boolean finished;
+		List<ResolvedService> start;
+		
+		synchronized (this) {
+			if (done || !resolving.containsKey(s))
+				return;
+			resolving.remove(s);
+			s.resolverEvent = event;
+			if (event==ServiceResolverEvent.RESOLVER_FOUND) {
+				s.hostname = hostname;
+				s.address = address;
+				s.port = port;
+				s.txtRecords = txtRecords;
+				s.lookupResultFlag = flags;
+			}
+			start = nextResolutions();
+			finished = !browsing && pending.isEmpty() && resolving.isEmpty();
+		}
+		
+		resolver.release();
+		if (start!=null)
+			resolve(start);
+		else if (finished)
+			complete(false, false);
+	}
+	
+	/**
+	 * This method completes this snapshot, releases the browser and the 
+	 * resolvers still in use, and notifies the callback. 
+	 */
+	private void complete(boolean timeout, boolean cancel) {
+		List<ServiceResolver> resolvers;
+		synchronized (this) {
+			if (done)
+				return;
+			done = true;
+			browsing = false;
+			timedOut = timeout;
+			cancelled = cancel;
+			resolvers = new ArrayList<ServiceResolver>();
+			for(Map.Entry<ResolvedService, ServiceResolver> e: resolving.entrySet()) {
+				e.getKey().resolverEvent = ServiceResolverEvent.RESOLVER_FAILURE;
+				// the others are released by resolve()
+				if (e.getValue()!=null)
+					resolvers.add(e.getValue());
+			}
+			for(ResolvedService s: pending)
+				s.resolverEvent = ServiceResolverEvent.RESOLVER_FAILURE;
+			resolving.clear();
+			pending.clear();
+			result = new ArrayList<ResolvedService>(services.values());
+			notifyAll();
+		}
+		
+		if (deadline!=null)
+			deadline.cancel(false);
+		releaseSubscription();
+		for(ServiceResolver r: resolvers)
+			r.release();
+		if (callback!=null)
+			callback.snapshotDone(this);
+	}
+	
+	private void releaseSubscription() {
+		ServiceSubscription s;
+		synchronized (this) {
+			s = subscription;
+			subscription = null;
+		}
+		if (s!=null)
+			s.release();
+	}
+	
+	/**
+	 * This method cancels this snapshot. The services found so far are 
+	 * discarded.
+	 * @param mayInterruptIfRunning ignored
+	 * @return false if the snapshot had already completed
+	 */
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		synchronized (this) {
+			if (done)
+				return false;
+		}
+		complete(false, true);
+		return isCancelled();
+	}
+	
+	@Override
+	public synchronized boolean isCancelled() {
+		return cancelled;
+	}
+	
+	@Override
+	public synchronized boolean isDone() {
+		return done;
+	}
+	
+	/**
+	 * @return whether the snapshot's deadline expired before it completed, 
+	 * in which case the result holds the services found until then
+	 */
+	public synchronized boolean isTimedOut() {
+		return timedOut;
+	}
+	
+	/**
+	 * This method waits for this snapshot to complete.
+	 * @return the services found
+	 * @throws ExecutionException if browsing failed (the cause is an 
+	 * {@link Avahi4JException})
+	 * @throws CancellationException if the snapshot was cancelled
+	 */
+	@Override
+	public synchronized List<ResolvedService> get() throws InterruptedException,
+			ExecutionException {
+		while(!done)
+			wait();
+		return result();
+	}
+	
+	/**
+	 * This method waits for this snapshot to complete, at most the given 
+	 * time.
+	 * @return the services found
+	 * @throws ExecutionException if browsing failed (the cause is an 
+	 * {@link Avahi4JException})
+	 * @throws CancellationException if the snapshot was cancelled
+	 * @throws TimeoutException if the snapshot did not complete in time
+	 */
+	@Override
+	public synchronized List<ResolvedService> get(long timeout, TimeUnit unit)
+			throws InterruptedException, ExecutionException, TimeoutException {
+		long end = System.nanoTime() + unit.toNanos(timeout);
+		while(!done) {
+			long left = end - System.nanoTime();
+			if (left<=0)
+				throw new TimeoutException();
+			TimeUnit.NANOSECONDS.timedWait(this, left);
+		}
+		return result();
+	}
+	
+	private List<ResolvedService> result() throws ExecutionException {
+		if (cancelled)
+			throw new CancellationException();
+		if (failure!=null)
+			throw new ExecutionException(failure);
+		return result;
+	}
+	
+	/**
+	 * @return the number of services found so far
+	 */
+	public synchronized int getServiceCount() {
+		return services.size();
+	}
+	
+	/**
+	 * @return the number of services resolved successfully so far
+	 */
+	public synchronized int getResolvedCount() {
+		int n = 0;
+		for(ResolvedService s: services.values())
+			if (s.resolverEvent==ServiceResolverEvent.RESOLVER_FOUND)
+				n++;
+		return n;
+	}
+}
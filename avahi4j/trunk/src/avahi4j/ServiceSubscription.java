@@ -0,0 +1,78 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j;
+
+import java.io.Closeable;
+
+/**
+ * A subscription to a service browser shared with other subscribers, as 
+ * returned by 
+ * {@link Client#subscribeServiceBrowser(IServiceBrowserCallback, int, avahi4j.Avahi4JConstants.Protocol, String, String, int) subscribeServiceBrowser()}.
+ * The subscription's callback receives the same events as if it had its own
+ * {@link ServiceBrowser}. It must be released when no longer needed; the 
+ * shared browser is released with its last subscription.
+ * @author gilles
+ *
+ */
+public final class ServiceSubscription implements Closeable {
+	/*
+	 * M E M B E R S
+	 */
+	private final SharedServiceBrowser browser;
+	final IServiceBrowserCallback callback;
+	private boolean released;
+	
+	
+	/*
+	 * M E T H O D S
+	 */
+	ServiceSubscription(SharedServiceBrowser browser, IServiceBrowserCallback callback) {
+		this.browser = browser;
+		this.callback = callback;
+	}
+	
+	/**
+	 * This method ends this subscription. No more events are delivered to
+	 * its callback after this method returns, unless it is called from the
+	 * callback itself.
+	 */
+	public void release() {
+		synchronized (this) {
+			if (released)
+				return;
+			released = true;
+		}
+		browser.unsubscribe(this);
+	}
+	
+	/**
+	 * This method releases this subscription, like {@link #release()}.
+	 */
+	@Override
+	public void close() {
+		release();
+	}
+	
+	/**
+	 * @return the number of subscriptions sharing the same browser, including
+	 * this one (0 if this subscription has been released)
+	 */
+	public int getSubscriberCount() {
+		return browser.getSubscriberCount();
+	}
+}
@@ -0,0 +1,165 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j;
+
+import java.io.Closeable;
+
+import avahi4j.Avahi4JConstants.BrowserEvent;
+import avahi4j.Avahi4JConstants.Protocol;
+import avahi4j.exceptions.Avahi4JException;
+
+/**
+ * A service type browser reports the types of the services available on the
+ * network (in a domain), using a single query. To create one, call
+ * {@link Client#createServiceTypeBrowser(IServiceTypeBrowserCallback, int, Protocol, String, int) createServiceTypeBrowser()}
+ * on an existing {@link Client}. To browse all the services on the network, 
+ * use a {@link ServiceInventory}, which creates a {@link ServiceBrowser} for 
+ * each type reported by a service type browser.
+ * @author gilles
+ *
+ */
+public final class ServiceTypeBrowser implements Closeable {
+	/*
+	 * M E M B E R S
+	 */
+	private final Peer peer;
+	private IServiceTypeBrowserCallback browserCallback;
+	private LatencyStats latencyStats;
+	private volatile long eventTimestamp;
+	
+	
+	/*
+	 * M E T H O D S
+	 */
+	/**
+	 * This method builds a new service type browser. 
+	 * @param callback the callback object to receive the service types
+	 * @param avahi4j_client_ptr a struct avahi4j_client pointer
+	 * @param stats the client's latency statistics
+	 * @param client the client creating this object
+	 * @param intefaceNum the interface number
+	 * @param proto the {@link Protocol} number
+	 * @param domain the domain to search (can be null to use client's domain)
+	 * @param lookupFlags the lookup flags (see Avahi4JConstants.LOOKUP_*)
+	 * @throws Avahi4JException if there is a problem creating the browser
+	 */
+	ServiceTypeBrowser(IServiceTypeBrowserCallback callback, long avahi4j_client_ptr,
+			LatencyStats stats, Client client, int interfaceNum, Protocol proto,
+			String domain, int lookupFlags) throws Avahi4JException {
+
+		browserCallback = callback;
+		latencyStats = stats;
+		peer = new Peer(this, client);
+		peer.created(Client.backend.initServiceTypeBrowser(peer,
+				avahi4j_client_ptr, interfaceNum, proto.ordinal(), domain, 
+				lookupFlags));
+	}
+	
+	/**
+	 * This method must be called when this browser is no longer needed.
+	 */
+	public void release() {
+		peer.release();
+	}
+	
+	/**
+	 * This method releases this browser, like {@link #release()}. It can be
+	 * called several times.
+	 */
+	@Override
+	public void close() {
+		release();
+	}	
+	
+	/**
+	 * This method returns the native timestamp of the event currently being
+	 * dispatched by this browser (see {@link Client#getEventTimestamp()}).
+	 * @return the native timestamp of the current or last event, in nanoseconds
+	 */
+	public long getEventTimestamp() {
+		return eventTimestamp;
+	}
+	
+	
+	/*
+	 * C A L L B A C K
+	 */
+	/**
+	 * This method is called from the native backend to dispatch a callback
+	 */
+	void browserCallback(int interfaceNum, int proto, int browserEvent,
+			String type, String domain, int flags, long wakeupTimestamp,
+			long timestamp){
+		
+		long dispatched = System.nanoTime();
+		eventTimestamp = timestamp;
+		
+		try {
+			browserCallback.serviceTypeCallback(interfaceNum, Avahi4JConstants.PROTOCOLS[proto],
+					Avahi4JConstants.BROWSER_EVENTS[browserEvent], type, domain, flags);
+		} finally {
+			latencyStats.recordEvent(wakeupTimestamp, timestamp, dispatched, 
+					System.nanoTime());
+		}
+	}
+	
+	@Override
+	public int hashCode() {
+		return (int) (peer.ptr ^ (peer.ptr >>> 32));
+	}
+	
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof ServiceTypeBrowser))
+			return false;
+		return peer.ptr == 
+			((ServiceTypeBrowser) obj).peer.ptr;
+	}
+	
+	/**
+	 * Objects of this class hold the native side of a {@link ServiceTypeBrowser}
+	 * (see {@link NativePeer}), and forward it the native events.
+	 * @author gilles
+	 *
+	 */
+	static final class Peer extends NativePeer<ServiceTypeBrowser> {
+		private Peer(ServiceTypeBrowser browser, Client client) {
+			super(NativeObjects.Kind.SERVICE_TYPE_BROWSER, browser, client);
+		}
+		
+		@Override
+		void free(long nativePtr) {
+			Client.backend.releaseServiceTypeBrowser(nativePtr);
+		}
+		
+		/**
+		 * This method is called from the native backend to dispatch a 
+		 * callback, unless the browser was garbage collected.
+		 */
+		void browserCallback(int interfaceNum, int proto, int browserEvent,
+			String type, String domain, int flags, long wakeupTimestamp,
+			long timestamp) {
+			ServiceTypeBrowser browser = getOwner();
+			if (browser!=null)
+				browser.browserCallback(interfaceNum, proto, browserEvent, type,
+						domain, flags, wakeupTimestamp, timestamp);
+		}
+	}
+}
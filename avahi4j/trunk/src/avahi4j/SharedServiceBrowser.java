@@ -0,0 +1,283 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import avahi4j.Avahi4JConstants.BrowserEvent;
+import avahi4j.Avahi4JConstants.Protocol;
+import avahi4j.exceptions.Avahi4JException;
+
+/**
+ * This class shares a single {@link ServiceBrowser} between all the 
+ * {@link ServiceSubscription}s with the same interface, protocol, type, 
+ * domain and lookup flags. It keeps track of the services currently 
+ * reported, so that new subscribers are immediately given a NEW event for 
+ * each of them (and the CACHE_EXHAUSTED and NO_MORE events if they have 
+ * already been received) instead of waiting for the services to be 
+ * announced again.
+ * <br>
+ * A new subscriber is replayed a snapshot of the services, outside of this 
+ * object's lock, as its callback may create avahi objects (which would 
+ * otherwise deadlock with the events received meanwhile). The live events 
+ * received during the replay are queued and delivered once it is over, so 
+ * they are not interleaved with it.
+ * @author gilles
+ *
+ */
+final class SharedServiceBrowser implements IServiceBrowserCallback {
+	/**
+	 * A browser event, kept to be replayed to a new subscriber (a NEW event
+	 * for each service currently reported), or until its replay is over
+	 */
+	private static final class Event {
+		final int interfaceNum;
+		final Protocol proto;
+		final BrowserEvent event;
+		final String name, type, domain;
+		final int flags;
+		
+		Event(int interfaceNum, Protocol proto, BrowserEvent event, String name,
+				String type, String domain, int flags) {
+			this.interfaceNum = interfaceNum;
+			this.proto = proto;
+			this.event = event;
+			this.name = name;
+			this.type = type;
+			this.domain = domain;
+			this.flags = flags;
+		}
+	}
+	
+	
+	/*
+	 * M E M B E R S
+	 */
+	private final Map<String, SharedServiceBrowser> registry;
+	private final String key;
+	private final List<ServiceSubscription> subscribers;
+	private final Map<String, Event> services;
+	// the subscriptions being replayed, and the live events they missed
+	private final Map<ServiceSubscription, List<Event>> replaying;
+	private ServiceBrowser browser;
+	private boolean cacheExhausted, allForNow, closed;
+	
+	
+	/*
+	 * M E T H O D S
+	 */
+	private SharedServiceBrowser(Map<String, SharedServiceBrowser> registry, 
+			String key) {
+		this.registry = registry;
+		this.key = key;
+		subscribers = new ArrayList<ServiceSubscription>();
+		services = new LinkedHashMap<String, Event>();
+		replaying = new HashMap<ServiceSubscription, List<Event>>();
+	}
+	
+	/**
+	 * This method subscribes to the shared browser with the given parameters,
+	 * creating it if needed
+	 * @param registry the client's shared browsers, which is also used as 
+	 * their lock
+	 */
+	static ServiceSubscription subscribe(Client client, 
+			Map<String, SharedServiceBrowser> registry, 
+			IServiceBrowserCallback callback, int interfaceNum, Protocol proto, 
+			String type, String domain, int lookupFlags) throws Avahi4JException {
+		String key = interfaceNum + "/" + proto.ordinal() + "/" + type.toLowerCase()
+			+ "/" + (domain==null ? "" : domain.toLowerCase()) + "/" + lookupFlags;
+		
+		while(true) {
+			SharedServiceBrowser shared;
+			synchronized (registry) {
+				shared = registry.get(key);
+				if (shared==null) {
+					shared = new SharedServiceBrowser(registry, key);
+					registry.put(key, shared);
+				}
+			}
+			
+			ServiceSubscription s;
+			List<Event> snapshot;
+			synchronized (shared) {
+				// the last subscriber left while we were looking it up
+				if (shared.closed)
+					continue;
+				
+				// no events can be received before the browser is created,
+				// so holding the lock while creating it is safe
+				if (shared.browser==null) {
+					try {
+						shared.browser = client.createServiceBrowser(shared, 
+								interfaceNum, proto, type, domain, lookupFlags);
+					} catch (Avahi4JException e) {
+						shared.close();
+						throw e;
+					}
+				}
+				
+				s = new ServiceSubscription(shared, callback);
+				shared.subscribers.add(s);
+				shared.replaying.put(s, new ArrayList<Event>());
+				snapshot = shared.snapshot();
+			}
+			
+			shared.replay(s, snapshot);
+			return s;
+		}
+	}
+	
+	/**
+	 * This method removes a subscription, and releases the browser if it 
+	 * was the last one
+	 */
+	void unsubscribe(ServiceSubscription s) {
+		ServiceBrowser stale;
+		synchronized (this) {
+			replaying.remove(s);
+			if (!subscribers.remove(s) || !subscribers.isEmpty())
+				return;
+			stale = browser;
+			close();
+		}
+		if (stale!=null)
+			stale.release();
+	}
+	
+	synchronized int getSubscriberCount() {
+		return subscribers.size();
+	}
+	
+	/**
+	 * This method removes this shared browser from the registry. Must be 
+	 * called with this object's lock held.
+	 */
+	private void close() {
+		closed = true;
+		browser = null;
+		services.clear();
+		replaying.clear();
+		synchronized (registry) {
+			if (registry.get(key)==this)
+				registry.remove(key);
+		}
+	}
+	
+	/**
+	 * This method returns the events giving a new subscriber the current 
+	 * state of the browser. Must be called with this object's lock held.
+	 */
+	private List<Event> snapshot() {
+		List<Event> snapshot = new ArrayList<Event>(services.values());
+		if (cacheExhausted)
+			snapshot.add(new Event(Avahi4JConstants.AnyInterface, Protocol.ANY, 
+					BrowserEvent.CACHE_EXHAUSTED, null, null, null, 0));
+		if (allForNow)
+			snapshot.add(new Event(Avahi4JConstants.AnyInterface, Protocol.ANY, 
+					BrowserEvent.NO_MORE, null, null, null, 0));
+		return snapshot;
+	}
+	
+	/**
+	 * This method delivers a snapshot to a new subscriber, followed by the 
+	 * live events received meanwhile. It must be called without holding 
+	 * this object's lock.
+	 */
+	private void replay(ServiceSubscription s, List<Event> events) {
+		while(true) {
+			for(Event e: events) {
+				// the subscriber may unsubscribe from its callback
+				synchronized (this) {
+					if (!replaying.containsKey(s))
+						return;
+				}
+				deliver(s, e.interfaceNum, e.proto, e.event, e.name, e.type,
+						e.domain, e.flags);
+			}
+			
+			synchronized (this) {
+				List<Event> missed = replaying.get(s);
+				if (missed==null)
+					return;
+				if (missed.isEmpty()) {
+					// live events are now delivered directly
+					replaying.remove(s);
+					return;
+				}
+				events = new ArrayList<Event>(missed);
+				missed.clear();
+			}
+		}
+	}
+	
+	private static void deliver(ServiceSubscription s, int interfaceNum, 
+			Protocol proto, BrowserEvent event, String name, String type, 
+			String domain, int flags) {
+		// one faulty subscriber must not deprive the others of the event
+		try {
+			s.callback.serviceCallback(interfaceNum, proto, event, name, type, 
+					domain, flags);
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	@Override
+	public synchronized void serviceCallback(int interfaceNum, Protocol proto,
+			BrowserEvent browserEvent, String name, String type, String domain,
+			int lookupResultFlag) {
+		if (closed)
+			return;
+		
+		Event e = new Event(interfaceNum, proto, browserEvent, name, type, 
+				domain, lookupResultFlag);
+		String k = interfaceNum + "/" + proto.ordinal() + "/" + name + "." + domain;
+		switch(browserEvent) {
+		case NEW:
+			services.put(k, e);
+			break;
+		case REMOVE:
+			services.remove(k);
+			break;
+		case CACHE_EXHAUSTED:
+			cacheExhausted = true;
+			break;
+		case NO_MORE:
+			allForNow = true;
+			break;
+		default:
+			break;
+		}
+		
+		// subscribers may unsubscribe from their callback
+		for(ServiceSubscription s: subscribers.toArray(
+				new ServiceSubscription[subscribers.size()])) {
+			List<Event> missed = replaying.get(s);
+			if (missed!=null)
+				missed.add(e);
+			else
+				deliver(s, interfaceNum, proto, browserEvent, name, type, domain,
+						lookupResultFlag);
+		}
+	}
+}
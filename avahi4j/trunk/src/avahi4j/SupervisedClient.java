@@ -0,0 +1,480 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import avahi4j.Avahi4JConstants.Protocol;
+import avahi4j.Client.State;
+import avahi4j.exceptions.Avahi4JException;
+
+/**
+ * A supervised client survives avahi daemon restarts. It wraps a 
+ * {@link Client}, and when that client fails (which it does when the daemon 
+ * goes away), it releases it and creates a new one, retrying with an 
+ * exponential backoff until the daemon is back. 
+ * <br>
+ * The service browsers and entry groups created from a supervised client 
+ * are re-created on the new client, from the arguments they were created 
+ * with and the services added to them. Consumers do not see the outage: 
+ * browsers only report the services which appeared or went away in the 
+ * meantime (see {@link SupervisedServiceBrowser}), and entry groups only 
+ * report states which differ from the last one reported.
+ * <br>
+ * All events are delivered from a thread dedicated to the supervised client,
+ * which also reconnects, so callbacks can call any method. <b>Supervised 
+ * clients MUST be released when no longer needed, by calling 
+ * {@link #release()}.</b>
+ * @author gilles
+ *
+ */
+public final class SupervisedClient implements Closeable {
+	/**
+	 * The default delay before the first reconnection attempt, in milliseconds
+	 */
+	public static final long DEFAULT_MIN_BACKOFF = 100;
+	/**
+	 * The default maximum delay between reconnection attempts, in milliseconds
+	 */
+	public static final long DEFAULT_MAX_BACKOFF = 30000;
+	/**
+	 * The default time given to re-created browsers to find the services 
+	 * again once they report {@link Avahi4JConstants.BrowserEvent#NO_MORE}, 
+	 * in milliseconds
+	 */
+	public static final long DEFAULT_SETTLE_DELAY = 1000;
+	
+	
+	/*
+	 * M E M B E R S
+	 */
+	private final IClientCallback callback;
+	private final ScheduledExecutorService supervisor;
+	private final List<SupervisedServiceBrowser> browsers;
+	private final List<SupervisedEntryGroup> groups;
+	private Client client;
+	private int generation;
+	private boolean reconnecting;
+	// whether the current client failed while its objects were re-created
+	private boolean failedWhileReconnecting;
+	private long minBackoff, maxBackoff, backoff;
+	private volatile long settleDelay;
+	private int reconnectCount;
+	// whether a client failed since the last successful connection, ie. 
+	// whether the next one is a reconnection
+	private boolean failedSinceConnected;
+	private boolean started, released;
+	
+	
+	/*
+	 * M E T H O D S
+	 */
+	/**
+	 * This method builds a new supervised client. It connects when 
+	 * {@link #start()} is called.
+	 * @param callback the callback object receiving the state changes of the
+	 * successive clients (can be null)
+	 */
+	public SupervisedClient(IClientCallback callback) {
+		this.callback = callback;
+		browsers = new ArrayList<SupervisedServiceBrowser>();
+		groups = new ArrayList<SupervisedEntryGroup>();
+		minBackoff = DEFAULT_MIN_BACKOFF;
+		maxBackoff = DEFAULT_MAX_BACKOFF;
+		backoff = minBackoff;
+		settleDelay = DEFAULT_SETTLE_DELAY;
+		supervisor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "avahi4j supervisor");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+	
+	/**
+	 * This method connects to the daemon. If it can not be reached, this 
+	 * method returns anyway, and the supervised client keeps trying in the 
+	 * background.
+	 */
+	public void start() {
+		synchronized (this) {
+			if (started || released)
+				return;
+			started = true;
+			reconnecting = true;
+		}
+		supervisor.execute(new Runnable() {
+			@Override
+			public void run() {
+				reconnect();
+			}
+		});
+	}
+	
+	/**
+	 * This method releases the browsers, entry groups and client. No more 
+	 * events are delivered after it returns, unless it is called from a 
+	 * callback.
+	 */
+	public void release() {
+		List<SupervisedServiceBrowser> b;
+		List<SupervisedEntryGroup> g;
+		Client c;
+		synchronized (this) {
+			if (released)
+				return;
+			released = true;
+			b = new ArrayList<SupervisedServiceBrowser>(browsers);
+			g = new ArrayList<SupervisedEntryGroup>(groups);
+			c = client;
+			client = null;
+		}
+		
+		for(SupervisedServiceBrowser s: b)
+			s.release();
+		for(SupervisedEntryGroup s: g)
+			s.release();
+		if (c!=null)
+			c.release();
+		supervisor.shutdown();
+	}
+	
+	/**
+	 * This method releases this client, like {@link #release()}.
+	 */
+	@Override
+	public void close() {
+		release();
+	}
+	
+	/**
+	 * This method sets the delays between reconnection attempts: the first 
+	 * attempt is made after <code>min</code> milliseconds, and the delay 
+	 * doubles with each failed attempt, up to <code>max</code> milliseconds.
+	 * @param min the delay before the first attempt, in milliseconds
+	 * @param max the maximum delay between attempts, in milliseconds
+	 */
+	public synchronized void setBackoff(long min, long max) {
+		if (min<=0 || max<min)
+			throw new IllegalArgumentException("invalid backoff "+min+"-"+max);
+		minBackoff = min;
+		maxBackoff = max;
+		backoff = min;
+	}
+	
+	/**
+	 * This method sets how long re-created browsers are given to find the 
+	 * services again after reporting {@link Avahi4JConstants.BrowserEvent#NO_MORE}.
+	 * The services which have not been found by then are reported as gone.
+	 * @param delay the settle delay in milliseconds
+	 */
+	public void setSettleDelay(long delay) {
+		if (delay<0)
+			throw new IllegalArgumentException("invalid delay "+delay);
+		settleDelay = delay;
+	}
+	
+	long getSettleDelay() {
+		return settleDelay;
+	}
+	
+	/**
+	 * This method returns the current client, to run one-off operations 
+	 * (such as resolving a service). Objects created from it are not 
+	 * re-created after a reconnection.
+	 * @return the current client, or null while reconnecting
+	 */
+	public synchronized Client getClient() {
+		return client;
+	}
+	
+	/**
+	 * @return whether the supervised client is currently connected
+	 */
+	public synchronized boolean isConnected() {
+		return client!=null;
+	}
+	
+	/**
+	 * @return the number of times the client was re-created after a failure
+	 */
+	public synchronized int getReconnectCount() {
+		return reconnectCount;
+	}
+	
+	/**
+	 * This method creates a service browser which is re-created after each 
+	 * reconnection. See 
+	 * {@link Client#createServiceBrowser(IServiceBrowserCallback, int, Protocol, String, String, int) Client.createServiceBrowser()}
+	 * for details.
+	 * @return a supervised browser which MUST be released (by calling
+	 * {@link SupervisedServiceBrowser#release()}) when done.
+	 * @throws Avahi4JException if the browser can not be created on the 
+	 * current client
+	 */
+	public SupervisedServiceBrowser createServiceBrowser(
+			IServiceBrowserCallback callback, int interfaceNum, Protocol proto,
+			String type, String domain, int lookupFlags) throws Avahi4JException {
+		if (callback==null || type==null)
+			throw new NullPointerException("neither the callback nor the type can be null");
+		
+		SupervisedServiceBrowser b = new SupervisedServiceBrowser(this, callback,
+				interfaceNum, proto, type, domain, lookupFlags);
+		Client c;
+		synchronized (this) {
+			if (released)
+				throw new Avahi4JException("The supervised client was released");
+			browsers.add(b);
+			c = client;
+		}
+		if (c!=null) {
+			try {
+				b.attach(c);
+			} catch (Avahi4JException e) {
+				removed(b);
+				throw e;
+			}
+		}
+		return b;
+	}
+	
+	/**
+	 * This method creates an entry group which is re-created, with its 
+	 * services, after each reconnection.
+	 * @param callback the callback object receiving the group's state changes
+	 * (can be null)
+	 * @return a supervised entry group which MUST be released (by calling
+	 * {@link SupervisedEntryGroup#release()}) when done.
+	 * @throws Avahi4JException if the group can not be created on the 
+	 * current client
+	 */
+	public SupervisedEntryGroup createEntryGroup(IEntryGroupCallback callback) 
+			throws Avahi4JException {
+		SupervisedEntryGroup g = new SupervisedEntryGroup(this, callback);
+		Client c;
+		synchronized (this) {
+			if (released)
+				throw new Avahi4JException("The supervised client was released");
+			groups.add(g);
+			c = client;
+		}
+		if (c!=null) {
+			try {
+				g.attach(c);
+			} catch (Avahi4JException e) {
+				removed(g);
+				throw e;
+			}
+		}
+		return g;
+	}
+	
+	/**
+	 * Called by browsers and entry groups when they are released.
+	 */
+	synchronized void removed(Object o) {
+		browsers.remove(o);
+		groups.remove(o);
+	}
+	
+	/**
+	 * This method delivers an event from the supervisor thread.
+	 */
+	void deliver(Runnable r) {
+		try {
+			supervisor.execute(r);
+		} catch (RuntimeException e) {
+			// released
+		}
+	}
+	
+	/**
+	 * This method runs a task on the supervisor thread after a delay.
+	 */
+	void schedule(Runnable r, long delay) {
+		try {
+			supervisor.schedule(r, delay, TimeUnit.MILLISECONDS);
+		} catch (RuntimeException e) {
+			// released
+		}
+	}
+	
+	/**
+	 * Called with the state changes of the client of the given generation.
+	 */
+	private void stateChanged(int gen, final State state) {
+		List<SupervisedServiceBrowser> b = null;
+		List<SupervisedEntryGroup> g = null;
+		synchronized (this) {
+			if (gen!=generation || released)
+				return;
+			if (state==State.FAILURE)
+				failedSinceConnected = true;
+			if (state==State.FAILURE && !reconnecting) {
+				reconnecting = true;
+				b = new ArrayList<SupervisedServiceBrowser>(browsers);
+				g = new ArrayList<SupervisedEntryGroup>(groups);
+			} else if (state==State.FAILURE)
+				// reconnect() schedules another attempt once done
+				failedWhileReconnecting = true;
+		}
+		
+		// ignore the events of the failed client's objects from now on, and 
+		// re-create them
+		if (b!=null) {
+			for(SupervisedServiceBrowser s: b)
+				s.suspend();
+			for(SupervisedEntryGroup s: g)
+				s.suspend();
+			schedule(new Runnable() {
+				@Override
+				public void run() {
+					reconnect();
+				}
+			}, 0);
+		}
+		
+		if (callback!=null)
+			deliver(new Runnable() {
+				@Override
+				public void run() {
+					callback.clientStateChanged(state);
+				}
+			});
+	}
+	
+	/**
+	 * This method releases the current client and its objects, and creates a
+	 * new client. Runs on the supervisor thread.
+	 */
+	private void reconnect() {
+		Client old;
+		final int gen;
+		List<SupervisedServiceBrowser> b;
+		List<SupervisedEntryGroup> g;
+		synchronized (this) {
+			if (released)
+				return;
+			old = client;
+			client = null;
+			gen = ++generation;
+			failedWhileReconnecting = false;
+			b = new ArrayList<SupervisedServiceBrowser>(browsers);
+			g = new ArrayList<SupervisedEntryGroup>(groups);
+		}
+		
+		// forget about the objects of the failed client
+		if (old!=null) {
+			for(SupervisedServiceBrowser s: b)
+				s.detach();
+			for(SupervisedEntryGroup s: g)
+				s.detach();
+			old.release();
+		}
+		
+		Client c = null;
+		try {
+			c = new Client(new IClientCallback() {
+				@Override
+				public void clientStateChanged(State state) {
+					stateChanged(gen, state);
+				}
+			});
+			c.start();
+		} catch (Avahi4JException e) {
+			if (c!=null)
+				c.release();
+			retry();
+			return;
+		}
+		
+		synchronized (this) {
+			if (released || gen!=generation) {
+				c.release();
+				return;
+			}
+			client = c;
+			// the attempts before this one may have failed, and left no old
+			// client to release
+			if (failedSinceConnected) {
+				reconnectCount++;
+				failedSinceConnected = false;
+			}
+			b = new ArrayList<SupervisedServiceBrowser>(browsers);
+			g = new ArrayList<SupervisedEntryGroup>(groups);
+		}
+		
+		for(SupervisedServiceBrowser s: b) {
+			try {
+				s.attach(c);
+			} catch (Avahi4JException e) {
+				// the client failed again, or the browser reported a failure
+			}
+		}
+		for(SupervisedEntryGroup s: g) {
+			try {
+				s.attach(c);
+			} catch (Avahi4JException e) {
+				// the client failed again, or the group reported a failure
+			}
+		}
+		
+		// the client may have failed while objects were re-created, in which
+		// case the failure did not schedule a reconnection. The failure is 
+		// recorded by stateChanged() under this object's lock, so it can not 
+		// be missed between the check and clearing reconnecting.
+		synchronized (this) {
+			if (gen==generation) {
+				backoff = minBackoff;
+				if (failedWhileReconnecting)
+					schedule(new Runnable() {
+						@Override
+						public void run() {
+							reconnect();
+						}
+					}, 0);
+				else
+					reconnecting = false;
+			}
+		}
+	}
+	
+	/**
+	 * This method schedules another reconnection attempt.
+	 */
+	private synchronized void retry() {
+		if (released)
+			return;
+		long delay = backoff;
+		backoff = Math.min(backoff * 2, maxBackoff);
+		schedule(new Runnable() {
+			@Override
+			public void run() {
+				reconnect();
+			}
+		}, delay);
+	}
+}
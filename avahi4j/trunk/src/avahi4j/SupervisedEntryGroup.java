@@ -0,0 +1,337 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+
+import avahi4j.Avahi4JConstants.Protocol;
+import avahi4j.EntryGroup.State;
+import avahi4j.exceptions.Avahi4JException;
+
+/**
+ * An entry group created by a {@link SupervisedClient}, which is re-created
+ * with its services after each reconnection, and re-committed if it was 
+ * committed. Its methods behave like those of {@link EntryGroup}, except 
+ * that while the supervised client is reconnecting, changes are recorded 
+ * and {@link Avahi4JConstants#AVAHI_OK} is returned: they are applied (and 
+ * any error reported as a state change) once the client is back.
+ * <br>
+ * State changes are only reported when they differ from the last one 
+ * reported, and the intermediate states of a re-created group 
+ * ({@link State#AVAHI_ENTRY_GROUP_UNCOMMITED}, 
+ * {@link State#AVAHI_ENTRY_GROUP_REGISTERING}) are not reported: consumers 
+ * of an established group do not notice a reconnection.
+ * <br>
+ * To create one, call {@link SupervisedClient#createEntryGroup(IEntryGroupCallback)}
+ * on a {@link SupervisedClient}. It MUST be released when no longer needed.
+ * @author gilles
+ *
+ */
+public final class SupervisedEntryGroup implements Closeable {
+	/**
+	 * A service added to the group
+	 */
+	private static final class ServiceSpec {
+		final int interfaceNum;
+		final Protocol proto;
+		final String name, type, domain, host;
+		final int port;
+		List<String> txtRecord;
+		final List<String> subtypes;
+		
+		ServiceSpec(int interfaceNum, Protocol proto, String name, String type,
+				String domain, String host, int port, List<String> txtRecord) {
+			this.interfaceNum = interfaceNum;
+			this.proto = proto;
+			this.name = name;
+			this.type = type;
+			this.domain = domain;
+			this.host = host;
+			this.port = port;
+			this.txtRecord = txtRecord;
+			subtypes = new ArrayList<String>();
+		}
+		
+		boolean is(int interfaceNum, Protocol proto, String name, String type,
+				String domain) {
+			return this.interfaceNum==interfaceNum && this.proto==proto 
+				&& this.name.equals(name) && this.type.equals(type)
+				&& (this.domain==null ? domain==null : this.domain.equals(domain));
+		}
+	}
+	
+	
+	/*
+	 * M E M B E R S
+	 */
+	private final SupervisedClient supervisor;
+	private final IEntryGroupCallback callback;
+	/**
+	 * serialises the changes and the re-creation of the group. Never taken 
+	 * by the group's callback, so it can be held while calling the group
+	 */
+	private final Object changes;
+	private final List<ServiceSpec> services;
+	private boolean committed;
+	private EntryGroup group;
+	// the following are protected by this object's lock
+	private int generation;
+	private boolean rebuilding;
+	private State state;
+	private boolean released;
+	
+	
+	/*
+	 * M E T H O D S
+	 */
+	SupervisedEntryGroup(SupervisedClient supervisor, IEntryGroupCallback callback) {
+		this.supervisor = supervisor;
+		this.callback = callback;
+		changes = new Object();
+		services = new ArrayList<ServiceSpec>();
+		state = State.AVAHI_ENTRY_GROUP_UNCOMMITED;
+	}
+	
+	/**
+	 * This method releases this group, which withdraws its services. No more
+	 * events are delivered after it returns, unless it is called from the 
+	 * callback.
+	 */
+	public void release() {
+		synchronized (changes) {
+			synchronized (this) {
+				if (released)
+					return;
+				released = true;
+			}
+			if (group!=null)
+				group.release();
+			group = null;
+		}
+		supervisor.removed(this);
+	}
+	
+	/**
+	 * This method releases this group, like {@link #release()}.
+	 */
+	@Override
+	public void close() {
+		release();
+	}
+	
+	/**
+	 * @return the last state reported
+	 */
+	public synchronized State getState() {
+		return state;
+	}
+	
+	/**
+	 * @return whether this group has no services
+	 */
+	public boolean isEmpty() {
+		synchronized (changes) {
+			return services.isEmpty();
+		}
+	}
+	
+	/**
+	 * See {@link EntryGroup#addService(int, Protocol, String, String, String, String, int, List)}.
+	 * @return AVAHI_OK or one of AVAHI_ERR_* constants (see {@link Avahi4JConstants}).
+	 */
+	public int addService(int interfaceNum, Protocol proto, String name,
+			String type, String domain, String host, int port, 
+			List<String> txtRecord) {
+		synchronized (changes) {
+			int result = Avahi4JConstants.AVAHI_OK;
+			if (group!=null)
+				result = group.addService(interfaceNum, proto, name, type, domain,
+						host, port, txtRecord);
+			if (result==Avahi4JConstants.AVAHI_OK)
+				services.add(new ServiceSpec(interfaceNum, proto, name, type, 
+						domain, host, port, copy(txtRecord)));
+			return result;
+		}
+	}
+	
+	/**
+	 * See {@link EntryGroup#addServicesubType(int, Protocol, String, String, String, String)}.
+	 * @return AVAHI_OK or one of AVAHI_ERR_* constants (see {@link Avahi4JConstants}).
+	 */
+	public int addServicesubType(int interfaceNum, Protocol proto, String name,
+			String type, String domain, String subtype) {
+		synchronized (changes) {
+			ServiceSpec s = find(interfaceNum, proto, name, type, domain);
+			if (s==null)
+				return Avahi4JConstants.AVAHI_ERR_NOT_FOUND;
+			int result = Avahi4JConstants.AVAHI_OK;
+			if (group!=null)
+				result = group.addServicesubType(interfaceNum, proto, name, type,
+						domain, subtype);
+			if (result==Avahi4JConstants.AVAHI_OK)
+				s.subtypes.add(subtype);
+			return result;
+		}
+	}
+	
+	/**
+	 * See {@link EntryGroup#updateService(int, Protocol, String, String, String, List)}.
+	 * @return AVAHI_OK or one of AVAHI_ERR_* constants (see {@link Avahi4JConstants}).
+	 */
+	public int updateService(int interfaceNum, Protocol proto, String name,
+			String type, String domain, List<String> txtRecord) {
+		synchronized (changes) {
+			ServiceSpec s = find(interfaceNum, proto, name, type, domain);
+			if (s==null)
+				return Avahi4JConstants.AVAHI_ERR_NOT_FOUND;
+			int result = Avahi4JConstants.AVAHI_OK;
+			if (group!=null)
+				result = group.updateService(interfaceNum, proto, name, type, 
+						domain, txtRecord);
+			if (result==Avahi4JConstants.AVAHI_OK)
+				s.txtRecord = copy(txtRecord);
+			return result;
+		}
+	}
+	
+	/**
+	 * See {@link EntryGroup#commit()}.
+	 * @return AVAHI_OK or one of AVAHI_ERR_* constants (see {@link Avahi4JConstants}).
+	 */
+	public int commit() {
+		synchronized (changes) {
+			int result = Avahi4JConstants.AVAHI_OK;
+			if (group!=null)
+				result = group.commit();
+			if (result==Avahi4JConstants.AVAHI_OK)
+				committed = true;
+			return result;
+		}
+	}
+	
+	/**
+	 * See {@link EntryGroup#reset()}.
+	 * @return AVAHI_OK or one of AVAHI_ERR_* constants (see {@link Avahi4JConstants}).
+	 */
+	public int reset() {
+		synchronized (changes) {
+			int result = Avahi4JConstants.AVAHI_OK;
+			if (group!=null)
+				result = group.reset();
+			if (result==Avahi4JConstants.AVAHI_OK) {
+				services.clear();
+				committed = false;
+			}
+			return result;
+		}
+	}
+	
+	private ServiceSpec find(int interfaceNum, Protocol proto, String name, 
+			String type, String domain) {
+		for(ServiceSpec s: services)
+			if (s.is(interfaceNum, proto, name, type, domain))
+				return s;
+		return null;
+	}
+	
+	private static List<String> copy(List<String> l) {
+		return l==null ? null : new ArrayList<String>(l);
+	}
+	
+	/**
+	 * This method re-creates the group on the given client, adds its 
+	 * services and commits it if it was committed.
+	 * @throws Avahi4JException if the group can not be created
+	 */
+	void attach(Client c) throws Avahi4JException {
+		synchronized (changes) {
+			final int gen;
+			synchronized (this) {
+				if (released)
+					return;
+				gen = ++generation;
+			}
+			
+			group = c.createEntryGroup(new IEntryGroupCallback() {
+				@Override
+				public void groupStateChanged(State newState) {
+					stateChanged(gen, newState);
+				}
+			});
+			
+			// errors show up as a failed commit
+			for(ServiceSpec s: services) {
+				group.addService(s.interfaceNum, s.proto, s.name, s.type, s.domain,
+						s.host, s.port, s.txtRecord);
+				for(String subtype: s.subtypes)
+					group.addServicesubType(s.interfaceNum, s.proto, s.name, 
+							s.type, s.domain, subtype);
+			}
+			if (committed && group.commit()!=Avahi4JConstants.AVAHI_OK)
+				stateChanged(gen, State.AVAHI_ENTRY_GROUP_FAILURE);
+		}
+	}
+	
+	/**
+	 * This method ignores the events of the group of a failed client.
+	 */
+	synchronized void suspend() {
+		generation++;
+		rebuilding = true;
+	}
+	
+	/**
+	 * This method forgets about the group of a failed client.
+	 */
+	void detach() {
+		suspend();
+		synchronized (changes) {
+			if (group!=null)
+				group.release();
+			group = null;
+		}
+	}
+	
+	private synchronized void stateChanged(int gen, final State newState) {
+		if (released || gen!=generation)
+			return;
+		if (rebuilding) {
+			if (newState==State.AVAHI_ENTRY_GROUP_UNCOMMITED 
+					|| newState==State.AVAHI_ENTRY_GROUP_REGISTERING)
+				return;
+			rebuilding = false;
+		}
+		if (newState==state)
+			return;
+		state = newState;
+		
+		if (callback!=null)
+			supervisor.deliver(new Runnable() {
+				@Override
+				public void run() {
+					synchronized (SupervisedEntryGroup.this) {
+						if (released)
+							return;
+					}
+					callback.groupStateChanged(newState);
+				}
+			});
+	}
+}
@@ -0,0 +1,286 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import avahi4j.Avahi4JConstants.BrowserEvent;
+import avahi4j.Avahi4JConstants.Protocol;
+import avahi4j.exceptions.Avahi4JException;
+
+/**
+ * A service browser created by a {@link SupervisedClient}, which is 
+ * re-created after each reconnection. 
+ * <br>
+ * It keeps track of the services reported to its callback. After a 
+ * reconnection, the services found again by the new browser are not 
+ * reported again, those which were not known are reported as 
+ * {@link BrowserEvent#NEW} straight away, and those which are not found 
+ * again within the client's settle delay after the new browser reports 
+ * {@link BrowserEvent#NO_MORE} are reported as {@link BrowserEvent#REMOVE}.
+ * The {@link BrowserEvent#CACHE_EXHAUSTED} and {@link BrowserEvent#NO_MORE}
+ * events of the new browser are not reported.
+ * <br>
+ * To create one, call 
+ * {@link SupervisedClient#createServiceBrowser(IServiceBrowserCallback, int, Protocol, String, String, int) createServiceBrowser()}
+ * on a {@link SupervisedClient}. It MUST be released when no longer needed.
+ * @author gilles
+ *
+ */
+public final class SupervisedServiceBrowser implements Closeable {
+	/**
+	 * A service reported to the callback
+	 */
+	private static final class Service {
+		final int interfaceNum;
+		final Protocol proto;
+		final String name, type, domain;
+		
+		Service(int interfaceNum, Protocol proto, String name, String type, 
+				String domain) {
+			this.interfaceNum = interfaceNum;
+			this.proto = proto;
+			this.name = name;
+			this.type = type;
+			this.domain = domain;
+		}
+	}
+	
+	
+	/*
+	 * M E M B E R S
+	 */
+	private final SupervisedClient supervisor;
+	private final IServiceBrowserCallback callback;
+	private final int interfaceNum;
+	private final Protocol proto;
+	private final String type, domain;
+	private final int lookupFlags;
+	private final Map<String, Service> known;
+	private Set<String> seen;
+	private ServiceBrowser browser;
+	// the browser whose events are accepted
+	private int generation;
+	private boolean released;
+	
+	
+	/*
+	 * M E T H O D S
+	 */
+	SupervisedServiceBrowser(SupervisedClient supervisor, 
+			IServiceBrowserCallback callback, int interfaceNum, Protocol proto,
+			String type, String domain, int lookupFlags) {
+		this.supervisor = supervisor;
+		this.callback = callback;
+		this.interfaceNum = interfaceNum;
+		this.proto = proto;
+		this.type = type;
+		this.domain = domain;
+		this.lookupFlags = lookupFlags;
+		known = new LinkedHashMap<String, Service>();
+	}
+	
+	/**
+	 * This method releases this browser. No more events are delivered after
+	 * it returns, unless it is called from the callback.
+	 */
+	public void release() {
+		ServiceBrowser b;
+		synchronized (this) {
+			if (released)
+				return;
+			released = true;
+			b = browser;
+			browser = null;
+		}
+		if (b!=null)
+			b.release();
+		supervisor.removed(this);
+	}
+	
+	/**
+	 * This method releases this browser, like {@link #release()}.
+	 */
+	@Override
+	public void close() {
+		release();
+	}
+	
+	/**
+	 * @return the number of services currently known
+	 */
+	public synchronized int getServiceCount() {
+		return known.size();
+	}
+	
+	/**
+	 * @return whether the browser is being re-created after a reconnection
+	 */
+	public synchronized boolean isRebuilding() {
+		return seen!=null;
+	}
+	
+	/**
+	 * This method creates the browser on the given client.
+	 */
+	void attach(Client c) throws Avahi4JException {
+		final int gen;
+		synchronized (this) {
+			if (released)
+				return;
+			gen = ++generation;
+		}
+		
+		// events can be delivered before the browser is returned
+		ServiceBrowser b = c.createServiceBrowser(new IServiceBrowserCallback() {
+			@Override
+			public void serviceCallback(int interfaceNum, Protocol proto,
+					BrowserEvent browserEvent, String name, String type, 
+					String domain, int lookupResultFlag) {
+				event(gen, interfaceNum, proto, browserEvent, name, type, domain,
+						lookupResultFlag);
+			}
+		}, interfaceNum, proto, type, domain, lookupFlags);
+		
+		synchronized (this) {
+			if (!released && gen==generation) {
+				browser = b;
+				return;
+			}
+		}
+		b.release();
+	}
+	
+	/**
+	 * This method ignores the events of the browser of a failed client, and
+	 * starts tracking the services found again.
+	 */
+	synchronized void suspend() {
+		generation++;
+		seen = new HashSet<String>();
+	}
+	
+	/**
+	 * This method forgets about the browser of a failed client.
+	 */
+	void detach() {
+		ServiceBrowser b;
+		synchronized (this) {
+			suspend();
+			b = browser;
+			browser = null;
+		}
+		if (b!=null)
+			b.release();
+	}
+	
+	private synchronized void event(final int gen, int interfaceNum, 
+			Protocol proto, BrowserEvent event, String name, String type, 
+			String domain, int flags) {
+		if (released || gen!=generation)
+			return;
+		
+		switch (event) {
+		case NEW:
+			String key = interfaceNum+"/"+proto.ordinal()+"/"+name+"."+type+"."+domain;
+			if (seen!=null)
+				seen.add(key);
+			if (known.containsKey(key))
+				return;
+			known.put(key, new Service(interfaceNum, proto, name, type, domain));
+			break;
+			
+		case REMOVE:
+			key = interfaceNum+"/"+proto.ordinal()+"/"+name+"."+type+"."+domain;
+			if (seen!=null)
+				seen.remove(key);
+			if (known.remove(key)==null)
+				return;
+			break;
+			
+		case CACHE_EXHAUSTED:
+			if (seen!=null)
+				return;
+			break;
+			
+		case NO_MORE:
+			if (seen!=null) {
+				supervisor.schedule(new Runnable() {
+					@Override
+					public void run() {
+						settled(gen);
+					}
+				}, supervisor.getSettleDelay());
+				return;
+			}
+			break;
+			
+		default:
+			break;
+		}
+		
+		deliver(interfaceNum, proto, event, name, type, domain, flags);
+	}
+	
+	/**
+	 * This method reports the services which were not found again after a
+	 * reconnection.
+	 */
+	private synchronized void settled(int gen) {
+		if (released || gen!=generation || seen==null)
+			return;
+		
+		List<String> gone = new ArrayList<String>();
+		for(String key: known.keySet())
+			if (!seen.contains(key))
+				gone.add(key);
+		seen = null;
+		
+		for(String key: gone) {
+			Service s = known.remove(key);
+			deliver(s.interfaceNum, s.proto, BrowserEvent.REMOVE, s.name, 
+					s.type, s.domain, 0);
+		}
+	}
+	
+	/**
+	 * This method queues an event for the callback. Must be called with this
+	 * object's lock held, so events are queued in order.
+	 */
+	private void deliver(final int interfaceNum, final Protocol proto, 
+			final BrowserEvent event, final String name, final String type, 
+			final String domain, final int flags) {
+		supervisor.deliver(new Runnable() {
+			@Override
+			public void run() {
+				synchronized (SupervisedServiceBrowser.this) {
+					if (released)
+						return;
+				}
+				callback.serviceCallback(interfaceNum, proto, event, name, type,
+						domain, flags);
+			}
+		});
+	}
+}
@@ -0,0 +1,235 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A TXT predicate is a condition on the "key=value" strings of a service's
+ * TXT record, compiled once and evaluated directly against the raw record 
+ * data (see {@link RecordData}): no string is created to evaluate it. 
+ * Predicates are compiled from expressions such as:
+ * <pre>
+ * role=primary
+ * role=primary &amp;&amp; ver&gt;=3
+ * mode=a || mode=b &amp;&amp; !legacy
+ * </pre>
+ * An expression is made of conditions joined with <code>&amp;&amp;</code> 
+ * (and) and <code>||</code> (or), <code>&amp;&amp;</code> taking precedence. 
+ * A condition is one of:
+ * <ul>
+ * <li><code>key</code>: the key is present (with or without a value),</li>
+ * <li><code>!key</code>: the key is absent,</li>
+ * <li><code>key=value</code>, <code>key!=value</code>: the value is (is not) 
+ * exactly the given one. Values are compared byte for byte, as UTF-8,</li>
+ * <li><code>key&lt;n</code>, <code>key&lt;=n</code>, <code>key&gt;n</code>, 
+ * <code>key&gt;=n</code>: the value is a decimal integer and compares as 
+ * given with <code>n</code>.</li>
+ * </ul>
+ * Keys are compared ignoring the case of ASCII letters (RFC 6763 section 
+ * 6.4). A condition on the value of a missing key is false, except 
+ * <code>!=</code>. Predicates are immutable and can be shared between threads.
+ * @author gilles
+ *
+ */
+public final class TXTPredicate {
+	// condition operators
+	private static final int PRESENT = 0, ABSENT = 1, EQ = 2, NE = 3, LT = 4,
+		LE = 5, GT = 6, GE = 7;
+	private static final String OPERATORS[] = {"", "!", "=", "!=", "<", "<=", ">", ">="};
+	
+	/**
+	 * A compiled condition
+	 */
+	private static final class Condition {
+		final String key;
+		final int op;
+		final byte value[];
+		final long number;
+		
+		Condition(String key, int op, byte value[], long number) {
+			this.key = key;
+			this.op = op;
+			this.value = value;
+			this.number = number;
+		}
+	}
+	
+	
+	/*
+	 * M E M B E R S
+	 */
+	private final String expression;
+	// alternatives (or) of conjunctions (and) of conditions
+	private final Condition alternatives[][];
+	
+	
+	/*
+	 * M E T H O D S
+	 */
+	private TXTPredicate(String expression, Condition alternatives[][]) {
+		this.expression = expression;
+		this.alternatives = alternatives;
+	}
+	
+	/**
+	 * This method compiles a TXT predicate.
+	 * @param expression the expression (see {@link TXTPredicate})
+	 * @return the compiled predicate
+	 * @throws IllegalArgumentException if the expression is not valid
+	 */
+	public static TXTPredicate compile(String expression) {
+		if (expression==null)
+			throw new NullPointerException("the expression can not be null");
+		
+		List<Condition[]> alternatives = new ArrayList<Condition[]>();
+		for(String alternative: expression.split("\\|\\|")) {
+			List<Condition> conditions = new ArrayList<Condition>();
+			for(String condition: alternative.split("&&"))
+				conditions.add(compileCondition(condition.trim(), expression));
+			alternatives.add(conditions.toArray(new Condition[conditions.size()]));
+		}
+		return new TXTPredicate(expression, 
+				alternatives.toArray(new Condition[alternatives.size()][]));
+	}
+	
+	private static Condition compileCondition(String c, String expression) {
+		if (c.length()==0)
+			throw new IllegalArgumentException("Empty condition in TXT predicate '"
+					+ expression + "'");
+		
+		if (c.charAt(0)=='!')
+			return new Condition(checkKey(c.substring(1).trim(), expression), 
+					ABSENT, null, 0);
+		
+		// find the operator: the first of '=', '!', '<' or '>'
+		int i = 0;
+		while(i<c.length() && "=!<>".indexOf(c.charAt(i))<0)
+			i++;
+		if (i==c.length())
+			return new Condition(checkKey(c, expression), PRESENT, null, 0);
+		
+		String key = checkKey(c.substring(0, i).trim(), expression);
+		int end = i + (i+1<c.length() && c.charAt(i+1)=='=' ? 2 : 1);
+		int op;
+		String operator = c.substring(i, end);
+		for(op=EQ; op<OPERATORS.length; op++)
+			if (OPERATORS[op].equals(operator))
+				break;
+		if (op==OPERATORS.length)
+			throw new IllegalArgumentException("Invalid operator '" + operator
+					+ "' in TXT predicate '" + expression + "'");
+		
+		String value = c.substring(end).trim();
+		if (op==EQ || op==NE)
+			return new Condition(key, op, utf8(value), 0);
+		try {
+			return new Condition(key, op, null, Long.parseLong(value));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid number '" + value
+					+ "' in TXT predicate '" + expression + "'");
+		}
+	}
+	
+	private static String checkKey(String key, String expression) {
+		if (key.length()==0 || key.indexOf('=')>=0)
+			throw new IllegalArgumentException("Invalid key '" + key 
+					+ "' in TXT predicate '" + expression + "'");
+		return key;
+	}
+	
+	private static byte[] utf8(String s) {
+		try {
+			return s.getBytes("UTF-8");
+		} catch (java.io.UnsupportedEncodingException e) {
+			throw new Error(e);
+		}
+	}
+	
+	/**
+	 * This method evaluates this predicate against a TXT record.
+	 * @param txt a {@link RecordData} wrapping the data of a TXT record
+	 * @return whether the TXT record matches this predicate
+	 */
+	public boolean matches(RecordData txt) {
+		for(Condition conditions[]: alternatives) {
+			boolean match = true;
+			for(int i=0; match && i<conditions.length; i++)
+				match = matches(conditions[i], txt);
+			if (match)
+				return true;
+		}
+		return false;
+	}
+	
+	private static boolean matches(Condition c, RecordData txt) {
+		int index = txt.findTXT(c.key);
+		switch(c.op) {
+		case PRESENT:
+			return index>=0;
+		case ABSENT:
+			return index<0;
+		case EQ:
+		case NE:
+			return (index>=0 && valueEquals(txt, index, c.value)) == (c.op==EQ);
+		default:
+			if (index<0)
+				return false;
+			int offset = txt.getTXTValueOffset(index);
+			if (offset<0)
+				return false;
+			int length = txt.getTXTValueLength(index);
+			// parse the decimal value in place
+			boolean negative = length>0 && txt.getByte(offset)=='-';
+			int i = negative ? 1 : 0;
+			if (i==length || length-i>18)
+				return false;
+			long n = 0;
+			for(; i<length; i++) {
+				int b = txt.getByte(offset + i);
+				if (b<'0' || b>'9')
+					return false;
+				n = n*10 + b - '0';
+			}
+			if (negative)
+				n = -n;
+			switch(c.op) {
+			case LT: return n<c.number;
+			case LE: return n<=c.number;
+			case GT: return n>c.number;
+			default: return n>=c.number;
+			}
+		}
+	}
+	
+	private static boolean valueEquals(RecordData txt, int index, byte value[]) {
+		int offset = txt.getTXTValueOffset(index);
+		if (offset<0 || txt.getTXTValueLength(index)!=value.length)
+			return false;
+		for(int i=0; i<value.length; i++)
+			if (txt.getByte(offset + i)!=(value[i] & 0xff))
+				return false;
+		return true;
+	}
+	
+	@Override
+	public String toString() {
+		return expression;
+	}
+}
@@ -0,0 +1,506 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import avahi4j.Avahi4JConstants.BrowserEvent;
+import avahi4j.Avahi4JConstants.Protocol;
+import avahi4j.ServiceResolver.ServiceResolverEvent;
+import avahi4j.exceptions.Avahi4JException;
+import avahi4j.mdns.DNSRecord;
+
+/**
+ * A TXT subscription reports the services of a given type whose TXT record
+ * matches a {@link TXTPredicate}. It browses the services (sharing the 
+ * service browser, see 
+ * {@link Client#subscribeServiceBrowser(IServiceBrowserCallback, int, Protocol, String, String, int) subscribeServiceBrowser()}),
+ * and watches the TXT record of each of them with a {@link RecordBrowser}. 
+ * The predicate is evaluated against the raw TXT data: services which do not
+ * match are neither resolved nor turned into strings. Matching services are 
+ * resolved, and reported to an {@link ITXTSubscriptionCallback}:
+ * <ul>
+ * <li>{@link TXTSubscriptionEvent#ENTERED} once a service matches and has 
+ * been resolved,</li>
+ * <li>{@link TXTSubscriptionEvent#UPDATED} when the TXT record or the 
+ * address of a matching service changes, and it still matches,</li>
+ * <li>{@link TXTSubscriptionEvent#LEFT} when a service which was reported 
+ * no longer matches after a TXT update, or goes away.</li>
+ * </ul>
+ * Services are reported once per interface and protocol they are found on,
+ * as with a {@link ServiceBrowser}. To create one, call 
+ * {@link Client#subscribeServices(ITXTSubscriptionCallback, int, Protocol, String, String, TXTPredicate, int) subscribeServices()}
+ * on an existing {@link Client}. It must be released when no longer needed.
+ * @author gilles
+ *
+ */
+public final class TXTSubscription implements Closeable {
+	/**
+	 * This enumeration lists the events reported by a TXT subscription.
+	 * @author gilles
+	 *
+	 */
+	public enum TXTSubscriptionEvent {
+		/**
+		 * A service matches the predicate, and has been resolved.
+		 */
+		ENTERED,
+		/**
+		 * A matching service changed, and still matches.
+		 */
+		UPDATED,
+		/**
+		 * A service which was reported no longer matches, or went away.
+		 */
+		LEFT,
+		/**
+		 * The TXT record of a service could not be watched, or a matching 
+		 * service could not be resolved.
+		 */
+		FAILURE
+	};
+	
+	/**
+	 * The TXT record browser events a subscription needs
+	 */
+	private static final EventFilter TXT_FILTER = new EventFilter(EventFilter.mask(
+			BrowserEvent.NEW, BrowserEvent.REMOVE, BrowserEvent.FAILURE), null,
+			DNSRecord.TYPE_TXT);
+	
+	/**
+	 * A service instance reported by the service browser
+	 */
+	private final class Instance implements IRecordDataCallback, 
+			IServiceResolverCallback {
+		final String key;
+		final int interfaceNum;
+		final Protocol proto;
+		final String name, type, domain;
+		RecordBrowser txtBrowser;
+		ServiceResolver resolver;
+		// incremented whenever a resolver is requested or dropped, so that
+		// one created in the meantime can be told stale
+		int resolverGeneration;
+		// the number of matching TXT records currently known
+		int matching;
+		// the strings of the last matching TXT record
+		String txtRecords[];
+		// the last details reported, null if not ENTERED
+		ResolvedService service;
+		
+		Instance(String key, int interfaceNum, Protocol proto, String name, 
+				String type, String domain) {
+			this.key = key;
+			this.interfaceNum = interfaceNum;
+			this.proto = proto;
+			this.name = name;
+			this.type = type;
+			this.domain = domain;
+		}
+		
+		@Override
+		public void recordCallback(RecordBrowser browser, int ifNum,
+				Protocol p, BrowserEvent event, String recordName, int clazz, 
+				int recordType, RecordData rdata, int lookupResultFlags) {
+			txtEvent(this, browser, event, rdata);
+		}
+		
+		@Override
+		public void resolverCallback(ServiceResolver r, int ifNum,
+				Protocol p, ServiceResolverEvent resolverEvent, String n,
+				String t, String d, String hostname, Address address,
+				int port, String[] txt, int lookupResultFlag) {
+			resolverEvent(this, r, resolverEvent, n, hostname, address, port,
+					lookupResultFlag);
+		}
+		
+		ResolvedService failure() {
+			ResolvedService s = new ResolvedService();
+			s.interfaceNum = interfaceNum;
+			s.proto = proto;
+			s.name = name;
+			s.type = type;
+			s.domain = domain;
+			s.resolverEvent = ServiceResolverEvent.RESOLVER_FAILURE;
+			return s;
+		}
+	}
+	
+	
+	/*
+	 * M E M B E R S
+	 */
+	private final Client client;
+	private final ITXTSubscriptionCallback callback;
+	private final TXTPredicate predicate;
+	private final int lookupFlags;
+	private final Map<String, Instance> instances;
+	private ServiceSubscription subscription;
+	private long rejected;
+	private boolean released;
+	
+	
+	/*
+	 * M E T H O D S
+	 */
+	/**
+	 * This method builds a new TXT subscription.
+	 * @param client the client used to create the browsers and resolvers
+	 * @param callback the callback object which will receive the services
+	 * @param interfaceNum the interface number
+	 * @param proto the {@link Protocol}
+	 * @param type the service type
+	 * @param domain the domain to search (can be null to use client's domain)
+	 * @param predicate the predicate TXT records must match
+	 * @param lookupFlags the lookup flags (see Avahi4JConstants.LOOKUP_*)
+	 * @throws Avahi4JException if there is a problem creating the service 
+	 * browser
+	 */
+	TXTSubscription(Client client, ITXTSubscriptionCallback callback, 
+			int interfaceNum, Protocol proto, String type, String domain, 
+			TXTPredicate predicate, int lookupFlags) throws Avahi4JException {
+		this.client = client;
+		this.callback = callback;
+		this.predicate = predicate;
+		this.lookupFlags = lookupFlags;
+		instances = new HashMap<String, Instance>();
+		
+		ServiceSubscription s = client.subscribeServiceBrowser(
+				new IServiceBrowserCallback() {
+			@Override
+			public void serviceCallback(int interfaceNum, Protocol proto,
+					BrowserEvent browserEvent, String name, String type, 
+					String domain, int lookupResultFlag) {
+				browserEvent(interfaceNum, proto, browserEvent, name, type, 
+						domain);
+			}
+		}, interfaceNum, proto, type, domain, lookupFlags);
+		
+		synchronized (this) {
+			subscription = s;
+		}
+	}
+	
+	/**
+	 * This method releases the service browser, and all the record browsers
+	 * and resolvers. No more events are reported after it returns.
+	 */
+	public void release() {
+		List<Instance> l;
+		ServiceSubscription s;
+		synchronized (this) {
+			if (released)
+				return;
+			released = true;
+			s = subscription;
+			l = new ArrayList<Instance>(instances.values());
+			instances.clear();
+		}
+		if (s!=null)
+			s.release();
+		for(Instance i: l)
+			releaseBrowsers(i.txtBrowser, i.resolver);
+	}
+	
+	/**
+	 * This method releases this subscription, like {@link #release()}.
+	 */
+	@Override
+	public void close() {
+		release();
+	}
+	
+	/**
+	 * @return the {@link TXTPredicate} of this subscription
+	 */
+	public TXTPredicate getPredicate() {
+		return predicate;
+	}
+	
+	/**
+	 * @return the matching services currently reported
+	 */
+	public synchronized List<ResolvedService> getServices() {
+		List<ResolvedService> l = new ArrayList<ResolvedService>();
+		for(Instance i: instances.values())
+			if (i.service!=null)
+				l.add(i.service);
+		return l;
+	}
+	
+	/**
+	 * @return the number of services currently browsed, matching or not
+	 */
+	public synchronized int getInstanceCount() {
+		return instances.size();
+	}
+	
+	/**
+	 * @return the number of TXT records which did not match the predicate 
+	 * since this subscription was created
+	 */
+	public synchronized long getRejectedCount() {
+		return rejected;
+	}
+	
+	/**
+	 * This method checks whether events for an instance should still be 
+	 * handled. Browsers and resolvers may call back before they are 
+	 * assigned to the instance, so they can not be compared with the 
+	 * instance's until then. Must be called with this object's lock held.
+	 */
+	private boolean isCurrent(Instance i) {
+		return !released && instances.get(i.key)==i;
+	}
+	
+	/**
+	 * This method creates the record browser watching the TXT record of a 
+	 * new instance. It must be called without holding this object's lock,
+	 * as creating a browser takes the client's lock, which the client's 
+	 * thread holds while delivering events to this subscription.
+	 * @return false if the browser could not be created
+	 */
+	private boolean startTXTBrowser(Instance i) {
+		RecordBrowser b;
+		try {
+			b = client.createRecordBrowser(i, i.interfaceNum, i.proto, 
+					DNSRecord.escapeLabel(i.name) + "." + i.type + "." + i.domain,
+					DNSRecord.CLASS_IN, DNSRecord.TYPE_TXT, lookupFlags, 
+					TXT_FILTER);
+		} catch (Avahi4JException e) {
+			return false;
+		}
+		
+		synchronized (this) {
+			// unless the service went away in the meantime
+			if (isCurrent(i)) {
+				i.txtBrowser = b;
+				return true;
+			}
+		}
+		b.release();
+		return true;
+	}
+	
+	/**
+	 * This method creates the resolver of a matching instance, like 
+	 * {@link #startTXTBrowser(Instance)}.
+	 * @param generation the instance's resolver generation when the 
+	 * resolver was requested
+	 * @return false if the resolver could not be created, and it is still
+	 * needed
+	 */
+	private boolean startResolver(Instance i, int generation) {
+		ServiceResolver r;
+		try {
+			r = client.createServiceResolver(i, i.interfaceNum, i.proto, i.name,
+					i.type, i.domain, Protocol.ANY, 
+					lookupFlags | Avahi4JConstants.LOOKUP_NO_TXT);
+		} catch (Avahi4JException e) {
+			synchronized (this) {
+				return !isCurrent(i) || i.resolverGeneration!=generation;
+			}
+		}
+		
+		synchronized (this) {
+			// unless the instance stopped matching in the meantime
+			if (isCurrent(i) && i.resolverGeneration==generation) {
+				i.resolver = r;
+				return true;
+			}
+		}
+		r.release();
+		return true;
+	}
+	
+	private static void releaseBrowsers(RecordBrowser b, ServiceResolver r) {
+		if (b!=null)
+			b.release();
+		if (r!=null)
+			r.release();
+	}
+	
+	/**
+	 * This method creates a record browser watching the TXT record of each
+	 * new service, and releases it when the service goes away
+	 */
+	private void browserEvent(int ifNum, Protocol p, BrowserEvent event, 
+			String name, String type, String domain) {
+		if (event!=BrowserEvent.NEW && event!=BrowserEvent.REMOVE)
+			return;
+		
+		String key = ifNum + "/" + p.ordinal() + "/" + name;
+		Instance i;
+		ResolvedService left = null;
+		
+		synchronized (this) {
+			if (released)
+				return;
+			if (event==BrowserEvent.NEW) {
+				if (instances.containsKey(key))
+					return;
+				i = new Instance(key, ifNum, p, name, type, domain);
+				instances.put(key, i);
+			} else {
+				i = instances.remove(key);
+				if (i==null)
+					return;
+				left = i.service;
+			}
+		}
+		
+		if (event==BrowserEvent.NEW) {
+			if (!startTXTBrowser(i))
+				callback.txtSubscriptionCallback(this, 
+						TXTSubscriptionEvent.FAILURE, i.failure());
+		} else {
+			releaseBrowsers(i.txtBrowser, i.resolver);
+			if (left!=null)
+				callback.txtSubscriptionCallback(this, TXTSubscriptionEvent.LEFT,
+						left);
+		}
+	}
+	
+	/**
+	 * This method evaluates the predicate against TXT records as they come
+	 * and go, and starts or stops resolving the service accordingly
+	 */
+	private void txtEvent(Instance i, RecordBrowser browser, BrowserEvent event,
+			RecordData rdata) {
+		TXTSubscriptionEvent report = null;
+		ResolvedService service = null;
+		ServiceResolver stale = null;
+		int generation = -1;
+		
+		synchronized (this) {
+			if (!isCurrent(i) || (i.txtBrowser!=null && i.txtBrowser!=browser))
+				return;
+			
+			if (event==BrowserEvent.FAILURE) {
+				report = TXTSubscriptionEvent.FAILURE;
+				service = i.failure();
+			} else {
+				boolean wasMatching = i.matching>0;
+				boolean match = predicate.matches(rdata);
+				if (!match) {
+					if (event==BrowserEvent.NEW)
+						rejected++;
+				} else if (event==BrowserEvent.NEW) {
+					i.matching++;
+					// only matching records are turned into strings
+					i.txtRecords = rdata.getTXTStrings();
+				} else if (i.matching>0)
+					i.matching--;
+				
+				if (i.matching>0 && !wasMatching) {
+					generation = ++i.resolverGeneration;
+				} else if (i.matching==0 && wasMatching) {
+					i.resolverGeneration++;
+					stale = i.resolver;
+					i.resolver = null;
+					if (i.service!=null) {
+						report = TXTSubscriptionEvent.LEFT;
+						service = i.service;
+						i.service = null;
+					}
+				} else if (match && event==BrowserEvent.NEW && i.service!=null) {
+					report = TXTSubscriptionEvent.UPDATED;
+					service = copy(i.service, i.txtRecords);
+					i.service = service;
+				}
+			}
+		}
+		
+		if (stale!=null)
+			stale.release();
+		if (generation>=0 && !startResolver(i, generation)) {
+			report = TXTSubscriptionEvent.FAILURE;
+			service = i.failure();
+		}
+		if (report!=null)
+			callback.txtSubscriptionCallback(this, report, service);
+	}
+	
+	/**
+	 * This method reports matching services once resolved
+	 */
+	private void resolverEvent(Instance i, ServiceResolver resolver, 
+			ServiceResolverEvent event, String name, String hostname, 
+			Address address, int port, int flags) {
+		TXTSubscriptionEvent report;
+		ResolvedService service;
+		ServiceResolver stale = null;
+		
+		synchronized (this) {
+			if (!isCurrent(i) || i.matching==0 
+					|| (i.resolver!=null && i.resolver!=resolver))
+				return;
+			
+			if (event==ServiceResolverEvent.RESOLVER_FAILURE) {
+				i.resolverGeneration++;
+				stale = i.resolver;
+				i.resolver = null;
+				report = TXTSubscriptionEvent.FAILURE;
+				service = i.failure();
+			} else if (name==null) {
+				// the service went away: the browser will report it
+				return;
+			} else {
+				service = new ResolvedService();
+				service.interfaceNum = i.interfaceNum;
+				service.proto = i.proto;
+				service.resolverEvent = event;
+				service.name = i.name;
+				service.type = i.type;
+				service.domain = i.domain;
+				service.hostname = hostname;
+				service.address = address;
+				service.port = port;
+				service.txtRecords = i.txtRecords;
+				service.lookupResultFlag = flags;
+				report = i.service==null ? TXTSubscriptionEvent.ENTERED 
+						: TXTSubscriptionEvent.UPDATED;
+				i.service = service;
+			}
+		}
+		
+		if (stale!=null)
+			stale.release();
+		callback.txtSubscriptionCallback(this, report, service);
+	}
+	
+	private static ResolvedService copy(ResolvedService s, String txtRecords[]) {
+		ResolvedService c = new ResolvedService();
+		c.interfaceNum = s.interfaceNum;
+		c.proto = s.proto;
+		c.resolverEvent = s.resolverEvent;
+		c.name = s.name;
+		c.type = s.type;
+		c.domain = s.domain;
+		c.hostname = s.hostname;
+		c.address = s.address;
+		c.port = s.port;
+		c.txtRecords = txtRecords;
+		c.lookupResultFlag = s.lookupResultFlag;
+		return c;
+	}
+}
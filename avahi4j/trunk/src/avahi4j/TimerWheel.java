@@ -0,0 +1,206 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j;
+
+/**
+ * This class is a hashed timer wheel, used to enforce deadlines on many 
+ * objects at once (see {@link ServiceResolver}). Deadlines are rounded up to 
+ * the next tick ({@link #TICK} milliseconds), so scheduling and cancelling 
+ * them is done in constant time, whatever the number of pending deadlines. 
+ * Expired tasks are run from the wheel's own daemon thread, one at a time.
+ * @author gilles
+ *
+ */
+final class TimerWheel implements Runnable {
+	
+	/**
+	 * the duration of a tick, in milliseconds
+	 */
+	static final long TICK = 50;
+	
+	/**
+	 * the number of slots in the wheel (a power of 2)
+	 */
+	private static final int SLOTS = 512;
+	
+	private static TimerWheel shared;
+	
+	/*
+	 * M E M B E R S
+	 */
+	private final Timeout slots[];
+	private final long start;
+	private long tick;
+	private int pending;
+	private Thread thread;
+	
+	
+	/*
+	 * M E T H O D S
+	 */
+	private TimerWheel() {
+		slots = new Timeout[SLOTS];
+		start = System.nanoTime();
+		tick = 0;
+	}
+	
+	/**
+	 * This method returns the timer wheel shared by all the clients
+	 * @return the shared timer wheel
+	 */
+	static synchronized TimerWheel getShared() {
+		if (shared==null)
+			shared = new TimerWheel();
+		return shared;
+	}
+	
+	/**
+	 * This method schedules a task
+	 * @param task the task to run when the delay expires
+	 * @param delay the delay in milliseconds
+	 * @return a {@link Timeout} which can be used to cancel the task
+	 */
+	synchronized Timeout schedule(Runnable task, long delay) {
+		// start the thread on first use, or after it stopped for lack of work.
+		// The wheel does not turn without it, so catch up first
+		if (thread==null) {
+			tick = elapsedNanos()/1000000/TICK;
+			thread = new Thread(this, "avahi4j timer wheel");
+			thread.setDaemon(true);
+			thread.start();
+		}
+		
+		// the number of ticks from now, rounded up
+		long ticks = (elapsedNanos()/1000000 + delay + TICK - 1)/TICK - tick;
+		if (ticks<1)
+			ticks = 1;
+		
+		Timeout t = new Timeout(task, (int) ((ticks-1)/SLOTS));
+		t.slot = (int) ((tick + ticks) & (SLOTS - 1));
+		t.next = slots[t.slot];
+		if (t.next!=null)
+			t.next.prev = t;
+		slots[t.slot] = t;
+		pending++;
+		
+		return t;
+	}
+	
+	/**
+	 * This method removes a timeout from its slot
+	 */
+	private void unlink(Timeout t) {
+		if (t.prev!=null)
+			t.prev.next = t.next;
+		else
+			slots[t.slot] = t.next;
+		if (t.next!=null)
+			t.next.prev = t.prev;
+		t.next = t.prev = null;
+		t.slot = -1;
+		pending--;
+	}
+	
+	private long elapsedNanos() {
+		return System.nanoTime() - start;
+	}
+	
+	/**
+	 * This method advances the wheel one tick at a time and runs the expired
+	 * tasks. It returns when there is no pending task left.
+	 */
+	public void run() {
+		Timeout expired = null;
+		
+		while(true) {
+			synchronized(this) {
+				// wait for the next tick
+				long wait;
+				while ((wait = (tick+1)*TICK - elapsedNanos()/1000000)>0) {
+					try {
+						wait(wait);
+					} catch (InterruptedException e) {
+						// keep going, we are the only owner of this thread
+					}
+				}
+				tick++;
+				
+				// collect the timeouts expiring in this slot
+				Timeout t = slots[(int) (tick & (SLOTS - 1))];
+				while (t!=null) {
+					Timeout next = t.next;
+					if (t.rounds>0)
+						t.rounds--;
+					else {
+						unlink(t);
+						t.next = expired;
+						expired = t;
+					}
+					t = next;
+				}
+				
+				if (expired==null && pending==0) {
+					thread = null;
+					return;
+				}
+			}
+			
+			// run them outside the lock, so they can schedule and cancel others
+			while (expired!=null) {
+				Timeout t = expired;
+				expired = t.next;
+				t.next = null;
+				try {
+					t.task.run();
+				} catch (Throwable e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Objects of this class are the pending tasks of a {@link TimerWheel}
+	 * @author gilles
+	 *
+	 */
+	final class Timeout {
+		private final Runnable task;
+		private int rounds;
+		private int slot;
+		private Timeout next, prev;
+		
+		private Timeout(Runnable task, int rounds) {
+			this.task = task;
+			this.rounds = rounds;
+		}
+		
+		/**
+		 * This method cancels this task if it has not run yet
+		 * @return whether the task was cancelled before it ran
+		 */
+		boolean cancel() {
+			synchronized(TimerWheel.this) {
+				if (slot<0)
+					return false;
+				unlink(this);
+				return true;
+			}
+		}
+	}
+}
@@ -0,0 +1,159 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class controls the tracing done by the Avahi4J JNI library. Trace 
+ * records are kept in a fixed-size in-memory ring buffer in the native 
+ * library, so tracing can be turned on in a live process without rebuilding 
+ * the library and without slowing down the poll loop thread with stderr I/O.
+ * Records are retrieved on demand with {@link #drain()}. Tracing is only 
+ * available with the JNI backend: with the other backends, the methods of this 
+ * class do nothing. If the ring buffer fills up before it is drained, the oldest records are overwritten (see 
+ * {@link #getDroppedCount()}).<br>
+ * The initial trace level can also be set with the <code>avahi4j.trace</code>
+ * system property (for instance <code>-Davahi4j.trace=DEBUG</code>).
+ * @author gilles
+ *
+ */
+public final class Trace {
+	/**
+	 * This enumeration lists the trace levels. Each level includes the 
+	 * records of the levels before it.
+	 * @author gilles
+	 */
+	public enum Level {
+		/**
+		 * Tracing is disabled
+		 */
+		OFF,
+		/**
+		 * Errors only
+		 */
+		ERROR,
+		/**
+		 * Informational messages
+		 */
+		INFO,
+		/**
+		 * Debug statements, including entry in every JNI method
+		 */
+		DEBUG,
+		/**
+		 * Everything, including native memory allocations
+		 */
+		VERBOSE
+	}
+	
+	/**
+	 * the maximum number of records retrieved with each native call
+	 */
+	private static final int DRAIN_BATCH = 64;
+	
+	/*
+	 * N A T I V E   M E T H O D S
+	 */
+	private static native void set_level(int level);
+	private static native int get_level();
+	private static native long get_dropped();
+	/**
+	 * This method copies pending trace records into the given arrays
+	 * @return the number of records copied
+	 */
+	private static native int drain_records(long timestamps[], int threads[],
+			int levels[], String messages[]);
+	
+	
+	/*
+	 * M E T H O D S
+	 */
+	private Trace() {}
+	
+	/**
+	 * This method checks whether tracing is available, ie whether the JNI 
+	 * backend is used. The JNI library is loaded by that backend, and only 
+	 * then.
+	 * @return whether the native trace methods can be called
+	 */
+	private static boolean isAvailable() {
+		return Client.backend instanceof JNIBackend;
+	}
+	
+	/**
+	 * This method sets the trace level. It can be called at any time.
+	 * @param level the new trace level
+	 */
+	public static void setLevel(Level level) {
+		if (isAvailable())
+			set_level(level.ordinal());
+	}
+	
+	/**
+	 * This method returns the current trace level.
+	 * @return the current trace level ({@link Level#OFF} if tracing is not 
+	 * available)
+	 */
+	public static Level getLevel() {
+		if (!isAvailable())
+			return Level.OFF;
+		
+		return Level.values()[get_level()];
+	}
+	
+	/**
+	 * This method returns the number of trace records which were overwritten 
+	 * before they could be drained.
+	 * @return the number of trace records lost so far
+	 */
+	public static long getDroppedCount() {
+		if (!isAvailable())
+			return 0;
+		
+		return get_dropped();
+	}
+	
+	/**
+	 * This method removes all pending records from the native ring buffer and
+	 * returns them, oldest first.
+	 * @return a list of trace records (may be empty)
+	 */
+	public static synchronized List<TraceRecord> drain() {
+		List<TraceRecord> records = new ArrayList<TraceRecord>();
+		long timestamps[] = new long[DRAIN_BATCH];
+		int threads[] = new int[DRAIN_BATCH];
+		int levels[] = new int[DRAIN_BATCH];
+		String messages[] = new String[DRAIN_BATCH];
+		Level values[] = Level.values();
+		int count;
+		
+		if (!isAvailable())
+			return records;
+		
+		do {
+			count = drain_records(timestamps, threads, levels, messages);
+			for(int i=0; i<count; i++)
+				records.add(new TraceRecord(timestamps[i], threads[i], 
+						values[levels[i]], messages[i]));
+		} while (count==DRAIN_BATCH);
+		
+		return records;
+	}
+}
@@ -0,0 +1,79 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j;
+
+import avahi4j.Trace.Level;
+
+/**
+ * This class represents a single trace record drained from the JNI library
+ * with {@link Trace#drain()}.
+ * @author gilles
+ *
+ */
+public final class TraceRecord {
+	private final long timestamp;
+	private final int threadId;
+	private final Level level;
+	private final String message;
+	
+	TraceRecord(long timestamp, int threadId, Level level, String message) {
+		this.timestamp = timestamp;
+		this.threadId = threadId;
+		this.level = level;
+		this.message = message;
+	}
+	
+	/**
+	 * This method returns the time this record was written. It uses the same
+	 * clock as {@link System#nanoTime()}.
+	 * @return the time this record was written, in nanoseconds
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+	
+	/**
+	 * This method returns the id of the native thread which wrote this record
+	 * (as returned by gettid()).
+	 * @return the native thread id
+	 */
+	public int getThreadId() {
+		return threadId;
+	}
+	
+	/**
+	 * This method returns the level of this record.
+	 * @return the level of this record
+	 */
+	public Level getLevel() {
+		return level;
+	}
+	
+	/**
+	 * This method returns the message, prefixed with the source file and line
+	 * number.
+	 * @return the message
+	 */
+	public String getMessage() {
+		return message;
+	}
+	
+	public String toString() {
+		return timestamp+" ["+threadId+"] "+level+" "+message;
+	}
+}
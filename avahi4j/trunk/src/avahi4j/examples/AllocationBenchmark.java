@@ -0,0 +1,150 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j.examples;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CountDownLatch;
+
+import avahi4j.Avahi4JConstants;
+import avahi4j.Client;
+import avahi4j.EventFilter;
+import avahi4j.IServiceBrowserCallback;
+import avahi4j.IServiceEventCallback;
+import avahi4j.ServiceBrowser;
+import avahi4j.ServiceEvent;
+import avahi4j.Avahi4JConstants.BrowserEvent;
+import avahi4j.Avahi4JConstants.Protocol;
+import avahi4j.exceptions.Avahi4JException;
+
+/**
+ * This example class measures the memory allocated for each service browser 
+ * event with the selected backend (<code>-Davahi4j.backend=jni</code> or 
+ * <code>ffm</code>), with an {@link IServiceEventCallback} and with an 
+ * {@link IServiceBrowserCallback}. Like {@link BackendBenchmark}, it is meant
+ * to be run against the stub avahi library found in <code>bench/</code>, and
+ * the <code>bench-alloc-jni</code> and <code>bench-alloc-ffm</code> ant 
+ * targets run it with the right settings. The bytes allocated by the thread 
+ * delivering the events are read before the first event of a burst and after
+ * the last one, so the figures only include what dispatching the events 
+ * allocates (they require a JVM which supports 
+ * <code>com.sun.management.ThreadMXBean</code>). Once the JIT has compiled 
+ * the dispatch path, an {@link IServiceEventCallback} which does not ask for 
+ * the service names should see no allocation at all.
+ * @author gilles
+ *
+ */
+public class AllocationBenchmark implements IServiceEventCallback, IServiceBrowserCallback {
+	private static final int ROUNDS = Integer.getInteger("bench.rounds", 10);
+	private static final int WARMUP = Integer.getInteger("bench.warmup", 3);
+	
+	private final Client client;
+	private final com.sun.management.ThreadMXBean threads;
+	private volatile CountDownLatch done;
+	private long events;
+	private long startBytes;
+	private long endBytes;
+	
+	public AllocationBenchmark(com.sun.management.ThreadMXBean threads) 
+			throws Avahi4JException {
+		this.threads = threads;
+		client = new Client();
+		client.start();
+	}
+	
+	/**
+	 * This method creates a service browser and waits for all its events
+	 * @param view whether to receive the events as a {@link ServiceEvent}
+	 * @return the number of bytes allocated per NEW event
+	 */
+	public double browse(boolean view) throws Avahi4JException, InterruptedException {
+		events = 0;
+		done = new CountDownLatch(1);
+		ServiceBrowser browser;
+		if (view)
+			browser = client.createServiceBrowser((IServiceEventCallback) this,
+					Avahi4JConstants.AnyInterface, Protocol.ANY, "_bench._tcp", 
+					null, 0, EventFilter.ACCEPT_ALL);
+		else
+			browser = client.createServiceBrowser((IServiceBrowserCallback) this,
+					Avahi4JConstants.AnyInterface, Protocol.ANY, "_bench._tcp", 
+					null, 0);
+		done.await();
+		browser.release();
+		return events<2 ? 0 : (endBytes - startBytes) / (double) (events - 1);
+	}
+	
+	public void stop() {
+		client.stop();
+		client.release();
+	}
+	
+	@Override
+	public void serviceEvent(ServiceEvent event) {
+		count(event.getEvent());
+	}
+	
+	@Override
+	public void serviceCallback(int interfaceNum, Protocol proto,
+			BrowserEvent browserEvent, String name, String type, String domain,
+			int lookupResultFlag) {
+		count(browserEvent);
+	}
+	
+	/**
+	 * This method reads the bytes allocated by the current thread at the 
+	 * first and last events of a burst
+	 */
+	private void count(BrowserEvent event) {
+		if (event==BrowserEvent.NEW) {
+			if (events++==0)
+				startBytes = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+		} else if (event==BrowserEvent.NO_MORE || event==BrowserEvent.FAILURE) {
+			endBytes = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+			done.countDown();
+		}
+	}
+	
+	public static void main(String args[]) throws Exception {
+		if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+			System.out.println("This JVM can not measure allocations");
+			return;
+		}
+		com.sun.management.ThreadMXBean threads = 
+			(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		if (!threads.isThreadAllocatedMemorySupported()) {
+			System.out.println("This JVM can not measure allocations");
+			return;
+		}
+		threads.setThreadAllocatedMemoryEnabled(true);
+		
+		AllocationBenchmark b = new AllocationBenchmark(threads);
+		System.out.println("Backend: "+System.getProperty("avahi4j.backend", "jni"));
+		
+		// the first rounds warm up the JIT and are not reported
+		for(int i=0; i<WARMUP; i++) {
+			b.browse(true);
+			b.browse(false);
+		}
+		for(int i=0; i<ROUNDS; i++)
+			System.out.printf("Round %d: %.2f bytes/event (IServiceEventCallback), "
+					+ "%.2f bytes/event (IServiceBrowserCallback)%n", i + 1, 
+					b.browse(true), b.browse(false));
+		
+		b.stop();
+	}
+}
@@ -0,0 +1,157 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j.examples;
+
+import java.util.concurrent.CountDownLatch;
+
+import avahi4j.Address;
+import avahi4j.Avahi4JConstants;
+import avahi4j.Client;
+import avahi4j.IServiceBrowserCallback;
+import avahi4j.IServiceResolverCallback;
+import avahi4j.LatencyStats;
+import avahi4j.ServiceBrowser;
+import avahi4j.ServiceResolver;
+import avahi4j.Avahi4JConstants.BrowserEvent;
+import avahi4j.Avahi4JConstants.Protocol;
+import avahi4j.LatencyStats.Stage;
+import avahi4j.ServiceResolver.ServiceResolverEvent;
+import avahi4j.exceptions.Avahi4JException;
+
+/**
+ * This example class measures the cost of crossing the native boundary with 
+ * the selected backend (<code>-Davahi4j.backend=jni</code> or 
+ * <code>ffm</code>). It is meant to be run against the stub avahi library 
+ * found in <code>bench/</code>, which delivers a burst of browser events 
+ * without involving the avahi daemon, so the figures only reflect the 
+ * backend's overhead. The <code>bench-jni</code> and <code>bench-ffm</code> 
+ * ant targets run it with the right settings. It reports:
+ * <ul>
+ * <li>upcall throughput: service browser events delivered per second,</li>
+ * <li>downcall latency: time taken by {@link Client#getHostName()},</li>
+ * <li>round trip latency: time between creating a {@link ServiceResolver} and 
+ * receiving its result.</li>
+ * </ul>
+ * @author gilles
+ *
+ */
+public class BackendBenchmark implements IServiceBrowserCallback, IServiceResolverCallback {
+	private static final int ROUNDS = Integer.getInteger("bench.rounds", 10);
+	private static final int DOWNCALLS = Integer.getInteger("bench.downcalls", 1000000);
+	private static final int RESOLVES = Integer.getInteger("bench.resolves", 10000);
+	
+	private Client client;
+	private volatile CountDownLatch done;
+	private long events;
+	
+	public BackendBenchmark() throws Avahi4JException {
+		client = new Client();
+		client.start();
+	}
+	
+	/**
+	 * This method creates a service browser and waits for all its events
+	 * @return the number of NEW events per second
+	 */
+	public double browse() throws Avahi4JException, InterruptedException {
+		events = 0;
+		done = new CountDownLatch(1);
+		long start = System.nanoTime();
+		ServiceBrowser browser = client.createServiceBrowser(this, 
+				Avahi4JConstants.AnyInterface, Protocol.ANY, "_bench._tcp", null, 0);
+		done.await();
+		long elapsed = System.nanoTime() - start;
+		browser.release();
+		return events * 1e9 / elapsed;
+	}
+	
+	/**
+	 * This method calls {@link Client#getHostName()} repeatedly
+	 * @return the average time per call in nanoseconds
+	 */
+	public double downcall() {
+		long start = System.nanoTime();
+		for(int i=0; i<DOWNCALLS; i++)
+			client.getHostName();
+		return (System.nanoTime() - start) / (double) DOWNCALLS;
+	}
+	
+	/**
+	 * This method creates service resolvers one after the other and waits for
+	 * each one's result
+	 * @return the average round trip time in nanoseconds
+	 */
+	public double resolve() throws Avahi4JException, InterruptedException {
+		long start = System.nanoTime();
+		for(int i=0; i<RESOLVES; i++) {
+			done = new CountDownLatch(1);
+			ServiceResolver resolver = client.createServiceResolver(this, 1, 
+					Protocol.INET, "stub-service-0", "_bench._tcp", "local", 
+					Protocol.ANY, 0);
+			done.await();
+			resolver.release();
+		}
+		return (System.nanoTime() - start) / (double) RESOLVES;
+	}
+	
+	public void stop() {
+		client.stop();
+		client.release();
+	}
+	
+	@Override
+	public void serviceCallback(int interfaceNum, Protocol proto,
+			BrowserEvent browserEvent, String name, String type, String domain,
+			int lookupResultFlag) {
+		if (browserEvent==BrowserEvent.NEW)
+			events++;
+		else if (browserEvent==BrowserEvent.NO_MORE || browserEvent==BrowserEvent.FAILURE)
+			done.countDown();
+	}
+	
+	@Override
+	public void resolverCallback(ServiceResolver resolver, int interfaceNum,
+			Protocol proto, ServiceResolverEvent resolverEvent, String name,
+			String type, String domain, String hostname, Address address,
+			int port, String[] txtRecords, int lookupResultFlag) {
+		done.countDown();
+	}
+	
+	public static void main(String args[]) throws Exception {
+		BackendBenchmark b = new BackendBenchmark();
+		System.out.println("Backend: "+System.getProperty("avahi4j.backend", "jni"));
+		
+		// the first round warms up the JIT and is not reported
+		b.browse();
+		b.client.resetLatencyStats();
+		for(int i=0; i<ROUNDS; i++)
+			System.out.printf("Round %d: %.0f events/s%n", i + 1, b.browse());
+		LatencyStats stats = b.client.getLatencyStats();
+		System.out.println("Upcall latency (p50/p99 ns): "
+				+ stats.getHistogram(Stage.JNI_UPCALL).getPercentile(50) + " / "
+				+ stats.getHistogram(Stage.JNI_UPCALL).getPercentile(99));
+		
+		b.downcall();
+		System.out.printf("Downcall (getHostName): %.1f ns/call%n", b.downcall());
+		
+		b.resolve();
+		System.out.printf("Resolver round trip: %.1f us%n", b.resolve() / 1000);
+		
+		b.stop();
+	}
+}
@@ -0,0 +1,349 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j.mdns;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class represents a DNS resource record received from the network. 
+ * Names embedded in the rdata of PTR, CNAME, NS, MX and SRV records are 
+ * stored uncompressed, so two records carrying the same data always have the 
+ * same rdata bytes. Names are represented as strings where dots and 
+ * backslashes inside a label are escaped with a backslash, as in avahi.
+ * @author gilles
+ *
+ */
+public final class DNSRecord {
+	/*
+	 * DNS constants used by the mdns package
+	 */
+	public static final int TYPE_A = 1;
+	public static final int TYPE_NS = 2;
+	public static final int TYPE_CNAME = 5;
+	public static final int TYPE_PTR = 12;
+	public static final int TYPE_MX = 15;
+	public static final int TYPE_TXT = 16;
+	public static final int TYPE_AAAA = 28;
+	public static final int TYPE_SRV = 33;
+	public static final int TYPE_ANY = 255;
+	public static final int CLASS_IN = 1;
+	
+	static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	private final String name;
+	private final int type;
+	private final int clazz;
+	private final boolean cacheFlush;
+	private final long ttl;
+	private final byte rdata[];
+	private final int interfaceIndex;
+	private final int protocol;
+	
+	/**
+	 * This method builds a new record
+	 * @param name the record's name
+	 * @param type the record's type (one of the TYPE_* constants, or any 
+	 * other DNS type)
+	 * @param clazz the record's class, without the cache flush bit
+	 * @param cacheFlush whether the cache flush bit was set
+	 * @param ttl the TTL in seconds
+	 * @param rdata the uncompressed rdata
+	 * @param interfaceIndex the index of the interface the record was received
+	 * on, or -1
+	 * @param protocol 0 if received over IPv4, 1 over IPv6
+	 */
+	public DNSRecord(String name, int type, int clazz, boolean cacheFlush, long ttl,
+			byte rdata[], int interfaceIndex, int protocol) {
+		this.name = name;
+		this.type = type;
+		this.clazz = clazz;
+		this.cacheFlush = cacheFlush;
+		this.ttl = ttl;
+		this.rdata = rdata;
+		this.interfaceIndex = interfaceIndex;
+		this.protocol = protocol;
+	}
+	
+	/**
+	 * This method returns a copy of this record with a different TTL
+	 * @param newTTL the new TTL in seconds
+	 * @return a copy of this record with the given TTL
+	 */
+	public DNSRecord withTTL(long newTTL) {
+		return new DNSRecord(name, type, clazz, cacheFlush, newTTL, rdata, 
+				interfaceIndex, protocol);
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	public int getType() {
+		return type;
+	}
+	
+	public int getDNSClass() {
+		return clazz;
+	}
+	
+	public boolean isCacheFlush() {
+		return cacheFlush;
+	}
+	
+	/**
+	 * @return the TTL in seconds. A TTL of 0 means the record is being 
+	 * withdrawn (goodbye packet)
+	 */
+	public long getTTL() {
+		return ttl;
+	}
+	
+	/**
+	 * @return the rdata. The returned array must not be modified.
+	 */
+	public byte[] getRData() {
+		return rdata;
+	}
+	
+	public int getInterfaceIndex() {
+		return interfaceIndex;
+	}
+	
+	/**
+	 * @return 0 if this record was received over IPv4, 1 if over IPv6
+	 */
+	public int getProtocol() {
+		return protocol;
+	}
+	
+	/**
+	 * This method returns the name contained in a PTR, CNAME, NS, MX or SRV
+	 * record.
+	 * @return the target name, or null if this record does not contain one
+	 */
+	public String getTargetName() {
+		switch(type) {
+		case TYPE_PTR:
+		case TYPE_CNAME:
+		case TYPE_NS:
+			return readName(rdata, 0);
+		case TYPE_MX:
+			return rdata.length>2 ? readName(rdata, 2) : null;
+		case TYPE_SRV:
+			return rdata.length>6 ? readName(rdata, 6) : null;
+		default:
+			return null;
+		}
+	}
+	
+	/**
+	 * @return the port contained in this SRV record
+	 */
+	public int getSRVPort() {
+		return ((rdata[4] & 0xff) << 8) | (rdata[5] & 0xff);
+	}
+	
+	/**
+	 * @return the priority contained in this SRV record
+	 */
+	public int getSRVPriority() {
+		return ((rdata[0] & 0xff) << 8) | (rdata[1] & 0xff);
+	}
+	
+	/**
+	 * @return the weight contained in this SRV record
+	 */
+	public int getSRVWeight() {
+		return ((rdata[2] & 0xff) << 8) | (rdata[3] & 0xff);
+	}
+	
+	/**
+	 * This method splits the rdata of a TXT record into its strings. Empty
+	 * strings are skipped. 
+	 * @return the TXT strings, decoded as UTF-8
+	 */
+	public String[] getTXTStrings() {
+		List<String> strings = new ArrayList<String>();
+		int i = 0;
+		while(i<rdata.length) {
+			int len = rdata[i++] & 0xff;
+			if (i+len>rdata.length)
+				break;
+			if (len>0)
+				strings.add(new String(rdata, i, len, UTF8));
+			i += len;
+		}
+		return strings.toArray(new String[strings.size()]);
+	}
+	
+	/**
+	 * @return the address contained in this A or AAAA record, or null
+	 */
+	public InetAddress getAddress() {
+		if ((type==TYPE_A && rdata.length==4) || (type==TYPE_AAAA && rdata.length==16)) {
+			try {
+				return InetAddress.getByAddress(rdata);
+			} catch (UnknownHostException e) {}
+		}
+		return null;
+	}
+	
+	/**
+	 * This method returns whether this record has the same name, type, class
+	 * and rdata as the given one. Names are compared case-insensitively. The 
+	 * TTL, flags and origin are ignored.
+	 * @param r the record to compare with
+	 * @return whether the two records hold the same data
+	 */
+	public boolean sameData(DNSRecord r) {
+		return type==r.type && clazz==r.clazz && name.equalsIgnoreCase(r.name)
+				&& Arrays.equals(rdata, r.rdata);
+	}
+	
+	/**
+	 * This method decodes an uncompressed name from the given array. 
+	 * @param data the array containing the name
+	 * @param offset the offset of the name
+	 * @return the decoded name, or null if it is malformed
+	 */
+	static String readName(byte data[], int offset) {
+		StringBuilder sb = new StringBuilder();
+		while(offset<data.length) {
+			int len = data[offset++] & 0xff;
+			if (len==0)
+				return sb.toString();
+			if (len>63 || offset+len>data.length)
+				return null;
+			if (sb.length()>0)
+				sb.append('.');
+			appendLabel(sb, data, offset, len);
+			offset += len;
+		}
+		return null;
+	}
+	
+	/**
+	 * This method appends a label to a name, escaping dots and backslashes
+	 */
+	static void appendLabel(StringBuilder sb, byte data[], int offset, int len) {
+		String label = new String(data, offset, len, UTF8);
+		for(int i=0; i<label.length(); i++) {
+			char c = label.charAt(i);
+			if (c=='.' || c=='\\')
+				sb.append('\\');
+			sb.append(c);
+		}
+	}
+	
+	/**
+	 * This method splits a name into its labels, removing escape characters
+	 * @param name the name to split
+	 * @return the unescaped labels
+	 */
+	public static List<String> splitName(String name) {
+		List<String> labels = new ArrayList<String>();
+		StringBuilder sb = new StringBuilder();
+		for(int i=0; i<name.length(); i++) {
+			char c = name.charAt(i);
+			if (c=='\\' && i+1<name.length()) {
+				sb.append(name.charAt(++i));
+			} else if (c=='.') {
+				if (sb.length()>0)
+					labels.add(sb.toString());
+				sb.setLength(0);
+			} else
+				sb.append(c);
+		}
+		if (sb.length()>0)
+			labels.add(sb.toString());
+		return labels;
+	}
+	
+	/**
+	 * This method returns the name under which the PTR record pointing to
+	 * the owner of an address is published, eg. "1.0.0.127.in-addr.arpa"
+	 * @param address the 4 or 16 bytes of an IPv4 or IPv6 address
+	 * @return the reverse lookup name
+	 */
+	public static String reverseName(byte address[]) {
+		StringBuilder sb = new StringBuilder(72);
+		if (address.length==4) {
+			for(int i=3; i>=0; i--)
+				sb.append(address[i] & 0xff).append('.');
+			return sb.append("in-addr.arpa").toString();
+		}
+		for(int i=address.length-1; i>=0; i--)
+			sb.append(Character.forDigit(address[i] & 0xf, 16)).append('.')
+				.append(Character.forDigit((address[i] >> 4) & 0xf, 16)).append('.');
+		return sb.append("ip6.arpa").toString();
+	}
+	
+	/**
+	 * This method escapes dots and backslashes in a label so it can be used
+	 * as part of a name
+	 * @param label the label to escape
+	 * @return the escaped label
+	 */
+	public static String escapeLabel(String label) {
+		StringBuilder sb = new StringBuilder(label.length()+4);
+		for(int i=0; i<label.length(); i++) {
+			char c = label.charAt(i);
+			if (c=='.' || c=='\\')
+				sb.append('\\');
+			sb.append(c);
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * This method encodes an uncompressed name
+	 * @param name the name to encode
+	 * @return the wire format of the name
+	 * @throws IllegalArgumentException if a label is longer than 63 bytes
+	 */
+	public static byte[] encodeName(String name) {
+		List<String> labels = splitName(name);
+		byte encoded[][] = new byte[labels.size()][];
+		int size = 1;
+		for(int i=0; i<encoded.length; i++) {
+			encoded[i] = labels.get(i).getBytes(UTF8);
+			if (encoded[i].length>63)
+				throw new IllegalArgumentException("Label too long in "+name);
+			size += encoded[i].length + 1;
+		}
+		byte result[] = new byte[size];
+		int offset = 0;
+		for(byte label[]: encoded) {
+			result[offset++] = (byte) label.length;
+			System.arraycopy(label, 0, result, offset, label.length);
+			offset += label.length;
+		}
+		return result;
+	}
+	
+	@Override
+	public String toString() {
+		return name + " type " + type + " class " + clazz + " ttl " + ttl
+			+ " (if " + interfaceIndex + ", " + (protocol==0 ? "IPv4" : "IPv6") + ")";
+	}
+}
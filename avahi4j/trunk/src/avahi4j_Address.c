@@ -22,39 +22,37 @@
 #include "common.h"
 
 
-static jfieldID	address_field = NULL;
-
-
-JNIEXPORT jint JNICALL Java_avahi4j_Address(JNIEnv *e, jobject t, jlong ptr){
-	AvahiAddress *address = (AvahiAddress *) (uintptr_t) ptr;
-
-	jstring jaddress;
-	jint protocol;
-
-	// get the field IDs for both the address and protocol fields
-	if (address_field==NULL){
-		jclass cls = (*e)->GetObjectClass(e, t);
-		address_field = (*e)->GetFieldID(e, cls, "address", "Ljava/lang/String;");
-		if(address_field==NULL){
-			THROW_EXCEPTION(e, JNI_EXCP, "Unable to find the address field");
-			return 0;
-		}
-	}
+/*
+ * Returns a new Java byte array holding the raw address (4 bytes for IPv4,
+ * 16 for IPv6, in network order), or NULL if the address is NULL or the
+ * array can not be allocated. Addresses are passed to Java in this form
+ * rather than formatted: Java formats them only if asked to.
+ */
+jbyteArray avahi_address_to_jbytes(JNIEnv *e, const AvahiAddress *address){
+	jbyteArray array;
+	const void *data;
+	jsize size;
+
+	if(address==NULL)
+		return NULL;
 
-	// set address member
 	if(address->proto==AVAHI_PROTO_INET){
-		char nice_address[AVAHI_ADDRESS_STR_MAX];
-		avahi_address_snprint(nice_address, AVAHI_ADDRESS_STR_MAX, address);
-		jaddress = (*e)->NewStringUTF(e,nice_address);
-		(*e)->SetObjectField(e, t, address_field, jaddress);
+		data = &address->data.ipv4.address;
+		size = 4;
 	} else if(address->proto==AVAHI_PROTO_INET6){
-		char nice_address[AVAHI_ADDRESS_STR_MAX];
-		avahi_address_snprint(nice_address, AVAHI_ADDRESS_STR_MAX, address);
-		jaddress = (*e)->NewStringUTF(e,nice_address);
-		(*e)->SetObjectField(e, t, address_field, jaddress);
+		data = address->data.ipv6.address;
+		size = 16;
+	} else {
+		dprint("Unknown address protocol %d\n", address->proto);
+		return NULL;
 	}
 
-	GET_JAVA_PROTO(address->proto, protocol);
+	array = (*e)->NewByteArray(e, size);
+	if(array==NULL) {
+		dprint("Unable to create a byte array\n");
+		return NULL;
+	}
 
-	return protocol;
+	(*e)->SetByteArrayRegion(e, array, 0, size, data);
+	return array;
 }
@@ -18,7 +18,7 @@
 #include <avahi-common/error.h>
 #include <jni.h>
 
-JNIEXPORT jstring JNICALL Java_avahi4j_Avahi4JConstants_getErrorString(JNIEnv *e, jobject t,
+JNIEXPORT jstring JNICALL Java_avahi4j_JNIBackend_get_1error_1string(JNIEnv *e, jobject t,
 		jint error){
 	return (*e)->NewStringUTF(e, avahi_strerror(error));
 }
@@ -21,13 +21,14 @@
 // that was fixed only since 0.6.24...
 #include "thread-watch.h"
 #include <jni.h>
+#include <pthread.h>
 #include <stdint.h>
 #include <stdio.h>
 
 #include "common.h"
 #include "version.h"
 
-JNIEXPORT jstring JNICALL Java_avahi4j_Client_getVersion(JNIEnv *e, jobject t) {
+JNIEXPORT jstring JNICALL Java_avahi4j_JNIBackend_get_1version(JNIEnv *e, jobject t) {
 	char version[16] = {0};
 	snprintf(version, 16, "%d.%d-%s", VER_MAJ, VER_MIN, VER_REV);
 	return (*e)->NewStringUTF(e,version);
@@ -54,25 +55,80 @@ static int translate_state(AvahiClientState state) {
 	};
 }
 
+// key of the threads attached by enter_jvm(), which detaches them on exit
+static pthread_key_t attached_thread_key;
+static pthread_once_t attached_thread_once = PTHREAD_ONCE_INIT;
+
+static void detach_thread(void *vm) {
+	(*(JavaVM *) vm)->DetachCurrentThread((JavaVM *) vm);
+}
+
+static void create_attached_thread_key(void) {
+	if (pthread_key_create(&attached_thread_key, detach_thread)!=0)
+		info("Error creating the attached thread key\n");
+}
+
+/*
+ * This function must be called before calling into the JVM from an avahi
+ * callback. It attaches the calling thread (normally the poll thread) if it is
+ * not attached yet, and opens a frame for the local references created by the
+ * callback, which must be freed with leave_jvm(). Threads are only attached
+ * once, and detached when they exit: attaching a thread creates a Thread 
+ * object, which would otherwise be allocated for every event.
+ */
+JNIEnv *enter_jvm(JavaVM *vm) {
+	JNIEnv *e;
+
+	if ((*vm)->GetEnv(vm, (void **)&e, JNI_VERSION_1_4)==JNI_EDETACHED) {
+		if ((*vm)->AttachCurrentThreadAsDaemon(vm, (void **)&e, NULL)!=JNI_OK) {
+			info("Error attaching the JVM to this thread\n");
+			return NULL;
+		}
+		pthread_once(&attached_thread_once, create_attached_thread_key);
+		pthread_setspecific(attached_thread_key, vm);
+	}
+
+	if ((*e)->PushLocalFrame(e, 16)!=0)
+		return NULL;
+
+	return e;
+}
+
+void leave_jvm(JNIEnv *e) {
+	// the thread stays attached, so exceptions thrown by the callback must not
+	// be left pending
+	if ((*e)->ExceptionCheck(e)) {
+		(*e)->ExceptionDescribe(e);
+		(*e)->ExceptionClear(e);
+	}
+	(*e)->PopLocalFrame(e, NULL);
+}
+
 // Avahi client callback
 static void avahiClientCallback(AvahiClient *s, AvahiClientState state, void *userdata){
+	// timestamp this event before doing anything else
+	jlong jtimestamp = monotonic_ns();
 	dprint("[LOG] Entering %s\n", __PRETTY_FUNCTION__);
 
 	struct avahi4j_client *client = (struct avahi4j_client *) userdata;
+	jlong jwakeup = POLL_WAKEUP_NS(client);
 	JNIEnv *e;
 
-	// attach the jvm to this thread
-	(*client->jvm)->AttachCurrentThread(client->jvm, (void **)&e, NULL);
+	// attach the jvm to this thread (once, see enter_jvm())
+	if ((e = enter_jvm(client->jvm))==NULL)
+		return;
 
 	// call the callback dispatch method
 	(*e)->CallVoidMethod(e, client->clientObject,
-			client->clientCallbackDispatch, translate_state(state));
+			client->clientCallbackDispatch, translate_state(state), jwakeup,
+			jtimestamp);
 
-	// detach the jvm
-	(*client->jvm)->DetachCurrentThread(client->jvm);
+	// free the local references created by this callback
+	leave_jvm(e);
 }
 
-JNIEXPORT jlong JNICALL Java_avahi4j_Client_initClient(JNIEnv *e, jobject t){
+JNIEXPORT jlong JNICALL Java_avahi4j_JNIBackend_init_1client(JNIEnv *e, jobject t,
+		jobject obj){
 	dprint("[LOG] Entering %s\n", __PRETTY_FUNCTION__);
 
 	struct avahi4j_client *client = NULL;
@@ -95,8 +151,8 @@ JNIEXPORT jlong JNICALL Java_avahi4j_Client_initClient(JNIEnv *e, jobject t){
 
 
 	// cache methodID to java client callback method
-	ourClass = (*e)->GetObjectClass(e, t);
-	client->clientCallbackDispatch = (*e)->GetMethodID(e, ourClass, "dispatchCallback", "(I)V");
+	ourClass = (*e)->GetObjectClass(e, obj);
+	client->clientCallbackDispatch = (*e)->GetMethodID(e, ourClass, "dispatchCallback", "(IJJ)V");
     if (client->clientCallbackDispatch == NULL) {
          XFREE(client);
          THROW_EXCEPTION(e, GENERIC_EXCP, "Unable to get callback dispatch method ID");
@@ -104,7 +160,7 @@ JNIEXPORT jlong JNICALL Java_avahi4j_Client_initClient(JNIEnv *e, jobject t){
     }
 
     // create global ref to our object
-    client->clientObject = (*e)->NewGlobalRef(e, t);
+    client->clientObject = (*e)->NewGlobalRef(e, obj);
     if (client->clientObject==NULL) {
     	XFREE(client);
         THROW_EXCEPTION(e, GENERIC_EXCP, "Unable to create global ref to client object");
@@ -140,7 +196,7 @@ JNIEXPORT jlong JNICALL Java_avahi4j_Client_initClient(JNIEnv *e, jobject t){
 	return (uintptr_t) client;
 }
 
-JNIEXPORT jstring JNICALL Java_avahi4j_Client_get_1host_1name(JNIEnv *e, jobject t,
+JNIEXPORT jstring JNICALL Java_avahi4j_JNIBackend_get_1host_1name(JNIEnv *e, jobject t,
 		jlong ptr){
 	dprint("[LOG] Entering %s\n", __PRETTY_FUNCTION__);
 
@@ -154,7 +210,7 @@ JNIEXPORT jstring JNICALL Java_avahi4j_Client_get_1host_1name(JNIEnv *e, jobject
 	return (*e)->NewStringUTF(e, utf_name);
 }
 
-JNIEXPORT jint JNICALL Java_avahi4j_Client_set_1host_1name(JNIEnv *e, jobject t,
+JNIEXPORT jint JNICALL Java_avahi4j_JNIBackend_set_1host_1name(JNIEnv *e, jobject t,
 		jlong ptr, jstring name){
 	dprint("[LOG] Entering %s\n", __PRETTY_FUNCTION__);
 
@@ -176,7 +232,7 @@ JNIEXPORT jint JNICALL Java_avahi4j_Client_set_1host_1name(JNIEnv *e, jobject t,
 	CHECK_N_RET(avahi_client_set_host_name, result);
 }
 
-JNIEXPORT jstring JNICALL Java_avahi4j_Client_get_1domain_1name(JNIEnv *e, jobject t,
+JNIEXPORT jstring JNICALL Java_avahi4j_JNIBackend_get_1domain_1name(JNIEnv *e, jobject t,
 		jlong ptr){
 	dprint("[LOG] Entering %s\n", __PRETTY_FUNCTION__);
 
@@ -190,7 +246,7 @@ JNIEXPORT jstring JNICALL Java_avahi4j_Client_get_1domain_1name(JNIEnv *e, jobje
 	return (*e)->NewStringUTF(e, utf_name);
 }
 
-JNIEXPORT jstring JNICALL Java_avahi4j_Client_get_1fqdn(JNIEnv *e, jobject t,
+JNIEXPORT jstring JNICALL Java_avahi4j_JNIBackend_get_1fqdn(JNIEnv *e, jobject t,
 		jlong ptr){
 	dprint("[LOG] Entering %s\n", __PRETTY_FUNCTION__);
 
@@ -204,7 +260,7 @@ JNIEXPORT jstring JNICALL Java_avahi4j_Client_get_1fqdn(JNIEnv *e, jobject t,
 	return (*e)->NewStringUTF(e, utf_name);
 }
 
-JNIEXPORT jint JNICALL Java_avahi4j_Client_get_1state(JNIEnv *e, jobject t,
+JNIEXPORT jint JNICALL Java_avahi4j_JNIBackend_get_1client_1state(JNIEnv *e, jobject t,
 		jlong ptr){
 	dprint("[LOG] Entering %s\n", __PRETTY_FUNCTION__);
 
@@ -218,7 +274,22 @@ JNIEXPORT jint JNICALL Java_avahi4j_Client_get_1state(JNIEnv *e, jobject t,
 	return translate_state(state);
 }
 
-JNIEXPORT void JNICALL Java_avahi4j_Client_releaseClient(JNIEnv *e, jobject t, jlong ptr){
+JNIEXPORT jint JNICALL Java_avahi4j_JNIBackend_get_1last_1error(JNIEnv *e, jobject t,
+		jlong ptr){
+	dprint("[LOG] Entering %s\n", __PRETTY_FUNCTION__);
+
+	struct avahi4j_client *client = (struct avahi4j_client *) (uintptr_t) ptr;
+	int error;
+
+	AVAHI_LOCK(client);
+	error = avahi_client_errno(client->client);
+	AVAHI_UNLOCK(client);
+
+	// AVAHI_ERR_* values are the same in Avahi4JConstants
+	return error;
+}
+
+JNIEXPORT void JNICALL Java_avahi4j_JNIBackend_release_1client(JNIEnv *e, jobject t, jlong ptr){
 	dprint("[LOG] Entering %s\n", __PRETTY_FUNCTION__);
 	struct avahi4j_client *client = (struct avahi4j_client *) (uintptr_t) ptr;
 
@@ -235,7 +306,7 @@ JNIEXPORT void JNICALL Java_avahi4j_Client_releaseClient(JNIEnv *e, jobject t, j
 	XFREE(client);
 }
 
-JNIEXPORT jint JNICALL Java_avahi4j_Client_startLoop(JNIEnv *e, jobject t, jlong ptr){
+JNIEXPORT jint JNICALL Java_avahi4j_JNIBackend_start_1loop(JNIEnv *e, jobject t, jlong ptr){
 	dprint("[LOG] Entering %s\n", __PRETTY_FUNCTION__);
 	struct avahi4j_client *client = (struct avahi4j_client *) (uintptr_t) ptr;
 
@@ -244,7 +315,7 @@ JNIEXPORT jint JNICALL Java_avahi4j_Client_startLoop(JNIEnv *e, jobject t, jlong
 	CHECK_N_RET(avahi_threaded_poll_start, result);
 }
 
-JNIEXPORT jint JNICALL Java_avahi4j_Client_stopLoop(JNIEnv *e, jobject t, jlong ptr){
+JNIEXPORT jint JNICALL Java_avahi4j_JNIBackend_stop_1loop(JNIEnv *e, jobject t, jlong ptr){
 	dprint("[LOG] Entering %s\n", __PRETTY_FUNCTION__);
 	struct avahi4j_client *client = (struct avahi4j_client *) (uintptr_t) ptr;
 
@@ -252,3 +323,39 @@ JNIEXPORT jint JNICALL Java_avahi4j_Client_stopLoop(JNIEnv *e, jobject t, jlong
 	int result = avahi_threaded_poll_stop(client->pollLoop);
 	CHECK_N_RET(avahi_threaded_poll_stop, result);
 }
+
+JNIEXPORT void JNICALL Java_avahi4j_JNIBackend_get_1lock_1histograms(JNIEnv *e,
+		jobject t, jlong ptr, jlongArray jwait, jlongArray jhold){
+	dprint("[LOG] Entering %s\n", __PRETTY_FUNCTION__);
+	struct avahi4j_client *client = (struct avahi4j_client *) (uintptr_t) ptr;
+	jlong buckets[LATENCY_BUCKETS];
+	int i;
+
+	if((*e)->GetArrayLength(e, jwait)<LATENCY_BUCKETS ||
+			(*e)->GetArrayLength(e, jhold)<LATENCY_BUCKETS){
+		THROW_EXCEPTION(e, JNI_EXCP, "histogram arrays must have %d buckets",
+				LATENCY_BUCKETS);
+		return;
+	}
+
+	// the counters are only ever incremented, so a torn read at worst
+	// misses an event or two
+	for(i=0; i<LATENCY_BUCKETS; i++)
+		buckets[i] = client->lock_wait.buckets[i];
+	(*e)->SetLongArrayRegion(e, jwait, 0, LATENCY_BUCKETS, buckets);
+
+	for(i=0; i<LATENCY_BUCKETS; i++)
+		buckets[i] = client->lock_hold.buckets[i];
+	(*e)->SetLongArrayRegion(e, jhold, 0, LATENCY_BUCKETS, buckets);
+}
+
+JNIEXPORT void JNICALL Java_avahi4j_JNIBackend_reset_1lock_1histograms(JNIEnv *e,
+		jobject t, jlong ptr){
+	dprint("[LOG] Entering %s\n", __PRETTY_FUNCTION__);
+	struct avahi4j_client *client = (struct avahi4j_client *) (uintptr_t) ptr;
+
+	AVAHI_LOCK(client);
+	CLEAR(client->lock_wait);
+	CLEAR(client->lock_hold);
+	AVAHI_UNLOCK(client);
+}
@@ -0,0 +1,172 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+#include <avahi-client/lookup.h>
+#include <jni.h>
+#include <stdint.h>
+
+#include "common.h"
+
+static void browser_callback(AvahiDomainBrowser *b, AvahiIfIndex if_idx,
+		AvahiProtocol protocol, AvahiBrowserEvent event, const char *domain,
+		AvahiLookupResultFlags flags, void *userdata) {
+	// timestamp this event before doing anything else
+	jlong jtimestamp = monotonic_ns();
+	dprint("[LOG] Entering %s\n", __PRETTY_FUNCTION__);
+
+	struct avahi4j_domain_browser *browser = (struct avahi4j_domain_browser *) userdata;
+	jlong jwakeup = POLL_WAKEUP_NS(browser->client);
+	JNIEnv *e;
+	jstring jdomain=NULL;
+	jint jproto=0, jif_idx=0, jflags=0, jevent;
+	JavaVM *vm;
+
+	// save a ref to the VM
+	vm = browser->jvm;
+
+	// attach the jvm to this thread (once, see enter_jvm())
+	if ((e = enter_jvm(vm))==NULL)
+		return;
+
+	// check event
+	GET_JAVA_BROWSER_EVT(event, jevent);
+	if(event!=AVAHI_BROWSER_FAILURE){
+		if (domain)
+			jdomain = (*e)->NewStringUTF(e, domain);
+		GET_JAVA_PROTO(protocol, jproto);
+		GET_JAVA_IF_IDX(if_idx,jif_idx);
+		GET_JAVA_LOOKUP_RES_FLAG(flags, jflags);
+	}
+
+	// call the callback dispatch method
+	(*e)->CallVoidMethod(e, browser->browserObject,
+			browser->browserCallbackDispatch, jif_idx, jproto, jevent,
+			jdomain, jflags, jwakeup, jtimestamp);
+
+	// free the local references created by this callback
+	leave_jvm(e);
+}
+
+JNIEXPORT jlong JNICALL Java_avahi4j_JNIBackend_init_1domain_1browser(JNIEnv *e,
+		jobject t, jobject obj, jlong ptr, jint jif_idx, jint jproto, jstring jdomain,
+		jint jtype, jint jflags) {
+
+	dprint("[LOG] Entering %s\n", __PRETTY_FUNCTION__);
+
+	struct avahi4j_client *client = (struct avahi4j_client *) (uintptr_t) ptr;
+	struct avahi4j_domain_browser *browser = NULL;
+	jclass ourClass;
+	int if_idx;
+	AvahiProtocol proto;
+	AvahiLookupFlags flags;
+	AvahiDomainBrowserType type;
+	const char *domain=NULL;
+
+	GET_AVAHI_LOOKUP_FLAGS(flags, jflags);
+	GET_AVAHI_PROTO(proto, jproto);
+	GET_AVAHI_IF_IDX(if_idx, jif_idx);
+
+	// DomainBrowserType's constants are in the same order as avahi's
+	switch(jtype){
+	case 1: type = AVAHI_DOMAIN_BROWSER_BROWSE_DEFAULT; break;
+	case 2: type = AVAHI_DOMAIN_BROWSER_REGISTER; break;
+	case 3: type = AVAHI_DOMAIN_BROWSER_REGISTER_DEFAULT; break;
+	case 4: type = AVAHI_DOMAIN_BROWSER_BROWSE_LEGACY; break;
+	default: type = AVAHI_DOMAIN_BROWSER_BROWSE; break;
+	}
+
+	// create struct domain browser
+	XMALLOC(browser, struct avahi4j_domain_browser *, sizeof(struct avahi4j_domain_browser));
+	if (browser==NULL) {
+		THROW_EXCEPTION(e, JNI_EXCP, "Not enough memory");
+		goto bail;
+	}
+
+	browser->client = client;
+
+	// save JavaVM ref
+	if ((*e)->GetJavaVM(e, &browser->jvm)!=0){
+		THROW_EXCEPTION(e, JNI_EXCP, "Cant get hold of a JavaVM pointer");
+		goto bail;
+	}
+
+	// cache methodID to java browser callback method
+	ourClass = (*e)->GetObjectClass(e, obj);
+	browser->browserCallbackDispatch = (*e)->GetMethodID(e, ourClass, "browserCallback",
+			"(IIILjava/lang/String;IJJ)V");
+	if (browser->browserCallbackDispatch == NULL) {
+		THROW_EXCEPTION(e, GENERIC_EXCP, "Unable to get callback dispatch method ID");
+		goto bail;
+	}
+
+	// create global ref to our object
+	browser->browserObject = (*e)->NewGlobalRef(e, obj);
+	if (browser->browserObject==NULL) {
+		THROW_EXCEPTION(e, GENERIC_EXCP, "Unable to create global ref to browser object");
+		goto bail;
+	}
+
+	GET_UTF_STR_JUMP(domain, jdomain, e, bail);
+
+	// create browser
+	AVAHI_LOCK(client);
+	if (!(browser->browser=avahi_domain_browser_new(client->client, if_idx,
+			proto, domain, type, flags, browser_callback, browser))) {
+		AVAHI_UNLOCK(client);
+		THROW_EXCEPTION(e, JNI_EXCP, "Error creating avahi domain browser");
+		goto bail;
+	}
+	AVAHI_UNLOCK(client);
+
+	PUT_UTF_STR(domain, jdomain, e);
+
+	return (uintptr_t) browser;
+
+bail:
+	PUT_UTF_STR(domain, jdomain, e);
+
+	if(browser && browser->browserObject)
+		(*e)->DeleteGlobalRef(e, browser->browserObject);
+
+	// XFREE check for null ptr
+	XFREE(browser);
+
+	return 0;
+}
+
+JNIEXPORT jint JNICALL Java_avahi4j_JNIBackend_release_1domain_1browser(JNIEnv *e, jobject t, jlong ptr) {
+	dprint("[LOG] Entering %s\n", __PRETTY_FUNCTION__);
+
+	struct avahi4j_domain_browser *browser = (struct avahi4j_domain_browser *) (uintptr_t) ptr;
+	struct avahi4j_client *client = browser->client;
+	int result;
+
+	// a callback for this object may be running on the poll thread
+	AVAHI_LOCK(client);
+
+	result = avahi_domain_browser_free(browser->browser);
+
+	// delete global ref
+	(*e)->DeleteGlobalRef(e, browser->browserObject);
+
+	// free browser struct
+	XFREE(browser);
+
+	AVAHI_UNLOCK(client);
+
+	CHECK_N_RET(avahi_domain_browser_free, result);
+}
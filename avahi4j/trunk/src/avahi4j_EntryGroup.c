@@ -42,23 +42,29 @@ static int translate_state(AvahiEntryGroupState state){
 }
 
 static void group_callback(AvahiEntryGroup *g, AvahiEntryGroupState state, void *userdata) {
+	// timestamp this event before doing anything else
+	jlong jtimestamp = monotonic_ns();
 	dprint("[LOG] Entering %s\n", __PRETTY_FUNCTION__);
 
 	struct avahi4j_entry_group *group = (struct avahi4j_entry_group *) userdata;
+	jlong jwakeup = POLL_WAKEUP_NS(group->client);
 	JNIEnv *e;
 
-	// attach the jvm to this thread
-	(*group->jvm)->AttachCurrentThread(group->jvm, (void **)&e, NULL);
+	// attach the jvm to this thread (once, see enter_jvm())
+	if ((e = enter_jvm(group->jvm))==NULL)
+		return;
 
 	// call the callback dispatch method
 	(*e)->CallVoidMethod(e, group->groupObject,
-			group->groupCallbackDispatch, translate_state(state));
+			group->groupCallbackDispatch, translate_state(state), jwakeup,
+			jtimestamp);
 
-	// detach the jvm
-	(*group->jvm)->DetachCurrentThread(group->jvm);
+	// free the local references created by this callback
+	leave_jvm(e);
 }
 
-JNIEXPORT jlong JNICALL Java_avahi4j_EntryGroup_initGroup(JNIEnv *e, jobject t, jlong ptr){
+JNIEXPORT jlong JNICALL Java_avahi4j_JNIBackend_init_1group(JNIEnv *e, jobject t,
+		jobject obj, jlong ptr){
 	dprint("[LOG] Entering %s\n", __PRETTY_FUNCTION__);
 
 	struct avahi4j_client *client = (struct avahi4j_client *) (uintptr_t) ptr;
@@ -72,6 +78,8 @@ JNIEXPORT jlong JNICALL Java_avahi4j_EntryGroup_initGroup(JNIEnv *e, jobject t,
 		return 0;
 	}
 
+	group->client = client;
+
 	// save JavaVM ref
 	if ((*e)->GetJavaVM(e, &group->jvm)!=0){
 		XFREE(group);
@@ -80,8 +88,8 @@ JNIEXPORT jlong JNICALL Java_avahi4j_EntryGroup_initGroup(JNIEnv *e, jobject t,
 	}
 
 	// cache methodID to java group callback method
-	ourClass = (*e)->GetObjectClass(e, t);
-	group->groupCallbackDispatch = (*e)->GetMethodID(e, ourClass, "dispatchCallback", "(I)V");
+	ourClass = (*e)->GetObjectClass(e, obj);
+	group->groupCallbackDispatch = (*e)->GetMethodID(e, ourClass, "dispatchCallback", "(IJJ)V");
     if (group->groupCallbackDispatch == NULL) {
          XFREE(group);
          THROW_EXCEPTION(e, GENERIC_EXCP, "Unable to get callback dispatch method ID");
@@ -89,7 +97,7 @@ JNIEXPORT jlong JNICALL Java_avahi4j_EntryGroup_initGroup(JNIEnv *e, jobject t,
     }
 
     // create global ref to our object
-    group->groupObject = (*e)->NewGlobalRef(e, t);
+    group->groupObject = (*e)->NewGlobalRef(e, obj);
     if (group->groupObject==NULL) {
     	XFREE(group);
         THROW_EXCEPTION(e, GENERIC_EXCP, "Unable to create global ref to group object");
@@ -110,12 +118,16 @@ JNIEXPORT jlong JNICALL Java_avahi4j_EntryGroup_initGroup(JNIEnv *e, jobject t,
 	return (uintptr_t) group;
 }
 
-JNIEXPORT jint JNICALL Java_avahi4j_EntryGroup_release(JNIEnv *e, jobject t, jlong ptr){
+JNIEXPORT jint JNICALL Java_avahi4j_JNIBackend_release_1group(JNIEnv *e, jobject t, jlong ptr){
 	dprint("[LOG] Entering %s\n", __PRETTY_FUNCTION__);
 
 	struct avahi4j_entry_group *group = (struct avahi4j_entry_group *) (uintptr_t) ptr;
+	struct avahi4j_client *client = group->client;
 	int result;
 
+	// a callback for this object may be running on the poll thread
+	AVAHI_LOCK(client);
+
 	// free avahi group
 	result = avahi_entry_group_free(group->group);
 
@@ -125,10 +137,12 @@ JNIEXPORT jint JNICALL Java_avahi4j_EntryGroup_release(JNIEnv *e, jobject t, jlo
 	// free avahi4j group struct
 	XFREE(group);
 
+	AVAHI_UNLOCK(client);
+
 	CHECK_N_RET(avahi_entry_group_release, result);
 }
 
-JNIEXPORT jint JNICALL Java_avahi4j_EntryGroup_commit_1group(JNIEnv *e, jobject t, jlong ptr){
+JNIEXPORT jint JNICALL Java_avahi4j_JNIBackend_commit_1group(JNIEnv *e, jobject t, jlong ptr){
 	dprint("[LOG] Entering %s\n", __PRETTY_FUNCTION__);
 
 	struct avahi4j_entry_group *group = (struct avahi4j_entry_group *) (uintptr_t) ptr;
@@ -139,7 +153,7 @@ JNIEXPORT jint JNICALL Java_avahi4j_EntryGroup_commit_1group(JNIEnv *e, jobject
 	CHECK_N_RET(avahi_entry_group_commit, result);
 }
 
-JNIEXPORT jint JNICALL Java_avahi4j_EntryGroup_get_1state(JNIEnv *e, jobject t, jlong ptr){
+JNIEXPORT jint JNICALL Java_avahi4j_JNIBackend_get_1group_1state(JNIEnv *e, jobject t, jlong ptr){
 	dprint("[LOG] Entering %s\n", __PRETTY_FUNCTION__);
 
 	struct avahi4j_entry_group *group = (struct avahi4j_entry_group *) (uintptr_t) ptr;
@@ -147,7 +161,7 @@ JNIEXPORT jint JNICALL Java_avahi4j_EntryGroup_get_1state(JNIEnv *e, jobject t,
 	return translate_state(avahi_entry_group_get_state(group->group));
 }
 
-JNIEXPORT jint JNICALL Java_avahi4j_EntryGroup_reset_1group(JNIEnv *e, jobject t, jlong ptr){
+JNIEXPORT jint JNICALL Java_avahi4j_JNIBackend_reset_1group(JNIEnv *e, jobject t, jlong ptr){
 	dprint("[LOG] Entering %s\n", __PRETTY_FUNCTION__);
 
 	struct avahi4j_entry_group *group = (struct avahi4j_entry_group *) (uintptr_t) ptr;
@@ -157,7 +171,7 @@ JNIEXPORT jint JNICALL Java_avahi4j_EntryGroup_reset_1group(JNIEnv *e, jobject t
 	CHECK_N_RET(avahi_entry_group_reset, result);
 }
 
-JNIEXPORT jint JNICALL Java_avahi4j_EntryGroup_is_1group_1empty(JNIEnv *e, jobject t, jlong ptr){
+JNIEXPORT jint JNICALL Java_avahi4j_JNIBackend_is_1group_1empty(JNIEnv *e, jobject t, jlong ptr){
 	dprint("[LOG] Entering %s\n", __PRETTY_FUNCTION__);
 
 	struct avahi4j_entry_group *group = (struct avahi4j_entry_group *) (uintptr_t) ptr;
@@ -167,7 +181,7 @@ JNIEXPORT jint JNICALL Java_avahi4j_EntryGroup_is_1group_1empty(JNIEnv *e, jobje
 	CHECK_N_RET(avahi_entry_group_is_empty, result);
 }
 
-JNIEXPORT jint JNICALL Java_avahi4j_EntryGroup_add_1service_1txt_1records
+JNIEXPORT jint JNICALL Java_avahi4j_JNIBackend_add_1service_1txt_1records
 			(JNIEnv *e, jobject t, jlong ptr, jint interfaceNum, jint proto,
 					jstring name, jstring type, jstring domain, jstring host,
 					jint port, jarray txtRecord, jint length){
@@ -229,7 +243,7 @@ bail:
 	CHECK_N_RET(avahi_entry_group_add_service_strlst, result);
 }
 
-JNIEXPORT jint JNICALL Java_avahi4j_EntryGroup_add_1service_1subtype(
+JNIEXPORT jint JNICALL Java_avahi4j_JNIBackend_add_1service_1subtype(
 			JNIEnv *e, jobject t, jlong ptr, int interfaceNum, jint proto,
 			jstring name, jstring type, jstring domain, jstring subtype) {
 	dprint("[LOG] Entering %s\n", __PRETTY_FUNCTION__);
@@ -265,7 +279,7 @@ bail:
 	CHECK_N_RET(avahi_entry_group_add_service_subtype, result);
 }
 
-JNIEXPORT jint JNICALL Java_avahi4j_EntryGroup_update_1service_1txt_1records
+JNIEXPORT jint JNICALL Java_avahi4j_JNIBackend_update_1service_1txt_1records
 			(JNIEnv *e, jobject t, jlong ptr, jint interfaceNum, jint proto,
 					jstring name, jstring type, jstring domain, jarray txtRecord,
 					jint length){
@@ -321,7 +335,7 @@ bail:
 	CHECK_N_RET(avahi_entry_group_update_service_txt_strlst, result);
 }
 
-JNIEXPORT jstring JNICALL Java_avahi4j_EntryGroup_find_1alternative_1serivce_1name
+JNIEXPORT jstring JNICALL Java_avahi4j_JNIBackend_find_1alternative_1service_1name
 			(JNIEnv *e, jobject t, jstring collidingName){
 	dprint("[LOG] Entering %s\n", __PRETTY_FUNCTION__);
 
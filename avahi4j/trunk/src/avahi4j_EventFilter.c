@@ -0,0 +1,88 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+#include <jni.h>
+#include <stdlib.h>
+#include <string.h>
+#include <strings.h>
+
+#include "common.h"
+
+
+/*
+ * Initialises a browser's event filter from the values of a Java EventFilter.
+ * Returns 0, or -1 (and throws an exception) if the name prefix can not be
+ * copied.
+ */
+int event_filter_init(JNIEnv *e, struct avahi4j_event_filter *filter,
+		jint jmask, jstring jprefix, jint jtype){
+	const char *prefix;
+
+	filter->event_mask = jmask;
+	filter->record_type = jtype;
+	filter->name_prefix = NULL;
+	filter->name_prefix_len = 0;
+
+	if(jprefix==NULL)
+		return 0;
+
+	GET_UTF_STR(prefix, jprefix, e, -1);
+	filter->name_prefix = strdup(prefix);
+	PUT_UTF_STR(prefix, jprefix, e);
+	if(filter->name_prefix==NULL) {
+		THROW_EXCEPTION(e, JNI_EXCP, "Not enough memory");
+		return -1;
+	}
+	filter->name_prefix_len = strlen(filter->name_prefix);
+
+	return 0;
+}
+
+/*
+ * Frees the name prefix of an event filter
+ */
+void event_filter_free(struct avahi4j_event_filter *filter){
+	if(filter->name_prefix)
+		free(filter->name_prefix);
+	filter->name_prefix = NULL;
+}
+
+/*
+ * Returns whether an event passes a browser's event filter. This is called
+ * from avahi callbacks before attaching to the JVM, so that unwanted events
+ * cost nothing on the Java side. 'jevent' is the Java BrowserEvent ordinal,
+ * 'name' the service name (or NULL) and 'type' the record type (or -1).
+ */
+int event_filter_accept(const struct avahi4j_event_filter *filter, jint jevent,
+		const char *name, int type){
+
+	if((filter->event_mask & (1 << jevent))==0)
+		return 0;
+
+	// only NEW and REMOVE events carry a name and a type
+	if(jevent>1)
+		return 1;
+
+	if(filter->record_type!=-1 && type!=-1 && type!=filter->record_type)
+		return 0;
+
+	if(filter->name_prefix!=NULL && (name==NULL ||
+			strncasecmp(name, filter->name_prefix, filter->name_prefix_len)!=0))
+		return 0;
+
+	return 1;
+}
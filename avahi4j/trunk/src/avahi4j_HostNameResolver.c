@@ -0,0 +1,172 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+#include <avahi-common/address.h>
+#include <jni.h>
+#include <stdint.h>
+
+#include "common.h"
+
+
+static void resolver_callback(AvahiHostNameResolver *r, AvahiIfIndex interface,
+		AvahiProtocol protocol, AvahiResolverEvent event, const char *name,
+		const AvahiAddress *address, AvahiLookupResultFlags flags,
+		void *userdata)  {
+
+	// timestamp this event before doing anything else
+	jlong jtimestamp = monotonic_ns();
+	dprint("[LOG] Entering %s\n", __PRETTY_FUNCTION__);
+
+	struct avahi4j_host_name_resolver *resolver = (struct avahi4j_host_name_resolver *) userdata;
+	jlong jwakeup = POLL_WAKEUP_NS(resolver->client);
+	jstring jname=NULL;
+	jbyteArray jaddress=NULL;
+	jint jif_idx=0, jproto=0, jevent=0, jflags=0;
+	JNIEnv *e;
+	JavaVM *vm;
+
+	// save a ref to the VM
+	vm = resolver->jvm;
+
+	// attach the jvm to this thread (once, see enter_jvm())
+	if ((e = enter_jvm(vm))==NULL)
+		return;
+
+	// check event
+	GET_JAVA_RESOLVER_EVT(event, jevent);
+	if(event!=AVAHI_RESOLVER_FAILURE) {
+		// translate if, protocol and lookup result flags
+		GET_JAVA_IF_IDX(interface, jif_idx);
+		GET_JAVA_PROTO(protocol, jproto);
+		GET_JAVA_LOOKUP_RES_FLAG(flags, jflags);
+
+		GET_JSTRING_JUMP(name,jname,e, bail);
+
+		// pass the raw address, Java formats it only if needed
+		jaddress = avahi_address_to_jbytes(e, address);
+	}
+
+	// call the callback dispatch method
+	(*e)->CallVoidMethod(e, resolver->resolverObject,
+			resolver->resolverCallbackDispatch, jif_idx, jproto, jevent,
+			jname, jaddress, jflags, jwakeup, jtimestamp);
+
+bail:
+	// free the local references created by this callback
+	leave_jvm(e);
+}
+
+JNIEXPORT jlong JNICALL Java_avahi4j_JNIBackend_init_1host_1name_1resolver(JNIEnv *e,
+		jobject t, jobject obj, jlong ptr, jint jif_idx, jint jproto, jstring jname,
+		jint jaddressProtocol, jint jlookupFlags){
+	dprint("[LOG] Entering %s\n", __PRETTY_FUNCTION__);
+
+	struct avahi4j_client *client = (struct avahi4j_client *) (uintptr_t) ptr;
+	struct avahi4j_host_name_resolver *resolver = NULL;
+	jclass ourClass;
+	const char *name=NULL;
+	int if_idx, proto, address_proto, flags;
+
+	// translate if idx, proto, address_proto and flags
+	GET_AVAHI_IF_IDX(if_idx, jif_idx);
+	GET_AVAHI_PROTO(proto, jproto);
+	GET_AVAHI_PROTO(address_proto, jaddressProtocol);
+	GET_AVAHI_LOOKUP_FLAGS(flags, jlookupFlags);
+
+	// create struct host_name_resolver
+	XMALLOC(resolver, struct avahi4j_host_name_resolver *, sizeof(struct avahi4j_host_name_resolver));
+	if (resolver==NULL) {
+		THROW_EXCEPTION(e, JNI_EXCP, "Not enough memory");
+		goto bail;
+	}
+
+	resolver->client = client;
+
+	// save JavaVM ref
+	if ((*e)->GetJavaVM(e, &resolver->jvm)!=0){
+		THROW_EXCEPTION(e, JNI_EXCP, "Cant get hold of a JavaVM pointer");
+		goto bail;
+	}
+
+	// cache methodID to java resolver callback method
+	ourClass = (*e)->GetObjectClass(e, obj);
+	resolver->resolverCallbackDispatch = (*e)->GetMethodID(e, ourClass,
+			"dispatchCallback", "(IIILjava/lang/String;[BIJJ)V");
+    if (resolver->resolverCallbackDispatch == NULL) {
+         THROW_EXCEPTION(e, JNI_EXCP, "Unable to get callback dispatch method ID");
+         goto bail;
+    }
+
+    // create global ref to our object
+    resolver->resolverObject = (*e)->NewGlobalRef(e, obj);
+    if (resolver->resolverObject==NULL) {
+        THROW_EXCEPTION(e, JNI_EXCP, "Unable to create global ref to resolver object");
+        goto bail;
+    }
+
+	// create utf string
+	GET_UTF_STR_JUMP(name, jname,e, bail);
+
+	// create avahi resolver
+	AVAHI_LOCK(client);
+	if (!(resolver->resolver=avahi_host_name_resolver_new(client->client, if_idx,
+			proto, name, address_proto, flags, resolver_callback, resolver))) {
+		AVAHI_UNLOCK(client);
+		THROW_EXCEPTION(e, GENERIC_EXCP, "Error creating avahi host name resolver");
+		goto bail;
+	}
+	AVAHI_UNLOCK(client);
+
+	PUT_UTF_STR(name, jname, e);
+
+	return (uintptr_t) resolver;
+
+bail:
+	PUT_UTF_STR(name, jname, e);
+
+	if(resolver && resolver->resolverObject)
+		(*e)->DeleteGlobalRef(e, resolver->resolverObject);
+
+	// XFREE check for null ptr
+	XFREE(resolver);
+
+	return 0;
+}
+
+JNIEXPORT jint JNICALL Java_avahi4j_JNIBackend_release_1host_1name_1resolver(JNIEnv *e, jobject t, jlong ptr){
+	dprint("[LOG] Entering %s\n", __PRETTY_FUNCTION__);
+
+	struct avahi4j_host_name_resolver *resolver = (struct avahi4j_host_name_resolver *) (uintptr_t) ptr;
+	struct avahi4j_client *client = resolver->client;
+	int result;
+
+	// a callback for this object may be running on the poll thread
+	AVAHI_LOCK(client);
+
+	// free avahi resolver
+	result = avahi_host_name_resolver_free(resolver->resolver);
+
+	// delete global ref
+	(*e)->DeleteGlobalRef(e, resolver->resolverObject);
+
+	// free avahi4j resolver struct
+	XFREE(resolver);
+
+	AVAHI_UNLOCK(client);
+
+	CHECK_N_RET(avahi_host_name_resolver_free, result);
+}
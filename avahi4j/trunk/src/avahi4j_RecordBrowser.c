@@ -27,69 +27,76 @@ static void browser_callback(AvahiRecordBrowser *b, AvahiIfIndex interface,
 		uint16_t clazz, uint16_t type, const void *rdata, size_t size,
 		AvahiLookupResultFlags flags, void *userdata){
 
+	// timestamp this event before doing anything else
+	jlong jtimestamp = monotonic_ns();
 	dprint("[LOG] Entering %s\n", __PRETTY_FUNCTION__);
 
 	struct avahi4j_record_browser *browser = (struct avahi4j_record_browser *) userdata;
+	jlong jwakeup = POLL_WAKEUP_NS(browser->client);
 	JNIEnv *e;
 	JavaVM *vm;
 	jint jif_idx, jproto, jevent, jclazz, jtype, jflags;
 	jstring jname;
-	jbyteArray array;
+	jobject buffer;
 
-	// save a ref to the VM so it can be called after the callback dispatch method
-	// returns, since  the avahi4j_record_browser structure may have been freed
+	// drop unwanted events before attaching to the JVM
+	GET_JAVA_BROWSER_EVT(event,  jevent);
+	if(!event_filter_accept(&browser->filter, jevent, NULL,
+			event==AVAHI_BROWSER_FAILURE ? -1 : type))
+		return;
+
+	// save a ref to the VM
 	vm = browser->jvm;
 
-	// attach the jvm to this thread
-	(*vm)->AttachCurrentThread(vm, (void **)&e, NULL);
+	// attach the jvm to this thread (once, see enter_jvm())
+	if ((e = enter_jvm(vm))==NULL)
+		return;
 
 	// check event
-	GET_JAVA_BROWSER_EVT(event,  jevent);
 	if(event==AVAHI_BROWSER_FAILURE){
 		jif_idx=0;
 		jproto=0;
-		jevent=0;
 		jclazz=0;
 		jtype=0;
 		jflags=0;
 		jname=NULL;
-		array=NULL;
+		buffer=NULL;
 	} else {
 		// translate ints
 		GET_JAVA_IF_IDX(interface, jif_idx);
 		GET_JAVA_PROTO(protocol, jproto);
 		GET_JAVA_BROWSER_EVT(event,  jevent);
-		A2J_DNS_CLASS(clazz, jclazz);
-		A2J_DNS_RR_TYPE(type, jtype);
+		// class and type are passed as is, so any type can be browsed
+		jclazz = clazz;
+		jtype = type;
 		GET_JAVA_LOOKUP_RES_FLAG(flags, jflags);
 
 		// create jstring from name
 		GET_JSTRING_JUMP(name, jname, e, bail);
 
-		// create byte array
-		array = (*e)->NewByteArray(e, size);
-		if(array==NULL) {
-			dprint("Unable to create a byte array\n");
+		// wrap rdata in a direct byte buffer instead of copying it: avahi
+		// keeps it valid until this callback returns, and so must Java
+		buffer = (*e)->NewDirectByteBuffer(e, (void *) rdata, size);
+		if(buffer==NULL) {
+			dprint("Unable to create a direct byte buffer\n");
 			goto bail;
 		}
-
-		// copy bytes
-		(*e)->SetByteArrayRegion(e, array, 0, size, rdata);
 	}
 
 	// call callback dispatch method
 	(*e)->CallVoidMethod(e, browser->browserObject, browser->browserCallbackDispatch,
-			jif_idx, jproto, jevent, jname, jclazz, jtype, array, jflags);
+			jif_idx, jproto, jevent, jname, jclazz, jtype, buffer, jflags,
+			jwakeup, jtimestamp);
 
 bail:
-	// detach the jvm
-	(*vm)->DetachCurrentThread(vm);
+	// free the local references created by this callback
+	leave_jvm(e);
 }
 
 
-JNIEXPORT jlong JNICALL Java_avahi4j_RecordBrowser_initBrowser(JNIEnv *e,
-		jobject t, jlong ptr, jint jif_idx, jint jproto, jstring jname,
-		jint jclazz, jint jtype, jint jflags){
+JNIEXPORT jlong JNICALL Java_avahi4j_JNIBackend_init_1record_1browser(JNIEnv *e,
+		jobject t, jobject obj, jlong ptr, jint jif_idx, jint jproto, jstring jname,
+		jint jclazz, jint jtype, jint jflags, jint jmask, jint jrecord_type){
 
 	dprint("[LOG] Entering %s\n", __PRETTY_FUNCTION__);
 
@@ -105,8 +112,8 @@ JNIEXPORT jlong JNICALL Java_avahi4j_RecordBrowser_initBrowser(JNIEnv *e,
 	// tranlsate ints
 	GET_AVAHI_IF_IDX(if_idx,jif_idx);
 	GET_AVAHI_PROTO(proto, jproto);
-	J2A_DNS_CLASS(clazz, jclazz);
-	J2A_DNS_RR_TYPE(type, jtype);
+	clazz = jclazz;
+	type = jtype;
 	GET_AVAHI_LOOKUP_FLAGS(flags, jflags);
 
 
@@ -117,6 +124,12 @@ JNIEXPORT jlong JNICALL Java_avahi4j_RecordBrowser_initBrowser(JNIEnv *e,
 		goto bail;
 	}
 
+	browser->client = client;
+
+	// copy the event filter
+	if (event_filter_init(e, &browser->filter, jmask, NULL, jrecord_type)!=0)
+		goto bail;
+
 	// save JavaVM ref
 	if ((*e)->GetJavaVM(e, &browser->jvm)!=0){
 		THROW_EXCEPTION(e, JNI_EXCP, "Cant get hold of a JavaVM pointer");
@@ -124,16 +137,16 @@ JNIEXPORT jlong JNICALL Java_avahi4j_RecordBrowser_initBrowser(JNIEnv *e,
 	}
 
 	// cache methodID to java group callback method
-	ourClass = (*e)->GetObjectClass(e, t);
+	ourClass = (*e)->GetObjectClass(e, obj);
 	browser->browserCallbackDispatch = (*e)->GetMethodID(e, ourClass,
-			"dispatchCallback",	"(IIILjava/lang/String;II[BI)V");
+			"dispatchCallback",	"(IIILjava/lang/String;IILjava/nio/ByteBuffer;IJJ)V");
     if (browser->browserCallbackDispatch == NULL) {
 		THROW_EXCEPTION(e, JNI_EXCP, "Unable to get callback dispatch method ID");
 		goto bail;
     }
 
     // create global ref to our object
-    browser->browserObject = (*e)->NewGlobalRef(e, t);
+    browser->browserObject = (*e)->NewGlobalRef(e, obj);
     if (browser->browserObject==NULL) {
         THROW_EXCEPTION(e, JNI_EXCP, "Unable to create global ref to browser object");
         goto bail;
@@ -156,8 +169,11 @@ JNIEXPORT jlong JNICALL Java_avahi4j_RecordBrowser_initBrowser(JNIEnv *e,
 
 
 bail:
-	if(browser->browserObject)
-		(*e)->DeleteGlobalRef(e, browser->browserObject);
+	if(browser) {
+		if(browser->browserObject)
+			(*e)->DeleteGlobalRef(e, browser->browserObject);
+		event_filter_free(&browser->filter);
+	}
 
 	XFREE(browser);
 
@@ -167,20 +183,27 @@ bail:
 }
 
 
-JNIEXPORT jlong JNICALL Java_avahi4j_RecordBrowser_releaseBrowser(JNIEnv *e,
+JNIEXPORT jint JNICALL Java_avahi4j_JNIBackend_release_1record_1browser(JNIEnv *e,
 		jobject t, jlong ptr){
 
 	dprint("[LOG] Entering %s\n", __PRETTY_FUNCTION__);
 	struct avahi4j_record_browser *browser = (struct avahi4j_record_browser *) (uintptr_t) ptr;
+	struct avahi4j_client *client = browser->client;
 	int result;
 
+	// a callback for this object may be running on the poll thread
+	AVAHI_LOCK(client);
+
 	result = avahi_record_browser_free(browser->browser);
 
 	if(browser->browserObject)
 		(*e)->DeleteGlobalRef(e, browser->browserObject);
 
+	event_filter_free(&browser->filter);
 	XFREE(browser);
 
+	AVAHI_UNLOCK(client);
+
 	CHECK_N_RET(avahi_record_browser_free, result);
 }
 
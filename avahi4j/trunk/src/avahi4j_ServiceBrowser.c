@@ -20,38 +20,87 @@
 
 #include "common.h"
 
+/*
+ * This function copies the name, type and domain of an event to the names
+ * buffer of the Java peer (growing it if needed), one after the other, so that
+ * no String is created for them. The length of a NULL string is -1. It returns
+ * 0, or -1 if an exception is pending.
+ */
+static int copy_names(JNIEnv *e, struct avahi4j_service_browser *browser,
+		const char *name, const char *type, const char *domain, jint *jname_len,
+		jint *jtype_len, jint *jdomain_len) {
+	const char *strings[3] = {name, type, domain};
+	jint *lengths[3] = {jname_len, jtype_len, jdomain_len};
+	jbyteArray jnames;
+	jint len = 0, offset = 0;
+	int i;
+
+	for(i=0; i<3; i++) {
+		*lengths[i] = strings[i]==NULL ? -1 : (jint) strlen(strings[i]);
+		if (strings[i]!=NULL)
+			len += *lengths[i];
+	}
+
+	jnames = (*e)->GetObjectField(e, browser->browserObject, browser->namesField);
+	if (jnames==NULL || (*e)->GetArrayLength(e, jnames) < len) {
+		jnames = (*e)->CallObjectMethod(e, browser->browserObject,
+				browser->growNames, len);
+		if (jnames==NULL)
+			return -1;
+	}
+
+	for(i=0; i<3; i++) {
+		if (strings[i]==NULL)
+			continue;
+		(*e)->SetByteArrayRegion(e, jnames, offset, *lengths[i],
+				(const jbyte *) strings[i]);
+		offset += *lengths[i];
+	}
+	return 0;
+}
+
 static void browser_callback(AvahiServiceBrowser *b, AvahiIfIndex if_idx,
 		AvahiProtocol protocol, AvahiBrowserEvent event, const char *name,
 		const char *type, const char *domain, AvahiLookupResultFlags flags,
 		void *userdata) {
+	// timestamp this event before doing anything else
+	jlong jtimestamp = monotonic_ns();
 	dprint("[LOG] Entering %s\n", __PRETTY_FUNCTION__);
 
 	struct avahi4j_service_browser *browser = (struct avahi4j_service_browser *) userdata;
+	jlong jwakeup = POLL_WAKEUP_NS(browser->client);
 	JNIEnv *e;
-	jstring jname, jtype, jdomain;
+	jint jname_len, jtype_len, jdomain_len;
 	jint jproto, jif_idx, jflags, jevent;
 	JavaVM *vm;
 
-	// save a ref to the VM so it can be called after the callback dispatch method
-	// returns, since  the avahi4j_record_browser structure may have been freed
+	// drop unwanted events before attaching to the JVM
+	GET_JAVA_BROWSER_EVT(event, jevent);
+	if(!event_filter_accept(&browser->filter, jevent,
+			event==AVAHI_BROWSER_FAILURE ? NULL : name, -1))
+		return;
+
+	// save a ref to the VM
 	vm = browser->jvm;
 
-	// attach the jvm to this thread
-	(*vm)->AttachCurrentThread(vm, (void **)&e, NULL);
+	// attach the jvm to this thread (once, see enter_jvm())
+	if ((e = enter_jvm(vm))==NULL)
+		return;
 
 	// check event
-	GET_JAVA_BROWSER_EVT(event, jevent);
 	if(event==AVAHI_BROWSER_FAILURE){
-		jname=NULL;
-		jtype=NULL;
-		jdomain=NULL;
+		jname_len=-1;
+		jtype_len=-1;
+		jdomain_len=-1;
 		jproto=0;
 		jif_idx=0;
 		jflags=0;
 	} else {
-		jname = (*e)->NewStringUTF(e, name);
-		jtype = (*e)->NewStringUTF(e, type);
-		jdomain = (*e)->NewStringUTF(e, domain);
+		if (copy_names(e, browser, name, type, domain, &jname_len, &jtype_len,
+				&jdomain_len)!=0) {
+			leave_jvm(e);
+			return;
+		}
 		GET_JAVA_PROTO(protocol, jproto);
 		GET_JAVA_IF_IDX(if_idx,jif_idx);
 		GET_JAVA_LOOKUP_RES_FLAG(flags, jflags);
@@ -60,16 +109,16 @@ static void browser_callback(AvahiServiceBrowser *b, AvahiIfIndex if_idx,
 
 	// call the callback dispatch method
 	(*e)->CallVoidMethod(e, browser->browserObject,
-			browser->browserCallbackDispatch, jif_idx, jproto, jevent, jname,
-			jtype, jdomain, jflags);
+			browser->browserCallbackDispatch, jif_idx, jproto, jevent, jname_len,
+			jtype_len, jdomain_len, jflags, jwakeup, jtimestamp);
 
-	// detach the jvm
-	(*vm)->DetachCurrentThread(vm);
+	// free the local references created by this callback
+	leave_jvm(e);
 }
 
-JNIEXPORT jlong JNICALL Java_avahi4j_ServiceBrowser_initBrowser(JNIEnv *e, jobject t,
-		jlong ptr, jint jif_idx, jint jproto, jstring jtype, jstring jdomain,
-		jint jflags) {
+JNIEXPORT jlong JNICALL Java_avahi4j_JNIBackend_init_1service_1browser(JNIEnv *e, jobject t,
+		jobject obj, jlong ptr, jint jif_idx, jint jproto, jstring jtype, jstring jdomain,
+		jint jflags, jint jmask, jstring jprefix) {
 
 	dprint("[LOG] Entering %s\n", __PRETTY_FUNCTION__);
 
@@ -97,8 +146,19 @@ JNIEXPORT jlong JNICALL Java_avahi4j_ServiceBrowser_initBrowser(JNIEnv *e, jobje
 		return 0;
 	}
 
+	browser->client = client;
+
+	// copy the event filter
+	if (event_filter_init(e, &browser->filter, jmask, jprefix, -1)!=0) {
+		XFREE(browser);
+		PUT_UTF_STR(type, jtype,e);
+		PUT_UTF_STR(domain, jdomain, e);
+		return 0;
+	}
+
 	// save JavaVM ref
 	if ((*e)->GetJavaVM(e, &browser->jvm)!=0){
+		event_filter_free(&browser->filter);
 		XFREE(browser);
 		PUT_UTF_STR(type, jtype,e);
 		PUT_UTF_STR(domain, jdomain, e);
@@ -107,10 +167,14 @@ JNIEXPORT jlong JNICALL Java_avahi4j_ServiceBrowser_initBrowser(JNIEnv *e, jobje
 	}
 
 	// cache methodID to java group callback method
-	ourClass = (*e)->GetObjectClass(e, t);
-	browser->browserCallbackDispatch = (*e)->GetMethodID(e, ourClass, "browserCallback",
-			"(IIILjava/lang/String;Ljava/lang/String;Ljava/lang/String;I)V");
-    if (browser->browserCallbackDispatch == NULL) {
+	ourClass = (*e)->GetObjectClass(e, obj);
+	browser->browserCallbackDispatch = (*e)->GetMethodID(e, ourClass, "browserEvent",
+			"(IIIIIIIJJ)V");
+	browser->namesField = (*e)->GetFieldID(e, ourClass, "names", "[B");
+	browser->growNames = (*e)->GetMethodID(e, ourClass, "growNames", "(I)[B");
+    if (browser->browserCallbackDispatch == NULL || browser->namesField == NULL
+    		|| browser->growNames == NULL) {
+		event_filter_free(&browser->filter);
 		XFREE(browser);
 		PUT_UTF_STR(type, jtype,e);
 		PUT_UTF_STR(domain, jdomain, e);
@@ -119,8 +183,9 @@ JNIEXPORT jlong JNICALL Java_avahi4j_ServiceBrowser_initBrowser(JNIEnv *e, jobje
     }
 
     // create global ref to our object
-    browser->browserObject = (*e)->NewGlobalRef(e, t);
+    browser->browserObject = (*e)->NewGlobalRef(e, obj);
     if (browser->browserObject==NULL) {
+    	event_filter_free(&browser->filter);
     	XFREE(browser);
     	PUT_UTF_STR(type, jtype,e);
     	PUT_UTF_STR(domain, jdomain, e);
@@ -134,6 +199,7 @@ JNIEXPORT jlong JNICALL Java_avahi4j_ServiceBrowser_initBrowser(JNIEnv *e, jobje
 			proto,type, domain, flags, browser_callback, browser))) {
 		AVAHI_UNLOCK(client);
 		(*e)->DeleteGlobalRef(e, browser->browserObject);
+		event_filter_free(&browser->filter);
 		XFREE(browser);
 		PUT_UTF_STR(type, jtype,e);
 		PUT_UTF_STR(domain, jdomain, e);
@@ -148,20 +214,27 @@ JNIEXPORT jlong JNICALL Java_avahi4j_ServiceBrowser_initBrowser(JNIEnv *e, jobje
 	return (uintptr_t) browser;
 }
 
-JNIEXPORT jlong JNICALL Java_avahi4j_ServiceBrowser_release(JNIEnv *e, jobject t, jlong ptr) {
+JNIEXPORT jint JNICALL Java_avahi4j_JNIBackend_release_1service_1browser(JNIEnv *e, jobject t, jlong ptr) {
 	dprint("[LOG] Entering %s\n", __PRETTY_FUNCTION__);
 
 	struct avahi4j_service_browser *browser = (struct avahi4j_service_browser *) (uintptr_t) ptr;
+	struct avahi4j_client *client = browser->client;
 	int result;
 
+	// a callback for this object may be running on the poll thread
+	AVAHI_LOCK(client);
+
 	result = avahi_service_browser_free(browser->browser);
 
 	// delete global ref
 	(*e)->DeleteGlobalRef(e, browser->browserObject);
 
 	// free browser struct
+	event_filter_free(&browser->filter);
 	XFREE(browser);
 
+	AVAHI_UNLOCK(client);
+
 	CHECK_N_RET(avahi_service_browser_free, result);
 }
 
@@ -29,23 +29,26 @@ static void resolver_callback(AvahiServiceResolver *r, AvahiIfIndex interface,
 		const AvahiAddress *address, uint16_t port, AvahiStringList *txt,
 		AvahiLookupResultFlags flags, void *userdata)  {
 
+	// timestamp this event before doing anything else
+	jlong jtimestamp = monotonic_ns();
 	dprint("[LOG] Entering %s\n", __PRETTY_FUNCTION__);
 
 	struct avahi4j_service_resolver *resolver = (struct avahi4j_service_resolver *) userdata;
-	char address_str[AVAHI_ADDRESS_STR_MAX];
-	jstring jname=NULL, jtype=NULL, jdomain=NULL, jhost=NULL, jaddress=NULL, jcurrent_txt=NULL;
+	jlong jwakeup = POLL_WAKEUP_NS(resolver->client);
+	jstring jname=NULL, jtype=NULL, jdomain=NULL, jhost=NULL, jcurrent_txt=NULL;
+	jbyteArray jaddress=NULL;
 	jobjectArray txt_list=NULL;
-	jint jif_idx=0, jproto=0, jevent=0, jflags=0, jaddress_proto=0;
+	jint jif_idx=0, jproto=0, jevent=0, jflags=0;
 	int index, num_txt_records=avahi_string_list_length(txt);
 	JNIEnv *e;
 	JavaVM *vm;
 
-	// save a ref to the VM so it can be called after the callback dispatch method
-	// returns, since  the avahi4j_record_browser structure may have been freed
+	// save a ref to the VM
 	vm = resolver->jvm;
 
-	// attach the jvm to this thread
-	(*vm)->AttachCurrentThread(vm, (void **)&e, NULL);
+	// attach the jvm to this thread (once, see enter_jvm())
+	if ((e = enter_jvm(vm))==NULL)
+		return;
 
 	// check event
 	GET_JAVA_RESOLVER_EVT(event, jevent);
@@ -59,16 +62,13 @@ static void resolver_callback(AvahiServiceResolver *r, AvahiIfIndex interface,
 		txt_list=NULL;
 		jif_idx=0;
 		jproto=0;
-		jevent=0;
 		jflags=0;
-		jaddress_proto=0;
 		num_txt_records=0;
 	} else {
-		// translate if, protocol, event and address type
+		// translate if, protocol and event
 		GET_JAVA_IF_IDX(interface, jif_idx);
 		GET_JAVA_PROTO(protocol, jproto);
 		GET_JAVA_RESOLVER_EVT(event, jevent);
-		GET_JAVA_PROTO(address->proto, jaddress_proto);
 
 		// translate lookup result flags
 		GET_JAVA_LOOKUP_RES_FLAG(flags, jflags);
@@ -78,8 +78,9 @@ static void resolver_callback(AvahiServiceResolver *r, AvahiIfIndex interface,
 		GET_JSTRING_JUMP(type,jtype,e, bail);
 		GET_JSTRING_JUMP(domain,jdomain,e, bail);
 		GET_JSTRING_JUMP(host_name,jhost,e, bail);
-		avahi_address_snprint(address_str, AVAHI_ADDRESS_STR_MAX, address);
-		GET_JSTRING_JUMP(address_str, jaddress,e, bail);
+
+		// pass the raw address, Java formats it only if needed
+		jaddress = avahi_address_to_jbytes(e, address);
 
 		// build txt record array
 		txt_list = (*e)->NewObjectArray(e, num_txt_records, resolver->stringClass, NULL);
@@ -108,16 +109,16 @@ static void resolver_callback(AvahiServiceResolver *r, AvahiIfIndex interface,
 	// call the callback dispatch method
 	(*e)->CallVoidMethod(e, resolver->resolverObject,
 			resolver->resolverCallbackDispatch, jif_idx, jproto, jevent,
-			jname, jtype, jdomain, jhost, jaddress, jaddress_proto, port,
-			txt_list, jflags);
+			jname, jtype, jdomain, jhost, jaddress, port,
+			txt_list, jflags, jwakeup, jtimestamp);
 
 bail:
-	// detach the jvm
-	(*vm)->DetachCurrentThread(vm);
+	// free the local references created by this callback
+	leave_jvm(e);
 }
 
-JNIEXPORT jlong JNICALL Java_avahi4j_ServiceResolver_init_1resolver(JNIEnv *e,
-		jobject t, jlong ptr, jint jif_idx, jint jproto, jstring jname, jstring jtype,
+JNIEXPORT jlong JNICALL Java_avahi4j_JNIBackend_init_1service_1resolver(JNIEnv *e,
+		jobject t, jobject obj, jlong ptr, jint jif_idx, jint jproto, jstring jname, jstring jtype,
 		jstring jdomain, jint jaddressProtocol, jint jlookupFlags){
 	dprint("[LOG] Entering %s\n", __PRETTY_FUNCTION__);
 
@@ -140,6 +141,8 @@ JNIEXPORT jlong JNICALL Java_avahi4j_ServiceResolver_init_1resolver(JNIEnv *e,
 		goto bail;
 	}
 
+	resolver->client = client;
+
 	// save JavaVM ref
 	if ((*e)->GetJavaVM(e, &resolver->jvm)!=0){
 		THROW_EXCEPTION(e, JNI_EXCP, "Cant get hold of a JavaVM pointer");
@@ -147,17 +150,17 @@ JNIEXPORT jlong JNICALL Java_avahi4j_ServiceResolver_init_1resolver(JNIEnv *e,
 	}
 
 	// cache methodID to java group callback method
-	ourClass = (*e)->GetObjectClass(e, t);
+	ourClass = (*e)->GetObjectClass(e, obj);
 	resolver->resolverCallbackDispatch = (*e)->GetMethodID(e, ourClass,
 			"dispatchCallback",
-			"(IIILjava/lang/String;Ljava/lang/String;Ljava/lang/String;Ljava/lang/String;Ljava/lang/String;II[Ljava/lang/String;I)V");
+			"(IIILjava/lang/String;Ljava/lang/String;Ljava/lang/String;Ljava/lang/String;[BI[Ljava/lang/String;IJJ)V");
     if (resolver->resolverCallbackDispatch == NULL) {
          THROW_EXCEPTION(e, JNI_EXCP, "Unable to get callback dispatch method ID");
          goto bail;
     }
 
     // create global ref to our object
-    resolver->resolverObject = (*e)->NewGlobalRef(e, t);
+    resolver->resolverObject = (*e)->NewGlobalRef(e, obj);
     if (resolver->resolverObject==NULL) {
         THROW_EXCEPTION(e, JNI_EXCP, "Unable to create global ref to resolver object");
         goto bail;
@@ -212,12 +215,16 @@ bail:
 	return 0;
 }
 
-JNIEXPORT jint JNICALL Java_avahi4j_ServiceResolver_release(JNIEnv *e, jobject t, jlong ptr){
+JNIEXPORT jint JNICALL Java_avahi4j_JNIBackend_release_1service_1resolver(JNIEnv *e, jobject t, jlong ptr){
 	dprint("[LOG] Entering %s\n", __PRETTY_FUNCTION__);
 
 	struct avahi4j_service_resolver *resolver = (struct avahi4j_service_resolver *) (uintptr_t) ptr;
+	struct avahi4j_client *client = resolver->client;
 	int result;
 
+	// a callback for this object may be running on the poll thread
+	AVAHI_LOCK(client);
+
 	// free avahi resolver
 	result = avahi_service_resolver_free(resolver->resolver);
 
@@ -228,5 +235,7 @@ JNIEXPORT jint JNICALL Java_avahi4j_ServiceResolver_release(JNIEnv *e, jobject t
 	// free avahi4j resolver struct
 	XFREE(resolver);
 
+	AVAHI_UNLOCK(client);
+
 	CHECK_N_RET(avahi_service_resolver_free, result);
 }
@@ -0,0 +1,76 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+#include <jni.h>
+#include <stdio.h>
+
+#include "common.h"
+
+#define DRAIN_BATCH		64
+
+JNIEXPORT void JNICALL Java_avahi4j_Trace_set_1level(JNIEnv *e, jclass c, jint level){
+	__atomic_store_n(&avahi4j_trace_level, level, __ATOMIC_RELAXED);
+}
+
+JNIEXPORT jint JNICALL Java_avahi4j_Trace_get_1level(JNIEnv *e, jclass c){
+	return __atomic_load_n(&avahi4j_trace_level, __ATOMIC_RELAXED);
+}
+
+JNIEXPORT jlong JNICALL Java_avahi4j_Trace_get_1dropped(JNIEnv *e, jclass c){
+	return (jlong) avahi4j_trace_dropped();
+}
+
+JNIEXPORT jint JNICALL Java_avahi4j_Trace_drain_1records(JNIEnv *e, jclass c,
+		jlongArray jtimestamps, jintArray jthreads, jintArray jlevels,
+		jobjectArray jmessages){
+
+	struct avahi4j_trace_record records[DRAIN_BATCH];
+	char text[TRACE_MSG_MAX + 64];
+	jlong timestamps[DRAIN_BATCH];
+	jint threads[DRAIN_BATCH], levels[DRAIN_BATCH];
+	jstring jmsg;
+	int i, max, count;
+
+	max = (*e)->GetArrayLength(e, jmessages);
+	if (max>DRAIN_BATCH)
+		max = DRAIN_BATCH;
+
+	count = avahi4j_trace_drain(records, max);
+
+	for(i=0; i<count; i++) {
+		timestamps[i] = records[i].timestamp;
+		threads[i] = records[i].thread_id;
+		levels[i] = records[i].level;
+
+		snprintf(text, sizeof(text), "[%s:%d] %s", records[i].file,
+				records[i].line, records[i].msg);
+		jmsg = (*e)->NewStringUTF(e, text);
+		if (jmsg==NULL) {
+			// OOM, the remaining records are lost
+			count = i;
+			break;
+		}
+		(*e)->SetObjectArrayElement(e, jmessages, i, jmsg);
+		(*e)->DeleteLocalRef(e, jmsg);
+	}
+
+	(*e)->SetLongArrayRegion(e, jtimestamps, 0, count, timestamps);
+	(*e)->SetIntArrayRegion(e, jthreads, 0, count, threads);
+	(*e)->SetIntArrayRegion(e, jlevels, 0, count, levels);
+
+	return count;
+}
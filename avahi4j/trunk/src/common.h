@@ -28,11 +28,14 @@
 #include <avahi-common/error.h>
 #include <avahi-common/simple-watch.h>
 #include <string.h>
+#include <stdint.h>
+#include <time.h>
 
 // use fixed local copy of thread-watch since Avahi's provided one has a bug
 // that was fixed only since 0.6.24...
 #include "thread-watch.h"
 #include "jni_helpers.h"
+#include "trace.h"
 
 #define CLEAR(x) do {memset(&x, 0x0, sizeof(x));}while(0)
 #define info(format, ...) do {\
@@ -41,39 +44,25 @@
 	} while(0)
 
 
-#ifdef DEBUG
-#define dprint(format, ...) do {\
-		fprintf (stderr, "[%s:%d] " format, __FILE__, __LINE__, ##__VA_ARGS__); fflush(stderr); } while(0)
+// debug statements are trace records at the TRACE_DEBUG level. They are
+// written to the trace ring buffer (and also to stderr in DEBUG builds)
+#define dprint(format, ...) TRACE(TRACE_DEBUG, format, ##__VA_ARGS__)
 
 #define XMALLOC(var, type, size)	\
 		do { \
 			var = (type) malloc((size)); \
-			if (!var) {dprint("[MEMALLOC]: Cant allocate %lu bytes.\n", (long unsigned int) (size));} \
+			if (!var) {fprintf(stderr,"[%s:%d %s] MEMALLOC: OUT OF MEMORY !!! Cant allocate %lu bytes.\n", __FILE__, __LINE__, __PRETTY_FUNCTION__, (long unsigned int) (size)); fflush(stderr);\
+				TRACE(TRACE_ERROR, "[MEMALLOC]: Cant allocate %lu bytes.\n", (long unsigned int) (size));} \
 			else { CLEAR(*var); \
-				dprint("[MEMALLOC]: allocated %lu bytes of type %s for var %s (%p).\n", (long unsigned int)size, #type, #var, (var));}\
+				TRACE(TRACE_VERBOSE, "[MEMALLOC]: allocated %lu bytes of type %s for var %s (%p).\n", (long unsigned int)(size), #type, #var, (var));}\
 		} while (0)
 
 #define XFREE(var)					\
-		do { dprint("[MEMALLOC]: freeing memory for var %s (%p).\n", #var, var);\
+		do { TRACE(TRACE_VERBOSE, "[MEMALLOC]: freeing memory for var %s (%p).\n", #var, var);\
 			if (var) { free(var); } \
-			else { dprint("[MEMALLOC]: Trying to free a NULL pointer.\n");}\
+			else { TRACE(TRACE_VERBOSE, "[MEMALLOC]: Trying to free a NULL pointer.\n");}\
 		} while (0)
 
-#else
-#define dprint(source, ...)
-
-#define XMALLOC(var, type, size)	\
-		do { \
-			var = (type) malloc(size); \
-			if (!var) {fprintf(stderr,"[%s:%d %s] MEMALLOC: OUT OF MEMORY !!! Cant allocate %lu bytes.\n", __FILE__, __LINE__, __PRETTY_FUNCTION__, (long unsigned int) size); fflush(stderr);} \
-			else { CLEAR(*var);}\
-		} while (0)
-
-#define XFREE(var)					\
-		do { if (var) { free(var); } } while (0)
-
-#endif
-
 #define AVAHI4J_PACKAGE			"avahi4j"
 #define EXCEPTION_PACKAGE		AVAHI4J_PACKAGE "/exceptions"
 #define GENERIC_EXCP			EXCEPTION_PACKAGE "/Avahi4JException"
@@ -91,6 +80,60 @@
 		} while(0)
 
 
+/*
+ * Latency measurement helpers. Timestamps are taken from CLOCK_MONOTONIC,
+ * the clock System.nanoTime() uses on Linux, so they can be compared with
+ * timestamps taken on the Java side.
+ */
+#define LATENCY_BUCKETS			64
+
+struct avahi4j_histogram {
+	uint64_t	buckets[LATENCY_BUCKETS];
+};
+
+static inline int64_t monotonic_ns(void) {
+	struct timespec ts;
+	clock_gettime(CLOCK_MONOTONIC, &ts);
+	return ((int64_t) ts.tv_sec) * 1000000000LL + ts.tv_nsec;
+}
+
+// bucket i counts values in [2^i, 2^(i+1)) ns, bucket 0 also counts 0
+#define HISTOGRAM_RECORD(histogram, ns) do{\
+		int64_t __v = (ns);\
+		if(__v<0) __v=0;\
+		(histogram).buckets[63 - __builtin_clzll((uint64_t) __v | 1)]++;\
+	}while(0)
+
+// the time the poll loop last woke up, or 0 if we are not called from the
+// poll loop thread (callbacks can be called synchronously from avahi_*_new())
+#define POLL_WAKEUP_NS(client) \
+	((client->pollLoop->thread_running && \
+		pthread_equal(pthread_self(), client->pollLoop->thread_id)) ? \
+		client->pollLoop->wakeup_ns : 0)
+
+// defined in avahi4j_Address.c
+jbyteArray avahi_address_to_jbytes(JNIEnv *e, const AvahiAddress *address);
+
+// defined in avahi4j_Client.c
+JNIEnv *enter_jvm(JavaVM *vm);
+void leave_jvm(JNIEnv *e);
+
+/*
+ * browser event filter, see avahi4j_EventFilter.c
+ */
+struct avahi4j_event_filter {
+	int		event_mask;		// bit n set: deliver Java BrowserEvent n
+	char	*name_prefix;	// NULL: any name
+	size_t	name_prefix_len;
+	int		record_type;	// -1: any record type
+};
+
+int event_filter_init(JNIEnv *e, struct avahi4j_event_filter *filter,
+		jint jmask, jstring jprefix, jint jtype);
+void event_filter_free(struct avahi4j_event_filter *filter);
+int event_filter_accept(const struct avahi4j_event_filter *filter, jint jevent,
+		const char *name, int type);
+
 #define CHECK_N_RET(func, result) \
 	dprint(#func " returned %d %s\n", result, (result<0)?avahi_strerror(result):"");\
 	return result;
@@ -104,10 +147,14 @@ struct avahi4j_client {
 	JavaVM 				*jvm;
 	jmethodID			clientCallbackDispatch;
 	jobject				clientObject;
+	int64_t				lock_acquired_ns;
+	struct avahi4j_histogram	lock_wait;
+	struct avahi4j_histogram	lock_hold;
 };
 
 struct avahi4j_entry_group {
 	AvahiEntryGroup		*group;
+	struct avahi4j_client	*client;
 	JavaVM 				*jvm;
 	jmethodID			groupCallbackDispatch;
 	jobject				groupObject;
@@ -115,6 +162,26 @@ struct avahi4j_entry_group {
 
 struct avahi4j_service_browser {
 	AvahiServiceBrowser	*browser;
+	struct avahi4j_client	*client;
+	JavaVM 				*jvm;
+	jmethodID			browserCallbackDispatch;
+	jfieldID			namesField;
+	jmethodID			growNames;
+	jobject				browserObject;
+	struct avahi4j_event_filter	filter;
+};
+
+struct avahi4j_service_type_browser {
+	AvahiServiceTypeBrowser	*browser;
+	struct avahi4j_client	*client;
+	JavaVM 				*jvm;
+	jmethodID			browserCallbackDispatch;
+	jobject				browserObject;
+};
+
+struct avahi4j_domain_browser {
+	AvahiDomainBrowser	*browser;
+	struct avahi4j_client	*client;
 	JavaVM 				*jvm;
 	jmethodID			browserCallbackDispatch;
 	jobject				browserObject;
@@ -122,17 +189,36 @@ struct avahi4j_service_browser {
 
 struct avahi4j_service_resolver {
 	AvahiServiceResolver 	*resolver;
+	struct avahi4j_client	*client;
 	JavaVM 					*jvm;
 	jmethodID				resolverCallbackDispatch;
 	jobject					resolverObject;
 	jclass					stringClass;
 };
 
+struct avahi4j_host_name_resolver {
+	AvahiHostNameResolver 	*resolver;
+	struct avahi4j_client	*client;
+	JavaVM 					*jvm;
+	jmethodID				resolverCallbackDispatch;
+	jobject					resolverObject;
+};
+
+struct avahi4j_address_resolver {
+	AvahiAddressResolver 	*resolver;
+	struct avahi4j_client	*client;
+	JavaVM 					*jvm;
+	jmethodID				resolverCallbackDispatch;
+	jobject					resolverObject;
+};
+
 struct avahi4j_record_browser {
 	AvahiRecordBrowser	 	*browser;
+	struct avahi4j_client	*client;
 	JavaVM 					*jvm;
 	jmethodID				browserCallbackDispatch;
 	jobject					browserObject;
+	struct avahi4j_event_filter	filter;
 };
 
 struct AvahiThreadedPoll {
@@ -141,6 +227,7 @@ struct AvahiThreadedPoll {
     pthread_mutex_t mutex;
     int thread_running;
     int retval;
+    int64_t wakeup_ns;
 };
 
 #endif /* COMMON_H_ */
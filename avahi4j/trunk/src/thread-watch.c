@@ -32,6 +32,8 @@
 #include <stdio.h>
 #include <pthread.h>
 #include <signal.h>
+#include <stdint.h>
+#include <time.h>
 
 #include "llist.h"
 #include "malloc.h"
@@ -49,10 +51,13 @@ struct AvahiThreadedPoll {
     pthread_mutex_t mutex;
     int thread_running;
     int retval;
+    int64_t wakeup_ns;
 };
 
 static int poll_func(struct pollfd *ufds, unsigned int nfds, int timeout, void *userdata) {
-    pthread_mutex_t *mutex = userdata;
+    AvahiThreadedPoll *p = userdata;
+    pthread_mutex_t *mutex = &p->mutex;
+    struct timespec ts;
     int r;
 
     /* Before entering poll() we unlock the mutex, so that
@@ -62,6 +67,11 @@ static int poll_func(struct pollfd *ufds, unsigned int nfds, int timeout, void *
     r = poll(ufds, nfds, timeout);
     pthread_mutex_lock(mutex);
 
+    /* Record when we woke up so callbacks can measure how long events
+     * waited in the loop before being dispatched. */
+    clock_gettime(CLOCK_MONOTONIC, &ts);
+    p->wakeup_ns = ((int64_t) ts.tv_sec) * 1000000000LL + ts.tv_nsec;
+
     return r;
 }
 
@@ -91,9 +101,10 @@ AvahiThreadedPoll *avahi_threaded_poll_new(void) {
 
     pthread_mutex_init(&p->mutex, NULL);
 
-    avahi_simple_poll_set_func(p->simple_poll, poll_func, &p->mutex);
+    avahi_simple_poll_set_func(p->simple_poll, poll_func, p);
 
     p->thread_running = 0;
+    p->wakeup_ns = 0;
 
     return p;
 
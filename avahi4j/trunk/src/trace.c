@@ -0,0 +1,121 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+#include <stdarg.h>
+#include <stdio.h>
+#include <string.h>
+#include <time.h>
+#include <unistd.h>
+#include <sys/syscall.h>
+
+#include "trace.h"
+
+struct trace_slot {
+	// index+1 of the record in this slot, 0 while it is being written
+	uint64_t						seq;
+	struct avahi4j_trace_record		record;
+};
+
+#ifdef DEBUG
+int avahi4j_trace_level = TRACE_DEBUG;
+#else
+int avahi4j_trace_level = TRACE_OFF;
+#endif
+
+static struct trace_slot ring[TRACE_RING_SIZE];
+// index of the next record to be written (shared by all producers)
+static uint64_t head = 0;
+// index of the next record to be drained (only used by the consumer)
+static uint64_t tail = 0;
+static uint64_t dropped = 0;
+
+static __thread int32_t cached_tid = 0;
+
+void avahi4j_trace(int level, const char *file, int line, const char *format, ...){
+	uint64_t idx = __atomic_fetch_add(&head, 1, __ATOMIC_RELAXED);
+	struct trace_slot *slot = &ring[idx & (TRACE_RING_SIZE-1)];
+	struct timespec ts;
+	va_list ap;
+
+	if (cached_tid==0)
+		cached_tid = (int32_t) syscall(SYS_gettid);
+
+	// mark the slot as being written
+	__atomic_store_n(&slot->seq, 0, __ATOMIC_RELAXED);
+	__atomic_thread_fence(__ATOMIC_RELEASE);
+
+	clock_gettime(CLOCK_MONOTONIC, &ts);
+	slot->record.timestamp = ((int64_t) ts.tv_sec) * 1000000000LL + ts.tv_nsec;
+	slot->record.thread_id = cached_tid;
+	slot->record.level = level;
+	slot->record.file = file;
+	slot->record.line = line;
+	va_start(ap, format);
+	vsnprintf(slot->record.msg, TRACE_MSG_MAX, format, ap);
+	va_end(ap);
+
+	// publish the record
+	__atomic_store_n(&slot->seq, idx+1, __ATOMIC_RELEASE);
+
+#ifdef DEBUG
+	fprintf(stderr, "[%s:%d] %s", file, line, slot->record.msg);
+	fflush(stderr);
+#endif
+}
+
+int avahi4j_trace_drain(struct avahi4j_trace_record *out, int max){
+	uint64_t end = __atomic_load_n(&head, __ATOMIC_ACQUIRE);
+	uint64_t seq;
+	struct trace_slot *slot;
+	int count = 0;
+
+	// skip records which have already been overwritten
+	if (end - tail > TRACE_RING_SIZE) {
+		dropped += end - TRACE_RING_SIZE - tail;
+		tail = end - TRACE_RING_SIZE;
+	}
+
+	while(tail<end && count<max) {
+		slot = &ring[tail & (TRACE_RING_SIZE-1)];
+		seq = __atomic_load_n(&slot->seq, __ATOMIC_ACQUIRE);
+
+		// still being written, pick it up next time
+		if (seq==0)
+			break;
+
+		if (seq==tail+1) {
+			memcpy(&out[count], &slot->record, sizeof(struct avahi4j_trace_record));
+			__atomic_thread_fence(__ATOMIC_ACQUIRE);
+
+			// make sure the record was not overwritten while we copied it
+			if (__atomic_load_n(&slot->seq, __ATOMIC_RELAXED)==seq) {
+				out[count].msg[TRACE_MSG_MAX-1] = '\0';
+				count++;
+			} else
+				dropped++;
+		} else
+			dropped++;
+
+		tail++;
+	}
+
+	return count;
+}
+
+uint64_t avahi4j_trace_dropped(void){
+	return dropped;
+}
@@ -0,0 +1,73 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+
+
+#ifndef TRACE_H_
+#define TRACE_H_
+
+#include <stdint.h>
+
+/*
+ * Runtime-selectable tracing. Trace records are written to a fixed-size,
+ * lock-free in-memory ring buffer which can be drained from Java (see
+ * avahi4j.Trace). When tracing is disabled, a trace point costs a single
+ * load and branch. When the ring buffer is full, the oldest records are
+ * overwritten and counted as dropped.
+ */
+
+// trace levels, must match the avahi4j.Trace.Level enum
+#define TRACE_OFF				0
+#define TRACE_ERROR				1
+#define TRACE_INFO				2
+#define TRACE_DEBUG				3
+#define TRACE_VERBOSE			4
+
+// number of records in the ring buffer (must be a power of 2)
+#define TRACE_RING_SIZE			2048
+// maximum length of a trace message, including the trailing \0
+#define TRACE_MSG_MAX			128
+
+struct avahi4j_trace_record {
+	int64_t		timestamp;
+	int32_t		thread_id;
+	int32_t		level;
+	const char	*file;
+	int32_t		line;
+	char		msg[TRACE_MSG_MAX];
+};
+
+extern int avahi4j_trace_level;
+
+void avahi4j_trace(int level, const char *file, int line, const char *format, ...)
+		__attribute__ ((format (printf, 4, 5)));
+
+// copy at most max pending records to out, returns the number of records
+int avahi4j_trace_drain(struct avahi4j_trace_record *out, int max);
+
+// returns the total number of records overwritten before being drained
+uint64_t avahi4j_trace_dropped(void);
+
+#define TRACE_ENABLED(level) \
+	__builtin_expect(__atomic_load_n(&avahi4j_trace_level, __ATOMIC_RELAXED)>=(level), 0)
+
+#define TRACE(level, format, ...) do {\
+		if (TRACE_ENABLED(level))\
+			avahi4j_trace(level, __FILE__, __LINE__, format, ##__VA_ARGS__);\
+	} while(0)
+
+#endif /* TRACE_H_ */
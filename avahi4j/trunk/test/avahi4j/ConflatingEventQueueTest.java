@@ -0,0 +1,222 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import avahi4j.Avahi4JConstants.BrowserEvent;
+import avahi4j.Avahi4JConstants.Protocol;
+import avahi4j.ServiceResolver.ServiceResolverEvent;
+
+/**
+ * This class tests the conflation done by {@link ConflatingEventQueue}.
+ * @author gilles
+ *
+ */
+public class ConflatingEventQueueTest {
+	
+	/**
+	 * This class records the events drained from the queue, as strings
+	 */
+	private static final class Recorder implements IServiceBrowserCallback,
+			IServiceResolverCallback {
+		final List<String> events = new ArrayList<String>();
+		
+		@Override
+		public void serviceCallback(int interfaceNum, Protocol proto,
+				BrowserEvent browserEvent, String name, String type, 
+				String domain, int lookupResultFlag) {
+			events.add(browserEvent + (name==null ? "" : " " + name));
+		}
+		
+		@Override
+		public void resolverCallback(ServiceResolver resolver, int interfaceNum,
+				Protocol proto, ServiceResolverEvent resolverEvent, String name,
+				String type, String domain, String hostname, Address address,
+				int port, String[] txtRecords, int lookupResultFlag) {
+			events.add(resolverEvent + " " + name + ":" + port);
+		}
+	}
+	
+	private ConflatingEventQueue queue;
+	private Recorder recorder;
+	
+	@Before
+	public void setUp() {
+		queue = new ConflatingEventQueue();
+		recorder = new Recorder();
+	}
+	
+	private void browse(BrowserEvent event, String name) {
+		browse(1, event, name);
+	}
+	
+	private void browse(int interfaceNum, BrowserEvent event, String name) {
+		queue.serviceCallback(interfaceNum, Protocol.INET, event, name, 
+				name==null ? null : "_test._tcp", name==null ? null : "local", 0);
+	}
+	
+	private void resolved(ServiceResolverEvent event, int port) {
+		queue.resolverCallback(null, 1, Protocol.INET, event, "a", "_test._tcp",
+				"local", "host.local", null, port, null, 0);
+	}
+	
+	private List<String> drain() {
+		recorder.events.clear();
+		queue.drain(recorder, recorder);
+		return recorder.events;
+	}
+	
+	@Test
+	public void newServiceIsDelivered() {
+		browse(BrowserEvent.NEW, "a");
+		assertEquals(1, queue.size());
+		assertEquals("[NEW a]", drain().toString());
+		assertEquals(0, queue.size());
+		assertEquals("[]", drain().toString());
+	}
+	
+	@Test
+	public void appearingAndDisappearingServiceIsDropped() {
+		browse(BrowserEvent.NEW, "a");
+		browse(BrowserEvent.REMOVE, "a");
+		assertEquals(1, queue.size());
+		assertEquals("[]", drain().toString());
+	}
+	
+	@Test
+	public void disappearingAndReappearingServiceIsDropped() {
+		browse(BrowserEvent.NEW, "a");
+		drain();
+		browse(BrowserEvent.REMOVE, "a");
+		browse(BrowserEvent.NEW, "a");
+		assertEquals("[]", drain().toString());
+		
+		// the consumer still knows the service, so its removal is delivered
+		browse(BrowserEvent.REMOVE, "a");
+		assertEquals("[REMOVE a]", drain().toString());
+	}
+	
+	@Test
+	public void flappingServiceProducesAtMostOneEvent() {
+		for(int i=0; i<100; i++) {
+			browse(BrowserEvent.NEW, "a");
+			browse(BrowserEvent.REMOVE, "a");
+		}
+		browse(BrowserEvent.NEW, "a");
+		assertEquals(1, queue.size());
+		assertEquals("[NEW a]", drain().toString());
+		assertEquals(201, queue.getReceivedCount());
+		assertEquals(1, queue.getDeliveredCount());
+	}
+	
+	@Test
+	public void removalOfUnknownServiceIsDropped() {
+		browse(BrowserEvent.REMOVE, "a");
+		assertEquals("[]", drain().toString());
+	}
+	
+	@Test
+	public void servicesAreKeyedByInterface() {
+		browse(1, BrowserEvent.NEW, "a");
+		browse(2, BrowserEvent.NEW, "a");
+		browse(1, BrowserEvent.REMOVE, "a");
+		assertEquals("[NEW a]", drain().toString());
+	}
+	
+	@Test
+	public void eventsAreDeliveredInFirstQueuedOrder() {
+		browse(BrowserEvent.NEW, "a");
+		browse(BrowserEvent.NEW, "b");
+		browse(BrowserEvent.CACHE_EXHAUSTED, null);
+		browse(BrowserEvent.NEW, "c");
+		// a later event for a does not move it
+		browse(BrowserEvent.REMOVE, "a");
+		browse(BrowserEvent.NEW, "a");
+		assertEquals("[NEW a, NEW b, CACHE_EXHAUSTED, NEW c]", drain().toString());
+	}
+	
+	@Test
+	public void otherBrowserEventsAreKeptOnce() {
+		browse(BrowserEvent.CACHE_EXHAUSTED, null);
+		browse(BrowserEvent.NO_MORE, null);
+		browse(BrowserEvent.CACHE_EXHAUSTED, null);
+		browse(BrowserEvent.NO_MORE, null);
+		browse(BrowserEvent.FAILURE, null);
+		assertEquals(3, queue.size());
+		assertEquals("[CACHE_EXHAUSTED, NO_MORE, FAILURE]", drain().toString());
+		
+		// they are delivered again after a drain
+		browse(BrowserEvent.NO_MORE, null);
+		assertEquals("[NO_MORE]", drain().toString());
+	}
+	
+	@Test
+	public void onlyTheLatestResolverEventIsKept() {
+		resolved(ServiceResolverEvent.RESOLVER_FOUND, 80);
+		resolved(ServiceResolverEvent.RESOLVER_FAILURE, 0);
+		resolved(ServiceResolverEvent.RESOLVER_FOUND, 8080);
+		assertEquals(1, queue.size());
+		assertEquals("[RESOLVER_FOUND a:8080]", drain().toString());
+		assertEquals(3, queue.getReceivedCount());
+		assertEquals(1, queue.getDeliveredCount());
+	}
+	
+	@Test
+	public void nullCallbacksSkipEvents() {
+		browse(BrowserEvent.NEW, "a");
+		resolved(ServiceResolverEvent.RESOLVER_FOUND, 80);
+		assertEquals(2, queue.drain(null, null));
+		assertEquals(0, queue.size());
+		
+		// the service is known nevertheless
+		browse(BrowserEvent.NEW, "a");
+		assertEquals("[]", drain().toString());
+	}
+	
+	@Test
+	public void awaitReturnsWhenEventsArePending() throws Exception {
+		assertFalse(queue.await(50));
+		
+		Thread t = new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException e) {
+					return;
+				}
+				browse(BrowserEvent.NEW, "a");
+			}
+		};
+		t.start();
+		assertTrue(queue.await(5000));
+		t.join();
+		
+		// events are still pending
+		assertTrue(queue.await(0));
+	}
+}
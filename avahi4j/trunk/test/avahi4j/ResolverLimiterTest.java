@@ -0,0 +1,132 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * This class tests the additive increase, multiplicative decrease arithmetic 
+ * of {@link ResolverLimiter}, which is done by {@link ResolverLimiter.Limit}.
+ * @author gilles
+ *
+ */
+public class ResolverLimiterTest {
+	
+	/**
+	 * This method starts and completes the given number of resolutions
+	 */
+	private static void succeed(ResolverLimiter.Limit l, int count) {
+		for(int i=0; i<count; i++) {
+			l.start();
+			l.increase();
+		}
+	}
+	
+	@Test
+	public void initialLimit() {
+		assertEquals(4, new ResolverLimiter.Limit(4, 16).get());
+	}
+	
+	@Test
+	public void limitGrowsByAboutOnePerWindow() {
+		ResolverLimiter.Limit l = new ResolverLimiter.Limit(1, 100);
+		// 1 + 1/1
+		succeed(l, 1);
+		assertEquals(2, l.get());
+		// 2 + 1/2 + 1/2.5
+		succeed(l, 2);
+		assertEquals(2, l.get());
+		succeed(l, 1);
+		assertEquals(3, l.get());
+		
+		// a window of n successes adds about one
+		l = new ResolverLimiter.Limit(10, 100);
+		succeed(l, 10);
+		assertEquals(10, l.get());
+		succeed(l, 1);
+		assertEquals(11, l.get());
+	}
+	
+	@Test
+	public void limitNeverExceedsMaximum() {
+		ResolverLimiter.Limit l = new ResolverLimiter.Limit(1, 5);
+		succeed(l, 1000);
+		assertEquals(5, l.get());
+		
+		// nor does a limit starting above it grow
+		l = new ResolverLimiter.Limit(8, 5);
+		succeed(l, 10);
+		assertEquals(8, l.get());
+	}
+	
+	@Test
+	public void limitIsHalvedOnBackPressure() {
+		ResolverLimiter.Limit l = new ResolverLimiter.Limit(16, 32);
+		long s = l.start();
+		assertTrue(l.decrease(s));
+		assertEquals((int) (16*ResolverLimiter.DECREASE_FACTOR), l.get());
+	}
+	
+	@Test
+	public void limitNeverGoesBelowOne() {
+		ResolverLimiter.Limit l = new ResolverLimiter.Limit(3, 32);
+		for(int i=0; i<10; i++)
+			assertTrue(l.decrease(l.start()));
+		assertEquals(1, l.get());
+		
+		// and grows back from there
+		succeed(l, 1);
+		assertEquals(2, l.get());
+	}
+	
+	@Test
+	public void limitIsDecreasedOncePerWindow() {
+		ResolverLimiter.Limit l = new ResolverLimiter.Limit(16, 32);
+		// a burst of 8 resolutions fails because of the same overload
+		long sequences[] = new long[8];
+		for(int i=0; i<sequences.length; i++)
+			sequences[i] = l.start();
+		
+		assertTrue(l.decrease(sequences[3]));
+		assertEquals(8, l.get());
+		for(long s: sequences)
+			assertFalse(l.decrease(s));
+		assertEquals(8, l.get());
+		
+		// a resolution started after the decrease counts again
+		assertTrue(l.decrease(l.start()));
+		assertEquals(4, l.get());
+	}
+	
+	@Test
+	public void successesDoNotEndTheWindow() {
+		ResolverLimiter.Limit l = new ResolverLimiter.Limit(16, 32);
+		long first = l.start();
+		long second = l.start();
+		assertTrue(l.decrease(first));
+		
+		// the limit grows back, but the second resolution is still part of 
+		// the window which was decreased
+		succeed(l, 8);
+		assertFalse(l.decrease(second));
+	}
+}
@@ -0,0 +1,243 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+/**
+ * This class tests {@link TXTPredicate} and the TXT methods of 
+ * {@link RecordData} against hand-built TXT records.
+ * @author gilles
+ *
+ */
+public class TXTPredicateTest {
+	private static final int TYPE_TXT = 16;
+	
+	/**
+	 * This method builds the data of a TXT record holding the given strings
+	 */
+	private static RecordData txt(String... strings) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for(String s: strings) {
+			byte b[] = s.getBytes("UTF-8");
+			out.write(b.length);
+			out.write(b);
+		}
+		// an empty TXT record holds a single empty string
+		if (strings.length==0)
+			out.write(0);
+		return new RecordData().wrap(TYPE_TXT, ByteBuffer.wrap(out.toByteArray()));
+	}
+	
+	private static boolean matches(String expression, String... strings) 
+			throws Exception {
+		return TXTPredicate.compile(expression).matches(txt(strings));
+	}
+	
+	@Test
+	public void emptyRecordHasNoStrings() throws Exception {
+		RecordData d = txt();
+		assertEquals(0, d.getTXTCount());
+		assertEquals(-1, d.findTXT("a"));
+		assertEquals(0, d.getTXTStrings().length);
+	}
+	
+	@Test
+	public void valuesAreLocated() throws Exception {
+		RecordData d = txt("a=1", "flag", "empty=", "b=x=y");
+		assertEquals(4, d.getTXTCount());
+		assertEquals(1, d.getTXTValueLength(0));
+		assertEquals(-1, d.getTXTValueOffset(1));
+		assertEquals(-1, d.getTXTValueLength(1));
+		assertEquals(0, d.getTXTValueLength(2));
+		// the value starts after the first '='
+		assertEquals(3, d.getTXTValueLength(3));
+		assertEquals('x', d.getByte(d.getTXTValueOffset(3)));
+		assertEquals("b=x=y", d.getTXTStrings()[3]);
+	}
+	
+	@Test
+	public void keysIgnoreCase() throws Exception {
+		RecordData d = txt("Role=primary", "VER=3");
+		assertEquals(0, d.findTXT("role"));
+		assertEquals(0, d.findTXT("ROLE"));
+		assertEquals(1, d.findTXT("ver"));
+		assertTrue(matches("ROLE=primary", "role=primary"));
+		assertTrue(matches("ver>=3", "VER=3"));
+		assertTrue(matches("!ROLE", "other=1"));
+	}
+	
+	@Test
+	public void valuesDoNotIgnoreCase() throws Exception {
+		assertFalse(matches("role=primary", "role=Primary"));
+		assertTrue(matches("role!=primary", "role=Primary"));
+	}
+	
+	@Test
+	public void keysAreNotPrefixes() throws Exception {
+		RecordData d = txt("roles=a", "rol=b");
+		assertEquals(-1, d.findTXT("role"));
+		assertFalse(matches("role", "roles=a"));
+		assertTrue(matches("!role", "roles=a"));
+	}
+	
+	@Test
+	public void firstStringWithKeyIsUsed() throws Exception {
+		assertTrue(matches("a=1", "a=1", "a=2"));
+		assertFalse(matches("a=2", "a=1", "a=2"));
+	}
+	
+	@Test
+	public void presenceAndAbsence() throws Exception {
+		assertTrue(matches("flag", "flag"));
+		assertTrue(matches("flag", "flag=1"));
+		assertFalse(matches("flag", "other"));
+		assertTrue(matches("!flag", "other"));
+		assertFalse(matches("!flag", "flag"));
+		assertFalse(matches("flag"));
+	}
+	
+	@Test
+	public void notEqualsOnMissingKey() throws Exception {
+		assertTrue(matches("role!=primary"));
+		assertTrue(matches("role!=primary", "other=primary"));
+		// a key without a value has no value to compare
+		assertTrue(matches("role!=primary", "role"));
+		assertFalse(matches("role!=primary", "role=primary"));
+		assertTrue(matches("role!=primary", "role=backup"));
+		// the other conditions on a value are false for a missing key
+		assertFalse(matches("role=primary", "other=primary"));
+		assertFalse(matches("ver<10", "other=1"));
+		assertFalse(matches("ver>=0", "ver"));
+	}
+	
+	@Test
+	public void emptyValues() throws Exception {
+		assertTrue(matches("a=", "a="));
+		assertFalse(matches("a=", "a"));
+		assertFalse(matches("a>=0", "a="));
+	}
+	
+	@Test
+	public void numericComparisons() throws Exception {
+		assertTrue(matches("ver>=3", "ver=3"));
+		assertFalse(matches("ver>3", "ver=3"));
+		assertTrue(matches("ver<=3", "ver=3"));
+		assertFalse(matches("ver<3", "ver=3"));
+		assertTrue(matches("ver<3", "ver=2"));
+		assertTrue(matches("ver>3", "ver=10"));
+		// leading zeros
+		assertTrue(matches("ver>=3", "ver=007"));
+		// not a number
+		assertFalse(matches("ver>=3", "ver=3a"));
+		assertFalse(matches("ver<=3", "ver= 3"));
+		assertFalse(matches("ver<3", "ver=+1"));
+	}
+	
+	@Test
+	public void negativeNumbers() throws Exception {
+		assertTrue(matches("t<0", "t=-1"));
+		assertTrue(matches("t>-5", "t=-3"));
+		assertFalse(matches("t>-5", "t=-10"));
+		assertTrue(matches("t>=-5", "t=-5"));
+		assertTrue(matches("t<-1", "t=-2"));
+		// a lone or repeated sign is not a number
+		assertFalse(matches("t<0", "t=-"));
+		assertFalse(matches("t<0", "t=--1"));
+		assertFalse(matches("t>-9", "t=-0-"));
+	}
+	
+	@Test
+	public void numbersAreCappedAt18Digits() throws Exception {
+		assertTrue(matches("n>0", "n=999999999999999999"));
+		assertTrue(matches("n<0", "n=-999999999999999999"));
+		assertTrue(matches("n=999999999999999999", "n=999999999999999999"));
+		// 19 digits might overflow: such values compare as not numbers
+		assertFalse(matches("n>0", "n=1000000000000000000"));
+		assertFalse(matches("n<0", "n=1000000000000000000"));
+		assertFalse(matches("n<0", "n=-1000000000000000000"));
+		assertFalse(matches("n>0", "n=9999999999999999999999"));
+		// but leading zeros count too
+		assertFalse(matches("n>0", "n=0000000000000000001"));
+	}
+	
+	@Test
+	public void andTakesPrecedenceOverOr() throws Exception {
+		String e = "mode=a || mode=b && !legacy";
+		assertTrue(matches(e, "mode=a", "legacy"));
+		assertTrue(matches(e, "mode=b"));
+		assertFalse(matches(e, "mode=b", "legacy"));
+		assertFalse(matches(e, "mode=c"));
+		assertTrue(matches("role=primary && ver>=3", "ver=4", "role=primary"));
+		assertFalse(matches("role=primary && ver>=3", "ver=2", "role=primary"));
+	}
+	
+	@Test
+	public void spacesAroundConditionsAreIgnored() throws Exception {
+		assertTrue(matches("  role = primary &&ver >= 3 ", "role=primary", "ver=3"));
+	}
+	
+	@Test
+	public void utf8Values() throws Exception {
+		assertTrue(matches("name=caf\u00e9", "name=caf\u00e9"));
+		assertFalse(matches("name=cafe", "name=caf\u00e9"));
+		assertEquals("name=caf\u00e9", txt("name=caf\u00e9").getTXTStrings()[0]);
+	}
+	
+	@Test
+	public void expressionIsKept() {
+		assertEquals("a && b", TXTPredicate.compile("a && b").toString());
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void emptyExpressionIsRejected() {
+		TXTPredicate.compile("");
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void emptyConditionIsRejected() {
+		TXTPredicate.compile("a && || b");
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void invalidNumberIsRejected() {
+		TXTPredicate.compile("ver>=three");
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void invalidOperatorIsRejected() {
+		TXTPredicate.compile("ver==3");
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void emptyKeyIsRejected() {
+		TXTPredicate.compile("=3");
+	}
+	
+	@Test(expected=NullPointerException.class)
+	public void nullExpressionIsRejected() {
+		TXTPredicate.compile(null);
+	}
+}
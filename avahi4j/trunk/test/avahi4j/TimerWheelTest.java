@@ -0,0 +1,183 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * This class tests the {@link TimerWheel}.
+ * @author gilles
+ *
+ */
+public class TimerWheelTest {
+	
+	/**
+	 * A task recording when it ran
+	 */
+	private static final class Task implements Runnable {
+		final CountDownLatch ran = new CountDownLatch(1);
+		volatile long runAt;
+		
+		@Override
+		public void run() {
+			runAt = System.nanoTime();
+			ran.countDown();
+		}
+	}
+	
+	private static long millisSince(long start, long end) {
+		return TimeUnit.NANOSECONDS.toMillis(end - start);
+	}
+	
+	@Test
+	public void taskRunsAfterItsDelay() throws Exception {
+		Task t = new Task();
+		long start = System.nanoTime();
+		TimerWheel.getShared().schedule(t, 200);
+		
+		assertTrue("the task did not run", t.ran.await(5, TimeUnit.SECONDS));
+		// deadlines are rounded up to the next tick, with a millisecond of
+		// rounding when the delay is converted
+		long elapsed = millisSince(start, t.runAt);
+		assertTrue("the task ran after "+elapsed+" ms", elapsed>=199);
+	}
+	
+	@Test
+	public void zeroDelayRunsOnNextTick() throws Exception {
+		Task t = new Task();
+		TimerWheel.getShared().schedule(t, 0);
+		assertTrue("the task did not run", t.ran.await(5, TimeUnit.SECONDS));
+	}
+	
+	@Test
+	public void tasksRunInDeadlineOrder() throws Exception {
+		final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+		final CountDownLatch done = new CountDownLatch(3);
+		TimerWheel wheel = TimerWheel.getShared();
+		int delays[] = {300, 100, 200};
+		for(int i=0; i<delays.length; i++) {
+			final int delay = delays[i];
+			wheel.schedule(new Runnable() {
+				@Override
+				public void run() {
+					order.add(delay);
+					done.countDown();
+				}
+			}, delay);
+		}
+		
+		assertTrue("the tasks did not run", done.await(5, TimeUnit.SECONDS));
+		assertEquals(Integer.valueOf(100), order.get(0));
+		assertEquals(Integer.valueOf(200), order.get(1));
+		assertEquals(Integer.valueOf(300), order.get(2));
+	}
+	
+	@Test
+	public void cancelledTaskDoesNotRun() throws Exception {
+		Task cancelled = new Task();
+		Task other = new Task();
+		TimerWheel wheel = TimerWheel.getShared();
+		TimerWheel.Timeout t = wheel.schedule(cancelled, 100);
+		wheel.schedule(other, 200);
+		
+		assertTrue(t.cancel());
+		// a second cancellation has nothing to cancel
+		assertFalse(t.cancel());
+		
+		assertTrue("the other task did not run", other.ran.await(5, TimeUnit.SECONDS));
+		assertEquals(1, cancelled.ran.getCount());
+	}
+	
+	@Test
+	public void taskCanNotBeCancelledOnceRun() throws Exception {
+		Task task = new Task();
+		TimerWheel.Timeout t = TimerWheel.getShared().schedule(task, 50);
+		assertTrue("the task did not run", task.ran.await(5, TimeUnit.SECONDS));
+		assertFalse(t.cancel());
+	}
+	
+	@Test
+	public void cancellingOneOfASlotKeepsTheOthers() throws Exception {
+		// tasks with the same deadline share a slot
+		TimerWheel wheel = TimerWheel.getShared();
+		Task first = new Task(), middle = new Task(), last = new Task();
+		wheel.schedule(first, 150);
+		TimerWheel.Timeout t = wheel.schedule(middle, 150);
+		wheel.schedule(last, 150);
+		
+		assertTrue(t.cancel());
+		assertTrue("the first task did not run", first.ran.await(5, TimeUnit.SECONDS));
+		assertTrue("the last task did not run", last.ran.await(5, TimeUnit.SECONDS));
+		assertEquals(1, middle.ran.getCount());
+	}
+	
+	@Test
+	public void taskCanScheduleAnother() throws Exception {
+		final Task second = new Task();
+		TimerWheel.getShared().schedule(new Runnable() {
+			@Override
+			public void run() {
+				TimerWheel.getShared().schedule(second, 50);
+			}
+		}, 50);
+		assertTrue("the second task did not run", second.ran.await(5, TimeUnit.SECONDS));
+	}
+	
+	@Test
+	public void failingTaskDoesNotStopTheWheel() throws Exception {
+		Task task = new Task();
+		TimerWheel wheel = TimerWheel.getShared();
+		wheel.schedule(new Runnable() {
+			@Override
+			public void run() {
+				throw new RuntimeException("expected by the test");
+			}
+		}, 50);
+		wheel.schedule(task, 150);
+		assertTrue("the task did not run", task.ran.await(5, TimeUnit.SECONDS));
+	}
+	
+	@Test
+	public void wheelRestartsOnceIdle() throws Exception {
+		Task first = new Task();
+		TimerWheel wheel = TimerWheel.getShared();
+		wheel.schedule(first, 50);
+		assertTrue("the first task did not run", first.ran.await(5, TimeUnit.SECONDS));
+		
+		// let the wheel's thread stop for lack of work
+		Thread.sleep(5*TimerWheel.TICK);
+		
+		Task second = new Task();
+		long start = System.nanoTime();
+		wheel.schedule(second, 100);
+		assertTrue("the second task did not run", second.ran.await(5, TimeUnit.SECONDS));
+		// the wheel caught up with the time it was stopped
+		long elapsed = millisSince(start, second.runAt);
+		assertTrue("the task ran after "+elapsed+" ms", elapsed>=99 && elapsed<2000);
+	}
+}
@@ -0,0 +1,167 @@
+/*
+* Copyright (C) 2009 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package avahi4j.mdns;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.NetworkInterface;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * This class tests an {@link MDNSQuerier} against an {@link MDNSResponder}
+ * over the loopback interface, on a port other than 5353 so that the host's
+ * own responder is not involved.
+ * @author gilles
+ *
+ */
+public class MDNSQuerierTest {
+	private static final int PORT = 15353;
+	private static final String TYPE = "_avahi4j-test._tcp.local";
+	
+	/**
+	 * This class records the results of a query
+	 */
+	private static final class Recorder implements IQueryCallback {
+		final List<DNSRecord> added = Collections.synchronizedList(new ArrayList<DNSRecord>());
+		final List<Boolean> cached = Collections.synchronizedList(new ArrayList<Boolean>());
+		final CountDownLatch addedLatch = new CountDownLatch(1);
+		final CountDownLatch removedLatch = new CountDownLatch(1);
+		final CountDownLatch cacheExhaustedLatch = new CountDownLatch(1);
+		
+		@Override
+		public void recordAdded(DNSRecord record, boolean c) {
+			added.add(record);
+			cached.add(c);
+			addedLatch.countDown();
+		}
+		
+		@Override
+		public void recordRemoved(DNSRecord record) {
+			removedLatch.countDown();
+		}
+		
+		@Override
+		public void cacheExhausted() {
+			cacheExhaustedLatch.countDown();
+		}
+		
+		@Override
+		public void allForNow() {
+		}
+	}
+	
+	private MDNSQuerier publisher, querier;
+	private MDNSResponder responder;
+	
+	private static NetworkInterface loopback() throws Exception {
+		Enumeration<NetworkInterface> e = NetworkInterface.getNetworkInterfaces();
+		while(e!=null && e.hasMoreElements()) {
+			NetworkInterface nic = e.nextElement();
+			if (nic.isLoopback() && nic.isUp())
+				return nic;
+		}
+		return null;
+	}
+	
+	@Before
+	public void setUp() throws Exception {
+		NetworkInterface lo = loopback();
+		Assume.assumeTrue(lo!=null);
+		
+		publisher = new MDNSQuerier(Collections.singletonList(lo), PORT, true, false);
+		publisher.start();
+		responder = new MDNSResponder(publisher, "avahi4j-test");
+		querier = new MDNSQuerier(Collections.singletonList(lo), PORT, true, false);
+		querier.start();
+	}
+	
+	@After
+	public void tearDown() {
+		if (querier!=null)
+			querier.close();
+		if (publisher!=null)
+			publisher.close();
+	}
+	
+	private MDNSResponder.Group publish(String name) {
+		MDNSResponder.Group g = responder.createGroup(null);
+		assertTrue(g.addService(-1, 0, name, "_avahi4j-test._tcp", null, null, 
+				8080, new String[] { "a=1" }));
+		g.commit();
+		return g;
+	}
+	
+	@Test
+	public void publishedServiceIsFound() throws Exception {
+		publish("Test");
+		Recorder r = new Recorder();
+		querier.query(TYPE, DNSRecord.TYPE_PTR, -1, 0, r);
+		
+		assertTrue("no answer received", r.addedLatch.await(10, TimeUnit.SECONDS));
+		assertEquals("Test." + TYPE, r.added.get(0).getTargetName());
+		assertFalse(r.cached.get(0));
+	}
+	
+	@Test
+	public void cachedRecordsAreReportedFirst() throws Exception {
+		publish("Cached");
+		Recorder first = new Recorder();
+		querier.query(TYPE, DNSRecord.TYPE_PTR, -1, 0, first);
+		assertTrue("no answer received", first.addedLatch.await(10, TimeUnit.SECONDS));
+		
+		Recorder second = new Recorder();
+		querier.query(TYPE, DNSRecord.TYPE_PTR, -1, 0, second);
+		assertTrue(second.cacheExhaustedLatch.await(1, TimeUnit.SECONDS));
+		assertEquals(1, second.added.size());
+		assertTrue(second.cached.get(0));
+		assertEquals("Cached." + TYPE, second.added.get(0).getTargetName());
+	}
+	
+	@Test
+	public void withdrawnServiceIsRemoved() throws Exception {
+		MDNSResponder.Group g = publish("Goodbye");
+		Recorder r = new Recorder();
+		querier.query(TYPE, DNSRecord.TYPE_PTR, -1, 0, r);
+		assertTrue("no answer received", r.addedLatch.await(10, TimeUnit.SECONDS));
+		
+		g.release();
+		assertTrue("no goodbye received", r.removedLatch.await(5, TimeUnit.SECONDS));
+	}
+	
+	@Test
+	public void cancelledQueryIsNotReported() throws Exception {
+		Recorder r = new Recorder();
+		MDNSQuerier.Query q = querier.query(TYPE, DNSRecord.TYPE_PTR, -1, 0, r);
+		q.cancel();
+		publish("Cancelled");
+		
+		assertFalse(r.addedLatch.await(3, TimeUnit.SECONDS));
+	}
+}